@@ -50,8 +50,12 @@ import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
+import com.cloud.agent.transport.CommandCodec;
+import com.cloud.agent.transport.CompressionPolicy;
+import com.cloud.agent.transport.GsonCommandCodec;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.SnappyCompressor;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.PropertiesUtil;
@@ -106,6 +110,9 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource              _resource;
     Link                        _link;
     Long                        _id;
+    // negotiated by the startup answer and reset on reconnect, while the other threads send
+    volatile CommandCodec       _codec                = Request.getCodec(GsonCommandCodec.ID);
+    volatile CompressionPolicy  _compression          = CompressionPolicy.LEGACY;
 
     Timer                       _timer                = new Timer("Agent Timer");
 
@@ -234,7 +241,8 @@ public class Agent implements HandlerFactory, IAgentControl {
             try {
                 if (_link != null) {
                     Request req = new Request((_id != null ? _id : -1), -1, cmd, false);
-                    _link.send(req.toBytes());
+                    req.setCodec(_codec);
+                    _link.send(req.toBytes(_compression));
                 }
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to send: " + cmd.toString());
@@ -297,8 +305,13 @@ public class Agent implements HandlerFactory, IAgentControl {
         final Command[] commands = new Command[startup.length];
         for (int i = 0; i < startup.length; i++) {
             setupStartupCommand(startup[i]);
+            startup[i].setCodec(Request.getPreferredCodecId());
+            startup[i].setCompressor(SnappyCompressor.ID);
             commands[i] = startup[i];
         }
+        // json until the server tells us what it supports
+        _codec = Request.getCodec(GsonCommandCodec.ID);
+        _compression = CompressionPolicy.LEGACY;
 
         final Request request = new Request(_id != null ? _id : -1, -1, commands, false, false);
         request.setSequence(getNextSequence());
@@ -422,6 +435,8 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = startup.getPingInterval() * 1000; // change to ms.
+        _codec = Request.getCodec(startup.getCodec());
+        _compression = CompressionPolicy.negotiated(link, CompressionPolicy.getCompressor(startup.getCompressor()));
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -530,7 +545,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
             if (response != null) {
                 try {
-                    link.send(response.toBytes());
+                    link.send(response.toBytes(_compression));
                 } catch (final ClosedChannelException e) {
                     s_logger.warn("Unable to send response: " + response.toString());
                 }
@@ -583,12 +598,13 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setCodec(_codec);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
 
             try {
-                task.getLink().send(request.toBytes());
+                task.getLink().send(request.toBytes(_compression));
                 //if i can send pingcommand out, means the link is ok
                 setLastPingResponseTime();
             } catch (final ClosedChannelException e) {
@@ -612,7 +628,7 @@ public class Agent implements HandlerFactory, IAgentControl {
                     s_logger.debug("Watch Sent: " + response.toString());
                 }
                 try {
-                    task.getLink().send(response.toBytes());
+                    task.getLink().send(response.toBytes(_compression));
                 } catch (final ClosedChannelException e) {
                     s_logger.warn("Unable to send response: " + response.toString());
                 }
@@ -678,7 +694,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
-                _link.send(request.toBytes());
+                request.setCodec(_codec);
+                _link.send(request.toBytes(_compression));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
                 throw new AgentControlChannelException("Unable to post agent control request due to " + e.getMessage());
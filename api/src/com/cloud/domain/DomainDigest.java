@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.domain;
+
+/**
+ * Digests of a domain used by the anti-entropy sync between regions.
+ * Only the names and states the region sync compares are digested, so two converged regions have the same digests
+ * even though their uuids differ.
+ */
+public interface DomainDigest {
+
+    Domain getDomain();
+
+    /**
+     * Digest of the domain attributes (name, network domain).
+     */
+    String getAttrDigest();
+
+    /**
+     * Digest of the accounts and users directly under the domain.
+     */
+    String getContentDigest();
+
+    /**
+     * Digest of the whole subtree : the domain attributes and content, and the tree digests of its children.
+     */
+    String getTreeDigest();
+}
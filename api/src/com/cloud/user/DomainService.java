@@ -19,9 +19,11 @@ package com.cloud.user;
 import java.util.List;
 
 import org.apache.cloudstack.api.command.admin.domain.ListDomainChildrenCmd;
+import org.apache.cloudstack.api.command.admin.domain.ListDomainDigestsCmd;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainsCmd;
 
 import com.cloud.domain.Domain;
+import com.cloud.domain.DomainDigest;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.utils.Pair;
 
@@ -50,6 +52,12 @@ public interface DomainService {
     Pair<List<? extends Domain>, Integer> searchForDomainChildren(ListDomainChildrenCmd cmd)
             throws PermissionDeniedException;
 
+    /**
+     * Lists the sync digests of a domain, followed by the digests of its immediate children.
+     */
+    List<? extends DomainDigest> listDomainDigests(ListDomainDigestsCmd cmd)
+            throws PermissionDeniedException;
+
     /**
      * find the domain by its path
      * 
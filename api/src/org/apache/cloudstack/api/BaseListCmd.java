@@ -37,6 +37,9 @@ public abstract class BaseListCmd extends BaseCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, description = "the nextpagetoken of the previous page, to list the page after it in place of using page")
+    private String pageToken;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -52,6 +55,13 @@ public abstract class BaseListCmd extends BaseCmd {
         return page;
     }
 
+    public String getPageToken() {
+        if (pageToken != null && page != null) {
+            throw new InvalidParameterValueException("Can't specify both page and pagetoken parameters");
+        }
+        return pageToken;
+    }
+
     public Integer getPageSize() {
         if (pageSize != null && MAX_PAGESIZE.longValue() != PAGESIZE_UNLIMITED && pageSize.longValue() > MAX_PAGESIZE.longValue()) {
             throw new InvalidParameterValueException("Page size can't exceed max allowed page size value: " + MAX_PAGESIZE.longValue());
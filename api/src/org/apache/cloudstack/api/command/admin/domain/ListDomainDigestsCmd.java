@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.response.DomainDigestResponse;
+import org.apache.cloudstack.api.response.DomainResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.log4j.Logger;
+
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainDigest;
+
+@APICommand(name = "listDomainDigests", description="Lists the sync digests of a domain followed by the digests of its children domains", responseObject=DomainDigestResponse.class)
+public class ListDomainDigestsCmd extends BaseListCmd {
+    public static final Logger s_logger = Logger.getLogger(ListDomainDigestsCmd.class.getName());
+
+    private static final String s_name = "listdomaindigestsresponse";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name=ApiConstants.ID, type=CommandType.UUID, entityType=DomainResponse.class,
+            description="the ID of the domain, the caller's domain if not given")
+    private Long id;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public Long getId() {
+        return id;
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public void execute(){
+        List<? extends DomainDigest> digests = _domainService.listDomainDigests(this);
+        ListResponse<DomainDigestResponse> response = new ListResponse<DomainDigestResponse>();
+        List<DomainDigestResponse> digestResponses = new ArrayList<DomainDigestResponse>();
+        for (DomainDigest digest : digests) {
+            Domain domain = digest.getDomain();
+            DomainDigestResponse digestResponse = new DomainDigestResponse();
+            digestResponse.setId(domain.getUuid());
+            digestResponse.setDomainName(domain.getName());
+            digestResponse.setPath(domain.getPath());
+            if (domain.getParent() != null) {
+                Domain parent = _domainService.getDomain(domain.getParent());
+                if (parent != null) {
+                    digestResponse.setParentDomainId(parent.getUuid());
+                }
+            }
+            digestResponse.setAttrDigest(digest.getAttrDigest());
+            digestResponse.setContentDigest(digest.getContentDigest());
+            digestResponse.setTreeDigest(digest.getTreeDigest());
+            digestResponse.setObjectName("domaindigest");
+            digestResponses.add(digestResponse);
+        }
+
+        response.setResponses(digestResponses, digestResponses.size());
+        response.setResponseName(getCommandName());
+        this.setResponseObject(response);
+    }
+}
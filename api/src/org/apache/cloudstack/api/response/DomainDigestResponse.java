@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class DomainDigestResponse extends BaseResponse {
+    @SerializedName(ApiConstants.ID) @Param(description="the ID of the domain")
+    private String id;
+
+    @SerializedName(ApiConstants.NAME) @Param(description="the name of the domain")
+    private String domainName;
+
+    @SerializedName(ApiConstants.PATH) @Param(description="the path of the domain")
+    private String path;
+
+    @SerializedName("parentdomainid") @Param(description="the domain ID of the parent domain")
+    private String parentDomainId;
+
+    @SerializedName("attrdigest") @Param(description="the digest of the domain attributes")
+    private String attrDigest;
+
+    @SerializedName("contentdigest") @Param(description="the digest of the accounts and users of the domain")
+    private String contentDigest;
+
+    @SerializedName("treedigest") @Param(description="the digest of the domain subtree")
+    private String treeDigest;
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setDomainName(String domainName) {
+        this.domainName = domainName;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public void setParentDomainId(String parentDomainId) {
+        this.parentDomainId = parentDomainId;
+    }
+
+    public void setAttrDigest(String attrDigest) {
+        this.attrDigest = attrDigest;
+    }
+
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
+    public void setTreeDigest(String treeDigest) {
+        this.treeDigest = treeDigest;
+    }
+}
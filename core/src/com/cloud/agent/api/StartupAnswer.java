@@ -20,6 +20,8 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    byte codec;
+    byte compressor;
 
     protected StartupAnswer() {
     }
@@ -41,4 +43,26 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return the id of the codec the server agreed on, the agent marshals its requests with it from now on.
+     */
+    public byte getCodec() {
+        return codec;
+    }
+
+    public void setCodec(byte codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the id of the compressor the server agreed on, both sides may compress with it from now on.
+     */
+    public byte getCompressor() {
+        return compressor;
+    }
+
+    public void setCompressor(byte compressor) {
+        this.compressor = compressor;
+    }
 }
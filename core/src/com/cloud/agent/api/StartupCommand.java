@@ -43,6 +43,8 @@ public class StartupCommand extends Command {
     String agentTag;
     String resourceName;
     String gatewayIpAddress;
+    byte codec;
+    byte compressor;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -245,6 +247,28 @@ public class StartupCommand extends Command {
     	agentTag = tag;
     }
 
+    /**
+     * @return the id of the codec the agent would like its requests marshalled with, see Request.getCodec().
+     */
+    public byte getCodec() {
+        return codec;
+    }
+
+    public void setCodec(byte codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the id of the compressor the agent prefers, see CompressionPolicy.getCompressor().
+     */
+    public byte getCompressor() {
+        return compressor;
+    }
+
+    public void setCompressor(byte compressor) {
+        this.compressor = compressor;
+    }
+
     public void setResourceName(String resourceName) {
     	this.resourceName = resourceName;
     }
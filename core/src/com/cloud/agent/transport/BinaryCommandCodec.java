@@ -0,0 +1,981 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.Since;
+import com.google.gson.annotations.Until;
+import com.google.gson.internal.$Gson$Types;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.to.DataStoreTO;
+import com.cloud.agent.api.to.DataTO;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Compact binary marshalling of commands and answers.
+ *
+ * It walks the objects the way Gson does: the non static, non transient fields
+ * of the class and its super classes are written, and read back as the declared
+ * type of the field.  The exceptions are the Command and Answer arrays and the
+ * DataStoreTO and DataTO fields, which carry the class of each value just like
+ * ArrayTypeAdaptor and InterfaceTypeAdaptor do.  Numbers are variable length,
+ * byte arrays are raw, and field and class names are written once per message
+ * and referred to by index after that.
+ *
+ * Every value is tagged, so the fields one side doesn't know about are skipped,
+ * the same tolerance json gives to commands that changed between versions.
+ * Values this codec doesn't model, e.g. Object fields or java classes other than
+ * strings, boxed primitives, collections and maps, are embedded as json.
+ */
+public class BinaryCommandCodec implements CommandCodec {
+    public static final byte ID = 1;
+
+    /* The version of the format, written first so it can evolve */
+    public static final byte VERSION = 1;
+
+    protected static final byte TAG_NULL = 0;
+    protected static final byte TAG_FALSE = 1;
+    protected static final byte TAG_TRUE = 2;
+    protected static final byte TAG_INT = 3;
+    protected static final byte TAG_DOUBLE = 4;
+    protected static final byte TAG_FLOAT = 5;
+    protected static final byte TAG_STRING = 6;
+    protected static final byte TAG_BYTES = 7;
+    protected static final byte TAG_ARRAY = 8;
+    protected static final byte TAG_MAP = 9;
+    protected static final byte TAG_OBJECT = 10;
+    protected static final byte TAG_TYPED = 11;
+    protected static final byte TAG_ENUM = 12;
+    protected static final byte TAG_JSON = 13;
+
+    /* Name references: the end of an object, a new name, or an index into the names seen so far */
+    protected static final int REF_END = 0;
+    protected static final int REF_NEW = 1;
+    protected static final int REF_FIRST = 2;
+
+    /* The version of the commands Gson is configured with, fields annotated for later versions are left out */
+    protected static final double GSON_VERSION = 1.5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Gson s_gson = GsonHelper.getGson();
+    private static final ConcurrentHashMap<Type, Handler> s_handlers = new ConcurrentHashMap<Type, Handler>();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Command[] cmds) {
+        Output out = new Output(512);
+        out.writeByte(VERSION);
+        handlerFor(Command[].class).write(out, cmds);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Command[] decode(byte[] bytes, int offset, int length, Class<? extends Command[]> type) {
+        Input in = new Input(bytes, offset, length);
+        byte version = in.readByte();
+        if (version > VERSION) {
+            throw new CloudRuntimeException("Unsupported version of the binary codec: " + version);
+        }
+        try {
+            return (Command[])handlerFor(type).read(in);
+        } catch (IndexOutOfBoundsException e) {
+            throw new CloudRuntimeException("Truncated commands at " + in._pos, e);
+        }
+    }
+
+    protected static Handler handlerFor(Type type) {
+        type = $Gson$Types.canonicalize(type);
+        Handler handler = s_handlers.get(type);
+        if (handler == null) {
+            handler = createHandler(type);
+            Handler old = s_handlers.putIfAbsent(type, handler);
+            if (old != null) {
+                handler = old;
+            }
+        }
+        return handler;
+    }
+
+    private static Handler createHandler(Type type) {
+        if (type instanceof WildcardType) {
+            return handlerFor(((WildcardType)type).getUpperBounds()[0]);
+        }
+        if (!(type instanceof Class) && !(type instanceof java.lang.reflect.ParameterizedType) && !(type instanceof GenericArrayType)) {
+            // a type variable that couldn't be resolved
+            return new JsonHandler(Object.class);
+        }
+
+        Class<?> raw = $Gson$Types.getRawType(type);
+        if (raw == Object.class) {
+            return new JsonHandler(type);
+        } else if (raw == boolean.class || raw == Boolean.class) {
+            return new BooleanHandler(type);
+        } else if (raw == char.class || raw == Character.class) {
+            return new CharHandler(type);
+        } else if (raw.isPrimitive() || raw == Byte.class || raw == Short.class || raw == Integer.class || raw == Long.class || raw == Float.class || raw == Double.class) {
+            return new NumberHandler(type, raw);
+        } else if (raw == String.class) {
+            return new StringHandler(type);
+        } else if (raw.isEnum()) {
+            return new EnumHandler(type, raw);
+        } else if (raw == byte[].class) {
+            return new BytesHandler(type);
+        } else if (raw == Command[].class || raw == Answer[].class) {
+            return new ArrayHandler(type, raw.getComponentType(), new TypedHandler(raw.getComponentType(), raw.getComponentType()));
+        } else if (raw.isArray()) {
+            Type componentType = $Gson$Types.getArrayComponentType(type);
+            return new ArrayHandler(type, $Gson$Types.getRawType(componentType), handlerFor(componentType));
+        } else if (raw == DataStoreTO.class || raw == DataTO.class) {
+            return new TypedHandler(type, raw);
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            return new CollectionHandler(type, raw, handlerFor($Gson$Types.getCollectionElementType(type, raw)));
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Type[] keyAndValue = $Gson$Types.getMapKeyAndValueTypes(type, raw);
+            return new MapHandler(type, raw, handlerFor(keyAndValue[0]), handlerFor(keyAndValue[1]));
+        } else if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers()) || raw.getName().startsWith("java.") || raw.getName().startsWith("javax.")) {
+            return new JsonHandler(type);
+        }
+        return new ObjectHandler(type, raw);
+    }
+
+    /**
+     * Writes and reads the values of one declared type.
+     */
+    protected static abstract class Handler {
+        protected final Type _type;
+
+        protected Handler(Type type) {
+            _type = type;
+        }
+
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else {
+                writeValue(out, value);
+            }
+        }
+
+        public Object read(Input in) {
+            byte tag = in.readByte();
+            if (tag == TAG_NULL) {
+                return null;
+            } else if (tag == TAG_JSON) {
+                return s_gson.fromJson(in.readString(), _type);
+            }
+            return readValue(in, tag);
+        }
+
+        protected abstract void writeValue(Output out, Object value);
+
+        protected abstract Object readValue(Input in, byte tag);
+
+        protected CloudRuntimeException unexpected(byte tag) {
+            return new CloudRuntimeException("Unexpected tag " + tag + " for " + _type);
+        }
+    }
+
+    protected static class JsonHandler extends Handler {
+        public JsonHandler(Type type) {
+            super(type);
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte(TAG_JSON);
+            out.writeString(_type == Object.class ? s_gson.toJson(value) : s_gson.toJson(value, _type));
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            throw unexpected(tag);
+        }
+    }
+
+    protected static class BooleanHandler extends Handler {
+        public BooleanHandler(Type type) {
+            super(type);
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte((Boolean)value ? TAG_TRUE : TAG_FALSE);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag == TAG_TRUE) {
+                return Boolean.TRUE;
+            } else if (tag == TAG_FALSE) {
+                return Boolean.FALSE;
+            }
+            throw unexpected(tag);
+        }
+    }
+
+    protected static class CharHandler extends Handler {
+        public CharHandler(Type type) {
+            super(type);
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte(TAG_INT);
+            out.writeVarLong((Character)value);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_INT) {
+                throw unexpected(tag);
+            }
+            return (char)in.readVarLong();
+        }
+    }
+
+    protected static class NumberHandler extends Handler {
+        private final Class<?> _class;
+
+        public NumberHandler(Type type, Class<?> clazz) {
+            super(type);
+            _class = clazz;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeLong(Double.doubleToRawLongBits((Double)value));
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeInt(Float.floatToRawIntBits((Float)value));
+            } else {
+                out.writeByte(TAG_INT);
+                out.writeVarLong(((Number)value).longValue());
+            }
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            Number number;
+            if (tag == TAG_INT) {
+                number = in.readVarLong();
+            } else if (tag == TAG_DOUBLE) {
+                number = Double.longBitsToDouble(in.readLong());
+            } else if (tag == TAG_FLOAT) {
+                number = Float.intBitsToFloat(in.readInt());
+            } else {
+                throw unexpected(tag);
+            }
+
+            if (_class == int.class || _class == Integer.class) {
+                return number.intValue();
+            } else if (_class == long.class || _class == Long.class) {
+                return number.longValue();
+            } else if (_class == double.class || _class == Double.class) {
+                return number.doubleValue();
+            } else if (_class == float.class || _class == Float.class) {
+                return number.floatValue();
+            } else if (_class == short.class || _class == Short.class) {
+                return number.shortValue();
+            } else {
+                return number.byteValue();
+            }
+        }
+    }
+
+    protected static class StringHandler extends Handler {
+        public StringHandler(Type type) {
+            super(type);
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte(TAG_STRING);
+            out.writeString((String)value);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag == TAG_STRING) {
+                return in.readString();
+            } else if (tag == TAG_ENUM) {
+                return in.readRef();
+            }
+            throw unexpected(tag);
+        }
+    }
+
+    protected static class EnumHandler extends Handler {
+        @SuppressWarnings("rawtypes")
+        private final Class<? extends Enum> _class;
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        public EnumHandler(Type type, Class<?> clazz) {
+            super(type);
+            _class = (Class<? extends Enum>)clazz;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            // the constants are repeated a lot, e.g. vm states, so they go through the name table
+            out.writeByte(TAG_ENUM);
+            out.writeRef(((Enum<?>)value).name());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Object readValue(Input in, byte tag) {
+            String name;
+            if (tag == TAG_ENUM) {
+                name = in.readRef();
+            } else if (tag == TAG_STRING) {
+                name = in.readString();
+            } else {
+                throw unexpected(tag);
+            }
+            return Enum.valueOf(_class, name);
+        }
+    }
+
+    protected static class BytesHandler extends Handler {
+        public BytesHandler(Type type) {
+            super(type);
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            byte[] bytes = (byte[])value;
+            out.writeByte(TAG_BYTES);
+            out.writeVarInt(bytes.length);
+            out.writeBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_BYTES) {
+                throw unexpected(tag);
+            }
+            byte[] bytes = new byte[in.readVarInt()];
+            in.readBytes(bytes);
+            return bytes;
+        }
+    }
+
+    protected static class ArrayHandler extends Handler {
+        private final Class<?> _componentClass;
+        private final Handler _component;
+
+        public ArrayHandler(Type type, Class<?> componentClass, Handler component) {
+            super(type);
+            _componentClass = componentClass;
+            _component = component;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            int length = Array.getLength(value);
+            out.writeByte(TAG_ARRAY);
+            out.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                _component.write(out, Array.get(value, i));
+            }
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_ARRAY) {
+                throw unexpected(tag);
+            }
+            int length = in.readVarInt();
+            Object array = Array.newInstance(_componentClass, length);
+            for (int i = 0; i < length; i++) {
+                Object element = _component.read(in);
+                if (element != null || !_componentClass.isPrimitive()) {
+                    Array.set(array, i, element);
+                }
+            }
+            return array;
+        }
+    }
+
+    protected static class CollectionHandler extends Handler {
+        private final Class<?> _class;
+        private final Handler _element;
+
+        public CollectionHandler(Type type, Class<?> raw, Handler element) {
+            super(type);
+            // the same implementations Gson picks for the collection interfaces
+            if (!raw.isInterface() && !Modifier.isAbstract(raw.getModifiers())) {
+                _class = raw;
+            } else if (raw.isAssignableFrom(ArrayList.class)) {
+                _class = ArrayList.class;
+            } else if (raw.isAssignableFrom(HashSet.class)) {
+                _class = HashSet.class;
+            } else if (raw.isAssignableFrom(TreeSet.class)) {
+                _class = TreeSet.class;
+            } else {
+                _class = LinkedList.class;
+            }
+            _element = element;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            Collection<?> collection = (Collection<?>)value;
+            out.writeByte(TAG_ARRAY);
+            out.writeVarInt(collection.size());
+            for (Object element : collection) {
+                _element.write(out, element);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_ARRAY) {
+                throw unexpected(tag);
+            }
+            int size = in.readVarInt();
+            Collection<Object> collection = (Collection<Object>)newInstance(_class);
+            for (int i = 0; i < size; i++) {
+                collection.add(_element.read(in));
+            }
+            return collection;
+        }
+    }
+
+    protected static class MapHandler extends Handler {
+        private final Class<?> _class;
+        private final Handler _key;
+        private final Handler _value;
+
+        public MapHandler(Type type, Class<?> raw, Handler key, Handler value) {
+            super(type);
+            if (!raw.isInterface() && !Modifier.isAbstract(raw.getModifiers())) {
+                _class = raw;
+            } else if (raw.isAssignableFrom(LinkedHashMap.class)) {
+                _class = LinkedHashMap.class;
+            } else {
+                _class = TreeMap.class;
+            }
+            _key = key;
+            _value = value;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(TAG_MAP);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                _key.write(out, entry.getKey());
+                _value.write(out, entry.getValue());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_MAP) {
+                throw unexpected(tag);
+            }
+            int size = in.readVarInt();
+            Map<Object, Object> map = (Map<Object, Object>)newInstance(_class);
+            for (int i = 0; i < size; i++) {
+                Object key = _key.read(in);
+                map.put(key, _value.read(in));
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Values which carry their class, for the polymorphic types Gson has an adaptor for.
+     */
+    protected static class TypedHandler extends Handler {
+        private final Class<?> _base;
+
+        public TypedHandler(Type type, Class<?> base) {
+            super(type);
+            _base = base;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte(TAG_TYPED);
+            out.writeRef(value.getClass().getName());
+            objectHandlerFor(value.getClass()).writeFields(out, value);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_TYPED) {
+                throw unexpected(tag);
+            }
+            String name = in.readRef();
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new CloudRuntimeException("can't find " + name);
+            }
+            if (!_base.isAssignableFrom(clazz)) {
+                throw new CloudRuntimeException(name + " is not a " + _base.getName());
+            }
+            return objectHandlerFor(clazz).readFields(in);
+        }
+
+        private static ObjectHandler objectHandlerFor(Class<?> clazz) {
+            Handler handler = handlerFor(clazz);
+            if (!(handler instanceof ObjectHandler)) {
+                throw new CloudRuntimeException("Unable to marshal " + clazz.getName());
+            }
+            return (ObjectHandler)handler;
+        }
+    }
+
+    protected static class FieldInfo {
+        final Field _field;
+        final String _name;
+        final Handler _handler;
+
+        FieldInfo(Field field, Handler handler) {
+            _field = field;
+            _name = field.getName();
+            _handler = handler;
+        }
+    }
+
+    protected static class ObjectHandler extends Handler {
+        private final Class<?> _class;
+        /* Built on first use, objects can refer to their own class */
+        private volatile FieldInfo[] _fields;
+        private volatile Map<String, FieldInfo> _fieldsByName;
+
+        public ObjectHandler(Type type, Class<?> raw) {
+            super(type);
+            _class = raw;
+        }
+
+        private FieldInfo[] getFields() {
+            FieldInfo[] fields = _fields;
+            if (fields == null) {
+                List<FieldInfo> list = new ArrayList<FieldInfo>();
+                Map<String, FieldInfo> byName = new HashMap<String, FieldInfo>();
+                for (Class<?> clazz = _class; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        if (isExcluded(field) || byName.containsKey(field.getName())) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        FieldInfo info = new FieldInfo(field, handlerFor($Gson$Types.resolve(_type, _class, field.getGenericType())));
+                        list.add(info);
+                        byName.put(info._name, info);
+                    }
+                }
+                fields = list.toArray(new FieldInfo[list.size()]);
+                _fieldsByName = byName;
+                _fields = fields;
+            }
+            return fields;
+        }
+
+        private static boolean isExcluded(Field field) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                return true;
+            }
+            Since since = field.getAnnotation(Since.class);
+            if (since != null && since.value() > GSON_VERSION) {
+                return true;
+            }
+            Until until = field.getAnnotation(Until.class);
+            return until != null && until.value() <= GSON_VERSION;
+        }
+
+        @Override
+        protected void writeValue(Output out, Object value) {
+            out.writeByte(TAG_OBJECT);
+            writeFields(out, value);
+        }
+
+        @Override
+        protected Object readValue(Input in, byte tag) {
+            if (tag != TAG_OBJECT) {
+                throw unexpected(tag);
+            }
+            return readFields(in);
+        }
+
+        public void writeFields(Output out, Object value) {
+            try {
+                for (FieldInfo field : getFields()) {
+                    Object fieldValue = field._field.get(value);
+                    // like Gson, nulls are left out so the defaults of the class stay in place
+                    if (fieldValue != null) {
+                        out.writeRef(field._name);
+                        field._handler.writeValue(out, fieldValue);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Unable to marshal " + _class.getName(), e);
+            }
+            out.writeVarInt(REF_END);
+        }
+
+        public Object readFields(Input in) {
+            getFields();
+            Object value = newInstance(_class);
+            try {
+                String name;
+                while ((name = in.readFieldRef()) != null) {
+                    FieldInfo field = _fieldsByName.get(name);
+                    if (field == null) {
+                        in.skipValue();
+                        continue;
+                    }
+                    Object fieldValue = field._handler.read(in);
+                    if (fieldValue != null || !field._field.getType().isPrimitive()) {
+                        field._field.set(value, fieldValue);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Unable to unmarshal " + _class.getName(), e);
+            }
+            return value;
+        }
+    }
+
+    private static final ConcurrentHashMap<Class<?>, Constructor<?>> s_constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+    private static final Object s_unsafe;
+    private static final Method s_allocateInstance;
+
+    static {
+        Object unsafe = null;
+        Method allocateInstance = null;
+        try {
+            Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            Field field = clazz.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            allocateInstance = clazz.getMethod("allocateInstance", Class.class);
+        } catch (Exception e) {
+            // then only classes with a no-arg constructor can be unmarshalled
+        }
+        s_unsafe = unsafe;
+        s_allocateInstance = allocateInstance;
+    }
+
+    /**
+     * Creates an instance with the no-arg constructor or, like Gson, without calling any constructor if there is none.
+     */
+    protected static Object newInstance(Class<?> clazz) {
+        try {
+            Constructor<?> constructor = s_constructors.get(clazz);
+            if (constructor == null) {
+                try {
+                    constructor = clazz.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                    s_constructors.put(clazz, constructor);
+                } catch (NoSuchMethodException e) {
+                    if (s_allocateInstance == null) {
+                        throw new CloudRuntimeException("Unable to create " + clazz.getName() + ", it has no no-arg constructor");
+                    }
+                    return s_allocateInstance.invoke(s_unsafe, clazz);
+                }
+            }
+            return constructor.newInstance();
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudRuntimeException("Unable to create " + clazz.getName(), e);
+        }
+    }
+
+    protected static class Output {
+        private byte[] _buf;
+        private int _count;
+        private final Map<String, Integer> _refs = new HashMap<String, Integer>();
+
+        public Output(int size) {
+            _buf = new byte[size];
+        }
+
+        private void ensure(int size) {
+            if (_count + size > _buf.length) {
+                byte[] buf = new byte[Math.max(_buf.length * 2, _count + size)];
+                System.arraycopy(_buf, 0, buf, 0, _count);
+                _buf = buf;
+            }
+        }
+
+        public void writeByte(int b) {
+            ensure(1);
+            _buf[_count++] = (byte)b;
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, _buf, _count, length);
+            _count += length;
+        }
+
+        public void writeInt(int v) {
+            ensure(4);
+            _buf[_count++] = (byte)(v >>> 24);
+            _buf[_count++] = (byte)(v >>> 16);
+            _buf[_count++] = (byte)(v >>> 8);
+            _buf[_count++] = (byte)v;
+        }
+
+        public void writeLong(long v) {
+            writeInt((int)(v >>> 32));
+            writeInt((int)v);
+        }
+
+        public void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                _buf[_count++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            _buf[_count++] = (byte)v;
+        }
+
+        /**
+         * Zigzag encoded, so small negative numbers are short too.
+         */
+        public void writeVarLong(long v) {
+            v = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                _buf[_count++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            _buf[_count++] = (byte)v;
+        }
+
+        public void writeString(String s) {
+            int length = s.length();
+            int i = 0;
+            while (i < length && s.charAt(i) < 0x80) {
+                i++;
+            }
+            if (i < length) {
+                byte[] bytes = s.getBytes(UTF8);
+                writeVarInt(bytes.length);
+                writeBytes(bytes, 0, bytes.length);
+                return;
+            }
+            writeVarInt(length);
+            ensure(length);
+            for (i = 0; i < length; i++) {
+                _buf[_count++] = (byte)s.charAt(i);
+            }
+        }
+
+        /**
+         * Writes a name, the first time in full and after that as its index.
+         */
+        public void writeRef(String name) {
+            Integer index = _refs.get(name);
+            if (index != null) {
+                writeVarInt(REF_FIRST + index);
+            } else {
+                writeVarInt(REF_NEW);
+                writeString(name);
+                _refs.put(name, _refs.size());
+            }
+        }
+
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[_count];
+            System.arraycopy(_buf, 0, bytes, 0, _count);
+            return bytes;
+        }
+    }
+
+    protected static class Input {
+        private final byte[] _buf;
+        private int _pos;
+        private final int _end;
+        private final List<String> _refs = new ArrayList<String>();
+
+        public Input(byte[] buf, int offset, int length) {
+            _buf = buf;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        public byte readByte() {
+            if (_pos >= _end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return _buf[_pos++];
+        }
+
+        public void readBytes(byte[] bytes) {
+            if (_pos + bytes.length > _end) {
+                throw new IndexOutOfBoundsException();
+            }
+            System.arraycopy(_buf, _pos, bytes, 0, bytes.length);
+            _pos += bytes.length;
+        }
+
+        public int readInt() {
+            return ((readByte() & 0xff) << 24) | ((readByte() & 0xff) << 16) | ((readByte() & 0xff) << 8) | (readByte() & 0xff);
+        }
+
+        public long readLong() {
+            return ((long)readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        public int readVarInt() {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                v |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new CloudRuntimeException("Malformed variable length int at " + _pos);
+        }
+
+        public long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                v |= (long)(b & 0x7f) << shift;
+                if (b >= 0) {
+                    return (v >>> 1) ^ -(v & 1);
+                }
+            }
+            throw new CloudRuntimeException("Malformed variable length long at " + _pos);
+        }
+
+        public String readString() {
+            int length = readVarInt();
+            if (length < 0 || _pos + length > _end) {
+                throw new IndexOutOfBoundsException();
+            }
+            String s = new String(_buf, _pos, length, UTF8);
+            _pos += length;
+            return s;
+        }
+
+        public String readRef() {
+            String name = readFieldRef();
+            if (name == null) {
+                throw new CloudRuntimeException("Missing name at " + _pos);
+            }
+            return name;
+        }
+
+        /**
+         * @return the next field name, or null at the end of the object.
+         */
+        public String readFieldRef() {
+            int ref = readVarInt();
+            if (ref == REF_END) {
+                return null;
+            } else if (ref == REF_NEW) {
+                String name = readString();
+                _refs.add(name);
+                return name;
+            }
+            return _refs.get(ref - REF_FIRST);
+        }
+
+        public void skipValue() {
+            byte tag = readByte();
+            switch (tag) {
+            case TAG_NULL:
+            case TAG_FALSE:
+            case TAG_TRUE:
+                break;
+            case TAG_INT:
+                readVarLong();
+                break;
+            case TAG_DOUBLE:
+                _pos += 8;
+                break;
+            case TAG_FLOAT:
+                _pos += 4;
+                break;
+            case TAG_STRING:
+            case TAG_JSON:
+            case TAG_BYTES:
+                _pos += readVarInt();
+                break;
+            case TAG_ENUM:
+                readRef();
+                break;
+            case TAG_ARRAY:
+                for (int i = readVarInt(); i > 0; i--) {
+                    skipValue();
+                }
+                break;
+            case TAG_MAP:
+                for (int i = readVarInt(); i > 0; i--) {
+                    skipValue();
+                    skipValue();
+                }
+                break;
+            case TAG_TYPED:
+                readRef();
+                // fall through to the fields
+            case TAG_OBJECT:
+                while (readFieldRef() != null) {
+                    skipValue();
+                }
+                break;
+            default:
+                throw new CloudRuntimeException("Unknown tag " + tag + " at " + _pos);
+            }
+        }
+    }
+}
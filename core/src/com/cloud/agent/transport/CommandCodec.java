@@ -0,0 +1,36 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import com.cloud.agent.api.Command;
+
+/**
+ * Marshals the commands or answers carried by a Request.  The id of the codec
+ * goes into the header of the request so the receiving side knows how to read
+ * them back.  A codec other than Gson is only used after both sides agreed on
+ * it when the agent connected.
+ */
+public interface CommandCodec {
+    /**
+     * @return the id of the codec in the request header.
+     */
+    byte getId();
+
+    byte[] encode(Command[] cmds);
+
+    Command[] decode(byte[] bytes, int offset, int length, Class<? extends Command[]> type);
+}
@@ -0,0 +1,144 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+import com.cloud.utils.nio.Link;
+
+/**
+ * Decides whether and with which compressor the data package of a request goes over a link.
+ *
+ * Compressing n bytes is worth it when n / speed + n * ratio / throughput, the time to compress
+ * and then send the compressed bytes, is less than n / throughput, the time to send them as they
+ * are.  The speed and ratio of each compressor are measured on the requests it compressed so far,
+ * the throughput is the one the link measured on its large writes.  Until the link has measured
+ * anything, the data package is compressed by the first compressor once it reaches the size
+ * it always was compressed at.
+ */
+public class CompressionPolicy {
+    /* Below this the compressed bytes don't make up for the time, no matter how slow the link */
+    public static final int MIN_SIZE = 1024;
+    /* The threshold while the throughput of the link is not known */
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    public static final Compressor GZIP = new GzipCompressor();
+    public static final Compressor LZ = new SnappyCompressor();
+
+    /**
+     * Gzip above the default threshold, which is what every agent understands.
+     */
+    public static final CompressionPolicy LEGACY = new CompressionPolicy(null, GZIP);
+
+    /* Speed in bytes per millisecond and ratio of the compressed to the uncompressed size, by compressor id */
+    private static final Stats[] s_stats = new Stats[] { new Stats(20000, 0.2), new Stats(250000, 0.4) };
+
+    private final Link _link;
+    private final Compressor[] _compressors;
+
+    /**
+     * @param link the link the requests are sent on, null if there is none to measure.
+     * @param compressors the compressors the peer understands, the preferred one first.
+     */
+    public CompressionPolicy(Link link, Compressor... compressors) {
+        _link = link;
+        _compressors = compressors;
+    }
+
+    /**
+     * @param preferred the compressor agreed on with the peer, which also understands gzip.
+     */
+    public static CompressionPolicy negotiated(Link link, Compressor preferred) {
+        if (preferred == GZIP) {
+            return new CompressionPolicy(link, GZIP);
+        }
+        return new CompressionPolicy(link, preferred, GZIP);
+    }
+
+    public static Compressor getCompressor(byte id) {
+        return id == SnappyCompressor.ID ? LZ : GZIP;
+    }
+
+    public Compressor getPreferredCompressor() {
+        return _compressors.length == 0 ? null : _compressors[0];
+    }
+
+    /**
+     * @return the compressor for a data package of the given size, null if it is sent uncompressed.
+     */
+    public Compressor choose(int size) {
+        if (size < MIN_SIZE || _compressors.length == 0) {
+            return null;
+        }
+
+        double throughput = _link == null ? 0 : _link.getWriteThroughput();
+        if (throughput <= 0) {
+            return size >= DEFAULT_THRESHOLD ? _compressors[0] : null;
+        }
+
+        Compressor chosen = null;
+        double best = size / throughput;
+        for (Compressor compressor : _compressors) {
+            Stats stats = s_stats[compressor.getId()];
+            double cost = size / stats._speed + size * stats._ratio / throughput;
+            if (cost < best) {
+                best = cost;
+                chosen = compressor;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Compresses and feeds the measurement of the compressor.
+     */
+    public static ByteBuffer compress(Compressor compressor, ByteBuffer src) {
+        int size = src.remaining();
+        long start = System.nanoTime();
+        ByteBuffer compressed = compressor.compress(src);
+        s_stats[compressor.getId()].update(size, compressed.remaining(), System.nanoTime() - start);
+        return compressed;
+    }
+
+    public static double getSpeed(Compressor compressor) {
+        return s_stats[compressor.getId()]._speed;
+    }
+
+    public static double getRatio(Compressor compressor) {
+        return s_stats[compressor.getId()]._ratio;
+    }
+
+    /**
+     * Moving averages shared by all links, racy updates just lose a sample.
+     */
+    private static class Stats {
+        volatile double _speed;
+        volatile double _ratio;
+
+        Stats(double speed, double ratio) {
+            _speed = speed;
+            _ratio = ratio;
+        }
+
+        void update(int size, int compressedSize, long nanos) {
+            if (nanos > 0) {
+                _speed = 0.9 * _speed + 0.1 * (size * 1000000.0 / nanos);
+            }
+            _ratio = 0.9 * _ratio + 0.1 * ((double)compressedSize / size);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An algorithm the data package of a request can be compressed with.
+ * Implementations are stateless and shared by all threads.
+ */
+public interface Compressor {
+    /**
+     * @return the id the agent and the server agree on the compressors with.
+     */
+    byte getId();
+
+    /**
+     * @param src the bytes from its position to its limit are compressed.
+     * @return the compressed bytes.
+     */
+    ByteBuffer compress(ByteBuffer src);
+
+    /**
+     * @param length the length of the uncompressed bytes.
+     * @return the uncompressed bytes.
+     */
+    ByteBuffer decompress(ByteBuffer src, int length);
+}
@@ -0,0 +1,61 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.io.StringReader;
+import java.lang.reflect.Type;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import com.cloud.agent.api.Command;
+import com.cloud.serializer.GsonHelper;
+
+/**
+ * The original marshalling of commands and answers as json.  Every agent
+ * understands it, so it is used until the agent asks for something else.
+ */
+public class GsonCommandCodec implements CommandCodec {
+    public static final byte ID = 0;
+
+    protected static final Gson s_gson = GsonHelper.getGson();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Command[] cmds) {
+        return toJson(cmds).getBytes();
+    }
+
+    @Override
+    public Command[] decode(byte[] bytes, int offset, int length, Class<? extends Command[]> type) {
+        return fromJson(new String(bytes, offset, length), type);
+    }
+
+    public String toJson(Command[] cmds) {
+        return s_gson.toJson(cmds, cmds.getClass());
+    }
+
+    public Command[] fromJson(String content, Class<? extends Command[]> type) {
+        JsonReader jsonReader = new JsonReader(new StringReader(content));
+        jsonReader.setLenient(true);
+        return s_gson.fromJson(jsonReader, (Type)type);
+    }
+}
@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * The gzip format every agent understands.  The deflater and inflater of each
+ * thread are reused, and the gzip header and trailer are written around the
+ * deflated bytes instead of going through the streams, which copied the output
+ * a couple of times.
+ */
+public class GzipCompressor implements Compressor {
+    public static final byte ID = 0;
+
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final byte[] HEADER = new byte[] { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final ThreadLocal<Deflater> s_deflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> s_inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    private static final ThreadLocal<CRC32> s_crc = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer src) {
+        byte[] in;
+        int offset;
+        int length = src.remaining();
+        if (src.hasArray()) {
+            in = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[length];
+            src.duplicate().get(in);
+            offset = 0;
+        }
+
+        Deflater deflater = s_deflater.get();
+        deflater.reset();
+        deflater.setInput(in, offset, length);
+        deflater.finish();
+
+        byte[] out = OutputBuffers.get(HEADER_SIZE + length + length / 1000 + 64);
+        System.arraycopy(HEADER, 0, out, 0, HEADER_SIZE);
+        int count = HEADER_SIZE;
+        while (!deflater.finished()) {
+            if (count == out.length) {
+                out = OutputBuffers.grow(out, count);
+            }
+            count += deflater.deflate(out, count, out.length - count);
+        }
+
+        CRC32 crc = s_crc.get();
+        crc.reset();
+        crc.update(in, offset, length);
+        byte[] result = Arrays.copyOf(out, count + TRAILER_SIZE);
+        putIntLE(result, count, (int)crc.getValue());
+        putIntLE(result, count + 4, length);
+        return ByteBuffer.wrap(result);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer src, int length) {
+        byte[] in;
+        int offset;
+        int size = src.remaining();
+        if (src.hasArray()) {
+            in = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[size];
+            src.duplicate().get(in);
+            offset = 0;
+        }
+
+        if (size < HEADER_SIZE + TRAILER_SIZE || in[offset] != HEADER[0] || in[offset + 1] != HEADER[1] || in[offset + 2] != HEADER[2] || in[offset + 3] != 0) {
+            // not the plain header we write, let the stream sort it out
+            return decompressStream(in, offset, size, length);
+        }
+
+        byte[] out = new byte[length];
+        Inflater inflater = s_inflater.get();
+        inflater.reset();
+        inflater.setInput(in, offset + HEADER_SIZE, size - HEADER_SIZE - TRAILER_SIZE);
+        int count = 0;
+        try {
+            while (count < length && !inflater.finished()) {
+                int n = inflater.inflate(out, count, length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            throw new CloudRuntimeException("Fail to decompress the request!", e);
+        }
+        if (count != length) {
+            throw new CloudRuntimeException("Fail to decompress the request! Got " + count + " of " + length + " bytes");
+        }
+
+        // the trailer covers the whole member, so it doesn't match if there was more to inflate
+        CRC32 crc = s_crc.get();
+        crc.reset();
+        crc.update(out, 0, count);
+        int trailer = offset + size - TRAILER_SIZE;
+        if (getIntLE(in, trailer) != (int)crc.getValue() || getIntLE(in, trailer + 4) != length) {
+            throw new CloudRuntimeException("Fail to decompress the request! The gzip trailer doesn't match");
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    private static ByteBuffer decompressStream(byte[] in, int offset, int size, int length) {
+        ByteBuffer retBuff = ByteBuffer.allocate(length);
+        byte[] byteArrayIn = new byte[1024];
+        int len = 0;
+        try {
+            // the stream checks the trailer itself
+            GZIPInputStream stream = new GZIPInputStream(new ByteArrayInputStream(in, offset, size));
+            try {
+                while ((len = stream.read(byteArrayIn)) > 0) {
+                    if (len > retBuff.remaining()) {
+                        throw new CloudRuntimeException("Fail to decompress the request! Got more than " + length + " bytes");
+                    }
+                    retBuff.put(byteArrayIn, 0, len);
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Fail to decompress the request!", e);
+        }
+        if (retBuff.hasRemaining()) {
+            throw new CloudRuntimeException("Fail to decompress the request! Got " + retBuff.position() + " of " + length + " bytes");
+        }
+        retBuff.flip();
+        return retBuff;
+    }
+
+    private static int getIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void putIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)value;
+        bytes[offset + 1] = (byte)(value >>> 8);
+        bytes[offset + 2] = (byte)(value >>> 16);
+        bytes[offset + 3] = (byte)(value >>> 24);
+    }
+}
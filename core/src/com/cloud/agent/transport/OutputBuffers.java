@@ -0,0 +1,51 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+/**
+ * The buffer each thread compresses into before the result is copied out at its
+ * exact size, so a compression doesn't grow and copy its output buffer again and again.
+ */
+class OutputBuffers {
+    /* Buffers grown beyond this for an unusually large request are not kept */
+    private static final int MAX_KEPT_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> s_buffer = new ThreadLocal<byte[]>();
+
+    static byte[] get(int size) {
+        byte[] buffer = s_buffer.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(size, 8192)];
+            if (size <= MAX_KEPT_SIZE) {
+                s_buffer.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @return a buffer twice as large with the first count bytes of the given one.
+     */
+    static byte[] grow(byte[] buffer, int count) {
+        byte[] grown = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, grown, 0, count);
+        if (grown.length <= MAX_KEPT_SIZE) {
+            s_buffer.set(grown);
+        }
+        return grown;
+    }
+}
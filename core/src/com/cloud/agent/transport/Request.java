@@ -16,18 +16,12 @@
 // under the License.
 package com.cloud.agent.transport;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -41,7 +35,6 @@ import com.google.gson.JsonNull;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
-import com.google.gson.stream.JsonReader;
 
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
@@ -62,12 +55,13 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
- * 3. Sequence - 8 bytes;
- * 4. Length - 4 bytes;
- * 5. ManagementServerId - 8 bytes;
- * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 2. Codec - 1 byte, how the data package is marshalled;
+ * 3. Flags - 2 bytes;
+ * 4. Sequence - 8 bytes;
+ * 5. Length - 4 bytes;
+ * 6. ManagementServerId - 8 bytes;
+ * 7. AgentId - 8 bytes;
+ * 8. Data Package.
  * 
  */
 public class Request {
@@ -77,6 +71,10 @@ public class Request {
     protected static final Gson s_gogger = GsonHelper.getGsonLogger();
     protected static final Logger s_gsonLogger = GsonHelper.getLogger();
 
+    protected static final GsonCommandCodec s_gsonCodec = new GsonCommandCodec();
+    /* Indexed by the codec id in the header */
+    protected static final CommandCodec[] s_codecs = new CommandCodec[] { s_gsonCodec, new BinaryCommandCodec() };
+
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
@@ -99,6 +97,7 @@ public class Request {
     protected static final short       FLAG_FROM_SERVER     = 0x20;
     protected static final short       FLAG_CONTROL         = 0x40;
     protected static final short       FLAG_COMPRESSED      = 0x80;
+    protected static final short       FLAG_COMPRESSED_LZ   = 0x100;
 
 
     protected Version   _ver;
@@ -111,6 +110,8 @@ public class Request {
     protected Command[] _cmds;
     protected String    _content;
     protected String    _agentName;
+    protected CommandCodec _codec = s_gsonCodec;
+    protected ByteBuffer _payload;
 
     protected Request() {
     }
@@ -135,6 +136,12 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, CommandCodec codec, final ByteBuffer payload) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _codec = codec;
+        _payload = payload;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] { command }, true, fromServer);
     }
@@ -175,6 +182,7 @@ public class Request {
         _mgmtId = that._mgmtId;
         _via = that._via;
         _agentId = that._agentId;
+        _codec = that._codec;
         setFromServer(!that.isFromServer());
     }
 
@@ -241,19 +249,56 @@ public class Request {
 
     public Command[] getCommands() {
         if (_cmds == null) {
-            try {
-                StringReader reader = new StringReader(_content);
-                JsonReader jsonReader = new JsonReader(reader);
-                jsonReader.setLenient(true);
-                _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
-            } catch (RuntimeException e) {
-                s_logger.error("Caught problem with " + _content, e);
-                throw e;
-            }
+            _cmds = decodeCommands(Command[].class);
         }
         return _cmds;
     }
 
+    protected Command[] decodeCommands(Class<? extends Command[]> type) {
+        try {
+            if (_content != null) {
+                return s_gsonCodec.fromJson(_content, type);
+            }
+            return _codec.decode(_payload.array(), _payload.arrayOffset() + _payload.position(), _payload.remaining(), type);
+        } catch (RuntimeException e) {
+            s_logger.error("Caught problem with " + (_content != null ? _content : _payload.remaining() + " bytes of " + _codec.getClass().getSimpleName()), e);
+            throw e;
+        }
+    }
+
+    public CommandCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Sets how the commands are marshalled.  Only use a codec other than Gson with
+     * an agent that asked for it.
+     */
+    public void setCodec(CommandCodec codec) {
+        if (codec != _codec) {
+            if (_cmds == null) {
+                _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
+            }
+            _codec = codec;
+            _content = null;
+            _payload = null;
+        }
+    }
+
+    /**
+     * @return the codec with the given id, or Gson if there is no such codec.
+     */
+    public static CommandCodec getCodec(byte id) {
+        return id >= 0 && id < s_codecs.length ? s_codecs[id] : s_gsonCodec;
+    }
+
+    /**
+     * @return the id of the most compact codec this side supports, for the other side to agree on.
+     */
+    public static byte getPreferredCodecId() {
+        return BinaryCommandCodec.ID;
+    }
+
     protected String getType() {
         return "Cmd ";
     }
@@ -261,7 +306,7 @@ public class Request {
     protected ByteBuffer serializeHeader(final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte) 0);
+        buffer.put(_codec.getId());
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
@@ -275,65 +320,52 @@ public class Request {
     }
 
     public static ByteBuffer doDecompress(ByteBuffer buffer, int length) {
-        byte[] byteArrayIn = new byte[1024];
-        ByteArrayInputStream byteIn;
-        if (buffer.hasArray()) {
-            byteIn = new ByteArrayInputStream(buffer.array(),
-                    buffer.position() + buffer.arrayOffset(),
-                    buffer.remaining());
-        } else {
-            byte[] array = new byte[buffer.limit() - buffer.position()];
-            buffer.get(array);
-            byteIn = new ByteArrayInputStream(array);
-        }
-        ByteBuffer retBuff = ByteBuffer.allocate(length);
-        int len = 0;
-        try {
-            GZIPInputStream in = new GZIPInputStream(byteIn);
-            while ((len = in.read(byteArrayIn)) > 0) {
-                retBuff.put(byteArrayIn, 0, len);
-            }
-            in.close();
-        } catch (IOException e) {
-            s_logger.error("Fail to decompress the request!", e);
-        }
-        retBuff.flip();
-        return retBuff;
+        return CompressionPolicy.GZIP.decompress(buffer, length);
     }
 
     public static ByteBuffer doCompress(ByteBuffer buffer, int length) {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(length);
-        byte[] array;
-        if (buffer.hasArray()) {
-            array = buffer.array();
-        } else {
-            array = new byte[buffer.capacity()];
-            buffer.get(array);
-        }
-        try {
-            GZIPOutputStream out = new GZIPOutputStream(byteOut, length);
-            out.write(array);
-            out.finish();
-            out.close();
-        } catch (IOException e) {
-            s_logger.error("Fail to compress the request!", e);
-        }
-        return ByteBuffer.wrap(byteOut.toByteArray());
+        return CompressionPolicy.GZIP.compress(buffer);
+    }
+
+    protected static short getCompressionFlag(Compressor compressor) {
+        return compressor.getId() == SnappyCompressor.ID ? FLAG_COMPRESSED_LZ : FLAG_COMPRESSED;
     }
 
+    /**
+     * Serializes with the compression every agent understands.
+     */
     public ByteBuffer[] toBytes() {
+        return toBytes(CompressionPolicy.LEGACY);
+    }
+
+    /**
+     * Serializes with the compression the peer negotiated.
+     */
+    public ByteBuffer[] toBytes(CompressionPolicy compression) {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_codec == s_gsonCodec) {
+            if (_content == null) {
+                _content = s_gsonCodec.toJson(_cmds);
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
+        } else {
+            if (_payload == null) {
+                _payload = ByteBuffer.wrap(_codec.encode(_cmds));
+            }
+            tmp = _payload.duplicate();
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
-        int capacity = tmp.capacity();
+        int capacity = tmp.remaining();
+        _flags &= ~(FLAG_COMPRESSED | FLAG_COMPRESSED_LZ);
         /* Check if we need to compress the data */
-        if (capacity >= 8192) {
-            tmp = doCompress(tmp, capacity);
-            _flags |= FLAG_COMPRESSED;
+        Compressor compressor = compression.choose(capacity);
+        if (compressor != null) {
+            ByteBuffer compressed = CompressionPolicy.compress(compressor, tmp);
+            if (compressed.remaining() < capacity) {
+                tmp = compressed;
+                _flags |= getCompressionFlag(compressor);
+            }
         }
         buffers[1] = tmp;
         buffers[0] = serializeHeader(capacity);
@@ -395,12 +427,7 @@ public class Request {
         StringBuilder content = new StringBuilder();
         if (logContent) {
             if (_cmds == null) {
-                try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
-                } catch (RuntimeException e) {
-                    s_logger.error("Unable to convert to json: " + _content);
-                    throw e;
-                }
+                _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
             }
             try {
                 s_gogger.toJson(_cmds, content);
@@ -418,7 +445,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -488,7 +515,11 @@ public class Request {
         if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
+        final byte codecId = buff.get();
+        if (codecId < 0 || codecId >= s_codecs.length) {
+            throw new UnsupportedVersionException("Unknown codec: " + codecId, UnsupportedVersionException.IncompatibleVersion);
+        }
+        final CommandCodec codec = s_codecs[codecId];
         final short flags = buff.getShort();
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
@@ -505,8 +536,18 @@ public class Request {
             via = agentId;
         }
 
-        if ((flags & FLAG_COMPRESSED) != 0) {
-            buff = doDecompress(buff, size);
+        if ((flags & FLAG_COMPRESSED_LZ) != 0) {
+            buff = CompressionPolicy.LZ.decompress(buff, size);
+        } else if ((flags & FLAG_COMPRESSED) != 0) {
+            buff = CompressionPolicy.GZIP.decompress(buff, size);
+        }
+
+        if (codec != s_gsonCodec) {
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, codec, buff.slice());
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, codec, buff.slice());
+            }
         }
 
         byte[] command = null;
@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Snappy, an LZ77 compressor which is several times faster than deflate for a
+ * lower ratio.  It pays off on the links where the bytes are cheap but still
+ * not free, where deflate costs more CPU than it saves on the wire.
+ */
+public class SnappyCompressor implements Compressor {
+    public static final byte ID = 1;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer src) {
+        int length = src.remaining();
+        byte[] in;
+        int offset;
+        if (src.hasArray()) {
+            in = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[length];
+            src.duplicate().get(in);
+            offset = 0;
+        }
+
+        byte[] out = OutputBuffers.get(Snappy.maxCompressedLength(length));
+        int count = Snappy.compress(in, offset, length, out, 0);
+        return ByteBuffer.wrap(Arrays.copyOf(out, count));
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer src, int length) {
+        int size = src.remaining();
+        byte[] in;
+        int offset;
+        if (src.hasArray()) {
+            in = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[size];
+            src.duplicate().get(in);
+            offset = 0;
+        }
+
+        byte[] out = new byte[length];
+        try {
+            int count = Snappy.uncompress(in, offset, size, out, 0);
+            if (count != length) {
+                throw new CloudRuntimeException("Fail to decompress the request! Got " + count + " of " + length + " bytes");
+            }
+        } catch (CorruptionException e) {
+            throw new CloudRuntimeException("Fail to decompress the request!", e);
+        }
+        return ByteBuffer.wrap(out);
+    }
+}
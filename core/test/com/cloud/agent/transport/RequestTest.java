@@ -17,6 +17,8 @@
 package com.cloud.agent.transport;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import junit.framework.TestCase;
 
@@ -29,10 +31,14 @@ import org.apache.cloudstack.storage.command.DownloadCommand;
 import org.apache.cloudstack.storage.to.TemplateObjectTO;
 
 import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.ClusterSyncAnswer;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
 import com.cloud.agent.api.SecStorageFirewallCfgCommand;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.storage.DownloadAnswer;
 import com.cloud.agent.api.storage.ListTemplateCommand;
 import com.cloud.agent.api.to.NfsTO;
@@ -44,6 +50,10 @@ import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.Storage.TemplateType;
 import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
 import com.cloud.template.VirtualMachineTemplate;
+import com.cloud.utils.Ternary;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.nio.Link;
+import com.cloud.vm.VirtualMachine.State;
 
 /**
  *
@@ -210,6 +220,154 @@ public class RequestTest extends TestCase {
         }
     }
 
+    public void testCorruptCompressedData() {
+        s_logger.info("Testing a corrupt or truncated compressed body is rejected");
+        int len = 10000;
+        ByteBuffer input = ByteBuffer.allocate(len);
+        for (int i = 0; i < len; i++) {
+            input.put(i, (byte)(i % 31));
+        }
+
+        for (Compressor compressor : new Compressor[] { CompressionPolicy.LZ, CompressionPolicy.GZIP }) {
+            ByteBuffer compressed = compressor.compress(input.duplicate());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(compressed.remaining());
+            direct.put(compressed.duplicate());
+            direct.flip();
+            assertEquals(input, compressor.decompress(direct, len));
+
+            ByteBuffer truncated = compressed.duplicate();
+            truncated.limit(truncated.limit() / 2);
+            assertRejected(compressor, truncated, len);
+
+            assertRejected(compressor, compressed.duplicate(), len + 1);
+        }
+
+        // snappy has no checksum, gzip has the crc of its trailer
+        ByteBuffer gzip = CompressionPolicy.GZIP.compress(input.duplicate());
+        ByteBuffer corrupt = ByteBuffer.wrap(gzip.array().clone());
+        corrupt.put(corrupt.limit() - 12, (byte)~corrupt.get(corrupt.limit() - 12));
+        assertRejected(CompressionPolicy.GZIP, corrupt, len);
+
+        ByteBuffer badTrailer = ByteBuffer.wrap(gzip.array().clone());
+        badTrailer.put(badTrailer.limit() - 8, (byte)~badTrailer.get(badTrailer.limit() - 8));
+        assertRejected(CompressionPolicy.GZIP, badTrailer, len);
+    }
+
+    private static void assertRejected(Compressor compressor, ByteBuffer src, int length) {
+        try {
+            compressor.decompress(src, length);
+            fail(compressor.getClass().getSimpleName() + " accepted a corrupt body");
+        } catch (CloudRuntimeException e) {
+        }
+    }
+
+    public void testBinaryCodec() {
+        s_logger.info("Testing the binary codec gives back what Gson gives back");
+        SecStorageFirewallCfgCommand cmd1 = new SecStorageFirewallCfgCommand();
+        cmd1.addPortConfig("abc", "24", true, "eth0");
+        cmd1.addPortConfig("127.0.0.1", "44", false, "eth1");
+        ListTemplateCommand cmd2 = new ListTemplateCommand(new NfsTO("nfs://192.168.56.10/opt/storage/secondary", DataStoreRole.Image));
+        GetHostStatsCommand cmd3 = new GetHostStatsCommand("hostguid", "hostname", 101);
+        Request sreq = new Request(2, 3, new Command[] { cmd1, cmd2, cmd3 }, true, true);
+        sreq.setSequence(892403719);
+        sreq.setCodec(Request.getCodec(BinaryCommandCodec.ID));
+
+        Request creq = null;
+        try {
+            creq = Request.parse(sreq.getBytes());
+        } catch (Exception e) {
+            s_logger.error("Unable to parse bytes: ", e);
+        }
+        assert creq != null : "Couldn't get the request back";
+        assertEquals(BinaryCommandCodec.ID, creq.getCodec().getId());
+        compareRequest(creq, sreq);
+        assertEquals(toJson(sreq.getCommands()), toJson(creq.getCommands()));
+        assertEquals("nfs://192.168.56.10/opt/storage/secondary", ((NfsTO)((ListTemplateCommand)creq.getCommands()[1]).getDataStore()).getUrl());
+
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        HashMap<String, Ternary<String, State, String>> states = new HashMap<String, Ternary<String, State, String>>();
+        for (int i = 0; i < 500; i++) {
+            stats.put("i-2-" + i + "-VM", new VmStatsEntry(i * 0.5, i * 1024, i * 2048, 1000 + i, 2000 + i, 2, "UserVM"));
+            states.put("i-2-" + i + "-VM", new Ternary<String, State, String>("i-2-" + i + "-VM", State.Running, "host-" + i));
+        }
+        Answer[] answers = new Answer[] { new GetVmStatsAnswer(new GetVmStatsCommand(new ArrayList<String>(stats.keySet()), "guid", "host"), stats),
+                new ClusterSyncAnswer(5, states) };
+        Response sresp = new Response(creq, answers);
+        byte[] bytes = sresp.getBytes();
+        assertEquals("the response is marshalled the way the request was", BinaryCommandCodec.ID, bytes[1]);
+
+        Response cresp = null;
+        try {
+            cresp = Response.parse(bytes);
+        } catch (Exception e) {
+            s_logger.error("Unable to parse bytes: ", e);
+        }
+        assert cresp != null : "Couldn't get the response back";
+        compareRequest(cresp, sresp);
+        assertEquals(toJson(answers), toJson(cresp.getAnswers()));
+        assertEquals(State.Running, ((ClusterSyncAnswer)cresp.getAnswers()[1]).getNewStates().get("i-2-7-VM").second());
+    }
+
+    public void testCompressionPolicy() {
+        s_logger.info("Testing the compressors round trip and the policy skips compression on a fast link");
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < 500; i++) {
+            stats.put("i-2-" + i + "-VM", new VmStatsEntry(i * 0.5, i * 1024, i * 2048, 1000 + i, 2000 + i, 2, "UserVM"));
+        }
+        Answer answer = new GetVmStatsAnswer(new GetVmStatsCommand(new ArrayList<String>(stats.keySet()), "guid", "host"), stats);
+        Request req = new Request(2, 3, new GetHostStatsCommand("hostguid", "hostname", 101), true);
+        String json = toJson(new Answer[] { answer });
+
+        for (Compressor compressor : new Compressor[] { CompressionPolicy.LZ, CompressionPolicy.GZIP }) {
+            Response sresp = new Response(req, answer);
+            ByteBuffer[] buffers = sresp.toBytes(CompressionPolicy.negotiated(null, compressor));
+            assertTrue("compressed", buffers[1].remaining() < json.length());
+            assertEquals(Request.getCompressionFlag(compressor), sresp.getFlags() & (Request.FLAG_COMPRESSED | Request.FLAG_COMPRESSED_LZ));
+
+            Response cresp = null;
+            try {
+                cresp = (Response)Request.parse(sresp.getBytes());
+            } catch (Exception e) {
+                s_logger.error("Unable to parse bytes: ", e);
+            }
+            assert cresp != null : "Couldn't get the response back";
+            assertEquals(json, toJson(cresp.getAnswers()));
+        }
+
+        Link link = Mockito.mock(Link.class);
+        CompressionPolicy policy = CompressionPolicy.negotiated(link, CompressionPolicy.LZ);
+        assertNull("nothing under the minimum", policy.choose(100));
+        assertNull("legacy threshold until the link is measured", policy.choose(4096));
+        assertSame(CompressionPolicy.LZ, policy.choose(CompressionPolicy.DEFAULT_THRESHOLD));
+        Mockito.when(link.getWriteThroughput()).thenReturn(1e12);
+        assertNull("not worth it on a fast link", policy.choose(1000000));
+        Mockito.when(link.getWriteThroughput()).thenReturn(1.0);
+        assertNotNull("worth it on a slow link", policy.choose(4096));
+    }
+
+    public void testCodecFallback() {
+        s_logger.info("Testing an unknown codec falls back to Gson and the header keeps the codec");
+        assertEquals(GsonCommandCodec.ID, Request.getCodec((byte)42).getId());
+
+        Request req = new Request(2, 3, new GetHostStatsCommand("hostguid", "hostname", 101), true);
+        byte[] bytes = req.getBytes();
+        assertEquals(GsonCommandCodec.ID, bytes[1]);
+        bytes[1] = 42;
+        try {
+            Request.parse(bytes);
+            fail("A request in an unknown codec shouldn't parse");
+        } catch (UnsupportedVersionException e) {
+            // expected
+        } catch (ClassNotFoundException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private static String toJson(Command[] cmds) {
+        return GsonHelper.getGson().toJson(cmds, Command[].class);
+    }
+
     public void testLogging() {
         s_logger.info("Testing Logging");
         GetHostStatsCommand cmd3 = new GetHostStatsCommand("hostguid", "hostname", 101);
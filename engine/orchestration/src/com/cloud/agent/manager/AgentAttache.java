@@ -18,10 +18,7 @@ package com.cloud.agent.manager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -31,6 +28,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.log4j.Logger;
@@ -53,6 +51,9 @@ import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartCommand;
 import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.storage.CreateCommand;
+import com.cloud.agent.transport.CommandCodec;
+import com.cloud.agent.transport.CompressionPolicy;
+import com.cloud.agent.transport.GsonCommandCodec;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
@@ -69,47 +70,17 @@ public abstract class AgentAttache {
     private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
     private static final Random                       s_rand                               = new Random(System.currentTimeMillis());
 
-    protected static final Comparator<Request> s_reqComparator =
-            new Comparator<Request>() {
-        @Override
-        public int compare(Request o1, Request o2) {
-            long seq1 = o1.getSequence();
-            long seq2 = o2.getSequence();
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
-    protected static final Comparator<Object> s_seqComparator =
-            new Comparator<Object>() {
-        @Override
-        public int compare(Object o1, Object o2) {
-            long seq1 = ((Request) o1).getSequence();
-            long seq2 = (Long) o2;
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
-    protected final LinkedList<Request> _requests;
-    protected Long _currentSequence;
+    protected final SequentialRequestQueue _requests;
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
-    protected long _nextSequence;
+    protected final AtomicLong _nextSequence;
     protected AtomicInteger _outstandingTaskCount;
+    protected volatile CommandCodec _codec = Request.getCodec(GsonCommandCodec.ID);
+    protected volatile CompressionPolicy _compression = CompressionPolicy.LEGACY;
+    protected final CommandCoalescer _coalescer;
 
     protected AgentManagerImpl _agentMgr;
 
@@ -128,16 +99,16 @@ public abstract class AgentAttache {
         _id = id;
         _name = name;
         _waitForList = new ConcurrentHashMap<Long, Listener>();
-        _currentSequence = null;
         _maintenance = maintenance;
-        _requests = new LinkedList<Request>();
+        _requests = new SequentialRequestQueue();
         _agentMgr = agentMgr;
-        _nextSequence = s_rand.nextInt(Short.MAX_VALUE) << 48;
+        _nextSequence = new AtomicLong(s_rand.nextInt(Short.MAX_VALUE) << 48);
         _outstandingTaskCount = new AtomicInteger(0);
+        _coalescer = new CommandCoalescer(this, agentMgr == null ? -1 : agentMgr._nodeId, s_listenerExecutor);
     }
 
-    public synchronized long getNextSequence() {
-        return ++_nextSequence;
+    public long getNextSequence() {
+        return _nextSequence.incrementAndGet();
     }
 
     public synchronized void setMaintenanceMode(final boolean value) {
@@ -182,10 +153,8 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void addRequest(Request req) {
-        int index = findRequest(req);
-        assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
-        _requests.add(-index - 1, req);
+    protected void addRequest(Request req) {
+        _requests.add(req);
     }
 
 
@@ -194,7 +163,7 @@ public abstract class AgentAttache {
         cancel(seq);
     }
 
-    protected synchronized void cancel(final long seq) {
+    protected void cancel(final long seq) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(seq, "Cancelling."));
         }
@@ -202,18 +171,16 @@ public abstract class AgentAttache {
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
         }
-        int index = findRequest(seq);
-        if (index >= 0) {
-            _requests.remove(index);
-        }
+        _requests.remove(seq);
+        _coalescer.cancel(seq);
     }
 
-    protected synchronized int findRequest(Request req) {
-        return Collections.binarySearch(_requests, req, s_reqComparator);
+    protected boolean findRequest(long seq) {
+        return _requests.contains(seq);
     }
 
-    protected synchronized int findRequest(long seq) {
-        return Collections.binarySearch(_requests, seq, s_seqComparator);
+    public Long getCurrentSequence() {
+        return _requests.getCurrent();
     }
 
 
@@ -250,6 +217,28 @@ public abstract class AgentAttache {
             return _name;
     }
 
+    public CommandCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Sets the codec agreed on with the agent for the requests sent to it.
+     */
+    public void setCodec(CommandCodec codec) {
+        _codec = codec;
+    }
+
+    public CompressionPolicy getCompression() {
+        return _compression;
+    }
+
+    /**
+     * Sets the compression agreed on with the agent for the requests sent to it and the answers to its requests.
+     */
+    public void setCompression(CompressionPolicy compression) {
+        _compression = compression;
+    }
+
     public int getQueueSize() {
         return _requests.size();
     }
@@ -355,48 +344,94 @@ public abstract class AgentAttache {
             s_logger.debug(log(seq, "Routed from " + req.getManagementServerId()));
         }
 
-        synchronized(this) {
-            try {
-                if (isClosed()) {
-                    throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
-                }
+        try {
+            if (isClosed()) {
+                throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
+            }
 
-                if (req.executeInSequence() && _currentSequence != null) {
-                    req.logD("Waiting for Seq " + _currentSequence + " Scheduling: ", true);
-                    addRequest(req);
+            if (req.executeInSequence()) {
+                // queue it behind the lower sequences, and send it only if it is its turn
+                addRequest(req);
+                Request next = _requests.next();
+                if (next != req) {
+                    if (next != null) {
+                        sendCurrent(next);
+                    } else {
+                        req.logD("Waiting for Seq " + _requests.getCurrent() + " Scheduling: ", true);
+                    }
                     return;
                 }
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace(log(seq, " is current sequence"));
+                }
+            }
 
-                // If we got to here either we're not suppose to set
-                // the _currentSequence or it is null already.
+            req.logD("Sending ", true);
+            send(req);
+        } catch (AgentUnavailableException e) {
+            s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
+            cancel(seq);
+            if (req.executeInSequence()) {
+                sendNext(seq);
+            }
+            throw e;
+        } catch (Exception e) {
+            s_logger.warn(log(seq, "Unable to send due to "), e);
+            cancel(seq);
+            if (req.executeInSequence()) {
+                sendNext(seq);
+            }
+            throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
+        }
+    }
 
-                req.logD("Sending ", true);
-                send(req);
+    /**
+     * @return true if independent commands sent within a short window are better sent to the agent in one request.
+     */
+    public boolean canCoalesce() {
+        return false;
+    }
 
-                if (req.executeInSequence() && _currentSequence == null) {
-                    _currentSequence = seq;
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace(log(seq, " is current sequence"));
-                    }
-                }
-            } catch (AgentUnavailableException e) {
-                s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
-                cancel(seq);
-                throw e;
-            } catch (Exception e) {
-                s_logger.warn(log(seq, "Unable to send due to "), e);
-                cancel(seq);
-                throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
-            }
+    /**
+     * Sends the commands in a request together with the ones other senders send within the window.
+     * The commands must neither be executed in sequence nor stop on error.
+     *
+     * @return the sequence the listener is called with.
+     */
+    public long sendCoalesced(final Command[] cmds, final Listener listener, int window, int maxCommands) throws AgentUnavailableException {
+        checkAvailability(cmds);
+        if (isClosed()) {
+            throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
         }
+        return _coalescer.add(cmds, listener, window, maxCommands);
+    }
+
+    /**
+     * Sends the commands of the request together with the ones other senders send within the window, and waits
+     * for their answers like {@link #send(Request, int)}.
+     */
+    public Answer[] sendCoalesced(Request req, int wait, int window, int maxCommands) throws AgentUnavailableException, OperationTimedoutException {
+        checkAvailability(req.getCommands());
+        if (isClosed()) {
+            throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
+        }
+
+        SynchronousListener sl = new SynchronousListener(null);
+        // the request is kept until the sender has given up, which may take twice the wait
+        _coalescer.add(req.getSequence(), req.getCommands(), sl, wait * 2, window, maxCommands);
+        req.logD("Coalescing ", true);
+        return waitFor(req, sl, wait);
     }
 
     public Answer[] send(Request req, int wait) throws AgentUnavailableException, OperationTimedoutException {
         SynchronousListener sl = new SynchronousListener(null);
 
-        long seq = req.getSequence();
         send(req, sl);
+        return waitFor(req, sl, wait);
+    }
 
+    protected Answer[] waitFor(Request req, SynchronousListener sl, int wait) throws OperationTimedoutException {
+        long seq = req.getSequence();
         try {
             for (int i = 0; i < 2; i++) {
                 Answer[] answers = null;
@@ -422,7 +457,7 @@ public abstract class AgentAttache {
                     return answers;
                 }
 
-                final Long current = _currentSequence;
+                final Long current = _requests.getCurrent();
                 if (current != null && seq != current) {
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug(log(seq, "Waited too long."));
@@ -440,16 +475,14 @@ public abstract class AgentAttache {
         } catch (OperationTimedoutException e) {
             s_logger.warn(log(seq, "Timed out on " + req.toString()));
             cancel(seq);
-            final Long current = _currentSequence;
-            if (req.executeInSequence() && (current != null && current == seq)) {
+            if (req.executeInSequence()) {
                 sendNext(seq);
             }
             throw e;
         } catch (Exception e) {
             s_logger.warn(log(seq, "Exception while waiting for answer"), e);
             cancel(seq);
-            final Long current = _currentSequence;
-            if (req.executeInSequence() && (current != null && current == seq)) {
+            if (req.executeInSequence()) {
                 sendNext(seq);
             }
             throw new OperationTimedoutException(req.getCommands(), _id, seq, wait, false);
@@ -458,28 +491,48 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void sendNext(final long seq) {
-        _currentSequence = null;
-        if (_requests.isEmpty()) {
+    /**
+     * Completes the current sequential request and sends the next waiting one, if any.
+     * Nothing happens if seq is not the current request, e.g. for an answer which arrives after its timeout.
+     */
+    protected void sendNext(final long seq) {
+        if (!_requests.complete(seq)) {
             if (s_logger.isDebugEnabled()) {
-                s_logger.debug(log(seq, "No more commands found"));
+                s_logger.debug(log(seq, "Not the current sequence " + _requests.getCurrent()));
             }
             return;
         }
 
-        Request req = _requests.pop();
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
+        Request req = _requests.next();
+        if (req == null) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug(log(seq, "No more commands found"));
+            }
+            return;
         }
-        try {
-            send(req);
-        } catch (AgentUnavailableException e) {
+        sendCurrent(req);
+    }
+
+    /**
+     * Sends the request which has just become current, moving on to the next one as long as they can't be sent.
+     */
+    protected void sendCurrent(Request req) {
+        while (req != null) {
             if (s_logger.isDebugEnabled()) {
-                s_logger.debug(log(req.getSequence(), "Unable to send the next sequence"));
+                s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
+            }
+            try {
+                send(req);
+                return;
+            } catch (AgentUnavailableException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug(log(req.getSequence(), "Unable to send the next sequence"));
+                }
+                cancel(req.getSequence());
+                _requests.complete(req.getSequence());
+                req = _requests.next();
             }
-            cancel(req.getSequence());
         }
-        _currentSequence = req.getSequence();
     }
 
     public void process(Answer[] answers) {
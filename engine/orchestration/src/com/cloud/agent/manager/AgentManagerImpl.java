@@ -66,6 +66,12 @@ import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.api.StartupSecondaryStorageCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
+import com.cloud.agent.transport.BinaryCommandCodec;
+import com.cloud.agent.transport.CommandCodec;
+import com.cloud.agent.transport.CompressionPolicy;
+import com.cloud.agent.transport.Compressor;
+import com.cloud.agent.transport.GsonCommandCodec;
+import com.cloud.agent.transport.SnappyCompressor;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
@@ -157,17 +163,31 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected ExecutorService _executor;
     protected ThreadPoolExecutor _connectExecutor;
     protected ScheduledExecutorService _directAgentExecutor;
+    protected ScheduledExecutorService _directAgentPingExecutor;
     protected ScheduledExecutorService _monitorExecutor;
 
     private int _directAgentThreadCap;
+    private int _directAgentStorageThreadCap;
 
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
-    private final Map<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    protected final HostHeartbeats _heartbeats = new HostHeartbeats();
 
     @Inject ResourceManager _resourceMgr;
 
     protected final ConfigKey<Integer> Workers = new ConfigKey<Integer>(Integer.class, "workers", "Advanced", "5",
             "Number of worker threads handling remote agent connections.", false);
+    protected final ConfigKey<Integer> Selectors = new ConfigKey<Integer>(Integer.class, "agent.selectors", "Advanced", "1",
+            "Number of selector threads handling the I/O of remote agent connections, the connections are accepted by one more.", false);
+    protected final ConfigKey<Boolean> BinaryCodec = new ConfigKey<Boolean>(Boolean.class, "agent.binary.codec", "Advanced", "true",
+            "Exchange commands and answers with the agents that support it in a compact binary form instead of json, takes effect when an agent connects.", true);
+    protected final ConfigKey<Boolean> LzCompression = new ConfigKey<Boolean>(Boolean.class, "agent.lz.compression", "Advanced", "true",
+            "Compress the requests to and from the agents that support it with a fast LZ compressor where deflate costs more than it saves, takes effect when an agent connects.", true);
+    protected final ConfigKey<Integer> CoalesceWindow = new ConfigKey<Integer>(Integer.class, "agent.coalesce.window", "Advanced", "0",
+            "Milliseconds to gather the independent commands sent to the same connected agent into one request, 0 sends every command on its own.", true);
+    protected final ConfigKey<Integer> CoalesceMaxCommands = new ConfigKey<Integer>(Integer.class, "agent.coalesce.max.commands", "Advanced", "32",
+            "Number of commands a coalesced request is sent at without waiting for the rest of agent.coalesce.window.", true);
+    protected final ConfigKey<Integer> HeartbeatFlushInterval = new ConfigKey<Integer>(Integer.class, "agent.heartbeat.flush.interval", "Advanced", "60",
+            "Interval in seconds to write the last ping of the hosts which pinged since the last time to the database, in one update for all of them", false);
     protected final ConfigKey<Integer> Port = new ConfigKey<Integer>(Integer.class, "port", "Advanced", "8250", "Port to listen on for remote agent connections.", false);
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>(Integer.class, "ping.interval", "Advanced", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
@@ -181,6 +201,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Default size for DirectAgentPool", false);
     protected final ConfigKey<Float> DirectAgentThreadCap = new ConfigKey<Float>(Float.class, "direct.agent.thread.cap", "Advanced", "0.1",
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
+    protected final ConfigKey<Integer> DirectAgentPingPoolSize = new ConfigKey<Integer>(Integer.class, "direct.agent.ping.pool.size", "Advanced", "50",
+            "Size of the pool the pings of the direct agents run on, apart from their commands", false);
+    protected final ConfigKey<Float> DirectAgentStorageThreadShare = new ConfigKey<Float>(Float.class, "direct.agent.storage.thread.share", "Advanced", "0.5",
+            "Share of direct.agent.thread.cap the long running storage commands of a direct agent may use, the rest is kept for its other commands", false);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -204,11 +228,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         _connectExecutor.allowCoreThreadTimeOut(true);
 
         _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection.setIoSelectors(Selectors.value());
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + Selectors.value() + " selectors");
 
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
         s_logger.debug("Created DirectAgentAttache pool with size: " + DirectAgentPoolSize.value());
         _directAgentThreadCap = Math.round(DirectAgentPoolSize.value() * DirectAgentThreadCap.value()) + 1; // add 1 to always make the value > 0
+        _directAgentStorageThreadCap = Math.max(1, Math.round(_directAgentThreadCap * DirectAgentStorageThreadShare.value()));
+        _directAgentPingExecutor = new ScheduledThreadPoolExecutor(DirectAgentPingPoolSize.value(), new NamedThreadFactory("DirectAgentPing"));
 
         _monitorExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AgentMonitor"));
 
@@ -391,12 +418,33 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
-        Answer[] answers = agent.send(req, timeout);
+        Answer[] answers;
+        if (canCoalesce(agent, cmds, commands.stopOnError())) {
+            answers = agent.sendCoalesced(req, timeout, CoalesceWindow.value(), CoalesceMaxCommands.value());
+        } else {
+            answers = agent.send(req, timeout);
+        }
         notifyAnswersToMonitors(hostId, req.getSequence(), answers);
         commands.setAnswers(answers);
         return answers;
     }
 
+    /**
+     * @return true if the commands may go to the agent in one request with the ones other senders send around the same time,
+     * which is when coalescing is enabled and they neither have to be executed in sequence nor stop each other on error.
+     */
+    protected boolean canCoalesce(AgentAttache agent, Command[] cmds, boolean stopOnError) {
+        if (CoalesceWindow.value() <= 0 || !agent.canCoalesce() || (stopOnError && cmds.length > 1)) {
+            return false;
+        }
+        for (Command cmd : cmds) {
+            if (cmd.executeInSequence()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected Status investigate(AgentAttache agent) {
         Long hostId = agent.getId();
         if (s_logger.isDebugEnabled()) {
@@ -442,6 +490,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         if (cmds.length == 0) {
             throw new AgentUnavailableException("Empty command set for agent " + agent.getId(), agent.getId());
         }
+        if (listener != null && canCoalesce(agent, cmds, commands.stopOnError())) {
+            return agent.sendCoalesced(cmds, listener, CoalesceWindow.value(), CoalesceMaxCommands.value());
+        }
         Request req = new Request(hostId, agent.getName(), _nodeId, cmds, commands.stopOnError(), true);
         req.setSequence(agent.getNextSequence());
 
@@ -557,6 +608,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), PingInterval.value(), PingInterval.value(), TimeUnit.SECONDS);
+        _monitorExecutor.scheduleWithFixedDelay(new HeartbeatFlushTask(), HeartbeatFlushInterval.value(), HeartbeatFlushInterval.value(), TimeUnit.SECONDS);
 
         return true;
     }
@@ -996,6 +1048,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (host != null) {
                 ready = new ReadyCommand(host.getDataCenterId(), host.getId());
                 attache = createAttacheForConnect(host, link);
+                attache.setCodec(negotiateCodec(startup));
+                attache.setCompression(CompressionPolicy.negotiated(link, negotiateCompressor(startup)));
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (Exception e) {
@@ -1021,6 +1075,28 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return attache;
     }
 
+    /**
+     * @return the codec the agent asked for in its startup command if we support it and it is enabled, json otherwise.
+     */
+    protected CommandCodec negotiateCodec(final StartupCommand[] startup) {
+        byte codec = startup[0].getCodec();
+        if (codec == BinaryCommandCodec.ID && BinaryCodec.value()) {
+            return Request.getCodec(codec);
+        }
+        return Request.getCodec(GsonCommandCodec.ID);
+    }
+
+    /**
+     * @return the compressor the agent asked for in its startup command if we support it and it is enabled, gzip otherwise.
+     */
+    protected Compressor negotiateCompressor(final StartupCommand[] startup) {
+        byte compressor = startup[0].getCompressor();
+        if (compressor == SnappyCompressor.ID && LzCompression.value()) {
+            return CompressionPolicy.getCompressor(compressor);
+        }
+        return CompressionPolicy.GZIP;
+    }
+
     protected class SimulateStartTask extends ManagedContextRunnable {
         ServerResource resource;
         Map<String, String> details;
@@ -1094,6 +1170,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             cmd = cmds[i];
             if ((cmd instanceof StartupRoutingCommand) || (cmd instanceof StartupProxyCommand) || (cmd instanceof StartupSecondaryStorageCommand) || (cmd instanceof StartupStorageCommand)) {
                 answers[i] = new StartupAnswer((StartupCommand)cmds[i], 0, getPingInterval());
+                answers[i].setCodec(negotiateCodec(new StartupCommand[] {(StartupCommand)cmds[i]}).getId());
+                answers[i].setCompressor(negotiateCompressor(new StartupCommand[] {(StartupCommand)cmds[i]}).getId());
                 break;
             }
         }
@@ -1186,8 +1264,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                             long cmdHostId = ((PingCommand) cmd).getHostId();
 
                             // if the router is sending a ping, verify the
-                            // gateway was pingable
-                            if (cmd instanceof PingRoutingCommand) {
+                            // gateway was pingable, the alerts are looked at
+                            // only when that changes
+                            if (cmd instanceof PingRoutingCommand && _heartbeats.updateGatewayAccessible(cmdHostId, ((PingRoutingCommand) cmd).isGatewayAccessible())) {
                                 boolean gatewayAccessible = ((PingRoutingCommand) cmd).isGatewayAccessible();
                                 HostVO host = _hostDao.findById(Long.valueOf(cmdHostId));
 
@@ -1226,6 +1305,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                     s_logger.warn("Caught: ", th);
                     answer = new Answer(cmd, false, th.getMessage());
                 }
+                if (answer instanceof StartupAnswer) {
+                    ((StartupAnswer)answer).setCodec(attache.getCodec().getId());
+                    ((StartupAnswer)answer).setCompressor(attache.getCompression().getPreferredCompressor().getId());
+                }
                 answers[i] = answer;
             }
 
@@ -1238,7 +1321,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
             }
             try {
-                link.send(response.toBytes());
+                link.send(response.toBytes(attache.getCompression()));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to send response because connection is closed: " + response);
             }
@@ -1430,12 +1513,48 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return _directAgentThreadCap;
     }
 
+    /**
+     * @return how many of the direct agent threads of a host its storage commands may use.
+     */
+    public int getDirectAgentStorageThreadCap() {
+        return _directAgentStorageThreadCap;
+    }
+
+    public ScheduledExecutorService getDirectAgentPingPool() {
+        return _directAgentPingExecutor;
+    }
+
     public Long getAgentPingTime(long agentId) {
-        return _pingMap.get(agentId);
+        return _heartbeats.getLastPing(agentId);
     }
 
     public void pingBy(long agentId) {
-        _pingMap.put(agentId, InaccurateClock.getTimeInSeconds());
+        _heartbeats.ping(agentId);
+    }
+
+    /**
+     * Writes the last ping of the hosts which pinged since the last flush, a few statements for all of them.
+     */
+    protected class HeartbeatFlushTask extends ManagedContextRunnable {
+        private static final int BATCH_SIZE = 1000;
+
+        @Override
+        protected void runInContext() {
+            try {
+                List<Long> pinged = _heartbeats.collectPinged();
+                // every host in the batch pinged within the last interval, that's as precise as the database gets now
+                long lastPing = System.currentTimeMillis() >> 10;
+                int updated = 0;
+                for (int i = 0; i < pinged.size(); i += BATCH_SIZE) {
+                    updated += _hostDao.updateLastPinged(pinged.subList(i, Math.min(i + BATCH_SIZE, pinged.size())), _nodeId, lastPing);
+                }
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Flushed the last ping of " + updated + " of " + pinged.size() + " hosts");
+                }
+            } catch (Throwable th) {
+                s_logger.error("Caught the following exception: ", th);
+            }
+        }
     }
 
     protected class MonitorTask extends ManagedContextRunnable {
@@ -1489,13 +1608,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         protected List<Long> findAgentsBehindOnPing() {
-            List<Long> agentsBehind = new ArrayList<Long>();
             long cutoffTime = InaccurateClock.getTimeInSeconds() - getTimeout();
-            for (Map.Entry<Long, Long> entry : _pingMap.entrySet()) {
-                if (entry.getValue() < cutoffTime) {
-                    agentsBehind.add(entry.getKey());
-                }
-            }
+            List<Long> agentsBehind = _heartbeats.findBehind(cutoffTime);
 
             if (agentsBehind.size() > 0) {
                 s_logger.info("Found the following agents behind on ping: " + agentsBehind);
@@ -1540,12 +1654,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
 
             // NOTE: We don't use pingBy here because we're initiating.
-            _pingMap.put(host.getId(), InaccurateClock.getTimeInSeconds());
+            _heartbeats.connected(host.getId());
         }
 
         @Override
         public boolean processDisconnect(long agentId, Status state) {
-            _pingMap.remove(agentId);
+            _heartbeats.disconnected(agentId);
             return true;
         }
 
@@ -1568,7 +1682,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap};
+        return new ConfigKey<?>[] {Workers, Selectors, BinaryCodec, LzCompression, CoalesceWindow, CoalesceMaxCommands, HeartbeatFlushInterval, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap, DirectAgentPingPoolSize, DirectAgentStorageThreadShare};
     }
 
 }
@@ -21,9 +21,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.net.ssl.SSLEngine;
 
@@ -43,7 +43,7 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
     private static ClusteredAgentManagerImpl s_clusteredAgentMgr;
     protected ByteBuffer _buffer = ByteBuffer.allocate(2048);
     private boolean _forward = false;
-    protected final LinkedList<Request> _transferRequests;
+    protected final ConcurrentSkipListMap<Long, Request> _transferRequests;
     protected boolean _transferMode = false;
 
     static public void initialize(ClusteredAgentManagerImpl agentMgr) {
@@ -53,13 +53,13 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
     public ClusteredAgentAttache(AgentManagerImpl agentMgr, long id, String name) {
         super(agentMgr, id, name, null, false);
         _forward = true;
-        _transferRequests = new LinkedList<Request>();
+        _transferRequests = new ConcurrentSkipListMap<Long, Request>();
     }
 
     public ClusteredAgentAttache(AgentManagerImpl agentMgr, long id, String name, Link link, boolean maintenance) {
         super(agentMgr, id, name, link, maintenance);
         _forward = link == null;
-        _transferRequests = new LinkedList<Request>();
+        _transferRequests = new ConcurrentSkipListMap<Long, Request>();
     }
 
     @Override
@@ -158,10 +158,8 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
                 s_logger.debug(log(seq, "Holding request as the corresponding agent is in transfer mode: "));
             }
                 
-            synchronized (this) {
-                addRequestToTransfer(req);
-                return;
-            }
+            addRequestToTransfer(req);
+            return;
         } 
 
         if (s_clusteredAgentMgr == null) {
@@ -230,21 +228,17 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
     }
     
     public Request getRequestToTransfer() {
-        if (_transferRequests.isEmpty()) {
-            return null;
-        } else {
-            return _transferRequests.pop();
-        } 
+        Map.Entry<Long, Request> first = _transferRequests.pollFirstEntry();
+        return first == null ? null : first.getValue();
     }
     
-    protected synchronized void addRequestToTransfer(Request req) {
-        int index = findTransferRequest(req);
-        assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
-        _transferRequests.add(-index - 1, req);
+    protected void addRequestToTransfer(Request req) {
+        Request old = _transferRequests.put(req.getSequence(), req);
+        assert (old == null) : "How can we get the same sequence again? " + req.toString();
     }
     
-    protected synchronized int findTransferRequest(Request req) {
-        return Collections.binarySearch(_transferRequests, req, s_reqComparator);
+    protected boolean findTransferRequest(Request req) {
+        return _transferRequests.containsKey(req.getSequence());
     }
     
     @Override
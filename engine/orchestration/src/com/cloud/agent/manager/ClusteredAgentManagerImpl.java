@@ -57,6 +57,7 @@ import com.cloud.agent.api.CancelCommand;
 import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.LockWakeupCommand;
 import com.cloud.agent.api.PropagateResourceEventCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
 import com.cloud.agent.api.TransferAgentCommand;
@@ -84,6 +85,7 @@ import com.cloud.resource.ServerResource;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.Merovingian2;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.SearchCriteria.Op;
@@ -157,6 +159,11 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         if (!super.start()) {
             return false;
         }
+        Merovingian2 lockMaster = Merovingian2.getLockMaster();
+        if (lockMaster != null) {
+            lockMaster.setClusterNotifier(new ClusterLockNotifier());
+        }
+
         _timer.schedule(new DirectAgentScanTimerTask(), STARTUP_DELAY, ScanInterval.value());
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled direct agent scan task to run at an interval of " + ScanInterval.value() + " seconds");
@@ -623,11 +630,10 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                             logD(data, "Cancel request received");
                         }
                         agent.cancel(cancel.getSequence());
-                        final Long current = agent._currentSequence;
                         // if the request is the current request, always have to trigger sending next request in
 // sequence,
                         // otherwise the agent queue will be blocked
-                        if (req.executeInSequence() && (current != null && current == Request.getSequence(data))) {
+                        if (req.executeInSequence()) {
                             agent.sendNext(Request.getSequence(data));
                         }
                         return;
@@ -1228,6 +1234,38 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         return _gson.toJson(answers);
     }
 
+    private void handleLockWakeupCommand(LockWakeupCommand cmd) {
+        Merovingian2 lockMaster = Merovingian2.getLockMaster();
+        if (lockMaster == null) {
+            return;
+        }
+        if (cmd.isReleased()) {
+            lockMaster.wakeup(cmd.getKey());
+        } else {
+            lockMaster.wakeOnRelease(cmd.getMsId(), cmd.getKey());
+        }
+    }
+
+    /**
+     * Carries the lock wakeups of Merovingian2 between MS peers, without waiting for them to be handled.
+     */
+    protected class ClusterLockNotifier implements Merovingian2.ClusterNotifier {
+        @Override
+        public void waitingFor(long ownerMsId, String key) {
+            send(ownerMsId, new LockWakeupCommand(key, _nodeId, false));
+        }
+
+        @Override
+        public void released(long waiterMsId, String key) {
+            send(waiterMsId, new LockWakeupCommand(key, _nodeId, true));
+        }
+
+        private void send(long msId, LockWakeupCommand cmd) {
+            Command[] cmds = new Command[] { cmd };
+            _clusterMgr.executeAsync(Long.toString(msId), 0, _gson.toJson(cmds), false);
+        }
+    }
+
     public Answer[] sendToAgent(Long hostId, Command[] cmds, boolean stopOnError) throws AgentUnavailableException, OperationTimedoutException {
         Commands commands = new Commands(stopOnError ? Command.OnError.Stop : Command.OnError.Continue);
         for (Command cmd : cmds) {
@@ -1319,6 +1357,9 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 Answer[] answers = new Answer[1];
                 answers[0] = new Answer(cmd, result, null);
                 return _gson.toJson(answers);
+            } else if (cmds.length == 1 && cmds[0] instanceof LockWakeupCommand) {
+                handleLockWakeupCommand((LockWakeupCommand) cmds[0]);
+                return null;
             } else if (cmds.length == 1 && cmds[0] instanceof ScheduleHostScanTaskCommand) {
                 ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand) cmds[0];
                 String response = handleScheduleHostScanTaskCommand(cmd);
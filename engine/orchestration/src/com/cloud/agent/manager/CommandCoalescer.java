@@ -0,0 +1,336 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.AgentControlAnswer;
+import com.cloud.agent.api.AgentControlCommand;
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.StartupCommand;
+import com.cloud.agent.transport.Request;
+import com.cloud.exception.AgentUnavailableException;
+import com.cloud.host.Host;
+import com.cloud.host.Status;
+
+/**
+ * Gathers the independent commands sent to an agent within a short window into one request,
+ * and hands every sender the answers to its own commands.
+ *
+ * The agent executes the commands of a request one after the other and answers them all at once,
+ * so only commands which don't have to be executed in sequence and don't stop the others on error
+ * are gathered.  Every sender gets a sequence of its own, which is what its listener is called with.
+ */
+public class CommandCoalescer {
+    private static final Logger s_logger = Logger.getLogger(CommandCoalescer.class);
+
+    private final AgentAttache _attache;
+    private final long _nodeId;
+    private final ScheduledExecutorService _timer;
+    private Batch _batch;
+    // the request every sender waiting for its answers is in
+    private final Map<Long, Batch> _senders = new ConcurrentHashMap<Long, Batch>();
+
+    public CommandCoalescer(AgentAttache attache, long nodeId, ScheduledExecutorService timer) {
+        _attache = attache;
+        _nodeId = nodeId;
+        _timer = timer;
+    }
+
+    /**
+     * Adds the commands to the request being gathered, which is sent once the window has passed or it
+     * holds maxCommands commands.
+     *
+     * @return the sequence the listener is called with.
+     */
+    public long add(Command[] cmds, Listener listener, int window, int maxCommands) {
+        long seq = _attache.getNextSequence();
+        add(seq, cmds, listener, listener.getTimeout(), window, maxCommands);
+        return seq;
+    }
+
+    /**
+     * Adds the commands of a sender which already has a sequence and waits for at most timeout seconds, -1 if forever.
+     */
+    public void add(long seq, Command[] cmds, Listener listener, int timeout, int window, int maxCommands) {
+        Batch full = null;
+        synchronized (this) {
+            if (_batch == null) {
+                _batch = new Batch();
+                _timer.schedule(new FlushTask(_batch), window, TimeUnit.MILLISECONDS);
+            }
+            _batch.add(new Entry(seq, cmds, listener, timeout));
+            _senders.put(seq, _batch);
+            if (_batch.getCommandCount() >= maxCommands) {
+                full = _batch;
+                _batch = null;
+            }
+        }
+
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Stops waiting for the answers of a sender, e.g. once it timed out.  The request is cancelled when none of its
+     * senders waits anymore.
+     */
+    public void cancel(long seq) {
+        Batch batch = _senders.remove(seq);
+        if (batch == null) {
+            return;
+        }
+        if (batch.cancel(seq)) {
+            long batchSeq = batch.getSequence();
+            if (batchSeq != -1) {
+                _attache.cancel(batchSeq);
+            }
+        }
+    }
+
+    protected void flush(Batch batch) {
+        synchronized (this) {
+            if (_batch != batch) {
+                // already sent because it was full
+                return;
+            }
+            _batch = null;
+        }
+        send(batch);
+    }
+
+    protected void send(Batch batch) {
+        Request req = new Request(_attache.getId(), _attache.getName(), _nodeId, batch.getCommands(), false, true);
+        req.setSequence(_attache.getNextSequence());
+        if (!batch.setSequence(req.getSequence())) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Seq " + _attache.getId() + "-" + req.getSequence() + ": All the coalesced senders gave up, not sending");
+            }
+            return;
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Seq " + _attache.getId() + "-" + req.getSequence() + ": Coalesced " + batch._entries.size() + " senders with " + batch.getCommandCount() + " commands");
+        }
+        try {
+            _attache.send(req, batch);
+        } catch (AgentUnavailableException e) {
+            batch.fail("Unable to send: " + e.getMessage());
+        }
+    }
+
+    protected static class Entry {
+        final long _seq;
+        final Command[] _cmds;
+        final Listener _listener;
+        final int _timeout;
+        boolean _cancelled;
+
+        Entry(long seq, Command[] cmds, Listener listener, int timeout) {
+            _seq = seq;
+            _cmds = cmds;
+            _listener = listener;
+            _timeout = timeout;
+        }
+    }
+
+    /**
+     * The senders of a request, which is the listener of the request and splits the answers back to them.
+     */
+    protected class Batch implements Listener {
+        final List<Entry> _entries = new ArrayList<Entry>();
+        int _commandCount;
+        long _seq = -1;
+
+        synchronized void add(Entry entry) {
+            _entries.add(entry);
+            _commandCount += entry._cmds.length;
+        }
+
+        int getCommandCount() {
+            return _commandCount;
+        }
+
+        synchronized long getSequence() {
+            return _seq;
+        }
+
+        /**
+         * @return false if every sender has already given up.
+         */
+        synchronized boolean setSequence(long seq) {
+            _seq = seq;
+            return !isCancelled();
+        }
+
+        /**
+         * @return true if none of the senders waits anymore.
+         */
+        synchronized boolean cancel(long seq) {
+            for (Entry entry : _entries) {
+                if (entry._seq == seq) {
+                    entry._cancelled = true;
+                }
+            }
+            return isCancelled();
+        }
+
+        synchronized boolean isCancelled() {
+            for (Entry entry : _entries) {
+                if (!entry._cancelled) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the senders still waiting, which won't be told anything else about this request.
+         */
+        synchronized List<Entry> complete() {
+            List<Entry> waiting = new ArrayList<Entry>();
+            for (Entry entry : _entries) {
+                _senders.remove(entry._seq);
+                if (!entry._cancelled) {
+                    waiting.add(entry);
+                }
+            }
+            for (Entry entry : waiting) {
+                entry._cancelled = true;
+            }
+            return waiting;
+        }
+
+        Command[] getCommands() {
+            Command[] cmds = new Command[_commandCount];
+            int i = 0;
+            for (Entry entry : _entries) {
+                System.arraycopy(entry._cmds, 0, cmds, i, entry._cmds.length);
+                i += entry._cmds.length;
+            }
+            return cmds;
+        }
+
+        void fail(String details) {
+            for (Entry entry : complete()) {
+                Answer[] answers = new Answer[entry._cmds.length];
+                for (int i = 0; i < answers.length; i++) {
+                    answers[i] = new Answer(entry._cmds[i], false, details);
+                }
+                entry._listener.processAnswers(_attache.getId(), entry._seq, answers);
+            }
+        }
+
+        @Override
+        public boolean processAnswers(long agentId, long seq, Answer[] answers) {
+            if (answers.length != _commandCount) {
+                s_logger.warn("Seq " + agentId + "-" + seq + ": Got " + answers.length + " answers for " + _commandCount + " commands");
+                fail("The agent didn't answer every command");
+                return true;
+            }
+            List<Entry> waiting = complete();
+            int i = 0;
+            for (Entry entry : _entries) {
+                Answer[] own = new Answer[entry._cmds.length];
+                System.arraycopy(answers, i, own, 0, own.length);
+                i += own.length;
+                if (waiting.contains(entry)) {
+                    entry._listener.processAnswers(agentId, entry._seq, own);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean processCommands(long agentId, long seq, Command[] commands) {
+            return false;
+        }
+
+        @Override
+        public AgentControlAnswer processControlCommand(long agentId, AgentControlCommand cmd) {
+            return null;
+        }
+
+        @Override
+        public void processConnect(Host host, StartupCommand cmd, boolean forRebalance) {
+        }
+
+        @Override
+        public boolean processDisconnect(long agentId, Status state) {
+            for (Entry entry : complete()) {
+                entry._listener.processDisconnect(agentId, state);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isRecurring() {
+            return false;
+        }
+
+        /**
+         * @return the longest timeout of the senders, -1 if one of them waits forever.
+         */
+        @Override
+        public synchronized int getTimeout() {
+            int timeout = 0;
+            for (Entry entry : _entries) {
+                if (entry._timeout == -1) {
+                    return -1;
+                }
+                timeout = Math.max(timeout, entry._timeout);
+            }
+            return timeout;
+        }
+
+        @Override
+        public boolean processTimeout(long agentId, long seq) {
+            for (Entry entry : complete()) {
+                entry._listener.processTimeout(agentId, entry._seq);
+            }
+            return true;
+        }
+    }
+
+    protected class FlushTask extends ManagedContextRunnable {
+        private final Batch _batch;
+
+        FlushTask(Batch batch) {
+            _batch = batch;
+        }
+
+        @Override
+        protected void runInContext() {
+            try {
+                flush(_batch);
+            } catch (Exception e) {
+                s_logger.warn("Unable to send the coalesced commands", e);
+            }
+        }
+    }
+}
@@ -41,12 +41,18 @@ public class ConnectedAgentAttache extends AgentAttache {
     @Override
     public synchronized void send(Request req) throws AgentUnavailableException {
         try {
-            _link.send(req.toBytes());
+            req.setCodec(_codec);
+            _link.send(req.toBytes(_compression));
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
         }
     }
 
+    @Override
+    public boolean canCoalesce() {
+        return true;
+    }
+
     @Override
     public synchronized boolean isClosed() {
         return _link == null;
@@ -35,6 +35,7 @@ import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.host.Status.Event;
 import com.cloud.resource.ServerResource;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class DirectAgentAttache extends AgentAttache {
     private final static Logger s_logger = Logger.getLogger(DirectAgentAttache.class);
@@ -43,11 +44,18 @@ public class DirectAgentAttache extends AgentAttache {
     List<ScheduledFuture<?>> _futures = new ArrayList<ScheduledFuture<?>>();
     AgentManagerImpl _mgr;
     long _seq = 0;
+    final DirectAgentLanes _lanes;
 
     public DirectAgentAttache(AgentManagerImpl agentMgr, long id, String name, ServerResource resource, boolean maintenance, AgentManagerImpl mgr) {
         super(agentMgr, id, name, maintenance);
         _resource = resource;
         _mgr = mgr;
+        int storageCap = agentMgr.getDirectAgentStorageThreadCap();
+        _lanes = new DirectAgentLanes(agentMgr.getDirectAgentPingPool(), agentMgr.getDirectAgentPool(), agentMgr.getDirectAgentThreadCap() - storageCap, storageCap);
+    }
+
+    public DirectAgentLanes getLanes() {
+        return _lanes;
     }
 
     @Override
@@ -60,6 +68,14 @@ public class DirectAgentAttache extends AgentAttache {
             future.cancel(false);
         }
 
+        try {
+            JmxUtil.unregisterMBean("DirectAgentLanes", "Host " + _id);
+        } catch (Exception e) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Unable to deregister the lanes of " + _id + " from JMX monitoring due to exception " + e.toString());
+            }
+        }
+
         synchronized(this) {
             if( _resource != null ) {
                 _resource.disconnected();
@@ -89,16 +105,22 @@ public class DirectAgentAttache extends AgentAttache {
             Answer[] answers = resp.getAnswers();
             if (answers != null && answers[0] instanceof StartupAnswer) {
                 StartupAnswer startup = (StartupAnswer)answers[0];
-                int interval = startup.getPingInterval();
-                _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+                schedulePing(startup.getPingInterval());
             }
         } else {
             Command[] cmds = req.getCommands();
+            final DirectAgentLanes.Lane lane = DirectAgentLanes.laneOf(cmds);
+            final Task task = new Task(req);
             if (cmds.length > 0 && !(cmds[0] instanceof CronCommand)) {
-                _agentMgr.getDirectAgentPool().execute(new Task(req));
+                _lanes.execute(lane, task);
             } else {
                 CronCommand cmd = (CronCommand)cmds[0];
-                _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new Task(req), cmd.getInterval(), cmd.getInterval(), TimeUnit.SECONDS));
+                _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        _lanes.execute(lane, task);
+                    }
+                }, cmd.getInterval(), cmd.getInterval(), TimeUnit.SECONDS));
             }
         }
     }
@@ -109,7 +131,28 @@ public class DirectAgentAttache extends AgentAttache {
             StartupAnswer startup = (StartupAnswer)answers[0];
             int interval = startup.getPingInterval();
             s_logger.info("StartupAnswer received " + startup.getHostId() + " Interval = " + interval );
-            _futures.add(_agentMgr.getDirectAgentPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+            schedulePing(interval);
+        }
+    }
+
+    /**
+     * Pings in the ping lane, which doesn't wait for the commands.
+     */
+    protected void schedulePing(int interval) {
+        final PingTask ping = new PingTask();
+        _futures.add(_agentMgr.getDirectAgentPingPool().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!_lanes.execute(DirectAgentLanes.Lane.PING, ping)) {
+                    s_logger.warn("Skipping the ping of " + _id + "(" + _name + ") because the last one is still waiting");
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS));
+
+        try {
+            JmxUtil.registerMBean("DirectAgentLanes", "Host " + _id, _lanes);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the lanes of " + _id + " into JMX monitoring due to exception " + e.toString());
         }
     }
 
@@ -132,11 +175,6 @@ public class DirectAgentAttache extends AgentAttache {
         @Override
         protected synchronized void runInContext() {
             try {
-                if (_outstandingTaskCount.incrementAndGet() > _agentMgr.getDirectAgentThreadCap()) {
-                    s_logger.warn("Task execution for direct attache(" + _id + ") has reached maximum outstanding limit(" + _agentMgr.getDirectAgentThreadCap() + "), bailing out");
-                    return;
-                }
-
                 ServerResource resource = _resource;
 
                 if (resource != null) {
@@ -161,8 +199,6 @@ public class DirectAgentAttache extends AgentAttache {
                 }
             } catch (Exception e) {
                 s_logger.warn("Unable to complete the ping task", e);
-            } finally {
-                _outstandingTaskCount.decrementAndGet();
             }
         }
     }
@@ -0,0 +1,242 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.storage.command.StorageSubSystemCommand;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.ManageSnapshotCommand;
+import com.cloud.agent.api.SnapshotCommand;
+import com.cloud.agent.api.storage.StorageCommand;
+
+/**
+ * The tasks of a direct agent, in lanes which don't wait for each other.
+ *
+ * Pings run on a pool of their own, one at a time, and a ping is skipped while the last one is still waiting,
+ * so slow commands can't delay them into a false disconnect.  The commands which copy or snapshot data can take
+ * minutes on the hypervisor, they run in the storage lane which may use only a share of the threads of the host;
+ * everything else runs in the control lane.  Each lane is a queue whose tasks are handed to the pool one at a time,
+ * never more at once than the lane allows, so the tasks of one host don't hold the pool threads the others need.
+ */
+public class DirectAgentLanes extends StandardMBean implements DirectAgentLanesMBean {
+    private static final Logger s_logger = Logger.getLogger(DirectAgentLanes.class);
+
+    public enum Lane {
+        PING, CONTROL, STORAGE
+    }
+
+    private final LaneQueue[] _lanes = new LaneQueue[Lane.values().length];
+
+    public DirectAgentLanes(Executor pingExecutor, Executor executor, int controlLimit, int storageLimit) {
+        super(DirectAgentLanesMBean.class, false);
+        _lanes[Lane.PING.ordinal()] = new LaneQueue(pingExecutor, 1, 1);
+        _lanes[Lane.CONTROL.ordinal()] = new LaneQueue(executor, controlLimit, 0);
+        _lanes[Lane.STORAGE.ordinal()] = new LaneQueue(executor, storageLimit, 0);
+    }
+
+    /**
+     * @return the lane of a request, the storage one if any of its commands moves data.
+     */
+    public static Lane laneOf(Command[] cmds) {
+        for (Command cmd : cmds) {
+            if (cmd instanceof StorageSubSystemCommand || cmd instanceof SnapshotCommand || cmd instanceof ManageSnapshotCommand || cmd instanceof StorageCommand) {
+                return Lane.STORAGE;
+            }
+        }
+        return Lane.CONTROL;
+    }
+
+    /**
+     * Queues the task in the lane, it runs as soon as the lane has room.
+     *
+     * @return false if the task was skipped because the lane has as many waiting as it takes.
+     */
+    public boolean execute(Lane lane, Runnable task) {
+        return _lanes[lane.ordinal()].offer(task);
+    }
+
+    @Override
+    public int getPingQueueSize() {
+        return _lanes[Lane.PING.ordinal()]._queued.get();
+    }
+
+    @Override
+    public int getPingRunning() {
+        return _lanes[Lane.PING.ordinal()]._running.get();
+    }
+
+    @Override
+    public long getPingCompleted() {
+        return _lanes[Lane.PING.ordinal()]._completed.get();
+    }
+
+    @Override
+    public long getPingSkipped() {
+        return _lanes[Lane.PING.ordinal()]._skipped.get();
+    }
+
+    @Override
+    public long getPingAverageWaitMillis() {
+        return _lanes[Lane.PING.ordinal()].getAverageWaitMillis();
+    }
+
+    @Override
+    public int getControlQueueSize() {
+        return _lanes[Lane.CONTROL.ordinal()]._queued.get();
+    }
+
+    @Override
+    public int getControlRunning() {
+        return _lanes[Lane.CONTROL.ordinal()]._running.get();
+    }
+
+    @Override
+    public long getControlCompleted() {
+        return _lanes[Lane.CONTROL.ordinal()]._completed.get();
+    }
+
+    @Override
+    public long getControlAverageWaitMillis() {
+        return _lanes[Lane.CONTROL.ordinal()].getAverageWaitMillis();
+    }
+
+    @Override
+    public int getStorageQueueSize() {
+        return _lanes[Lane.STORAGE.ordinal()]._queued.get();
+    }
+
+    @Override
+    public int getStorageRunning() {
+        return _lanes[Lane.STORAGE.ordinal()]._running.get();
+    }
+
+    @Override
+    public long getStorageCompleted() {
+        return _lanes[Lane.STORAGE.ordinal()]._completed.get();
+    }
+
+    @Override
+    public long getStorageAverageWaitMillis() {
+        return _lanes[Lane.STORAGE.ordinal()].getAverageWaitMillis();
+    }
+
+    protected static class Queued {
+        final Runnable _task;
+        final long _since;
+
+        Queued(Runnable task) {
+            _task = task;
+            _since = System.nanoTime();
+        }
+    }
+
+    protected static class LaneQueue {
+        final Executor _executor;
+        final int _limit;
+        final int _maxQueued;
+        final ConcurrentLinkedQueue<Queued> _queue = new ConcurrentLinkedQueue<Queued>();
+        final AtomicInteger _queued = new AtomicInteger();
+        final AtomicInteger _running = new AtomicInteger();
+        final AtomicLong _completed = new AtomicLong();
+        final AtomicLong _skipped = new AtomicLong();
+        final AtomicLong _waitNanos = new AtomicLong();
+
+        /**
+         * @param limit how many tasks of the lane may run at once.
+         * @param maxQueued how many tasks may wait, 0 for no limit.
+         */
+        LaneQueue(Executor executor, int limit, int maxQueued) {
+            _executor = executor;
+            _limit = Math.max(limit, 1);
+            _maxQueued = maxQueued;
+        }
+
+        boolean offer(Runnable task) {
+            if (_maxQueued > 0 && _queued.get() >= _maxQueued) {
+                _skipped.incrementAndGet();
+                return false;
+            }
+            _queued.incrementAndGet();
+            _queue.add(new Queued(task));
+            dispatch();
+            return true;
+        }
+
+        /**
+         * Hands the next waiting task to the executor if the lane has room.
+         */
+        void dispatch() {
+            while (!_queue.isEmpty()) {
+                int running = _running.get();
+                if (running >= _limit) {
+                    return;
+                }
+                if (_running.compareAndSet(running, running + 1)) {
+                    try {
+                        _executor.execute(new Runner());
+                    } catch (RejectedExecutionException e) {
+                        _running.decrementAndGet();
+                        throw e;
+                    }
+                    return;
+                }
+            }
+        }
+
+        long getAverageWaitMillis() {
+            long completed = _completed.get();
+            return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(_waitNanos.get() / completed);
+        }
+
+        /**
+         * Runs one task, so the lanes of all hosts take turns on the pool threads.
+         */
+        class Runner implements Runnable {
+            @Override
+            public void run() {
+                try {
+                    Queued queued = _queue.poll();
+                    if (queued != null) {
+                        _queued.decrementAndGet();
+                        _waitNanos.addAndGet(System.nanoTime() - queued._since);
+                        try {
+                            queued._task.run();
+                        } catch (Throwable th) {
+                            s_logger.warn("Caught: ", th);
+                        } finally {
+                            _completed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    _running.decrementAndGet();
+                }
+                dispatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+public interface DirectAgentLanesMBean {
+    public int getPingQueueSize();
+    public int getPingRunning();
+    public long getPingCompleted();
+    public long getPingSkipped();
+    public long getPingAverageWaitMillis();
+
+    public int getControlQueueSize();
+    public int getControlRunning();
+    public long getControlCompleted();
+    public long getControlAverageWaitMillis();
+
+    public int getStorageQueueSize();
+    public int getStorageRunning();
+    public long getStorageCompleted();
+    public long getStorageAverageWaitMillis();
+}
@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.utils.time.InaccurateClock;
+
+/**
+ * The liveness of the hosts connected to this management server, kept in memory.
+ *
+ * A ping only touches the entry of its host.  The database learns about pings in batches, one update
+ * for all the hosts which pinged since the last flush, and about the gateway of a host only when
+ * its accessibility changes.
+ */
+public class HostHeartbeats {
+    protected static class Heartbeat {
+        volatile long _lastPing;
+        volatile boolean _pingedSinceFlush;
+        volatile Boolean _gatewayAccessible;
+
+        Heartbeat(long now) {
+            _lastPing = now;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Heartbeat> _hosts = new ConcurrentHashMap<Long, Heartbeat>(10007);
+
+    /**
+     * Starts watching a host which has just connected.
+     */
+    public void connected(long hostId) {
+        _hosts.put(hostId, new Heartbeat(InaccurateClock.getTimeInSeconds()));
+    }
+
+    public void disconnected(long hostId) {
+        _hosts.remove(hostId);
+    }
+
+    public void ping(long hostId) {
+        long now = InaccurateClock.getTimeInSeconds();
+        Heartbeat heartbeat = _hosts.get(hostId);
+        if (heartbeat == null) {
+            heartbeat = new Heartbeat(now);
+            Heartbeat old = _hosts.putIfAbsent(hostId, heartbeat);
+            if (old != null) {
+                heartbeat = old;
+            }
+        }
+        heartbeat._lastPing = now;
+        heartbeat._pingedSinceFlush = true;
+    }
+
+    /**
+     * @return the time of the last ping in seconds, null if the host isn't watched.
+     */
+    public Long getLastPing(long hostId) {
+        Heartbeat heartbeat = _hosts.get(hostId);
+        return heartbeat == null ? null : heartbeat._lastPing;
+    }
+
+    /**
+     * @return the hosts whose last ping is older than the cutoff in seconds.
+     */
+    public List<Long> findBehind(long cutoff) {
+        List<Long> behind = new ArrayList<Long>();
+        for (Map.Entry<Long, Heartbeat> entry : _hosts.entrySet()) {
+            if (entry.getValue()._lastPing < cutoff) {
+                behind.add(entry.getKey());
+            }
+        }
+        return behind;
+    }
+
+    /**
+     * Records whether the host reaches its gateway.
+     *
+     * @return true if that changed or wasn't known, which is when the alerts have to be looked at.
+     */
+    public boolean updateGatewayAccessible(long hostId, boolean accessible) {
+        Heartbeat heartbeat = _hosts.get(hostId);
+        if (heartbeat == null) {
+            return true;
+        }
+        Boolean last = heartbeat._gatewayAccessible;
+        heartbeat._gatewayAccessible = accessible;
+        return last == null || last != accessible;
+    }
+
+    /**
+     * @return the hosts which pinged since the last call, the ones whose last ping is to be written.
+     */
+    public List<Long> collectPinged() {
+        List<Long> pinged = new ArrayList<Long>();
+        for (Map.Entry<Long, Heartbeat> entry : _hosts.entrySet()) {
+            Heartbeat heartbeat = entry.getValue();
+            if (heartbeat._pingedSinceFlush) {
+                heartbeat._pingedSinceFlush = false;
+                pinged.add(entry.getKey());
+            }
+        }
+        return pinged;
+    }
+
+    public int size() {
+        return _hosts.size();
+    }
+}
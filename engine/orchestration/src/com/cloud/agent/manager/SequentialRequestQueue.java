@@ -0,0 +1,104 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cloud.agent.transport.Request;
+
+/**
+ * The requests of an agent which have to be executed in sequence.
+ *
+ * The queue is either idle or has exactly one current request, the one sent to the agent and not answered yet.
+ * Waiting requests are kept ordered by sequence and are made current one at a time, lowest sequence first.
+ * Every transition is a compare-and-set on the current sequence, so no lock is held while sending.
+ */
+public class SequentialRequestQueue {
+    private final ConcurrentSkipListMap<Long, Request> _waiting = new ConcurrentSkipListMap<Long, Request>();
+    private final AtomicReference<Long> _current = new AtomicReference<Long>();
+
+    public void add(Request req) {
+        Request old = _waiting.put(req.getSequence(), req);
+        assert (old == null) : "How can we get the same sequence again? " + req.toString();
+    }
+
+    public Request remove(long seq) {
+        return _waiting.remove(seq);
+    }
+
+    public boolean contains(long seq) {
+        return _waiting.containsKey(seq);
+    }
+
+    public int size() {
+        return _waiting.size();
+    }
+
+    public boolean isEmpty() {
+        return _waiting.isEmpty();
+    }
+
+    public void clear() {
+        _waiting.clear();
+    }
+
+    /**
+     * @return the sequence of the current request, or null if the queue is idle.
+     */
+    public Long getCurrent() {
+        return _current.get();
+    }
+
+    /**
+     * Moves the queue from idle to the lowest waiting request and removes it from the waiting ones.
+     * The caller owns the returned request and has to send it, then complete it once it is answered or has failed.
+     *
+     * @return the new current request, or null if a request is already current or nothing is waiting.
+     */
+    public Request next() {
+        while (true) {
+            Map.Entry<Long, Request> first = _waiting.firstEntry();
+            if (first == null) {
+                return null;
+            }
+
+            Long seq = first.getKey();
+            if (!_current.compareAndSet(null, seq)) {
+                return null;
+            }
+
+            if (_waiting.remove(seq) != null) {
+                return first.getValue();
+            }
+
+            // cancelled while we were taking it, give the turn back and look again
+            _current.compareAndSet(seq, null);
+        }
+    }
+
+    /**
+     * Moves the queue from the given current request back to idle.
+     *
+     * @return false if the request was not the current one, in which case nothing changes.
+     */
+    public boolean complete(long seq) {
+        Long current = _current.get();
+        return current != null && current == seq && _current.compareAndSet(current, null);
+    }
+}
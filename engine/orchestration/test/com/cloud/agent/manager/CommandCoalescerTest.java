@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.transport.Request;
+import com.cloud.exception.OperationTimedoutException;
+import com.cloud.host.Status;
+
+public class CommandCoalescerTest {
+
+    static class RecordingAttache extends AgentAttache {
+        final List<Request> _sent = new ArrayList<Request>();
+
+        RecordingAttache() {
+            super(null, 1, "host", false);
+            ready();
+        }
+
+        @Override
+        public void send(Request req) {
+            _sent.add(req);
+        }
+
+        @Override
+        public void disconnect(Status state) {
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testAnswersAreSplitBackToTheSenders() throws Exception {
+        RecordingAttache attache = new RecordingAttache();
+        SynchronousListener first = new SynchronousListener(null);
+        SynchronousListener second = new SynchronousListener(null);
+        Command[] firstCmds = new Command[] { new GetHostStatsCommand("guid", "host", 1), new GetHostStatsCommand("guid", "host", 1) };
+        Command[] secondCmds = new Command[] { new ReadyCommand() };
+
+        long firstSeq = attache.sendCoalesced(firstCmds, first, 60000, 3);
+        assertEquals("gathering until the window passes or the request is full", 0, attache._sent.size());
+        long secondSeq = attache.sendCoalesced(secondCmds, second, 60000, 3);
+        assertFalse(firstSeq == secondSeq);
+
+        assertEquals(1, attache._sent.size());
+        Request req = attache._sent.get(0);
+        assertEquals(3, req.getCommands().length);
+        assertFalse(req.stopOnError());
+
+        Answer[] answers = new Answer[] { new Answer(firstCmds[0]), new Answer(firstCmds[1]), new Answer(secondCmds[0]) };
+        attache.getListener(req.getSequence()).processAnswers(1, req.getSequence(), answers);
+        assertArrayEquals(new Answer[] { answers[0], answers[1] }, first.getAnswers());
+        assertArrayEquals(new Answer[] { answers[2] }, second.getAnswers());
+    }
+
+    @Test
+    public void testWindowSendsWhatWasGathered() throws Exception {
+        RecordingAttache attache = new RecordingAttache();
+        SynchronousListener listener = new SynchronousListener(null);
+        Command cmd = new ReadyCommand();
+        attache.sendCoalesced(new Command[] { cmd }, listener, 10, 32);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (attache._sent.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, attache._sent.size());
+
+        Request req = attache._sent.get(0);
+        attache.getListener(req.getSequence()).processAnswers(1, req.getSequence(), new Answer[0]);
+        Answer[] answers = listener.getAnswers();
+        assertNotNull(answers);
+        assertFalse("the senders are told when the agent didn't answer every command", answers[0].getResult());
+    }
+
+    @Test
+    public void testTimedOutSenderCancelsTheRequest() throws Exception {
+        RecordingAttache attache = new RecordingAttache();
+        Command cmd = new ReadyCommand();
+        Request sender = new Request(1, "host", -1, new Command[] { cmd }, false, true);
+        sender.setSequence(attache.getNextSequence());
+
+        try {
+            attache.sendCoalesced(sender, 1, 60000, 1);
+            fail("the agent never answers");
+        } catch (OperationTimedoutException e) {
+        }
+
+        assertEquals(1, attache._sent.size());
+        Request req = attache._sent.get(0);
+        assertNull("nobody waits for the request anymore", attache.getListener(req.getSequence()));
+    }
+}
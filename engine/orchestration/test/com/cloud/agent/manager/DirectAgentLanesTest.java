@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import org.apache.cloudstack.storage.command.CopyCommand;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.manager.DirectAgentLanes.Lane;
+
+public class DirectAgentLanesTest {
+
+    static class ManualExecutor implements Executor {
+        final LinkedList<Runnable> _tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            _tasks.add(command);
+        }
+
+        void runNext() {
+            _tasks.removeFirst().run();
+        }
+    }
+
+    static class Counter implements Runnable {
+        int _runs;
+
+        @Override
+        public void run() {
+            _runs++;
+        }
+    }
+
+    @Test
+    public void testStorageCommandsGoToTheStorageLane() {
+        assertEquals(Lane.CONTROL, DirectAgentLanes.laneOf(new Command[] { new GetHostStatsCommand("guid", "host", 1) }));
+        assertEquals(Lane.STORAGE, DirectAgentLanes.laneOf(new Command[] { new GetHostStatsCommand("guid", "host", 1), new CopyCommand(null, null, 0, true) }));
+    }
+
+    @Test
+    public void testLanesDoNotWaitForEachOther() {
+        ManualExecutor pings = new ManualExecutor();
+        ManualExecutor commands = new ManualExecutor();
+        DirectAgentLanes lanes = new DirectAgentLanes(pings, commands, 2, 1);
+        Counter counter = new Counter();
+
+        lanes.execute(Lane.STORAGE, counter);
+        lanes.execute(Lane.STORAGE, counter);
+        assertEquals("the storage lane runs one task at a time", 1, commands._tasks.size());
+        assertEquals(2, lanes.getStorageQueueSize());
+
+        lanes.execute(Lane.CONTROL, counter);
+        assertEquals("the control lane doesn't wait for the storage one", 2, commands._tasks.size());
+
+        assertTrue(lanes.execute(Lane.PING, counter));
+        assertEquals(1, pings._tasks.size());
+        assertFalse("a ping is skipped while the last one still waits", lanes.execute(Lane.PING, counter));
+        assertEquals(1, lanes.getPingSkipped());
+        pings.runNext();
+        assertTrue(lanes.execute(Lane.PING, counter));
+
+        commands.runNext();
+        assertEquals("the next storage task is handed over once the first is done", 2, commands._tasks.size());
+        while (!commands._tasks.isEmpty()) {
+            commands.runNext();
+        }
+        while (!pings._tasks.isEmpty()) {
+            pings.runNext();
+        }
+        assertEquals(5, counter._runs);
+        assertEquals(2, lanes.getStorageCompleted());
+        assertEquals(0, lanes.getStorageRunning());
+        assertEquals(2, lanes.getPingCompleted());
+    }
+}
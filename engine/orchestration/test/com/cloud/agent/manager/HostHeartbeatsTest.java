@@ -0,0 +1,69 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.cloud.utils.time.InaccurateClock;
+
+public class HostHeartbeatsTest {
+
+    @Test
+    public void testOnlyThePingedHostsAreFlushed() {
+        HostHeartbeats heartbeats = new HostHeartbeats();
+        heartbeats.connected(1);
+        heartbeats.connected(2);
+        assertTrue("connecting isn't a ping", heartbeats.collectPinged().isEmpty());
+
+        heartbeats.ping(2);
+        heartbeats.ping(2);
+        heartbeats.ping(3);
+        assertEquals(Arrays.asList(2L, 3L), heartbeats.collectPinged());
+        assertTrue(heartbeats.collectPinged().isEmpty());
+
+        heartbeats.disconnected(3);
+        assertNull(heartbeats.getLastPing(3));
+        assertEquals(2, heartbeats.size());
+    }
+
+    @Test
+    public void testHostsBehindOnPing() {
+        HostHeartbeats heartbeats = new HostHeartbeats();
+        heartbeats.connected(1);
+        long now = InaccurateClock.getTimeInSeconds();
+        assertTrue(heartbeats.findBehind(now - 60).isEmpty());
+        assertEquals(Arrays.asList(1L), heartbeats.findBehind(now + 60));
+    }
+
+    @Test
+    public void testGatewayChangesOnly() {
+        HostHeartbeats heartbeats = new HostHeartbeats();
+        heartbeats.connected(1);
+        assertTrue("not known yet", heartbeats.updateGatewayAccessible(1, true));
+        assertFalse(heartbeats.updateGatewayAccessible(1, true));
+        assertTrue(heartbeats.updateGatewayAccessible(1, false));
+        assertFalse(heartbeats.updateGatewayAccessible(1, false));
+        assertTrue("a host which isn't watched is always looked at", heartbeats.updateGatewayAccessible(7, true));
+    }
+}
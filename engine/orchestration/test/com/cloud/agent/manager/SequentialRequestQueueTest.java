@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.transport.Request;
+
+public class SequentialRequestQueueTest {
+
+    private static Request newRequest(long seq) {
+        Request req = new Request(1, 1, new ReadyCommand(), true);
+        req.setSequence(seq);
+        return req;
+    }
+
+    @Test
+    public void testRequestsAreSentOneAtATimeInOrder() {
+        SequentialRequestQueue queue = new SequentialRequestQueue();
+        Request first = newRequest(5);
+        Request second = newRequest(3);
+        queue.add(first);
+        queue.add(second);
+
+        assertSame(second, queue.next());
+        assertEquals(Long.valueOf(3), queue.getCurrent());
+        assertNull(queue.next());
+        assertEquals(1, queue.size());
+
+        // a late answer of another sequence doesn't move the queue
+        assertFalse(queue.complete(5));
+        assertTrue(queue.complete(3));
+        assertNull(queue.getCurrent());
+
+        assertSame(first, queue.next());
+        assertTrue(queue.complete(5));
+        assertNull(queue.next());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCancelledRequestsAreSkipped() {
+        SequentialRequestQueue queue = new SequentialRequestQueue();
+        queue.add(newRequest(1));
+        Request kept = newRequest(2);
+        queue.add(kept);
+
+        assertTrue(queue.contains(1));
+        queue.remove(1);
+        assertFalse(queue.contains(1));
+        assertSame(kept, queue.next());
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Map;
 
 import com.cloud.event.UsageEventVO;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.StreamHandler;
 
 public interface UsageEventDao extends GenericDao<UsageEventVO, Long> {
 
@@ -29,7 +30,16 @@ public interface UsageEventDao extends GenericDao<UsageEventVO, Long> {
 
     public List<UsageEventVO> getLatestEvent();
 
-    List<UsageEventVO> getRecentEvents(Date endDate);
+    /**
+     * Copies the events up to the end date that are not in the usage db yet from the cloud db.
+     */
+    void copyRecentEvents(Date endDate);
+
+    /**
+     * Hands the unprocessed events in the usage db up to the end date to the handler in order of id, a batch at a time.
+     * @return number of events handled.
+     */
+    int streamLatestEvents(Date endDate, StreamHandler<UsageEventVO> handler);
 
     List<UsageEventVO> listDirectIpEvents(Date startDate, Date endDate, long zoneId);
 
@@ -38,6 +38,7 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.StreamHandler;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 
@@ -93,7 +94,7 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
 
     @Override
     @DB
-    public synchronized List<UsageEventVO> getRecentEvents(Date endDate) {
+    public synchronized void copyRecentEvents(Date endDate) {
         long recentEventId = getMostRecentEventId();
         long maxEventId = getMaxEventId(endDate);
         TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
@@ -148,8 +149,19 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
             s_logger.error("error copying event details from cloud db to usage db", ex);
             throw new CloudRuntimeException(ex.getMessage());
         }
+    }
 
-        return findRecentEvents(endDate);
+    @Override
+    public int streamLatestEvents(Date endDate, StreamHandler<UsageEventVO> handler) {
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            SearchCriteria<UsageEventVO> sc = latestEventsSearch.create();
+            sc.setParameters("processed", false);
+            sc.setParameters("enddate", endDate);
+            return searchStream(sc, handler);
+        } finally {
+            txn.close();
+        }
     }
 
     @DB
@@ -173,18 +185,6 @@ public class UsageEventDaoImpl extends GenericDaoBase<UsageEventVO, Long> implem
         }
     }
 
-    private List<UsageEventVO> findRecentEvents(Date endDate) {
-        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
-        try {
-            return listLatestEvents(endDate);
-        } catch (Exception ex) {
-            s_logger.error("error getting most recent event date", ex);
-            throw new CloudRuntimeException(ex.getMessage());
-        } finally {
-            txn.close();
-        }
-    }
-
     private long getMaxEventId(Date endDate) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
@@ -43,6 +43,15 @@ public interface HostDao extends GenericDao<HostVO, Long>, StateDao<Status, Stat
      */
     void markHostsAsDisconnected(long msId, long lastPing);
 
+    /**
+     * Sets the last ping of the hosts which are still managed by the management server,
+     * in one statement.
+     *
+     * @param lastPing the time of the ping in the unit of last_ping, System.currentTimeMillis() >> 10.
+     * @return the number of hosts updated.
+     */
+    int updateLastPinged(List<Long> hostIds, long msId, long lastPing);
+
     List<HostVO> findLostHosts(long timeout);
 
     List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId);
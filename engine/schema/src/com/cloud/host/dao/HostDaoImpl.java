@@ -79,6 +79,7 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
     protected SearchBuilder<HostVO> TypeDcStatusSearch;
     protected SearchBuilder<HostVO> TypeClusterStatusSearch;
     protected SearchBuilder<HostVO> MsStatusSearch;
+    protected SearchBuilder<HostVO> MsIdsSearch;
     protected SearchBuilder<HostVO> DcPrivateIpAddressSearch;
     protected SearchBuilder<HostVO> DcStorageIpAddressSearch;
 
@@ -160,6 +161,11 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         MsStatusSearch.and("resourceState", MsStatusSearch.entity().getResourceState(), SearchCriteria.Op.NIN);
         MsStatusSearch.done();
 
+        MsIdsSearch = createSearchBuilder();
+        MsIdsSearch.and("ids", MsIdsSearch.entity().getId(), SearchCriteria.Op.IN);
+        MsIdsSearch.and("ms", MsIdsSearch.entity().getManagementServerId(), SearchCriteria.Op.EQ);
+        MsIdsSearch.done();
+
         TypeDcSearch = createSearchBuilder();
         TypeDcSearch.and("type", TypeDcSearch.entity().getType(), SearchCriteria.Op.EQ);
         TypeDcSearch.and("dc", TypeDcSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
@@ -632,6 +638,21 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         update(ub, sc, null);
     }
 
+    @Override
+    public int updateLastPinged(List<Long> hostIds, long msId, long lastPing) {
+        if (hostIds.isEmpty()) {
+            return 0;
+        }
+        SearchCriteria<HostVO> sc = MsIdsSearch.create();
+        sc.setParameters("ids", hostIds.toArray());
+        sc.setParameters("ms", msId);
+
+        HostVO host = createForUpdate();
+        host.setLastPinged(lastPing);
+        UpdateBuilder ub = getUpdateBuilder(host);
+        return update(ub, sc, null);
+    }
+
     @Override
     public List<HostVO> listByHostTag(Host.Type type, Long clusterId, Long podId, long dcId, String hostTag) {
 
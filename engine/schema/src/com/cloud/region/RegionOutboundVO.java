@@ -0,0 +1,167 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * A local domain/account/user mutation waiting to be replicated to a remote region.
+ * The entity itself is loaded when the mutation is replayed, so only its type, uuid and the name it had before
+ * the mutation are kept here.
+ */
+@Entity
+@Table(name = "region_outbound_queue")
+public class RegionOutboundVO {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private long id;
+
+    @Column(name = "region_id")
+    private long regionId;
+
+    @Column(name = "entity_type")
+    private String entityType;
+
+    @Column(name = "entity_uuid")
+    private String entityUuid;
+
+    @Column(name = "method")
+    private String method;
+
+    @Column(name = "old_name")
+    private String oldName;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "next_attempt")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date nextAttempt;
+
+    // the management server replaying the mutation, so the other nodes leave it alone
+    @Column(name = "mgmt_server_id")
+    private Long mgmtServerId;
+
+    @Column(name = "claimed")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date claimed;
+
+    @Column(name = "created")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Column(name = "modified")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date modified;
+
+    public RegionOutboundVO() {
+    }
+
+    public RegionOutboundVO(long regionId, String entityType, String entityUuid, String method, String oldName) {
+        this.regionId = regionId;
+        this.entityType = entityType;
+        this.entityUuid = entityUuid;
+        this.method = method;
+        this.oldName = oldName;
+        this.attempts = 0;
+        this.created = new Date();
+        this.modified = this.created;
+        this.nextAttempt = this.created;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getRegionId() {
+        return regionId;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String getEntityUuid() {
+        return entityUuid;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public String getOldName() {
+        return oldName;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Long getMgmtServerId() {
+        return mgmtServerId;
+    }
+
+    public void setMgmtServerId(Long mgmtServerId) {
+        this.mgmtServerId = mgmtServerId;
+    }
+
+    public Date getClaimed() {
+        return claimed;
+    }
+
+    public void setClaimed(Date claimed) {
+        this.claimed = claimed;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getModified() {
+        return modified;
+    }
+
+    public void setModified(Date modified) {
+        this.modified = modified;
+    }
+}
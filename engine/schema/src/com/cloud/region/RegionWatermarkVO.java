@@ -0,0 +1,94 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * High-water mark of the incremental sync with a remote region :
+ * the creation date and the uuid of the last remote event processed, and when the last full scan completed.
+ */
+@Entity
+@Table(name = "region_watermark")
+public class RegionWatermarkVO {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private long id;
+
+    @Column(name = "region_id")
+    private long regionId;
+
+    @Column(name = "last_event_created")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date lastEventCreated;
+
+    @Column(name = "last_event_uuid")
+    private String lastEventUuid;
+
+    @Column(name = "last_full_scan")
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date lastFullScan;
+
+    public RegionWatermarkVO() {
+    }
+
+    public RegionWatermarkVO(long regionId) {
+        this.regionId = regionId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getRegionId() {
+        return regionId;
+    }
+
+    public Date getLastEventCreated() {
+        return lastEventCreated;
+    }
+
+    public void setLastEventCreated(Date lastEventCreated) {
+        this.lastEventCreated = lastEventCreated;
+    }
+
+    public String getLastEventUuid() {
+        return lastEventUuid;
+    }
+
+    public void setLastEventUuid(String lastEventUuid) {
+        this.lastEventUuid = lastEventUuid;
+    }
+
+    public Date getLastFullScan() {
+        return lastFullScan;
+    }
+
+    public void setLastFullScan(Date lastFullScan) {
+        this.lastFullScan = lastFullScan;
+    }
+}
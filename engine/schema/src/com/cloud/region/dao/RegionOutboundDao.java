@@ -0,0 +1,63 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.dao;
+
+import com.cloud.region.RegionOutboundVO;
+import com.cloud.utils.db.GenericDao;
+
+import java.util.Date;
+import java.util.List;
+
+public interface RegionOutboundDao extends GenericDao<RegionOutboundVO, Long>
+{
+    /**
+     * Lists the pending mutations of a region in the order they were queued.
+     */
+    public List<RegionOutboundVO> listByRegion(long regionId, int limit);
+
+    /**
+     * Lists the mutations of a region queued after the given id and not backing off anymore, in the order they were queued.
+     */
+    public List<RegionOutboundVO> listReady(long regionId, long afterId, Date now, int limit);
+
+    /**
+     * Counts the mutations of the same entity queued before the given one.
+     */
+    public int countPendingBefore(RegionOutboundVO item);
+
+    /**
+     * Claims a mutation for a management server, returns false if another node has a claim newer than staleBefore.
+     */
+    public boolean claim(long id, long msid, Date staleBefore);
+
+    /**
+     * Updates a mutation unless a management server has claimed it, returns false if it wasn't updated.
+     */
+    public boolean updateUnclaimed(RegionOutboundVO item);
+
+    /**
+     * Removes a mutation unless a management server has claimed it, returns false if it wasn't removed.
+     */
+    public boolean removeUnclaimed(long id);
+
+    /**
+     * Lists the pending mutations of an entity to a region in the order they were queued.
+     */
+    public List<RegionOutboundVO> listByEntity(long regionId, String entityType, String entityUuid);
+
+    public int countByRegion(long regionId);
+}
@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.dao;
+
+import com.cloud.region.RegionOutboundVO;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
+import org.springframework.stereotype.Component;
+
+import javax.ejb.Local;
+import java.util.Date;
+import java.util.List;
+
+@Component
+@Local(value = {RegionOutboundDao.class})
+public class RegionOutboundDaoImpl extends GenericDaoBase<RegionOutboundVO, Long> implements RegionOutboundDao {
+
+    protected SearchBuilder<RegionOutboundVO> RegionSearch;
+    protected SearchBuilder<RegionOutboundVO> EntitySearch;
+    protected SearchBuilder<RegionOutboundVO> ReadySearch;
+    protected SearchBuilder<RegionOutboundVO> EarlierSearch;
+    protected SearchBuilder<RegionOutboundVO> ClaimSearch;
+    protected SearchBuilder<RegionOutboundVO> UnclaimedSearch;
+
+    public RegionOutboundDaoImpl() {
+
+        RegionSearch = createSearchBuilder();
+        RegionSearch.and("region_id", RegionSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        RegionSearch.done();
+
+        EntitySearch = createSearchBuilder();
+        EntitySearch.and("region_id", EntitySearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        EntitySearch.and("entity_type", EntitySearch.entity().getEntityType(), SearchCriteria.Op.EQ);
+        EntitySearch.and("entity_uuid", EntitySearch.entity().getEntityUuid(), SearchCriteria.Op.EQ);
+        EntitySearch.done();
+
+        ReadySearch = createSearchBuilder();
+        ReadySearch.and("region_id", ReadySearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        ReadySearch.and("after", ReadySearch.entity().getId(), SearchCriteria.Op.GT);
+        ReadySearch.and().op("next_attempt_null", ReadySearch.entity().getNextAttempt(), SearchCriteria.Op.NULL);
+        ReadySearch.or("next_attempt", ReadySearch.entity().getNextAttempt(), SearchCriteria.Op.LTEQ);
+        ReadySearch.cp();
+        ReadySearch.done();
+
+        EarlierSearch = createSearchBuilder();
+        EarlierSearch.and("region_id", EarlierSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        EarlierSearch.and("entity_type", EarlierSearch.entity().getEntityType(), SearchCriteria.Op.EQ);
+        EarlierSearch.and("entity_uuid", EarlierSearch.entity().getEntityUuid(), SearchCriteria.Op.EQ);
+        EarlierSearch.and("before", EarlierSearch.entity().getId(), SearchCriteria.Op.LT);
+        EarlierSearch.done();
+
+        // a claim left by a stopped node, or by this node before a restart, can be taken over
+        ClaimSearch = createSearchBuilder();
+        ClaimSearch.and("id", ClaimSearch.entity().getId(), SearchCriteria.Op.EQ);
+        ClaimSearch.and().op("unclaimed", ClaimSearch.entity().getMgmtServerId(), SearchCriteria.Op.NULL);
+        ClaimSearch.or("msid", ClaimSearch.entity().getMgmtServerId(), SearchCriteria.Op.EQ);
+        ClaimSearch.or("stale", ClaimSearch.entity().getClaimed(), SearchCriteria.Op.LT);
+        ClaimSearch.cp();
+        ClaimSearch.done();
+
+        UnclaimedSearch = createSearchBuilder();
+        UnclaimedSearch.and("id", UnclaimedSearch.entity().getId(), SearchCriteria.Op.EQ);
+        UnclaimedSearch.and("unclaimed", UnclaimedSearch.entity().getMgmtServerId(), SearchCriteria.Op.NULL);
+        UnclaimedSearch.done();
+    }
+
+    @Override
+    public List<RegionOutboundVO> listByRegion(long regionId, int limit) {
+        SearchCriteria<RegionOutboundVO> sc = RegionSearch.create();
+        sc.setParameters("region_id", regionId);
+        return listBy(sc, new Filter(RegionOutboundVO.class, "id", true, 0L, (long)limit));
+    }
+
+    @Override
+    public List<RegionOutboundVO> listReady(long regionId, long afterId, Date now, int limit) {
+        SearchCriteria<RegionOutboundVO> sc = ReadySearch.create();
+        sc.setParameters("region_id", regionId);
+        sc.setParameters("after", afterId);
+        sc.setParameters("next_attempt", now);
+        return listBy(sc, new Filter(RegionOutboundVO.class, "id", true, 0L, (long)limit));
+    }
+
+    @Override
+    public int countPendingBefore(RegionOutboundVO item) {
+        SearchCriteria<RegionOutboundVO> sc = EarlierSearch.create();
+        sc.setParameters("region_id", item.getRegionId());
+        sc.setParameters("entity_type", item.getEntityType());
+        sc.setParameters("entity_uuid", item.getEntityUuid());
+        sc.setParameters("before", item.getId());
+        return getCount(sc);
+    }
+
+    @Override
+    public boolean claim(long id, long msid, Date staleBefore) {
+        SearchCriteria<RegionOutboundVO> sc = ClaimSearch.create();
+        sc.setParameters("id", id);
+        sc.setParameters("msid", msid);
+        sc.setParameters("stale", staleBefore);
+
+        RegionOutboundVO vo = createForUpdate();
+        vo.setMgmtServerId(msid);
+        vo.setClaimed(new Date());
+        return update(vo, sc) > 0;
+    }
+
+    @Override
+    public boolean updateUnclaimed(RegionOutboundVO item) {
+        SearchCriteria<RegionOutboundVO> sc = UnclaimedSearch.create();
+        sc.setParameters("id", item.getId());
+        return update(item, sc) > 0;
+    }
+
+    @Override
+    public boolean removeUnclaimed(long id) {
+        SearchCriteria<RegionOutboundVO> sc = UnclaimedSearch.create();
+        sc.setParameters("id", id);
+        return expunge(sc) > 0;
+    }
+
+    @Override
+    public List<RegionOutboundVO> listByEntity(long regionId, String entityType, String entityUuid) {
+        SearchCriteria<RegionOutboundVO> sc = EntitySearch.create();
+        sc.setParameters("region_id", regionId);
+        sc.setParameters("entity_type", entityType);
+        sc.setParameters("entity_uuid", entityUuid);
+        return listBy(sc, new Filter(RegionOutboundVO.class, "id", true, null, null));
+    }
+
+    @Override
+    public int countByRegion(long regionId) {
+        SearchCriteria<RegionOutboundVO> sc = RegionSearch.create();
+        sc.setParameters("region_id", regionId);
+        return getCount(sc);
+    }
+}
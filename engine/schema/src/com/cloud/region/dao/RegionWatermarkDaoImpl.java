@@ -0,0 +1,46 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.dao;
+
+import com.cloud.region.RegionWatermarkVO;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
+import org.springframework.stereotype.Component;
+
+import javax.ejb.Local;
+
+@Component
+@Local(value = {RegionWatermarkDao.class})
+public class RegionWatermarkDaoImpl extends GenericDaoBase<RegionWatermarkVO, Long> implements RegionWatermarkDao {
+
+    protected SearchBuilder<RegionWatermarkVO> RegionSearch;
+
+    public RegionWatermarkDaoImpl() {
+
+        RegionSearch = createSearchBuilder();
+        RegionSearch.and("region_id", RegionSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        RegionSearch.done();
+    }
+
+    @Override
+    public RegionWatermarkVO findByRegion(long regionId) {
+        SearchCriteria<RegionWatermarkVO> sc = RegionSearch.create();
+        sc.setParameters("region_id", regionId);
+        return findOneBy(sc);
+    }
+}
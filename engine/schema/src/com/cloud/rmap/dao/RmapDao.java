@@ -19,6 +19,8 @@ package com.cloud.rmap.dao;
 import com.cloud.rmap.RmapVO;
 import com.cloud.utils.db.GenericDao;
 
+import java.util.List;
+
 public interface RmapDao extends GenericDao<RmapVO, Long>
 {
     public RmapVO create(RmapVO rmap);
@@ -26,4 +28,8 @@ public interface RmapDao extends GenericDao<RmapVO, Long>
     public RmapVO findBySource(String source, long regionId);
 
     public RmapVO findByRemote(String uuid, long regionId);
+
+    public List<RmapVO> listBySources(List<String> sources, long regionId);
+
+    public int removeByRegion(long regionId);
 }
@@ -25,6 +25,8 @@ import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import javax.ejb.Local;
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 @Local(value = {RmapDao.class})
@@ -33,6 +35,11 @@ public class RmapDaoImpl extends GenericDaoBase<RmapVO, Long> implements RmapDao
 
     protected SearchBuilder<RmapVO> RegionUUIDSearch;
     protected SearchBuilder<RmapVO> SourceSearch;
+    protected SearchBuilder<RmapVO> SourcesSearch;
+    protected SearchBuilder<RmapVO> RegionSearch;
+
+    // keep the 'IN' clause of the bulk lookup to a reasonable size
+    private static final int SOURCES_BATCH_SIZE = 1000;
 
     public RmapDaoImpl() {
 
@@ -45,6 +52,15 @@ public class RmapDaoImpl extends GenericDaoBase<RmapVO, Long> implements RmapDao
         SourceSearch.and("uuid", SourceSearch.entity().getUuid(), SearchCriteria.Op.EQ);
         SourceSearch.and("region_id", SourceSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
         SourceSearch.done();
+
+        SourcesSearch = createSearchBuilder();
+        SourcesSearch.and("source", SourcesSearch.entity().getSource(), SearchCriteria.Op.IN);
+        SourcesSearch.and("region_id", SourcesSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        SourcesSearch.done();
+
+        RegionSearch = createSearchBuilder();
+        RegionSearch.and("region_id", RegionSearch.entity().getRegionId(), SearchCriteria.Op.EQ);
+        RegionSearch.done();
     }
 
     @Override
@@ -77,4 +93,24 @@ public class RmapDaoImpl extends GenericDaoBase<RmapVO, Long> implements RmapDao
         sc.setParameters("region_id", regionId);
         return findOneBy(sc);
     }
+
+    @Override
+    public List<RmapVO> listBySources(List<String> sources, long regionId) {
+        List<RmapVO> rmaps = new ArrayList<RmapVO>();
+        for (int from = 0; from < sources.size(); from += SOURCES_BATCH_SIZE) {
+            List<String> batch = sources.subList(from, Math.min(from + SOURCES_BATCH_SIZE, sources.size()));
+            SearchCriteria<RmapVO> sc = SourcesSearch.create();
+            sc.setParameters("source", batch.toArray());
+            sc.setParameters("region_id", regionId);
+            rmaps.addAll(listBy(sc));
+        }
+        return rmaps;
+    }
+
+    @Override
+    public int removeByRegion(long regionId) {
+        SearchCriteria<RmapVO> sc = RegionSearch.create();
+        sc.setParameters("region_id", regionId);
+        return expunge(sc);
+    }
 }
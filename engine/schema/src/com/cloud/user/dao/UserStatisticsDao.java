@@ -21,6 +21,7 @@ import java.util.List;
 
 import com.cloud.user.UserStatisticsVO;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.StreamHandler;
 
 public interface UserStatisticsDao extends GenericDao<UserStatisticsVO, Long> {
     UserStatisticsVO findBy(long accountId, long dcId, long networkId, String publicIp, Long deviceId, String deviceType);
@@ -31,5 +32,8 @@ public interface UserStatisticsDao extends GenericDao<UserStatisticsVO, Long> {
 
     List<UserStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, int startIndex, int limit);
 
-	List<UserStatisticsVO> listUpdatedStats();
+	/**
+	 * Hands the statistics whose aggregates are behind their counters to the handler, a batch at a time.
+	 */
+	int streamUpdatedStats(StreamHandler<UserStatisticsVO> handler);
 }
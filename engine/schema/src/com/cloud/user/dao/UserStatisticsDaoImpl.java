@@ -33,6 +33,7 @@ import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.StreamHandler;
 import com.cloud.utils.db.TransactionLegacy;
 
 @Component
@@ -43,8 +44,7 @@ public class UserStatisticsDaoImpl extends GenericDaoBase<UserStatisticsVO, Long
                                                                      "FROM user_statistics us, account a " +
                                                                      "WHERE us.account_id = a.id AND (a.removed IS NULL OR a.removed >= ?) " +
                                                                      "ORDER BY us.id";
-    private static final String UPDATED_STATS_SEARCH = "SELECT id, current_bytes_received, current_bytes_sent, net_bytes_received, net_bytes_sent, agg_bytes_received, agg_bytes_sent from  user_statistics " +
-                                                                    "where (agg_bytes_received < net_bytes_received + current_bytes_received) OR (agg_bytes_sent < net_bytes_sent + current_bytes_sent)";
+    private static final String UPDATED_STATS_WHERE = "(agg_bytes_received < net_bytes_received + current_bytes_received) OR (agg_bytes_sent < net_bytes_sent + current_bytes_sent)";
     private final SearchBuilder<UserStatisticsVO> AllFieldsSearch;
     private final SearchBuilder<UserStatisticsVO> AccountSearch;
 
@@ -117,21 +117,8 @@ public class UserStatisticsDaoImpl extends GenericDaoBase<UserStatisticsVO, Long
     }
 
     @Override
-    public List<UserStatisticsVO> listUpdatedStats() {
-        List<UserStatisticsVO> userStats = new ArrayList<UserStatisticsVO>();
-
-        TransactionLegacy txn = TransactionLegacy.currentTxn();
-        try {
-            PreparedStatement pstmt = null;
-            pstmt = txn.prepareAutoCloseStatement(UPDATED_STATS_SEARCH);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                userStats.add(toEntityBean(rs, false));
-            }
-        } catch (Exception ex) {
-            s_logger.error("error lisitng updated user stats", ex);
-        }
-        return userStats;
+    public int streamUpdatedStats(StreamHandler<UserStatisticsVO> handler) {
+        return executeStream(UPDATED_STATS_WHERE, handler);
     }
 
 }
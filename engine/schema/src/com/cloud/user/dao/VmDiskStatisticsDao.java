@@ -21,6 +21,7 @@ import java.util.List;
 
 import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.StreamHandler;
 
 public interface VmDiskStatisticsDao extends GenericDao<VmDiskStatisticsVO, Long> {
     VmDiskStatisticsVO findBy(long accountId, long dcId, long vmId, long volumeId);
@@ -31,5 +32,8 @@ public interface VmDiskStatisticsDao extends GenericDao<VmDiskStatisticsVO, Long
 
     List<VmDiskStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, int startIndex, int limit);
 
-	List<VmDiskStatisticsVO> listUpdatedStats();
+	/**
+	 * Hands the statistics whose aggregates are behind their counters to the handler, a batch at a time.
+	 */
+	int streamUpdatedStats(StreamHandler<VmDiskStatisticsVO> handler);
 }
@@ -33,6 +33,7 @@ import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.StreamHandler;
 import com.cloud.utils.db.TransactionLegacy;
 
 @Component
@@ -43,11 +44,8 @@ public class VmDiskStatisticsDaoImpl extends GenericDaoBase<VmDiskStatisticsVO,
                                                                      "FROM vm_disk_statistics vns, account a " +
                                                                      "WHERE vns.account_id = a.id AND (a.removed IS NULL OR a.removed >= ?) " +
                                                                      "ORDER BY vns.id";
-    private static final String UPDATED_VM_NETWORK_STATS_SEARCH = "SELECT id, current_io_read, current_io_write, net_io_read, net_io_write, agg_io_read, agg_io_write, " +
-                                                                     "current_bytes_read, current_bytes_write, net_bytes_read, net_bytes_write, agg_bytes_read, agg_bytes_write " +
-                                                                     "from  vm_disk_statistics " +
-                                                                     "where (agg_io_read < net_io_read + current_io_read) OR (agg_io_write < net_io_write + current_io_write) OR " +
-                                                                     "(agg_bytes_read < net_bytes_read + current_bytes_read) OR (agg_bytes_write < net_bytes_write + current_bytes_write)";
+    private static final String UPDATED_VM_DISK_STATS_WHERE = "(agg_io_read < net_io_read + current_io_read) OR (agg_io_write < net_io_write + current_io_write) OR " +
+                                                              "(agg_bytes_read < net_bytes_read + current_bytes_read) OR (agg_bytes_write < net_bytes_write + current_bytes_write)";
     private final SearchBuilder<VmDiskStatisticsVO> AllFieldsSearch;
     private final SearchBuilder<VmDiskStatisticsVO> AccountSearch;
     
@@ -114,21 +112,8 @@ public class VmDiskStatisticsDaoImpl extends GenericDaoBase<VmDiskStatisticsVO,
     }
 
     @Override
-    public List<VmDiskStatisticsVO> listUpdatedStats() {
-        List<VmDiskStatisticsVO> vmDiskStats = new ArrayList<VmDiskStatisticsVO>();
-
-        TransactionLegacy txn = TransactionLegacy.currentTxn();
-        try {
-            PreparedStatement pstmt = null;
-            pstmt = txn.prepareAutoCloseStatement(UPDATED_VM_NETWORK_STATS_SEARCH);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-            	vmDiskStats.add(toEntityBean(rs, false));
-            }
-        } catch (Exception ex) {
-            s_logger.error("error lisitng updated vm disk stats", ex);
-        }
-        return vmDiskStats;
+    public int streamUpdatedStats(StreamHandler<VmDiskStatisticsVO> handler) {
+        return executeStream(UPDATED_VM_DISK_STATS_WHERE, handler);
     }
     
 }
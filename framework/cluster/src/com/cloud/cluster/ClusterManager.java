@@ -47,6 +47,11 @@ public interface ClusterManager extends Manager {
      */
     void broadcast(long agentId, String cmds);
 
+    /**
+     * Sends the command to a management server node without waiting for it to be executed.
+     */
+    void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError);
+
     void registerListener(ClusterManagerListener listener);
     void unregisterListener(ClusterManagerListener listener);
 
@@ -16,12 +16,21 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Column;
 
+import org.apache.commons.codec.binary.Base64;
+
 import com.cloud.utils.Pair;
 import com.cloud.utils.ReflectUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 /**
  *  Try to use static initialization to help you in finding incorrect
@@ -32,11 +41,29 @@ import com.cloud.utils.ReflectUtil;
  * 
  *  Filter nameFilter = new Filter(s_nameFilter);
  *
+ *  A filter can also seek instead of skipping rows: once it is given the sort keys of the last row of a page, through
+ *  seekAfter() or setPageToken(), the next search returns the rows that sort after it, so a deep page costs the same
+ *  as the first one.  The order by has to end in a unique, not null field, usually id, for no row to be skipped.
+ *
  */
 public class Filter {
     Long _offset;
     Long _limit;
     String _orderBy;
+    List<SortKey> _sortKeys = new ArrayList<SortKey>();
+    Object[] _seekKeys;
+
+    static class SortKey {
+        final Field field;
+        final String column;
+        final boolean ascending;
+
+        SortKey(Field field, String column, boolean ascending) {
+            this.field = field;
+            this.column = column;
+            this.ascending = ascending;
+        }
+    }
     
     /**
      * @param clazz the VO object type
@@ -61,6 +88,7 @@ public class Filter {
      */
     public Filter(Filter that) {
         this._orderBy = that._orderBy;
+        this._sortKeys = new ArrayList<SortKey>(that._sortKeys);
         this._limit = null;
         that._limit = null;
     }
@@ -79,12 +107,14 @@ public class Filter {
         String name = column != null ? column.name() : field;
         
         StringBuilder order = new StringBuilder();
-        if (column.table() == null || column.table().length() == 0) {
+        if (column == null || column.table() == null || column.table().length() == 0) {
             order.append(DbUtil.getTableName(clazz));
         } else {
             order.append(column.table());
         }
-        order.append(".").append(name).append(ascending ? " ASC " : " DESC ");
+        order.append(".").append(name);
+        _sortKeys.add(new SortKey(f, order.toString(), ascending));
+        order.append(ascending ? " ASC " : " DESC ");
         
         if (_orderBy == null) {
             _orderBy = order.insert(0, " ORDER BY ").toString();
@@ -112,4 +142,173 @@ public class Filter {
     public void setLimit(Long limit) {
         _limit = limit;
     }
+
+    /**
+     * Makes the searches with this filter return the rows after the one with these sort keys, in place of skipping
+     * the offset.
+     * @param keys values of the fields of the order by, in order.
+     */
+    public void seekAfter(Object... keys) {
+        if (_sortKeys.isEmpty() || keys.length != _sortKeys.size()) {
+            throw new CloudRuntimeException("Expected " + _sortKeys.size() + " sort keys to seek by but got " + keys.length);
+        }
+        _seekKeys = keys;
+    }
+
+    /**
+     * Makes the searches with this filter return the rows after this one.
+     * @param entity last row of the previous page.
+     */
+    public void seekAfterEntity(Object entity) {
+        seekAfter(getSortKeys(entity));
+    }
+
+    public Object[] getSeekKeys() {
+        return _seekKeys;
+    }
+
+    List<SortKey> getSortKeys() {
+        return _sortKeys;
+    }
+
+    /**
+     * @return the condition selecting the rows after the seek keys, with a parameter for each key in getSeekOrder(),
+     *         or null if the filter does not seek.
+     */
+    public String getSeekClause() {
+        if (_seekKeys == null) {
+            return null;
+        }
+
+        // c1 > ? OR (c1 = ? AND (c2 > ? OR (c2 = ? AND c3 > ?))), led by c1 >= ? for the index to be used as a range.
+        StringBuilder clause = new StringBuilder();
+        int last = _sortKeys.size() - 1;
+        if (last > 0) {
+            SortKey first = _sortKeys.get(0);
+            clause.append(first.column).append(first.ascending ? " >= ? AND " : " <= ? AND ");
+        }
+        clause.append("(");
+        for (int i = 0; i <= last; i++) {
+            SortKey key = _sortKeys.get(i);
+            clause.append(key.column).append(key.ascending ? " > ?" : " < ?");
+            if (i < last) {
+                clause.append(" OR (").append(key.column).append(" = ? AND (");
+            }
+        }
+        for (int i = 0; i < last; i++) {
+            clause.append("))");
+        }
+        clause.append(")");
+        return clause.toString();
+    }
+
+    /**
+     * @return the index of the sort key bound to each parameter of the seek clause.
+     */
+    public int[] getSeekOrder() {
+        int last = _sortKeys.size() - 1;
+        int[] order = new int[last > 0 ? 2 * last + 2 : 1];
+        int j = 0;
+        if (last > 0) {
+            order[j++] = 0;
+        }
+        for (int i = 0; i <= last; i++) {
+            order[j++] = i;
+            if (i < last) {
+                order[j++] = i;
+            }
+        }
+        return order;
+    }
+
+    public Object[] getSortKeys(Object entity) {
+        Object[] keys = new Object[_sortKeys.size()];
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                Field field = _sortKeys.get(i).field;
+                field.setAccessible(true);
+                keys[i] = field.get(entity);
+            }
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to read the sort keys of " + entity, e);
+        }
+        return keys;
+    }
+
+    /**
+     * @return an opaque token for the page after the one ending with this entity, to be handed back to setPageToken.
+     */
+    public String getPageToken(Object entity) {
+        if (_sortKeys.isEmpty()) {
+            throw new CloudRuntimeException("Can't page without an order by");
+        }
+        Object[] keys = getSortKeys(entity);
+        StringBuilder token = new StringBuilder(Integer.toHexString(_orderBy.hashCode()));
+        try {
+            for (Object key : keys) {
+                String value;
+                if (key == null) {
+                    throw new CloudRuntimeException("Can't page after a null sort key in " + _orderBy);
+                } else if (key instanceof Date) {
+                    value = Long.toString(((Date)key).getTime());
+                } else if (key instanceof Enum) {
+                    value = ((Enum<?>)key).name();
+                } else {
+                    value = key.toString();
+                }
+                token.append(",").append(URLEncoder.encode(value, "UTF-8"));
+            }
+            return Base64.encodeBase64URLSafeString(token.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Seeks after the row a token of getPageToken was made for.
+     * @throws IllegalArgumentException if the token was not made by a filter with the same order by.
+     */
+    public void setPageToken(String pageToken) {
+        String[] values;
+        try {
+            values = new String(Base64.decodeBase64(pageToken), "UTF-8").split(",", -1);
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not supported", e);
+        }
+        if (_sortKeys.isEmpty() || values.length != _sortKeys.size() + 1 || !values[0].equals(Integer.toHexString(_orderBy.hashCode()))) {
+            throw new IllegalArgumentException("Invalid page token " + pageToken);
+        }
+
+        Object[] keys = new Object[_sortKeys.size()];
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = parseKey(_sortKeys.get(i).field.getType(), URLDecoder.decode(values[i + 1], "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not supported", e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token " + pageToken, e);
+        }
+        seekAfter(keys);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object parseKey(Class<?> type, String value) {
+        if (type == String.class) {
+            return value;
+        } else if (type == Long.class || type == long.class) {
+            return Long.valueOf(value);
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(value);
+        } else if (type == Short.class || type == short.class) {
+            return Short.valueOf(value);
+        } else if (type == Boolean.class || type == boolean.class) {
+            return Boolean.valueOf(value);
+        } else if (type == Date.class) {
+            return new Date(Long.parseLong(value));
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>)type, value);
+        }
+        throw new CloudRuntimeException("Can't page by a field of " + type);
+    }
 }
@@ -177,6 +177,21 @@ public interface GenericDao<T, ID extends Serializable> {
     
 
     List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache, final boolean enable_query_cache);
+
+    /**
+     * Search for the active entity beans and hand them to the handler in order of id.  The rows are read a batch at
+     * a time, so memory stays the same however many rows match, and no connection is held while the handler runs,
+     * so it can use the database too.  Each batch seeks past the last id of the one before.
+     * @param sc search criteria, null for all rows
+     * @param handler receives the entity beans
+     * @return number of entity beans handed to the handler.
+     */
+    int searchStream(SearchCriteria<T> sc, StreamHandler<T> handler);
+
+    /**
+     * Like searchStream, including the removed entity beans.
+     */
+    int searchIncludingRemovedStream(SearchCriteria<T> sc, StreamHandler<T> handler);
     
     
     /**
@@ -39,6 +39,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -151,6 +152,30 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
     protected int _timeoutSeconds;
+    private RowMapper<T> _rowMapper;
+
+    // Daos over database views set this: their entities are never updated, so they are created without the
+    // proxy that tracks changes for update().
+    protected boolean _readOnly = false;
+
+    // Rows read per statement by the streamed searches
+    protected int _streamBatchSize = 500;
+
+    // The sql of the searches by their shape, which stays the same for the criteria of a search builder.  The
+    // least recently used shapes are dropped once it holds that many.
+    protected static final int MAX_CACHED_SEARCH_SQLS = 512;
+    @SuppressWarnings("serial")
+    protected final Map<StatementKey, String> _searchSqls = Collections.synchronizedMap(new LinkedHashMap<StatementKey, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StatementKey, String> eldest) {
+            return size() > MAX_CACHED_SEARCH_SQLS;
+        }
+    });
+
+    protected static final int SEARCH_SQL = 0;
+    protected static final int QUERY_CACHE_SEARCH_SQL = 1;
+    protected static final int CUSTOM_SEARCH_SQL = 2;
+    protected static final int COUNT_SQL = 3;
 
     protected final static CallbackFilter s_callbackFilter = new UpdateFilter();
 
@@ -227,6 +252,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         _allAttributes = generator.getAllAttributes();
         _allColumns = generator.getAllColumns();
+        _rowMapper = new RowMapper<T>(_entityBeanType, _allColumns);
 
         _selectByIdSql = buildSelectByIdSql(createPartialSelectSql(null, true));
         _removeSql = generator.buildRemoveSql();
@@ -329,6 +355,109 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return beans.isEmpty() ? null : beans.get(0);
     }
 
+    @Override @DB()
+    public int searchStream(SearchCriteria<T> sc, final StreamHandler<T> handler) {
+        if (_removed != null) {
+            if (sc == null) {
+                sc = createSearchCriteria();
+            }
+            sc.addAnd(_removed.second().field.getName(), SearchCriteria.Op.NULL);
+        }
+        return searchIncludingRemovedStream(sc, handler);
+    }
+
+    @Override @DB()
+    public int searchIncludingRemovedStream(SearchCriteria<T> sc, final StreamHandler<T> handler) {
+        if (!isStreamable()) {
+            return handle(searchIncludingRemoved(sc, null, null, false), handler);
+        }
+
+        if (sc == null) {
+            sc = createSearchCriteria();
+        }
+        final Filter filter = new Filter(_entityBeanType, _idField.getName(), true, 0L, (long)_streamBatchSize);
+        List<T> batch = searchIncludingRemoved(sc, filter, null, false, false, _streamBatchSize);
+        int count = 0;
+        while (!batch.isEmpty()) {
+            for (final T entity : batch) {
+                count++;
+                if (!handler.handle(entity)) {
+                    return count;
+                }
+            }
+            if (batch.size() < _streamBatchSize) {
+                break;
+            }
+            filter.seekAfter(getStreamId(batch.get(batch.size() - 1)));
+            batch = searchIncludingRemoved(sc, filter, null, false, false, _streamBatchSize);
+        }
+        return count;
+    }
+
+    /**
+     * Streams the entity beans matching a where clause of the dao's own, like searchIncludingRemovedStream does for
+     * search criteria.
+     * @param where condition on the columns of the entity's tables, without the WHERE.
+     * @param handler receives the entity beans in order of id.
+     * @param params values of the parameters in the condition.
+     * @return number of entity beans handed to the handler.
+     */
+    protected int executeStream(final String where, final StreamHandler<T> handler, final Object... params) {
+        final StringBuilder sql = createPartialSelectSql(null, true);
+        sql.append("(").append(where).append(")");
+        if (!isStreamable()) {
+            return handle(executeList(sql.toString(), params), handler);
+        }
+
+        final String idColumn = _table + "." + DbUtil.getColumnName(_idField, null);
+        final String order = " ORDER BY " + idColumn + " LIMIT " + _streamBatchSize;
+        final String nextSql = sql.toString() + " AND " + idColumn + " > ?" + order;
+        final Object[] nextParams = Arrays.copyOf(params, params.length + 1);
+
+        List<T> batch = executeBatch(sql.append(order).toString(), _streamBatchSize, params);
+        int count = 0;
+        while (!batch.isEmpty()) {
+            for (final T entity : batch) {
+                count++;
+                if (!handler.handle(entity)) {
+                    return count;
+                }
+            }
+            if (batch.size() < _streamBatchSize) {
+                break;
+            }
+            nextParams[params.length] = getStreamId(batch.get(batch.size() - 1));
+            batch = executeBatch(nextSql, _streamBatchSize, nextParams);
+        }
+        return count;
+    }
+
+    /**
+     * Only entities with a single id column can be read a batch of ids at a time.
+     */
+    private boolean isStreamable() {
+        return _idField != null && _idField.getAnnotation(EmbeddedId.class) == null;
+    }
+
+    private int handle(final List<T> entities, final StreamHandler<T> handler) {
+        int count = 0;
+        for (final T entity : entities) {
+            count++;
+            if (!handler.handle(entity)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private Object getStreamId(final T entity) {
+        try {
+            return _idField.get(entity);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to read the id of " + entity, e);
+        }
+    }
+
     @DB()
     protected List<T> search(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache) {
         if (_removed != null) {
@@ -359,25 +488,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override
     public List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock,
             final boolean cache, final boolean enable_query_cache) {
-        String clause = sc != null ? sc.getWhereClause() : null;
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null, enable_query_cache);
-        if (clause != null) {
-            str.append(clause);
-        }
-
-        Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
-        if (sc != null) {
-            joins = sc.getJoins();
-            if (joins != null) {
-                addJoins(str, joins);
-            }
-        }
+        return searchIncludingRemoved(sc, filter, lock, cache, enable_query_cache, 0);
+    }
 
-        List<Object> groupByValues = addGroupBy(str, sc);
+    private List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock,
+            final boolean cache, final boolean enable_query_cache, final int fetchSize) {
+        final StringBuilder str = new StringBuilder(getSearchSql(sc, enable_query_cache ? QUERY_CACHE_SEARCH_SQL : SEARCH_SQL, filter));
+        Collection<JoinBuilder<SearchCriteria<?>>> joins = sc != null ? sc.getJoins() : null;
+        List<Object> groupByValues = getGroupByValues(sc);
         addFilter(str, filter);
 
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -392,12 +510,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final List<T> result = new ArrayList<T>();
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
-            int i = 0;
-            if (clause != null) {
-                for (final Pair<Attribute, Object> value : sc.getValues()) {
-                    prepareAttribute(++i, pstmt, value.first(), value.second());
-                }
+            if (fetchSize > 0) {
+                pstmt.setFetchSize(fetchSize);
             }
+            int i = addValues(0, pstmt, sc);
+            i = addSeekValues(i, pstmt, filter);
 
             if (joins != null) {
                 i = addJoinAttributes(i, pstmt, joins);
@@ -413,8 +530,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 txn.registerLock(pstmt.toString());
             }
             final ResultSet rs = pstmt.executeQuery();
+            final RowMapper.ColumnReader[] readers = _rowMapper.getReaders(rs);
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(toEntityBean(rs, readers, cache));
             }
             return result;
         } catch (final SQLException e) {
@@ -429,25 +547,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (sc.isSelectAll()) {
             return (List<M>)searchIncludingRemoved((SearchCriteria<T>)sc, filter, null, false);
         }
-        String clause = sc != null ? sc.getWhereClause() : null;
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null);
-        if (clause != null) {
-            str.append(clause);
-        }
-
-        Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
-        if (sc != null) {
-            joins = sc.getJoins();
-            if (joins != null) {
-                addJoins(str, joins);
-            }
-        }
-
-        List<Object> groupByValues = addGroupBy(str, sc);
+        final StringBuilder str = new StringBuilder(getSearchSql(sc, CUSTOM_SEARCH_SQL, filter));
+        Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+        List<Object> groupByValues = getGroupByValues(sc);
         addFilter(str, filter);
 
         final String sql = str.toString();
@@ -456,12 +558,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         PreparedStatement pstmt = null;
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
-            int i = 0;
-            if (clause != null) {
-                for (final Pair<Attribute, Object> value : sc.getValues()) {
-                    prepareAttribute(++i, pstmt, value.first(), value.second());
-                }
-            }
+            int i = addValues(0, pstmt, sc);
+            i = addSeekValues(i, pstmt, filter);
 
             if (joins != null) {
                 i = addJoinAttributes(i, pstmt, joins);
@@ -476,15 +574,18 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             ResultSet rs = pstmt.executeQuery();
             SelectType st = sc.getSelectType();
             ArrayList<M> results = new ArrayList<M>();
-            List<Field> fields = sc.getSelectFields();
+            RowMapper.ColumnReader[] readers = null;
+            if (st == SelectType.Entity) {
+                readers = _rowMapper.getReaders(rs);
+            } else if (st == SelectType.Fields || st == SelectType.Result) {
+                readers = RowMapper.getReaders(sc.getSelectFields());
+            }
             while (rs.next()) {
                 if (st == SelectType.Entity) {
-                    results.add((M)toEntityBean(rs, false));
+                    results.add((M)toEntityBean(rs, readers, false));
                 } else if (st == SelectType.Fields || st == SelectType.Result) {
                     M m = sc.getResultType().newInstance();
-                    for (int j = 1; j <= fields.size(); j++) {
-                        setField(m, fields.get(j - 1), rs, j);
-                    }
+                    RowMapper.map(readers, rs, m);
                     results.add(m);
                 } else if (st == SelectType.Single) {
                     results.add(getObject(sc.getResultType(), rs, 1));
@@ -744,6 +845,103 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    /**
+     * @return the sql of the search up to its filter, rendered once for each shape of criteria.
+     */
+    protected String getSearchSql(SearchCriteria<?> sc, int kind) {
+        return getSearchSql(sc, kind, null);
+    }
+
+    /**
+     * @return the sql of the search up to its filter, with the condition of a filter that seeks.
+     */
+    protected String getSearchSql(SearchCriteria<?> sc, int kind, Filter filter) {
+        final String seek = filter != null ? filter.getSeekClause() : null;
+        if (sc == null || !sc.isCacheable()) {
+            return buildSearchSql(sc, kind, seek);
+        }
+
+        StatementKey key = new StatementKey(kind);
+        sc.addShape(key);
+        if (seek != null) {
+            key.add(seek);
+        }
+        String sql = _searchSqls.get(key);
+        if (sql == null) {
+            sql = buildSearchSql(sc, kind, seek);
+            _searchSqls.put(key, sql);
+        }
+        return sql;
+    }
+
+    protected String buildSearchSql(SearchCriteria<?> sc, int kind) {
+        return buildSearchSql(sc, kind, null);
+    }
+
+    protected String buildSearchSql(SearchCriteria<?> sc, int kind, String seek) {
+        String clause = sc != null ? sc.getWhereClause() : null;
+        if (clause != null && clause.length() == 0) {
+            clause = null;
+        }
+
+        final boolean whereClause = clause != null || seek != null;
+        final StringBuilder str;
+        if (kind == COUNT_SQL) {
+            str = createCountSelect(sc, whereClause);
+        } else if (kind == CUSTOM_SEARCH_SQL) {
+            str = createPartialSelectSql(sc, whereClause);
+        } else {
+            str = createPartialSelectSql(sc, whereClause, kind == QUERY_CACHE_SEARCH_SQL);
+        }
+        if (clause != null && seek != null) {
+            str.append("(").append(clause).append(") AND ").append(seek);
+        } else if (clause != null) {
+            str.append(clause);
+        } else if (seek != null) {
+            str.append(seek);
+        }
+
+        if (sc != null && sc.getJoins() != null) {
+            addJoins(str, sc.getJoins());
+        }
+
+        if (kind != COUNT_SQL) {
+            addGroupBy(str, sc);
+        }
+        return str.toString();
+    }
+
+    protected List<Object> getGroupByValues(SearchCriteria<?> sc) {
+        Pair<GroupBy<?, ?, ?>, List<Object>> groupBys = sc.getGroupBy();
+        return groupBys != null ? groupBys.second() : null;
+    }
+
+    protected int addValues(int count, PreparedStatement pstmt, SearchCriteria<?> sc) throws SQLException {
+        if (sc != null) {
+            for (final Pair<Attribute, Object> value : sc.getValues()) {
+                prepareAttribute(++count, pstmt, value.first(), value.second());
+            }
+        }
+        return count;
+    }
+
+    protected int addSeekValues(int count, PreparedStatement pstmt, Filter filter) throws SQLException {
+        if (filter == null || filter.getSeekKeys() == null) {
+            return count;
+        }
+        final Object[] keys = filter.getSeekKeys();
+        final List<Filter.SortKey> sortKeys = filter.getSortKeys();
+        for (final int index : filter.getSeekOrder()) {
+            final Attribute attr = _allAttributes.get(sortKeys.get(index).field.getName());
+            if (attr != null && attr.field != null) {
+                prepareAttribute(++count, pstmt, attr, keys[index]);
+            } else {
+                pstmt.setObject(++count, keys[index]);
+            }
+        }
+        return count;
+    }
+
     @DB()
     protected int addJoinAttributes(int count, PreparedStatement pstmt, Collection<JoinBuilder<SearchCriteria<?>>> joins) throws SQLException {
         for (JoinBuilder<SearchCriteria<?>> join : joins) {
@@ -1057,7 +1255,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (filter.getOrderBy() != null) {
                 sql.append(filter.getOrderBy());
             }
-            if (filter.getOffset() != null) {
+            if (filter.getSeekKeys() != null) {
+                if (filter.getLimit() != null) {
+                    sql.append(" LIMIT ").append(filter.getLimit());
+                }
+            } else if (filter.getOffset() != null) {
                 sql.append(" LIMIT ");
                 sql.append(filter.getOffset());
                 if (filter.getLimit() != null) {
@@ -1069,6 +1271,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override @DB()
     public List<T> listAllIncludingRemoved(final Filter filter) {
+        if (filter != null && filter.getSeekKeys() != null) {
+            return searchIncludingRemoved(createSearchCriteria(), filter, null, false);
+        }
         final StringBuilder sql = createPartialSelectSql(null, false);
         addFilter(sql, filter);
 
@@ -1076,19 +1281,27 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected List<T> executeList(final String sql, final Object... params) {
+        return executeBatch(sql, 0, params);
+    }
+
+    private List<T> executeBatch(final String sql, final int fetchSize, final Object... params) {
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
         final List<T> result = new ArrayList<T>();
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
+            if (fetchSize > 0) {
+                pstmt.setFetchSize(fetchSize);
+            }
             int i = 0;
             for (final Object param : params) {
                 pstmt.setObject(++i, param);
             }
 
             final ResultSet rs = pstmt.executeQuery();
+            final RowMapper.ColumnReader[] readers = _rowMapper.getReaders(rs);
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(toEntityBean(rs, readers, true));
             }
             return result;
         } catch (final SQLException e) {
@@ -1105,6 +1318,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override @DB()
     public List<T> listAll(final Filter filter) {
+        if (filter != null && filter.getSeekKeys() != null) {
+            return search(createSearchCriteria(), filter, null, false);
+        }
         if (_removed == null) {
             return listAllIncludingRemoved(filter);
         }
@@ -1536,11 +1752,19 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return j;
     }
 
-    @SuppressWarnings("unchecked") @DB()
+    @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
-        final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        return toEntityBean(result, _rowMapper.getReaders(result), cache);
+    }
 
-        toEntityBean(result, entity);
+    @SuppressWarnings("unchecked")
+    private T toEntityBean(final ResultSet result, final RowMapper.ColumnReader[] readers, final boolean cache) throws SQLException {
+        final T entity = _readOnly ? _rowMapper.newInstance() : (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+
+        RowMapper.map(readers, result, entity);
+        for (Attribute attr : _ecAttributes) {
+            loadCollection(entity, attr);
+        }
 
         if (cache && _cache != null) {
             try {
@@ -1555,14 +1779,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected T toVO(ResultSet result, boolean cache) throws SQLException {
-        T entity;
-        try {
-            entity = _entityBeanType.newInstance();
-        } catch (InstantiationException e1) {
-            throw new CloudRuntimeException("Unable to instantiate entity", e1);
-        } catch (IllegalAccessException e1) {
-            throw new CloudRuntimeException("Illegal Access", e1);
-        }
+        T entity = _rowMapper.newInstance();
         toEntityBean(result, entity);
         if (cache && _cache != null) {
             try {
@@ -1577,10 +1794,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
-        ResultSetMetaData meta = result.getMetaData();
-        for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
-            setField(entity, result, meta, index);
-        }
+        RowMapper.map(_rowMapper.getReaders(result), result, entity);
         for (Attribute attr : _ecAttributes) {
             loadCollection(entity, attr);
         }
@@ -1798,42 +2012,22 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override @DB()
     public SearchCriteria<T> createSearchCriteria() {
         SearchBuilder<T> builder = createSearchBuilder();
-        return builder.create();
+        SearchCriteria<T> sc = builder.create();
+        // the builder is used once, its shape would never be looked up again
+        sc.setCacheable(false);
+        return sc;
     }
 
     public Integer getCount(SearchCriteria<T> sc) {
-        String clause = sc != null ? sc.getWhereClause() : null;
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createCountSelect(sc, clause != null);
-        if (clause != null) {
-            str.append(clause);
-        }
-
-        Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
-        if (sc != null) {
-            joins = sc.getJoins();
-            if (joins != null) {
-                addJoins(str, joins);
-            }
-        }
-
         // we have to disable group by in getting count, since count for groupBy clause will be different.
-        //List<Object> groupByValues = addGroupBy(str, sc);
+        final String sql = getSearchSql(sc, COUNT_SQL);
+        Collection<JoinBuilder<SearchCriteria<?>>> joins = sc != null ? sc.getJoins() : null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
-        final String sql = str.toString();
 
         PreparedStatement pstmt = null;
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
-            int i = 0;
-            if (clause != null) {
-                for (final Pair<Attribute, Object> value : sc.getValues()) {
-                    prepareAttribute(++i, pstmt, value.first(), value.second());
-                }
-            }
+            int i = addValues(0, pstmt, sc);
 
             if (joins != null) {
                 i = addJoinAttributes(i, pstmt, joins);
@@ -150,6 +150,7 @@ public class GenericQueryBuilder<T, K> extends SearchBase<GenericQueryBuilder<T,
     public SearchCriteria<K> create() {
         SearchCriteria<K> sc = super.create();
         sc.setParameters(_params);
+        sc.setCacheable(false);
         return sc;
     }
 
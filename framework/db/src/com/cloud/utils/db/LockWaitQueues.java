@@ -0,0 +1,183 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The threads of this management server waiting for a lock, queued per key, and the management servers waiting for
+ * a lock this one holds.  A release bumps the generation of the key so that a waiter which saw the lock taken before
+ * the release doesn't go to sleep after it.
+ */
+class LockWaitQueues {
+
+    static class Waiters {
+        private int _count;
+        private long _generation;
+        private long _askedGeneration = -1;
+
+        synchronized long getGeneration() {
+            return _generation;
+        }
+
+        /**
+         * @return false if the wait timed out without a release of the key.
+         */
+        synchronized boolean await(long generation, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (_generation == generation) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized void signal() {
+            _generation++;
+            notifyAll();
+        }
+
+        /**
+         * @return true for the first waiter to find the lock held elsewhere since the last release, which asks the
+         * owner to tell when it releases it.
+         */
+        synchronized boolean askWakeup(long generation) {
+            if (_askedGeneration == generation) {
+                return false;
+            }
+            _askedGeneration = generation;
+            return true;
+        }
+    }
+
+    private final Map<String, Waiters> _waiters = new HashMap<String, Waiters>();
+    private final Map<String, Set<Long>> _remoteWaiters = new HashMap<String, Set<Long>>();
+    private final Set<String> _held = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    Waiters enter(String key) {
+        synchronized (_waiters) {
+            Waiters waiters = _waiters.get(key);
+            if (waiters == null) {
+                waiters = new Waiters();
+                _waiters.put(key, waiters);
+            }
+            waiters._count++;
+            return waiters;
+        }
+    }
+
+    void exit(String key, Waiters waiters) {
+        synchronized (_waiters) {
+            if (--waiters._count == 0) {
+                _waiters.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Wakes the threads waiting for the key.
+     */
+    void wakeup(String key) {
+        Waiters waiters;
+        synchronized (_waiters) {
+            waiters = _waiters.get(key);
+        }
+        if (waiters != null) {
+            waiters.signal();
+        }
+    }
+
+    void wakeupAll() {
+        synchronized (_waiters) {
+            for (Waiters waiters : _waiters.values()) {
+                waiters.signal();
+            }
+        }
+    }
+
+    int getWaiting() {
+        int count = 0;
+        synchronized (_waiters) {
+            for (Waiters waiters : _waiters.values()) {
+                count += waiters._count;
+            }
+        }
+        return count;
+    }
+
+    void held(String key) {
+        _held.add(key);
+    }
+
+    /**
+     * The lock is no longer held by this management server, wakes its threads waiting for it.
+     * @return the management servers to wake.
+     */
+    Set<Long> released(String key) {
+        _held.remove(key);
+        wakeup(key);
+        return removeRemoteWaiters(key);
+    }
+
+    /**
+     * @return the management servers to wake right away, if the lock was released before they asked.
+     */
+    Set<Long> addRemoteWaiter(String key, long msId) {
+        synchronized (_remoteWaiters) {
+            Set<Long> msIds = _remoteWaiters.get(key);
+            if (msIds == null) {
+                msIds = new HashSet<Long>();
+                _remoteWaiters.put(key, msIds);
+            }
+            msIds.add(msId);
+        }
+        if (_held.contains(key)) {
+            return Collections.emptySet();
+        }
+        return removeRemoteWaiters(key);
+    }
+
+    private Set<Long> removeRemoteWaiters(String key) {
+        synchronized (_remoteWaiters) {
+            Set<Long> msIds = _remoteWaiters.remove(key);
+            return msIds != null ? msIds : Collections.<Long> emptySet();
+        }
+    }
+
+    /**
+     * The locks of this management server were cleaned up, everyone waiting for them is woken.
+     * @return the management servers to wake for each key.
+     */
+    Map<String, Set<Long>> clear() {
+        _held.clear();
+        Map<String, Set<Long>> remoteWaiters;
+        synchronized (_remoteWaiters) {
+            remoteWaiters = new HashMap<String, Set<Long>>(_remoteWaiters);
+            _remoteWaiters.clear();
+        }
+        wakeupAll();
+        return remoteWaiters;
+    }
+}
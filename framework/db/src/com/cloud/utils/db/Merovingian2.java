@@ -25,6 +25,8 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.TimeZone;
 
 import javax.management.StandardMBean;
@@ -56,28 +58,64 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
 
     private final long _msId;
 
+    /* A waiter looks at the lock again after this long even if no release woke it up */
+    private static final long POLL_INTERVAL = 5000;
+
     private static Merovingian2 s_instance = null;
-    private ConnectionConcierge _concierge = null;
+    private final ConnectionConcierge[] _concierges;
+    private final boolean _notifyWaiters;
+    private final LockWaitQueues _queues = new LockWaitQueues();
+    private volatile ClusterNotifier _notifier;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
-    private Merovingian2(long msId) {
+    /**
+     * Tells the other management servers about the locks their threads wait for.
+     */
+    public interface ClusterNotifier {
+        /**
+         * Asks the management server holding the lock to tell this one when it releases it.
+         */
+        void waitingFor(long ownerMsId, String key);
+
+        /**
+         * Tells a management server waiting for the lock that it was released.
+         */
+        void released(long waiterMsId, String key);
+    }
+
+    private Merovingian2(long msId, boolean notifyWaiters, int connections) {
         super(MerovingianMBean.class, false);
         _msId = msId;
-        Connection conn = null;
+        _notifyWaiters = notifyWaiters;
+        _concierges = new ConnectionConcierge[Math.max(connections, 1)];
         try {
-            conn = TransactionLegacy.getStandaloneConnectionWithException();
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-            conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
+            for (int i = 0; i < _concierges.length; i++) {
+                Connection conn = TransactionLegacy.getStandaloneConnectionWithException();
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                conn.setAutoCommit(true);
+                _concierges[i] = new ConnectionConcierge("LockMaster", conn, true);
+            }
         } catch (SQLException e) {
             s_logger.error("Unable to get a new db connection", e);
             throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes: ", e);
         }
     }
 
-    public static synchronized Merovingian2 createLockMaster(long msId) {
+    /**
+     * Creates the lock master as configured in db.properties: db.cloud.lock.notify wakes the waiters of a lock when
+     * it is released instead of every five seconds, and db.cloud.lock.connections spreads the locks over that many
+     * connections.
+     */
+    public static Merovingian2 createLockMaster(long msId) {
+        Properties dbProps = DbProperties.getDbProperties();
+        boolean notifyWaiters = Boolean.parseBoolean(dbProps.getProperty("db.cloud.lock.notify", "false"));
+        int connections = Integer.parseInt(dbProps.getProperty("db.cloud.lock.connections", "1"));
+        return createLockMaster(msId, notifyWaiters, connections);
+    }
+
+    public static synchronized Merovingian2 createLockMaster(long msId, boolean notifyWaiters, int connections) {
         assert s_instance == null : "No lock can serve two masters.  Either he will hate the one and love the other, or he will be devoted to the one and despise the other.";
-        s_instance = new Merovingian2(msId);
+        s_instance = new Merovingian2(msId, notifyWaiters, connections);
         s_instance.cleanupThisServer();
         try {
             JmxUtil.registerMBean("Locks", "Locks", s_instance);
@@ -91,6 +129,20 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return s_instance;
     }
 
+    public void setClusterNotifier(ClusterNotifier notifier) {
+        _notifier = notifier;
+    }
+
+    /**
+     * @return the connection for the lock, all the statements on a lock go through the same one.
+     */
+    protected Connection conn(String key) {
+        if (key == null || _concierges.length == 1) {
+            return _concierges[0].conn();
+        }
+        return _concierges[(key.hashCode() & Integer.MAX_VALUE) % _concierges.length].conn();
+    }
+
 
     protected void incrCount() {
         Count count = s_tls.get();
@@ -122,6 +174,10 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
         long startTime = InaccurateClock.getTime();
 
+        if (_notifyWaiters) {
+            return acquireWaiting(key, timeInSeconds, threadName, threadId);
+        }
+
         while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000)) {
             int count = owns(key);
 
@@ -146,10 +202,86 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return false;
     }
 
+    /**
+     * Waits in the queue of the key until its release, here or on the management server holding it.
+     */
+    protected boolean acquireWaiting(String key, int timeInSeconds, String threadName, int threadId) {
+        long startTime = InaccurateClock.getTime();
+        LockWaitQueues.Waiters waiters = _queues.enter(key);
+        try {
+            while (true) {
+                long generation = waiters.getGeneration();
+                Map<String, String> owner = isLocked(key);
+                if (owner == null) {
+                    if (doAcquire(key, threadName, threadId)) {
+                        return true;
+                    }
+                } else if (isOwner(owner, threadId)) {
+                    return increment(key, threadName, threadId);
+                } else {
+                    long ownerMsId = Long.parseLong(owner.get("mgmt"));
+                    ClusterNotifier notifier = _notifier;
+                    if (ownerMsId != _msId && notifier != null && waiters.askWakeup(generation)) {
+                        notifier.waitingFor(ownerMsId, key);
+                    }
+                }
+
+                long remaining = timeInSeconds * 1000L - (System.currentTimeMillis() - startTime);
+                if (remaining <= 0) {
+                    break;
+                }
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Waiting for the release of lck-" + key);
+                }
+                try {
+                    waiters.await(generation, Math.min(remaining, POLL_INTERVAL));
+                } catch (InterruptedException e) {
+                }
+            }
+        } finally {
+            _queues.exit(key, waiters);
+        }
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Timed out on acquiring lock " + key + ".  Waited for " + (InaccurateClock.getTime() - startTime));
+        }
+        return false;
+    }
+
+    /**
+     * Wakes the threads waiting for a lock of another management server, which released it.
+     */
+    public void wakeup(String key) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("lck-" + key + " released elsewhere");
+        }
+        _queues.wakeup(key);
+    }
+
+    /**
+     * Another management server waits for a lock, it is told when this one releases it.
+     */
+    public void wakeOnRelease(long msId, String key) {
+        notifyReleased(key, _queues.addRemoteWaiter(key, msId));
+    }
+
+    protected void notifyReleased(String key, Set<Long> msIds) {
+        ClusterNotifier notifier = _notifier;
+        if (notifier == null) {
+            return;
+        }
+        for (Long msId : msIds) {
+            try {
+                notifier.released(msId, key);
+            } catch (Exception e) {
+                s_logger.warn("Unable to tell " + msId + " about the release of lck-" + key, e);
+            }
+        }
+    }
+
     protected boolean increment(String key, String threadName, int threadId) {
         PreparedStatement pstmt = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);
+            pstmt = conn(key).prepareStatement(INCREMENT_SQL);
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
@@ -181,7 +313,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
 
         long startTime = InaccurateClock.getTime();
         try {
-            pstmt = _concierge.conn().prepareStatement(ACQUIRE_SQL);
+            pstmt = conn(key).prepareStatement(ACQUIRE_SQL);
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
@@ -193,6 +325,9 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Acquired for lck-" + key);
                     }
+                    if (_notifyWaiters) {
+                        _queues.held(key);
+                    }
                     incrCount();
                     return true;
                 }
@@ -220,7 +355,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(INQUIRE_SQL);
+            pstmt = conn(key).prepareStatement(INQUIRE_SQL);
             pstmt.setString(1, key);
             rs = pstmt.executeQuery();
             if (!rs.next()) {
@@ -253,12 +388,22 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         s_logger.info("Cleaning up locks for " + msId);
         PreparedStatement pstmt = null;
         try {
-            synchronized (_concierge.conn()) {
-                pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);
+            synchronized (conn(null)) {
+                pstmt = conn(null).prepareStatement(CLEANUP_MGMT_LOCKS_SQL);
                 pstmt.setLong(1, msId);
                 int rows = pstmt.executeUpdate();
                 s_logger.info("Released " + rows + " locks for " + msId);
             }
+            if (_notifyWaiters) {
+                if (msId == _msId) {
+                    for (Map.Entry<String, Set<Long>> entry : _queues.clear().entrySet()) {
+                        notifyReleased(entry.getKey(), entry.getValue());
+                    }
+                } else {
+                    // Whatever the threads here were waiting for on that server is free now
+                    _queues.wakeupAll();
+                }
+            }
         } catch (SQLException e) {
             throw new CloudRuntimeException("Unable to clear the locks", e);
         } finally {
@@ -277,7 +422,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
         try {
-            pstmt = _concierge.conn().prepareStatement(DECREMENT_SQL);
+            pstmt = conn(key).prepareStatement(DECREMENT_SQL);
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
@@ -291,13 +436,16 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
             }
             if (rows == 1) {
                 pstmt.close();
-                pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);
+                pstmt = conn(key).prepareStatement(RELEASE_SQL);
                 pstmt.setString(1, key);
                 pstmt.setLong(2, _msId);
                 int result = pstmt.executeUpdate();
                 if (result == 1 && s_logger.isTraceEnabled()) {
                     s_logger.trace("lck-" + key + " removed");
                 }
+                if (result == 1 && _notifyWaiters) {
+                    notifyReleased(key, _queues.released(key));
+                }
                 decrCount();
             } else  if (rows < 1) {
                 s_logger.warn("Was unable to find lock for the key " + key + " and thread id " + threadId);
@@ -340,7 +488,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(sql);
+            pstmt = conn(null).prepareStatement(sql);
             if (msId != null) {
                 pstmt.setLong(1, msId);
             }
@@ -378,17 +526,21 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (owner == null) {
             return 0;
         }
-        if (owner.get("mgmt").equals(Long.toString(_msId)) && owner.get("tid").equals(Integer.toString(threadId))) {
+        if (isOwner(owner, threadId)) {
             return Integer.parseInt(owner.get("count"));
         }
         return -1;
     }
 
+    protected boolean isOwner(Map<String, String> owner, int threadId) {
+        return owner.get("mgmt").equals(Long.toString(_msId)) && owner.get("tid").equals(Integer.toString(threadId));
+    }
+
     public List<Map<String, String>> getLocksAcquiredBy(long msId, String threadName) {
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(SELECT_THREAD_LOCKS_SQL);
+            pstmt = conn(null).prepareStatement(SELECT_THREAD_LOCKS_SQL);
             pstmt.setLong(1, msId);
             pstmt.setString(2, threadName);
             rs = pstmt.executeQuery();
@@ -425,7 +577,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
 
         PreparedStatement pstmt = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);
+            pstmt = conn(null).prepareStatement(CLEANUP_THREAD_LOCKS_SQL);
             pstmt.setLong(1, _msId);
             pstmt.setString(2, threadName);
             pstmt.setInt(3, threadId);
@@ -448,9 +600,12 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         s_logger.info("Releasing a lock from JMX lck-" + key);
         PreparedStatement pstmt = null;
         try {
-            pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);
+            pstmt = conn(key).prepareStatement(RELEASE_LOCK_SQL);
             pstmt.setString(1, key);
             int rows = pstmt.executeUpdate();
+            if (rows > 0 && _notifyWaiters) {
+                notifyReleased(key, _queues.released(key));
+            }
             return rows > 0;
         } catch (SQLException e) {
             s_logger.error("Unable to release lock " + key, e);
@@ -0,0 +1,439 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * Copies result set rows into entities.  Everything GenericDaoBase.setField decides for a column on every row, the
+ * conversion for the field type, whether it is encrypted, the constants of an enum, is decided once per field here.
+ * Which field each column goes to is resolved once per result set instead of once per row.
+ */
+class RowMapper<T> {
+    private static final ConcurrentHashMap<Field, ColumnReader> s_readers = new ConcurrentHashMap<Field, ColumnReader>();
+
+    // DateUtil.parseDateString creates a format for every date it parses
+    private static final ThreadLocal<DateFormat> s_gmtFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            format.setTimeZone(GenericDaoBase.s_gmtTimeZone);
+            return format;
+        }
+    };
+
+    private final Class<T> _entityType;
+    private final Map<Pair<String, String>, Attribute> _columns;
+    private final String _viewTable;
+    private final Constructor<T> _constructor;
+
+    RowMapper(Class<T> entityType, Map<Pair<String, String>, Attribute> columns) {
+        _entityType = entityType;
+        _columns = columns;
+        Table table = entityType.getAnnotation(Table.class);
+        _viewTable = table != null ? table.name() : null;
+
+        Constructor<T> constructor = null;
+        try {
+            constructor = entityType.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            // then the entities can only be created through the dao's proxy
+        }
+        _constructor = constructor;
+    }
+
+    /**
+     * @return a plain entity, for results that are not going to be updated through the dao.
+     */
+    T newInstance() {
+        if (_constructor == null) {
+            throw new CloudRuntimeException("Unable to create " + _entityType.getName() + ", it has no no-arg constructor");
+        }
+        try {
+            return _constructor.newInstance();
+        } catch (Exception e) {
+            throw new CloudRuntimeException("Unable to create " + _entityType.getName(), e);
+        }
+    }
+
+    /**
+     * @return the reader of each column of the result set, by column index.
+     */
+    ColumnReader[] getReaders(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int count = meta.getColumnCount();
+        ColumnReader[] readers = new ColumnReader[count + 1];
+        for (int index = 1; index <= count; index++) {
+            Attribute attr = _columns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
+            if (attr == null && _viewTable != null) {
+                // work around for mysql bug to return original table name instead of view name in db view case
+                attr = _columns.get(new Pair<String, String>(_viewTable, meta.getColumnLabel(index)));
+            }
+            assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
+            if (attr != null && attr.field != null) {
+                readers[index] = getReader(attr.field);
+            }
+        }
+        return readers;
+    }
+
+    /**
+     * @return the readers of the selected fields, by column index.
+     */
+    static ColumnReader[] getReaders(List<Field> fields) {
+        ColumnReader[] readers = new ColumnReader[fields.size() + 1];
+        for (int i = 0; i < fields.size(); i++) {
+            readers[i + 1] = getReader(fields.get(i));
+        }
+        return readers;
+    }
+
+    static void map(ColumnReader[] readers, ResultSet rs, Object entity) throws SQLException {
+        for (int index = 1; index < readers.length; index++) {
+            ColumnReader reader = readers[index];
+            if (reader != null) {
+                reader.read(rs, index, entity);
+            }
+        }
+    }
+
+    static ColumnReader getReader(Field field) {
+        ColumnReader reader = s_readers.get(field);
+        if (reader == null) {
+            reader = createReader(field);
+            s_readers.put(field, reader);
+        }
+        return reader;
+    }
+
+    private static ColumnReader createReader(Field field) {
+        Class<?> type = field.getType();
+        if (type == String.class) {
+            Encrypt encrypt = field.getAnnotation(Encrypt.class);
+            return new StringReader(field, encrypt != null && encrypt.encrypt());
+        } else if (type == long.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setLong(entity, rs.getLong(index));
+                }
+            };
+        } else if (type == Long.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    long value = rs.getLong(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type.isEnum()) {
+            return new EnumReader(field);
+        } else if (type == int.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setInt(entity, rs.getInt(index));
+                }
+            };
+        } else if (type == Integer.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    int value = rs.getInt(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == Date.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.set(entity, rs.getDate(index) == null ? null : parseDate(rs.getString(index)));
+                }
+            };
+        } else if (type == Calendar.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    Calendar cal = null;
+                    if (rs.getDate(index) != null) {
+                        cal = Calendar.getInstance();
+                        cal.setTime(parseDate(rs.getString(index)));
+                    }
+                    _field.set(entity, cal);
+                }
+            };
+        } else if (type == boolean.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setBoolean(entity, rs.getBoolean(index));
+                }
+            };
+        } else if (type == Boolean.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    boolean value = rs.getBoolean(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == URI.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    String str = rs.getString(index);
+                    try {
+                        _field.set(entity, str == null ? null : new URI(str));
+                    } catch (URISyntaxException e) {
+                        throw new CloudRuntimeException("Invalid URI: " + str, e);
+                    }
+                }
+            };
+        } else if (type == URL.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    String str = rs.getString(index);
+                    try {
+                        _field.set(entity, str != null ? new URL(str) : null);
+                    } catch (MalformedURLException e) {
+                        throw new CloudRuntimeException("Invalid URL: " + str, e);
+                    }
+                }
+            };
+        } else if (type == Ip.class) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            if (enumerated == null || enumerated.value() == EnumType.STRING) {
+                return new ColumnReader(field) {
+                    @Override
+                    protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                        String s = rs.getString(index);
+                        _field.set(entity, s == null ? null : new Ip(NetUtils.ip2Long(s)));
+                    }
+                };
+            }
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.set(entity, new Ip(rs.getLong(index)));
+                }
+            };
+        } else if (type == short.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setShort(entity, rs.getShort(index));
+                }
+            };
+        } else if (type == Short.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    short value = rs.getShort(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == float.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setFloat(entity, rs.getFloat(index));
+                }
+            };
+        } else if (type == Float.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    float value = rs.getFloat(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == double.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setDouble(entity, rs.getDouble(index));
+                }
+            };
+        } else if (type == Double.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    double value = rs.getDouble(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.setByte(entity, rs.getByte(index));
+                }
+            };
+        } else if (type == Byte.class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    byte value = rs.getByte(index);
+                    _field.set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte[].class) {
+            return new ColumnReader(field) {
+                @Override
+                protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                    _field.set(entity, rs.getBytes(index));
+                }
+            };
+        }
+        return new ColumnReader(field) {
+            @Override
+            protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+                _field.set(entity, rs.getObject(index));
+            }
+        };
+    }
+
+    static Date parseDate(String date) {
+        try {
+            return s_gmtFormat.get().parse(date);
+        } catch (ParseException e) {
+            throw new CloudRuntimeException("why why ", e);
+        }
+    }
+
+    /**
+     * Reads one column into one field of an entity.
+     */
+    abstract static class ColumnReader {
+        protected final Field _field;
+
+        protected ColumnReader(Field field) {
+            _field = field;
+        }
+
+        public void read(ResultSet rs, int index, Object entity) throws SQLException {
+            try {
+                setField(rs, index, entity);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Yikes! ", e);
+            }
+        }
+
+        protected abstract void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException;
+    }
+
+    static class StringReader extends ColumnReader {
+        private final boolean _encrypted;
+
+        StringReader(Field field, boolean encrypted) {
+            super(field);
+            _encrypted = encrypted;
+        }
+
+        @Override
+        protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+            byte[] bytes = rs.getBytes(index);
+            if (bytes == null) {
+                _field.set(entity, null);
+                return;
+            }
+            try {
+                String value = new String(bytes, "UTF-8");
+                _field.set(entity, _encrypted ? DBEncryptionUtil.decrypt(value) : value);
+            } catch (IllegalArgumentException e) {
+                assert (false);
+                throw new CloudRuntimeException("IllegalArgumentException when converting UTF-8 data");
+            } catch (UnsupportedEncodingException e) {
+                assert (false);
+                throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
+            }
+        }
+    }
+
+    /**
+     * Looks the constant up by name or ordinal.  Like GenericDaoBase.setField, a value that matches no constant
+     * leaves the field as it is.
+     */
+    static class EnumReader extends ColumnReader {
+        private final Enum<?>[] _constants;
+        private final Map<String, Enum<?>> _byName;
+
+        EnumReader(Field field) {
+            super(field);
+            _constants = (Enum<?>[])field.getType().getEnumConstants();
+            Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            if (enumerated == null || enumerated.value() == EnumType.STRING) {
+                _byName = new HashMap<String, Enum<?>>(_constants.length * 2);
+                for (Enum<?> e : _constants) {
+                    _byName.put(e.name().toUpperCase(Locale.ENGLISH), e);
+                }
+            } else {
+                _byName = null;
+            }
+        }
+
+        @Override
+        protected void setField(ResultSet rs, int index, Object entity) throws SQLException, IllegalAccessException {
+            Enum<?> value = null;
+            if (_byName != null) {
+                String name = rs.getString(index);
+                if (name != null) {
+                    value = _byName.get(name.toUpperCase(Locale.ENGLISH));
+                }
+            } else {
+                int ordinal = rs.getInt(index);
+                if (ordinal >= 0 && ordinal < _constants.length) {
+                    value = _constants[ordinal];
+                }
+            }
+            if (value != null) {
+                _field.set(entity, value);
+            }
+        }
+    }
+}
@@ -118,6 +118,7 @@ public class SearchCriteria<K> {
     private final List<Object> _groupByValues;
     private final Class<K> _resultType;
     private final SelectType _selectType;
+    private boolean _cacheable = true;
 
     protected SearchCriteria(SearchBase<?, ?, K> sb) {
         this._attrs = sb._attrs;
@@ -147,6 +148,17 @@ public class SearchCriteria<K> {
         _params = parameters;
     }
 
+    /**
+     * Criteria from builders that are thrown away after one query should not take a slot in the dao's sql cache.
+     */
+    void setCacheable(boolean cacheable) {
+        _cacheable = cacheable;
+    }
+
+    boolean isCacheable() {
+        return _cacheable;
+    }
+
     public SelectType getSelectType() {
         return _selectType;
     }
@@ -293,6 +305,63 @@ public class SearchCriteria<K> {
         return sql.toString();
     }
 
+    /**
+     * Adds what the sql of these criteria depends on to the key: the search builder, which conditions are set and
+     * with how many values, and the same for the joins.  Like getWhereClause, it puts the presets in the parameters.
+     */
+    void addShape(StatementKey key) {
+        key.add(_conditions);
+        for (Condition condition : _conditions) {
+            if (condition.isPreset()) {
+                _params.put(condition.name, condition.presets);
+            }
+            Object[] params = _params.get(condition.name);
+            if (condition.op == null || condition.op.params == 0) {
+                key.add(0);
+            } else if (params == null) {
+                key.add(-1);
+            } else {
+                addShape(key, condition, params);
+            }
+        }
+
+        key.add(_additionals.size());
+        for (Condition condition : _additionals) {
+            if (condition.isPreset()) {
+                _params.put(condition.name, condition.presets);
+            }
+            Object[] params = _params.get(condition.name);
+            key.add(condition.attr);
+            key.add(condition.op);
+            key.add(condition.cond);
+            if (condition.op.params == 0) {
+                key.add(0);
+            } else if (params == null) {
+                key.add(-1);
+            } else {
+                addShape(key, condition, params);
+            }
+        }
+
+        if (_joins != null) {
+            for (JoinBuilder<SearchCriteria<?>> join : _joins.values()) {
+                join.getT().addShape(key);
+            }
+        }
+    }
+
+    private static void addShape(StatementKey key, Condition condition, Object[] params) {
+        if (condition.op == Op.SC) {
+            ((SearchCriteria<?>)params[0]).addShape(key);
+            return;
+        }
+        key.add(params.length);
+        if ((condition.op == Op.EQ || condition.op == Op.NEQ) && (params.length == 0 || params[0] == null)) {
+            // IS NULL and IS NOT NULL
+            key.add(-2);
+        }
+    }
+
     public List<Pair<Attribute, Object>> getValues() {
         ArrayList<Pair<Attribute, Object>> params = new ArrayList<Pair<Attribute, Object>>(_params.size());
         for (Condition condition : _conditions) {
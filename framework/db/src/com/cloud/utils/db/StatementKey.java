@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Arrays;
+
+/**
+ * The shape of a search: what its sql depends on, but not the values bound to it.  The search builders, attributes
+ * and operators are compared by identity, since the criteria of a search builder all share them.
+ */
+class StatementKey {
+    private Object[] _refs = new Object[8];
+    private int _refCount;
+    private int[] _codes = new int[16];
+    private int _codeCount;
+    private String _text;
+    private int _hash = 1;
+
+    StatementKey(int kind) {
+        add(kind);
+    }
+
+    void add(Object ref) {
+        if (_refCount == _refs.length) {
+            _refs = Arrays.copyOf(_refs, _refCount * 2);
+        }
+        _refs[_refCount++] = ref;
+        _hash = 31 * _hash + System.identityHashCode(ref);
+    }
+
+    void add(int code) {
+        if (_codeCount == _codes.length) {
+            _codes = Arrays.copyOf(_codes, _codeCount * 2);
+        }
+        _codes[_codeCount++] = code;
+        _hash = 31 * _hash + code;
+    }
+
+    /**
+     * Adds sql that is not held by the search builders, compared by value.
+     */
+    void add(String text) {
+        _text = _text == null ? text : _text + text;
+        _hash = 31 * _hash + text.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof StatementKey)) {
+            return false;
+        }
+        StatementKey that = (StatementKey)obj;
+        if (_hash != that._hash || _refCount != that._refCount || _codeCount != that._codeCount) {
+            return false;
+        }
+        if (_text == null ? that._text != null : !_text.equals(that._text)) {
+            return false;
+        }
+        for (int i = 0; i < _refCount; i++) {
+            if (_refs[i] != that._refs[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < _codeCount; i++) {
+            if (_codes[i] != that._codes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilterSeekTest {
+    DbTestDao _dao;
+    TransactionLegacy _txn;
+    List<String> _sqls = new ArrayList<String>();
+    List<Object> _params = new ArrayList<Object>();
+
+    @Before
+    public void setUp() {
+        _dao = new DbTestDao();
+        _txn = TransactionLegacy.open("FilterSeekTest");
+        _txn.setConnection(SearchStreamTest.proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                    _sqls.add((String)args[0]);
+                    return SearchStreamTest.proxy(PreparedStatement.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().startsWith("set") && args.length == 2) {
+                                _params.add(args[1]);
+                            } else if (method.getName().equals("executeQuery")) {
+                                return empty();
+                            }
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        _txn.setConnection(null);
+        _txn.close();
+    }
+
+    @Test
+    public void testSeekClause() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", false, 0L, 20L);
+        filter.addOrderBy(DbTestVO.class, "id", false);
+        assertEquals(null, filter.getSeekClause());
+
+        filter.seekAfter("b", 7L);
+        assertEquals("test.fld_string <= ? AND (test.fld_string < ? OR (test.fld_string = ? AND (test.id < ?)))", filter.getSeekClause());
+        assertArrayEquals(new int[] {0, 0, 0, 1}, filter.getSeekOrder());
+    }
+
+    @Test
+    public void testPageToken() {
+        DbTestVO last = new DbTestVO();
+        last.id = 42;
+        last.fieldString = "a,b%c";
+        Filter filter = new Filter(DbTestVO.class, "fieldString", true, 0L, 20L);
+        filter.addOrderBy(DbTestVO.class, "id", true);
+        String token = filter.getPageToken(last);
+
+        Filter next = new Filter(DbTestVO.class, "fieldString", true, 0L, 20L);
+        next.addOrderBy(DbTestVO.class, "id", true);
+        next.setPageToken(token);
+        assertArrayEquals(new Object[] {"a,b%c", 42L}, next.getSeekKeys());
+
+        Filter other = new Filter(DbTestVO.class, "id", true, 0L, 20L);
+        try {
+            other.setPageToken(token);
+            fail("took the token of another order by");
+        } catch (IllegalArgumentException e) {
+            assertEquals(null, other.getSeekKeys());
+        }
+    }
+
+    @Test
+    public void testSearchSeeks() {
+        SearchCriteria<DbTestVO> sc = _dao.createSearchCriteria();
+        sc.addAnd("fieldInt", SearchCriteria.Op.EQ, 3);
+        Filter filter = new Filter(DbTestVO.class, "id", true, 40L, 20L);
+        filter.seekAfter(10L);
+        _dao.search(sc, filter);
+
+        assertEquals(1, _sqls.size());
+        String sql = _sqls.get(0);
+        assertTrue(sql, sql.endsWith(") AND (test.id > ?) ORDER BY test.id ASC  LIMIT 20"));
+        assertFalse(sql, sql.contains("LIMIT 40"));
+        assertEquals(2, _params.size());
+        assertEquals(3, ((Number)_params.get(0)).intValue());
+        assertEquals(10L, ((Number)_params.get(1)).longValue());
+    }
+
+    static ResultSet empty() {
+        final ResultSetMetaData meta = SearchStreamTest.proxy(ResultSetMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return 0;
+            }
+        });
+        return SearchStreamTest.proxy(ResultSet.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMetaData")) {
+                    return meta;
+                }
+                return false;
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class LockWaitQueuesTest {
+
+    @Test
+    public void testReleaseWakesWaiter() throws Exception {
+        final LockWaitQueues queues = new LockWaitQueues();
+        final LockWaitQueues.Waiters waiters = queues.enter("key");
+        final long generation = waiters.getGeneration();
+        final CountDownLatch woken = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    released.set(waiters.await(generation, 60000));
+                } catch (InterruptedException e) {
+                }
+                woken.countDown();
+            }
+        };
+        waiter.start();
+
+        queues.held("key");
+        assertEquals(Collections.emptySet(), queues.released("key"));
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+        assertTrue(released.get());
+        queues.exit("key", waiters);
+        assertEquals(0, queues.getWaiting());
+    }
+
+    @Test
+    public void testReleaseBeforeWaitIsNotMissed() throws Exception {
+        LockWaitQueues queues = new LockWaitQueues();
+        LockWaitQueues.Waiters waiters = queues.enter("key");
+        long generation = waiters.getGeneration();
+
+        queues.wakeup("key");
+        long start = System.currentTimeMillis();
+        assertTrue(waiters.await(generation, 60000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        assertFalse(waiters.await(waiters.getGeneration(), 10));
+        queues.exit("key", waiters);
+    }
+
+    @Test
+    public void testOtherKeysStayAsleep() throws Exception {
+        LockWaitQueues queues = new LockWaitQueues();
+        LockWaitQueues.Waiters waiters = queues.enter("key");
+        queues.wakeup("other");
+        assertFalse(waiters.await(waiters.getGeneration(), 10));
+        queues.exit("key", waiters);
+    }
+
+    @Test
+    public void testRemoteWaiters() {
+        LockWaitQueues queues = new LockWaitQueues();
+
+        // Released before the other server asked, it is told right away
+        assertEquals(Collections.singleton(2L), queues.addRemoteWaiter("key", 2));
+
+        queues.held("key");
+        assertEquals(Collections.emptySet(), queues.addRemoteWaiter("key", 2));
+        assertEquals(Collections.emptySet(), queues.addRemoteWaiter("key", 3));
+        Set<Long> msIds = queues.released("key");
+        assertEquals(2, msIds.size());
+        assertTrue(msIds.contains(2L) && msIds.contains(3L));
+        assertEquals(Collections.emptySet(), queues.released("key"));
+    }
+
+    @Test
+    public void testAskWakeupOncePerRelease() {
+        LockWaitQueues queues = new LockWaitQueues();
+        LockWaitQueues.Waiters waiters = queues.enter("key");
+        long generation = waiters.getGeneration();
+        assertTrue(waiters.askWakeup(generation));
+        assertFalse(waiters.askWakeup(generation));
+
+        queues.wakeup("key");
+        assertTrue(waiters.askWakeup(waiters.getGeneration()));
+        queues.exit("key", waiters);
+    }
+
+    @Test
+    public void testClear() {
+        LockWaitQueues queues = new LockWaitQueues();
+        queues.held("key");
+        queues.addRemoteWaiter("key", 2);
+        assertEquals(Collections.singleton(2L), queues.clear().get("key"));
+        assertEquals(Collections.singleton(3L), queues.addRemoteWaiter("key", 3));
+    }
+}
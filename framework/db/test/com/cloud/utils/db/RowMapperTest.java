@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import org.junit.Test;
+
+public class RowMapperTest {
+    enum Color {
+        Red, Green
+    }
+
+    static class Row {
+        Color byName;
+        @Enumerated(value = EnumType.ORDINAL)
+        Color byOrdinal;
+        Long boxed = 7L;
+        int primitive;
+    }
+
+    /**
+     * A one row result set over the given table, with the columns and values in pairs.
+     */
+    static ResultSet resultSet(final String table, final Object... columns) {
+        final ResultSetMetaData meta = (ResultSetMetaData)Proxy.newProxyInstance(RowMapperTest.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getColumnCount")) {
+                            return columns.length / 2;
+                        } else if (name.equals("getTableName")) {
+                            return table;
+                        }
+                        return columns[((Integer)args[0] - 1) * 2];
+                    }
+                });
+        return (ResultSet)Proxy.newProxyInstance(RowMapperTest.class.getClassLoader(), new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+            Object _last;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return meta;
+                } else if (name.equals("wasNull")) {
+                    return _last == null;
+                }
+                _last = columns[((Integer)args[0] - 1) * 2 + 1];
+                if (name.equals("getBytes")) {
+                    return _last == null ? null : ((String)_last).getBytes("UTF-8");
+                } else if (name.equals("getString")) {
+                    return _last == null ? null : _last.toString();
+                } else if (name.equals("getLong")) {
+                    return _last == null ? 0L : ((Number)_last).longValue();
+                } else if (name.equals("getInt")) {
+                    return _last == null ? 0 : ((Number)_last).intValue();
+                }
+                return _last;
+            }
+        });
+    }
+
+    @Test
+    public void testEntityColumns() throws Exception {
+        RowMapper<DbTestVO> mapper = new RowMapper<DbTestVO>(DbTestVO.class, new SqlGenerator(DbTestVO.class).getAllColumns());
+        ResultSet rs = resultSet("test", "id", 5L, "fld_int", 3, "fld_long", null, "fld_string", "abc");
+
+        DbTestVO vo = mapper.newInstance();
+        RowMapper.map(mapper.getReaders(rs), rs, vo);
+        assertEquals(5L, vo.id);
+        assertEquals(3, vo.getFieldInt());
+        assertNull(vo.fieldLong);
+        assertEquals("abc", vo.getFieldString());
+    }
+
+    @Test
+    public void testViewColumns() throws Exception {
+        // mysql reports the table under the view, the columns are found through the label
+        RowMapper<DbTestVO> mapper = new RowMapper<DbTestVO>(DbTestVO.class, new SqlGenerator(DbTestVO.class).getAllColumns());
+        ResultSet rs = resultSet("test_base", "fld_long", 9L, "fld_string", null);
+
+        DbTestVO vo = mapper.newInstance();
+        vo.fieldString = "abc";
+        RowMapper.map(mapper.getReaders(rs), rs, vo);
+        assertEquals(9L, vo.getFieldLong());
+        assertNull(vo.getFieldString());
+    }
+
+    @Test
+    public void testFieldTypes() throws Exception {
+        ResultSet rs = resultSet("row", "byName", "GREEN", "byOrdinal", 1, "boxed", null, "primitive", null);
+        Row row = new Row();
+        String[] names = {"byName", "byOrdinal", "boxed", "primitive"};
+        for (int i = 0; i < names.length; i++) {
+            Field field = Row.class.getDeclaredField(names[i]);
+            field.setAccessible(true);
+            RowMapper.getReader(field).read(rs, i + 1, row);
+        }
+        assertEquals(Color.Green, row.byName);
+        assertEquals(Color.Green, row.byOrdinal);
+        assertNull(row.boxed);
+        assertEquals(0, row.primitive);
+    }
+
+    @Test
+    public void testUnknownEnumLeavesField() throws Exception {
+        ResultSet rs = resultSet("row", "byName", "Blue", "byOrdinal", 5);
+        Row row = new Row();
+        row.byName = Color.Red;
+        row.byOrdinal = Color.Red;
+        Field byName = Row.class.getDeclaredField("byName");
+        Field byOrdinal = Row.class.getDeclaredField("byOrdinal");
+        byName.setAccessible(true);
+        byOrdinal.setAccessible(true);
+        RowMapper.getReader(byName).read(rs, 1, row);
+        RowMapper.getReader(byOrdinal).read(rs, 2, row);
+        assertEquals(Color.Red, row.byName);
+        assertEquals(Color.Red, row.byOrdinal);
+    }
+}
@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.db.SearchCriteria.Op;
+
+public class SearchSqlCacheTest {
+    DbTestDao _dao;
+    SearchBuilder<DbTestVO> _search;
+
+    @Before
+    public void setUp() {
+        _dao = new DbTestDao();
+        _search = _dao.createSearchBuilder();
+        _search.and("int", _search.entity().getFieldInt(), Op.EQ);
+        _search.and("string", _search.entity().getFieldString(), Op.IN);
+        _search.done();
+    }
+
+    @Test
+    public void testSameShapeIsRenderedOnce() {
+        SearchCriteria<DbTestVO> sc1 = _search.create();
+        sc1.setParameters("int", 1);
+        sc1.setParameters("string", "a", "b");
+        SearchCriteria<DbTestVO> sc2 = _search.create();
+        sc2.setParameters("int", 2);
+        sc2.setParameters("string", "c", "d");
+
+        String sql = _dao.getSearchSql(sc1, GenericDaoBase.SEARCH_SQL);
+        assertSame(sql, _dao.getSearchSql(sc2, GenericDaoBase.SEARCH_SQL));
+        assertEquals(_dao.buildSearchSql(sc2, GenericDaoBase.SEARCH_SQL), sql);
+        assertEquals(1, _dao._searchSqls.size());
+    }
+
+    @Test
+    public void testDifferentShapesAreRenderedSeparately() {
+        SearchCriteria<DbTestVO> sc1 = _search.create();
+        sc1.setParameters("string", "a", "b");
+        SearchCriteria<DbTestVO> sc2 = _search.create();
+        sc2.setParameters("string", "a", "b", "c");
+        SearchCriteria<DbTestVO> sc3 = _search.create();
+        sc3.setParameters("int", 1);
+        sc3.setParameters("string", "a", "b");
+
+        String sql1 = _dao.getSearchSql(sc1, GenericDaoBase.SEARCH_SQL);
+        String sql2 = _dao.getSearchSql(sc2, GenericDaoBase.SEARCH_SQL);
+        String sql3 = _dao.getSearchSql(sc3, GenericDaoBase.SEARCH_SQL);
+        assertEquals(_dao.buildSearchSql(sc1, GenericDaoBase.SEARCH_SQL), sql1);
+        assertEquals(_dao.buildSearchSql(sc2, GenericDaoBase.SEARCH_SQL), sql2);
+        assertEquals(_dao.buildSearchSql(sc3, GenericDaoBase.SEARCH_SQL), sql3);
+        assertTrue(!sql1.equals(sql2) && !sql1.equals(sql3));
+        assertNotSame(_dao.getSearchSql(sc1, GenericDaoBase.SEARCH_SQL), _dao.getSearchSql(sc1, GenericDaoBase.COUNT_SQL));
+    }
+
+    @Test
+    public void testNullValueChangesShape() {
+        SearchCriteria<DbTestVO> sc1 = _search.create();
+        sc1.setParameters("string", "a");
+        SearchCriteria<DbTestVO> sc2 = _search.create();
+        sc2.setParameters("string", (Object)null);
+        sc2.addAnd("fieldLong", Op.NULL);
+
+        assertEquals(_dao.buildSearchSql(sc1, GenericDaoBase.SEARCH_SQL), _dao.getSearchSql(sc1, GenericDaoBase.SEARCH_SQL));
+        assertEquals(_dao.buildSearchSql(sc2, GenericDaoBase.SEARCH_SQL), _dao.getSearchSql(sc2, GenericDaoBase.SEARCH_SQL));
+        assertEquals(2, _dao._searchSqls.size());
+    }
+
+    @Test
+    public void testQueryBuilderIsNotCached() {
+        QueryBuilder<DbTestVO> qb = QueryBuilder.create(DbTestVO.class);
+        qb.and(qb.entity().getFieldInt(), Op.EQ, 1);
+        SearchCriteria<DbTestVO> sc = qb.create();
+
+        assertEquals(_dao.buildSearchSql(sc, GenericDaoBase.SEARCH_SQL), _dao.getSearchSql(sc, GenericDaoBase.SEARCH_SQL));
+        assertEquals(0, _dao._searchSqls.size());
+    }
+
+    @Test
+    public void testCriteriaCreatedPerCallAreNotCached() {
+        SearchCriteria<DbTestVO> sc = _search.create();
+        sc.setParameters("int", 1);
+        String sql = _dao.getSearchSql(sc, GenericDaoBase.SEARCH_SQL);
+
+        for (int i = 0; i < GenericDaoBase.MAX_CACHED_SEARCH_SQLS * 2; i++) {
+            SearchCriteria<DbTestVO> adhoc = _dao.createSearchCriteria();
+            adhoc.addAnd("fieldInt", Op.EQ, i);
+            assertEquals(_dao.buildSearchSql(adhoc, GenericDaoBase.SEARCH_SQL), _dao.getSearchSql(adhoc, GenericDaoBase.SEARCH_SQL));
+        }
+
+        assertEquals(1, _dao._searchSqls.size());
+        assertSame("the search builder's shape is still cached", sql, _dao.getSearchSql(sc, GenericDaoBase.SEARCH_SQL));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedShapesAreDropped() {
+        SearchCriteria<DbTestVO> hot = _search.create();
+        hot.setParameters("int", 1);
+        String sql = _dao.getSearchSql(hot, GenericDaoBase.SEARCH_SQL);
+
+        for (int i = 1; i <= GenericDaoBase.MAX_CACHED_SEARCH_SQLS; i++) {
+            SearchCriteria<DbTestVO> sc = _search.create();
+            String[] values = new String[i];
+            Arrays.fill(values, "a");
+            sc.setParameters("string", (Object[])values);
+            _dao.getSearchSql(sc, GenericDaoBase.SEARCH_SQL);
+            _dao.getSearchSql(hot, GenericDaoBase.SEARCH_SQL);
+        }
+
+        assertEquals(GenericDaoBase.MAX_CACHED_SEARCH_SQLS, _dao._searchSqls.size());
+        assertSame(sql, _dao.getSearchSql(hot, GenericDaoBase.SEARCH_SQL));
+    }
+}
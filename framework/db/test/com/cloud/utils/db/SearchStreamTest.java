@@ -0,0 +1,180 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchStreamTest {
+    static final String[] COLUMNS = {null, "id", "fld_int", "fld_long", "fld_string"};
+
+    DbTestDao _dao;
+    TransactionLegacy _txn;
+    List<String> _sqls = new ArrayList<String>();
+    int _rows;
+
+    @Before
+    public void setUp() {
+        _dao = new DbTestDao();
+        _dao._streamBatchSize = 500;
+        _txn = TransactionLegacy.open("SearchStreamTest");
+        _txn.setConnection(proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                    _sqls.add((String)args[0]);
+                    return statement();
+                }
+                return null;
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        _txn.setConnection(null);
+        _txn.close();
+    }
+
+    @Test
+    public void testAllRowsInBatches() {
+        _rows = 1200;
+        final List<Long> ids = new ArrayList<Long>();
+        int count = _dao.searchIncludingRemovedStream(null, new StreamHandler<DbTestVO>() {
+            @Override
+            public boolean handle(DbTestVO entity) {
+                ids.add(entity.id);
+                return true;
+            }
+        });
+
+        assertEquals(1200, count);
+        assertEquals(1200, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1, ids.get(i).longValue());
+        }
+        assertEquals(3, _sqls.size());
+        assertFalse(_sqls.get(0).contains(">"));
+        assertTrue(_sqls.get(0).endsWith("LIMIT 0, 500"));
+        assertTrue(_sqls.get(1).contains("test.id > ?"));
+        assertTrue(_sqls.get(2).endsWith("LIMIT 500"));
+    }
+
+    @Test
+    public void testHandlerStops() {
+        _rows = 1200;
+        int count = _dao.searchIncludingRemovedStream(null, new StreamHandler<DbTestVO>() {
+            @Override
+            public boolean handle(DbTestVO entity) {
+                return entity.id < 500;
+            }
+        });
+
+        assertEquals(500, count);
+        assertEquals(1, _sqls.size());
+    }
+
+    @Test
+    public void testWhereClause() {
+        _rows = 700;
+        int count = _dao.executeStream("fld_int > ?", new StreamHandler<DbTestVO>() {
+            @Override
+            public boolean handle(DbTestVO entity) {
+                return true;
+            }
+        }, 0);
+
+        assertEquals(700, count);
+        assertEquals(2, _sqls.size());
+        assertTrue(_sqls.get(1).contains("(fld_int > ?) AND test.id > ? ORDER BY test.id LIMIT 500"));
+    }
+
+    /**
+     * Returns the rows of ids after the last parameter bound, up to a batch.
+     */
+    PreparedStatement statement() {
+        final long[] after = new long[1];
+        final boolean seek = _sqls.get(_sqls.size() - 1).contains("id > ?");
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.startsWith("set") && args.length == 2 && args[1] instanceof Number) {
+                    after[0] = ((Number)args[1]).longValue();
+                } else if (name.equals("executeQuery")) {
+                    return rows(seek ? after[0] : 0, Math.min(_rows, (seek ? after[0] : 0) + 500));
+                }
+                return null;
+            }
+        });
+    }
+
+    static ResultSet rows(final long after, final long last) {
+        final ResultSetMetaData meta = proxy(ResultSetMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getColumnCount")) {
+                    return COLUMNS.length - 1;
+                } else if (name.equals("getTableName")) {
+                    return "test";
+                }
+                return COLUMNS[(Integer)args[0]];
+            }
+        });
+        return proxy(ResultSet.class, new InvocationHandler() {
+            long _id = after;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++_id <= last;
+                } else if (name.equals("getMetaData")) {
+                    return meta;
+                } else if (name.equals("wasNull")) {
+                    return false;
+                } else if (name.equals("getLong")) {
+                    return _id;
+                } else if (name.equals("getInt")) {
+                    return (int)_id;
+                }
+                return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T)Proxy.newProxyInstance(SearchStreamTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
@@ -16,9 +16,9 @@ public class AccountSubscriber extends MultiRegionSubscriber {
 
     private static final Logger s_logger = Logger.getLogger(AccountSubscriber.class);
 
-    public AccountSubscriber(int id)
+    public AccountSubscriber(int id, RegionReplicationQueue queue)
     {
-        super(id);
+        super(id, "Account", queue);
     }
 
     @Override
@@ -28,16 +28,19 @@ public class AccountSubscriber extends MultiRegionSubscriber {
 
         if (!isExecutable())    return;
 
-        regions = findRemoteRegions();
-        process(event);
+        enqueue(event);
     }
 
-    protected void process(Event event)
+    @Override
+    public boolean replicate(RegionVO region, String entityUUID, String methodName, String oldAccountName) throws Exception
     {
-        String entityUUID = this.descMap.get("entityuuid");
-        String oldAccountName = this.descMap.get("oldentityname");
         User user = null;
         Account account = this.accountDao.findByUuidIncludingRemoved(entityUUID);
+        if (account == null)
+        {
+            s_logger.error(region.getName() + ": account[" + entityUUID + "] is not found");
+            return true;
+        }
         Domain domain = this.domainDao.findByIdIncludingRemoved(account.getDomainId());
         List<UserVO> users = this.userDao.listByAccount(account.getAccountId());
         if (users.size() > 0)
@@ -45,23 +48,8 @@ public class AccountSubscriber extends MultiRegionSubscriber {
             user = users.get(0);
         }
 
-        String methodName = event.getEventType().split("-")[1].toLowerCase();
-        for (RegionVO region : regions)
-        {
-            try
-            {
-                AccountService accountService = new AccountService(region);
-                Method method = accountService.getClass().getMethod(methodName, User.class, Account.class, Domain.class, String.class);
-                method.invoke(accountService, user, account, domain, oldAccountName);
-            }
-            catch(NoSuchMethodException mex)
-            {
-                s_logger.error(region.getName() + ": Not valid method[" + methodName + "]");
-            }
-            catch(Exception ex)
-            {
-                s_logger.error(region.getName() + ": Fail to invoke/process method[" + methodName + "]", ex);
-            }
-        }
+        AccountService accountService = new AccountService(region);
+        Method method = accountService.getClass().getMethod(methodName, User.class, Account.class, Domain.class, String.class);
+        return (Boolean)method.invoke(accountService, user, account, domain, oldAccountName);
     }
 }
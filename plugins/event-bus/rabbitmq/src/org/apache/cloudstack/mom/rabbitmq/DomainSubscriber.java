@@ -12,9 +12,9 @@ public class DomainSubscriber extends MultiRegionSubscriber {
 
     private static final Logger s_logger = Logger.getLogger(DomainSubscriber.class);
 
-    public DomainSubscriber(int id)
+    public DomainSubscriber(int id, RegionReplicationQueue queue)
     {
-        super(id);
+        super(id, "Domain", queue);
     }
 
     @Override
@@ -24,34 +24,22 @@ public class DomainSubscriber extends MultiRegionSubscriber {
 
         if (!isExecutable())    return;
 
-        regions = findRemoteRegions();
-        process(event);
+        enqueue(event);
     }
 
-    protected void process(Event event)
+    @Override
+    public boolean replicate(RegionVO region, String entityUUID, String methodName, String oldDomainName) throws Exception
     {
-        String entityUUID = this.descMap.get("entityuuid");
-        String oldDomainName = this.descMap.get("oldentityname");
         Domain domain = this.domainDao.findByUuidIncludingRemoved(entityUUID);
-
-        String methodName = event.getEventType().split("-")[1].toLowerCase();
-        for(RegionVO region : regions)
+        if (domain == null)
         {
-            try
-            {
-                DomainService domainService = new DomainService(region);
-                Method method = domainService.getClass().getMethod(methodName, Domain.class, String.class);
-                method.invoke(domainService, domain, oldDomainName);
-            }
-            catch(NoSuchMethodException mex)
-            {
-                s_logger.error(region.getName() + ": Not valid method[" + methodName + "]");
-            }
-            catch(Exception ex)
-            {
-                s_logger.error(region.getName() + ": Fail to invoke/process method[" + methodName + "]", ex);
-            }
+            s_logger.error(region.getName() + ": domain[" + entityUUID + "] is not found");
+            return true;
         }
+
+        DomainService domainService = new DomainService(region);
+        Method method = domainService.getClass().getMethod(methodName, Domain.class, String.class);
+        return (Boolean)method.invoke(domainService, domain, oldDomainName);
     }
 
-}
\ No newline at end of file
+}
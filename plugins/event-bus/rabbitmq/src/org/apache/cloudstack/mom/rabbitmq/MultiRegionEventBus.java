@@ -7,6 +7,8 @@ import java.util.Map;
 
 public class MultiRegionEventBus extends RabbitMQEventBus{
 
+    protected RegionReplicationQueue replicationQueue;
+
     public MultiRegionEventBus()
     {
     }
@@ -16,9 +18,11 @@ public class MultiRegionEventBus extends RabbitMQEventBus{
 
         if (!super.configure(name, params)) return false;
 
+        replicationQueue = new RegionReplicationQueue();
+
         try {
             EventTopic topic = new EventTopic("ActionEvent", "*", "Domain", "*", "*");
-            subscribe(topic, new DomainSubscriber(1));
+            subscribe(topic, new DomainSubscriber(1, replicationQueue));
         }
         catch (Exception ex)
         {
@@ -27,7 +31,7 @@ public class MultiRegionEventBus extends RabbitMQEventBus{
 
         try {
             EventTopic topic = new EventTopic("ActionEvent", "*", "Account", "*", "*");
-            subscribe(topic, new AccountSubscriber(2));
+            subscribe(topic, new AccountSubscriber(2, replicationQueue));
         }
         catch (Exception ex)
         {
@@ -36,7 +40,7 @@ public class MultiRegionEventBus extends RabbitMQEventBus{
 
         try {
             EventTopic topic = new EventTopic("ActionEvent", "*", "User", "*", "*");
-            subscribe(topic, new UserSubscriber(3));
+            subscribe(topic, new UserSubscriber(3, replicationQueue));
         }
         catch (Exception ex)
         {
@@ -45,4 +49,22 @@ public class MultiRegionEventBus extends RabbitMQEventBus{
 
         return true;
     }
+
+    @Override
+    public boolean start() {
+        if (!super.start()) return false;
+
+        replicationQueue.start();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        replicationQueue.stop();
+        return super.stop();
+    }
+
+    public RegionReplicationQueue getReplicationQueue() {
+        return replicationQueue;
+    }
 }
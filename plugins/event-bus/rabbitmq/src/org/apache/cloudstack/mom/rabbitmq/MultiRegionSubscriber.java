@@ -11,19 +11,18 @@ import java.lang.reflect.Type;
 import org.apache.cloudstack.framework.events.Event;
 import org.apache.cloudstack.framework.events.EventSubscriber;
 import org.apache.cloudstack.region.RegionVO;
-import org.apache.cloudstack.region.dao.RegionDao;
 import org.apache.log4j.Logger;
 
 import javax.inject.Inject;
-import java.util.List;
 import java.util.Map;
 import java.util.Iterator;
 
-public class MultiRegionSubscriber  implements EventSubscriber {
+public abstract class MultiRegionSubscriber  implements EventSubscriber {
 
     private static final Logger s_logger = Logger.getLogger(MultiRegionSubscriber.class);
 
     protected int id;
+    protected String entityType;
     protected Gson gson;
     protected Map<String,String> descMap = null;
 
@@ -33,41 +32,20 @@ public class MultiRegionSubscriber  implements EventSubscriber {
     protected AccountDao accountDao;
     @Inject
     protected UserDao userDao;
-    @Inject
-    protected RegionDao regionDao;
 
-    protected List<RegionVO> regions;
+    protected RegionReplicationQueue queue;
 
-    public MultiRegionSubscriber(int id)
+    public MultiRegionSubscriber(int id, String entityType, RegionReplicationQueue queue)
     {
         this.id = id;
+        this.entityType = entityType;
         this.gson = new GsonBuilder().create();
         this.domainDao = ComponentContext.getComponent(DomainDao.class);
         this.accountDao = ComponentContext.getComponent(AccountDao.class);
         this.userDao = ComponentContext.getComponent(UserDao.class);
-        this.regionDao = ComponentContext.getComponent(RegionDao.class);
-
-        this.regions = findRemoteRegions();
-    }
 
-    protected List<RegionVO> findRemoteRegions()
-    {
-        List<RegionVO> regions = regionDao.listAll();
-        for (int idx = regions.size()-1; idx >= 0; idx--)
-        {
-            RegionVO region = regions.get(idx);
-            if (region.getName().equals("Local"))
-            {
-                regions.remove(region);
-                continue;
-            }
-            if (!region.isActive())
-            {
-                regions.remove(region);
-                continue;
-            }
-        }
-        return regions;
+        this.queue = queue;
+        this.queue.register(entityType, this);
     }
 
     protected boolean isCompleted(String status)
@@ -90,6 +68,23 @@ public class MultiRegionSubscriber  implements EventSubscriber {
         return true;
     }
 
+    /**
+     * Queues the event to be replicated to the remote regions by the replication workers.
+     */
+    protected void enqueue(Event event)
+    {
+        String entityUUID = this.descMap.get("entityuuid");
+        String oldEntityName = this.descMap.get("oldentityname");
+        String methodName = event.getEventType().split("-")[1].toLowerCase();
+        queue.enqueue(entityType, entityUUID, methodName, oldEntityName);
+    }
+
+    /**
+     * Replays a queued mutation of the entity to the given region.
+     * Returns false if it failed and should be retried.
+     */
+    public abstract boolean replicate(RegionVO region, String entityUUID, String methodName, String oldEntityName) throws Exception;
+
     @Override
     public void onEvent(Event event)
     {
@@ -105,4 +100,4 @@ public class MultiRegionSubscriber  implements EventSubscriber {
             s_logger.debug("Key: " + e.getKey() + ", Value: " + e.getValue());
         }
     }
-}
\ No newline at end of file
+}
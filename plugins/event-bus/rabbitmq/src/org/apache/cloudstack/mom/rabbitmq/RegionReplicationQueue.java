@@ -0,0 +1,416 @@
+package org.apache.cloudstack.mom.rabbitmq;
+
+import com.cloud.region.RegionOutboundVO;
+import com.cloud.region.dao.RegionOutboundDao;
+import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.cloudstack.region.RegionVO;
+import org.apache.cloudstack.region.dao.RegionDao;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent outbound queue of the local domain/account/user mutations to be replicated to the remote regions.
+ *
+ * The subscribers only queue the mutations, so a burst of events or a slow region doesn't stall the event bus consumer.
+ * Every remote region has its own worker replaying its queue in order, and a failed mutation is retried with an
+ * exponential backoff while the mutations of the other entities go on.
+ * Pending mutations to the same entity are coalesced into one call when they are queued.
+ * Every management server runs the workers, a mutation is claimed by one of them before being replayed.
+ */
+public class RegionReplicationQueue {
+
+    private static final Logger s_logger = Logger.getLogger(RegionReplicationQueue.class);
+
+    public static final long POLL_INTERVAL = 5000L;
+    public static final long INITIAL_BACKOFF = 5000L;
+    public static final long MAX_BACKOFF = 1800000L;
+    // a mutation still failing after this is dropped, the next full scan will repair the region
+    public static final int MAX_ATTEMPTS = 12;
+    public static final int BATCH_SIZE = 100;
+    // a claim older than this has been left by a stopped node and can be taken over
+    public static final long CLAIM_TIMEOUT = 600000L;
+
+    protected RegionOutboundDao outboundDao;
+    protected RegionDao regionDao;
+
+    private final Map<String, MultiRegionSubscriber> handlers = new ConcurrentHashMap<String, MultiRegionSubscriber>();
+    private final Map<Integer, RegionWorker> workers = new HashMap<Integer, RegionWorker>();
+    private boolean started = false;
+
+    public RegionReplicationQueue()
+    {
+        this.outboundDao = ComponentContext.getComponent(RegionOutboundDao.class);
+        this.regionDao = ComponentContext.getComponent(RegionDao.class);
+    }
+
+    public void register(String entityType, MultiRegionSubscriber handler)
+    {
+        handlers.put(entityType, handler);
+    }
+
+    public synchronized void start()
+    {
+        started = true;
+        for (RegionWorker worker : refreshRegions())
+        {
+            worker.start();
+        }
+    }
+
+    public synchronized void stop()
+    {
+        started = false;
+        for (RegionWorker worker : workers.values())
+        {
+            worker.stop();
+        }
+        workers.clear();
+    }
+
+    protected List<RegionVO> findRemoteRegions()
+    {
+        List<RegionVO> regions = regionDao.listAll();
+        for (int idx = regions.size()-1; idx >= 0; idx--)
+        {
+            RegionVO region = regions.get(idx);
+            if (region.getName().equals("Local"))
+            {
+                regions.remove(region);
+                continue;
+            }
+            if (!region.isActive())
+            {
+                regions.remove(region);
+                continue;
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Starts the workers of the regions added or activated since the last call, and stops the workers of the regions
+     * removed or deactivated.
+     */
+    protected synchronized List<RegionWorker> refreshRegions()
+    {
+        Set<Integer> regionIds = new HashSet<Integer>();
+        for (RegionVO region : findRemoteRegions())
+        {
+            regionIds.add(region.getId());
+            if (workers.containsKey(region.getId())) continue;
+
+            RegionWorker worker = new RegionWorker(region);
+            workers.put(region.getId(), worker);
+            if (started)    worker.start();
+        }
+
+        Iterator<Map.Entry<Integer, RegionWorker>> it = workers.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Integer, RegionWorker> entry = it.next();
+            if (regionIds.contains(entry.getKey())) continue;
+
+            entry.getValue().stop();
+            it.remove();
+        }
+
+        return new ArrayList<RegionWorker>(workers.values());
+    }
+
+    /**
+     * Queues the mutation of an entity to every active remote region.
+     */
+    public void enqueue(String entityType, String entityUuid, String method, String oldName)
+    {
+        for (RegionWorker worker : refreshRegions())
+        {
+            worker.enqueue(entityType, entityUuid, method, oldName);
+        }
+    }
+
+    public int getQueueDepth(int regionId)
+    {
+        return outboundDao.countByRegion(regionId);
+    }
+
+    /**
+     * Returns how long (in milliseconds) the oldest pending mutation of a region has been waiting, 0 if none.
+     */
+    public long getReplicationLag(int regionId)
+    {
+        List<RegionOutboundVO> oldest = outboundDao.listByRegion(regionId, 1);
+        if (oldest.isEmpty() || oldest.get(0).getCreated() == null)   return 0;
+        return Math.max(0, System.currentTimeMillis() - oldest.get(0).getCreated().getTime());
+    }
+
+    protected static boolean isStateChange(String method)
+    {
+        return method.equals("enable") || method.equals("disable") || method.equals("lock");
+    }
+
+    protected static long getBackoff(int attempts)
+    {
+        long backoff = INITIAL_BACKOFF;
+        for (int idx = 1; idx < attempts && backoff < MAX_BACKOFF; idx++)
+        {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF);
+    }
+
+    protected class RegionWorker {
+
+        private final RegionVO region;
+        private final AtomicBoolean signalled = new AtomicBoolean(false);
+        private final Object lock = new Object();
+        private ScheduledExecutorService executor;
+
+        private final AtomicLong replicated = new AtomicLong();
+        private final AtomicLong retried = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        public RegionWorker(RegionVO region)
+        {
+            this.region = region;
+        }
+
+        public void start()
+        {
+            if (executor != null)   return;
+
+            executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RegionReplication-" + region.getName()));
+            // the poll picks up the backed off mutations and the ones queued before a restart
+            executor.scheduleWithFixedDelay(new DrainTask(), 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        public void stop()
+        {
+            if (executor != null)   executor.shutdownNow();
+        }
+
+        public void wakeup()
+        {
+            if (executor == null || !signalled.compareAndSet(false, true))  return;
+
+            try
+            {
+                executor.execute(new DrainTask());
+            }
+            catch(RejectedExecutionException ex)
+            {
+                // the worker has been stopped
+            }
+        }
+
+        public void enqueue(String entityType, String entityUuid, String method, String oldName)
+        {
+            synchronized (lock)
+            {
+                coalesce(entityType, entityUuid, method, oldName);
+            }
+            wakeup();
+        }
+
+        /**
+         * Merges the new mutation into the pending mutations of the same entity.
+         *  - the same method queued twice is sent once, an update keeps the oldest name since the remote still has it
+         *  - an update following a pending create is dropped, the entity is loaded when the create is replayed
+         *  - a state change (enable/disable/lock) replaces a pending state change
+         *  - a delete drops the pending state changes, and everything if the create hasn't been replayed yet
+         * A mutation claimed by a management server is being replayed and can't be coalesced anymore.
+         */
+        protected void coalesce(String entityType, String entityUuid, String method, String oldName)
+        {
+            List<RegionOutboundVO> pending = outboundDao.listByEntity(region.getId(), entityType, entityUuid);
+            for (int idx = pending.size()-1; idx >= 0; idx--)
+            {
+                if (pending.get(idx).getMgmtServerId() != null) pending.remove(idx);
+            }
+            RegionOutboundVO last = pending.isEmpty() ? null : pending.get(pending.size()-1);
+
+            if (method.equals("delete"))
+            {
+                boolean created = false;
+                for (RegionOutboundVO item : pending)
+                {
+                    if (item.getMethod().equals("create"))  created = true;
+                }
+                // the conditional removes fail if a node has claimed the mutation since it was listed
+                boolean removed = true;
+                for (RegionOutboundVO item : pending)
+                {
+                    if (created || isStateChange(item.getMethod()))    removed = outboundDao.removeUnclaimed(item.getId()) && removed;
+                }
+                if (created && removed)
+                {
+                    s_logger.debug("Region[" + region.getName() + "] : " + entityType + "[" + entityUuid + "] is deleted before being created, nothing to replicate");
+                    return;
+                }
+            }
+            else if (last != null && (last.getMethod().equals(method) || (method.equals("update") && last.getMethod().equals("create"))))
+            {
+                if (reset(last))    return;
+            }
+            else if (last != null && isStateChange(method) && isStateChange(last.getMethod()))
+            {
+                last.setMethod(method);
+                if (reset(last))    return;
+            }
+
+            outboundDao.persist(new RegionOutboundVO(region.getId(), entityType, entityUuid, method, oldName));
+        }
+
+        private boolean reset(RegionOutboundVO item)
+        {
+            Date now = new Date();
+            item.setAttempts(0);
+            item.setNextAttempt(now);
+            item.setModified(now);
+            return outboundDao.updateUnclaimed(item);
+        }
+
+        protected void drain()
+        {
+            signalled.set(false);
+            long msid = ManagementServerNode.getManagementServerId();
+
+            // only the ready mutations are listed, page by page, so the ones backing off don't hold the others
+            Set<String> blocked = new HashSet<String>();
+            long lastId = 0;
+            while (!Thread.currentThread().isInterrupted())
+            {
+                List<RegionOutboundVO> batch = outboundDao.listReady(region.getId(), lastId, new Date(), BATCH_SIZE);
+                if (batch.isEmpty())    break;
+
+                for (RegionOutboundVO queued : batch)
+                {
+                    lastId = queued.getId();
+                    String key = queued.getEntityType() + "/" + queued.getEntityUuid();
+                    if (blocked.contains(key))  continue;
+
+                    // the later mutations of an entity must wait for the earlier ones backing off or replayed by another node
+                    if (outboundDao.countPendingBefore(queued) > 0 || !outboundDao.claim(queued.getId(), msid, new Date(System.currentTimeMillis() - CLAIM_TIMEOUT)))
+                    {
+                        blocked.add(key);
+                        continue;
+                    }
+
+                    // re-read, the mutation may have been coalesced until it was claimed
+                    RegionOutboundVO item = outboundDao.findById(queued.getId());
+                    if (item == null)   continue;
+
+                    if (dispatch(item))
+                    {
+                        outboundDao.remove(item.getId());
+                    }
+                    else
+                    {
+                        retry(item);
+                        blocked.add(key);
+                    }
+                }
+
+                if (batch.size() < BATCH_SIZE)  break;
+            }
+
+            int depth = getQueueDepth(region.getId());
+            if (depth > 0)
+            {
+                s_logger.debug("Region[" + region.getName() + "] replication : depth " + depth + ", lag " + getReplicationLag(region.getId()) + " ms, replicated "
+                        + replicated.get() + ", retried " + retried.get() + ", dropped " + dropped.get());
+            }
+        }
+
+        /**
+         * Returns true if the mutation doesn't need to be replayed anymore.
+         */
+        protected boolean dispatch(RegionOutboundVO item)
+        {
+            MultiRegionSubscriber handler = handlers.get(item.getEntityType());
+            if (handler == null)
+            {
+                s_logger.error(region.getName() + ": No subscriber for entity type[" + item.getEntityType() + "]");
+                dropped.incrementAndGet();
+                return true;
+            }
+
+            try
+            {
+                if (handler.replicate(region, item.getEntityUuid(), item.getMethod(), item.getOldName()))
+                {
+                    replicated.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+            catch(NoSuchMethodException mex)
+            {
+                s_logger.error(region.getName() + ": Not valid method[" + item.getMethod() + "]");
+                dropped.incrementAndGet();
+                return true;
+            }
+            catch(Exception ex)
+            {
+                s_logger.error(region.getName() + ": Fail to invoke/process method[" + item.getMethod() + "]", ex);
+                return false;
+            }
+        }
+
+        protected void retry(RegionOutboundVO item)
+        {
+            int attempts = item.getAttempts() + 1;
+            if (attempts >= MAX_ATTEMPTS)
+            {
+                s_logger.error(region.getName() + ": Giving up method[" + item.getMethod() + "] of " + item.getEntityType() + "[" + item.getEntityUuid() + "] after "
+                        + attempts + " attempts, it will be synchronized by the next full scan");
+                outboundDao.remove(item.getId());
+                dropped.incrementAndGet();
+                return;
+            }
+
+            long backoff = getBackoff(attempts);
+            item.setAttempts(attempts);
+            item.setNextAttempt(new Date(System.currentTimeMillis() + backoff));
+            // released, any node can replay it once the backoff is over
+            item.setMgmtServerId(null);
+            item.setClaimed(null);
+            outboundDao.update(item.getId(), item);
+            retried.incrementAndGet();
+            s_logger.debug(region.getName() + ": method[" + item.getMethod() + "] of " + item.getEntityType() + "[" + item.getEntityUuid() + "] failed, retry in " + backoff + " ms");
+        }
+
+        private class DrainTask extends ManagedContextRunnable {
+
+            @Override
+            protected void runInContext()
+            {
+                try
+                {
+                    drain();
+                }
+                catch(Exception ex)
+                {
+                    s_logger.error("Failed to replicate the queued mutations to region[" + region.getName() + "]", ex);
+                }
+            }
+        }
+    }
+}
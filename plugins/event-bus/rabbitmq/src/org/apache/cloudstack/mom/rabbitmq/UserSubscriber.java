@@ -14,9 +14,9 @@ public class UserSubscriber extends MultiRegionSubscriber {
 
     private static final Logger s_logger = Logger.getLogger(UserSubscriber.class);
 
-    public UserSubscriber(int id)
+    public UserSubscriber(int id, RegionReplicationQueue queue)
     {
-        super(id);
+        super(id, "User", queue);
     }
 
     @Override
@@ -26,35 +26,23 @@ public class UserSubscriber extends MultiRegionSubscriber {
 
         if (!isExecutable())    return;
 
-        regions = findRemoteRegions();
-        process(event);
+        enqueue(event);
     }
 
-    protected void process(Event event)
+    @Override
+    public boolean replicate(RegionVO region, String entityUUID, String methodName, String oldUserName) throws Exception
     {
-        String entityUUID = this.descMap.get("entityuuid");
-        String oldUserName = this.descMap.get("oldentityname");
         User user = this.userDao.findByUuidIncludingRemoved(entityUUID);
+        if (user == null)
+        {
+            s_logger.error(region.getName() + ": user[" + entityUUID + "] is not found");
+            return true;
+        }
         Account account = this.accountDao.findByIdIncludingRemoved(user.getAccountId());
         Domain domain = this.domainDao.findByIdIncludingRemoved(account.getDomainId());
 
-        String methodName = event.getEventType().split("-")[1].toLowerCase();
-        for (RegionVO region : regions)
-        {
-            try
-            {
-                UserService userService = new UserService(region);
-                Method method = userService.getClass().getMethod(methodName, User.class, Account.class, Domain.class, String.class);
-                method.invoke(userService, user, account, domain, oldUserName);
-            }
-            catch(NoSuchMethodException mex)
-            {
-                s_logger.error(region.getName() + ": Not valid method[" + methodName + "]");
-            }
-            catch(Exception ex)
-            {
-                s_logger.error(region.getName() + ": Fail to invoke/process method[" + methodName + "]", ex);
-            }
-        }
+        UserService userService = new UserService(region);
+        Method method = userService.getClass().getMethod(methodName, User.class, Account.class, Domain.class, String.class);
+        return (Boolean)method.invoke(userService, user, account, domain, oldUserName);
     }
 }
@@ -32,6 +32,8 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.command.admin.host.ListHostsCmd;
@@ -358,15 +360,18 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
      */
     @Override
     public ListResponse<UserResponse> searchForUsers(ListUsersCmd cmd) throws PermissionDeniedException {
-        Pair<List<UserAccountJoinVO>, Integer> result = searchForUsersInternal(cmd);
+        Filter searchFilter = new Filter(UserAccountJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        seekPage(searchFilter, cmd);
+        Pair<List<UserAccountJoinVO>, Integer> result = searchForUsersInternal(cmd, searchFilter);
         ListResponse<UserResponse> response = new ListResponse<UserResponse>();
         List<UserResponse> userResponses = ViewResponseHelper.createUserResponse(CallContext.current().getCallingAccount().getDomainId(),
                 result.first().toArray(new UserAccountJoinVO[result.first().size()]));
         response.setResponses(userResponses, result.second());
+        setNextPageToken(response, searchFilter, result.first());
         return response;
     }
 
-    private Pair<List<UserAccountJoinVO>, Integer> searchForUsersInternal(ListUsersCmd cmd)
+    private Pair<List<UserAccountJoinVO>, Integer> searchForUsersInternal(ListUsersCmd cmd, Filter searchFilter)
             throws PermissionDeniedException {
         Account caller = CallContext.current().getCallingAccount();
 
@@ -384,8 +389,6 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             domainId = caller.getDomainId();
         }
 
-        Filter searchFilter = new Filter(UserAccountJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
-
         Long id = cmd.getId();
         Object username = cmd.getUsername();
         Object type = cmd.getAccountType();
@@ -464,15 +467,21 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
     @Override
     public ListResponse<EventResponse> searchForEvents(ListEventsCmd cmd) {
-        Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd);
+        // id breaks the ties of events created in the same second, for the page token to resume after one
+        Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(),
+                cmd.getPageSizeVal());
+        searchFilter.addOrderBy(EventJoinVO.class, "id", false);
+        seekPage(searchFilter, cmd);
+        Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd, searchFilter);
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(
                 new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        setNextPageToken(response, searchFilter, result.first());
         return response;
     }
 
-    private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd) {
+    private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd, Filter searchFilter) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
 
@@ -493,8 +502,6 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(),
-                cmd.getPageSizeVal());
         SearchBuilder<EventJoinVO> sb = _eventJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts,
                 listProjectResourcesCriteria);
@@ -1814,15 +1821,18 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
     @Override
     public ListResponse<AccountResponse> searchForAccounts(ListAccountsCmd cmd) {
-        Pair<List<AccountJoinVO>, Integer> result = searchForAccountsInternal(cmd);
+        Filter searchFilter = new Filter(AccountJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        seekPage(searchFilter, cmd);
+        Pair<List<AccountJoinVO>, Integer> result = searchForAccountsInternal(cmd, searchFilter);
         ListResponse<AccountResponse> response = new ListResponse<AccountResponse>();
         List<AccountResponse> accountResponses = ViewResponseHelper.createAccountResponse(result.first().toArray(
                 new AccountJoinVO[result.first().size()]));
         response.setResponses(accountResponses, result.second());
+        setNextPageToken(response, searchFilter, result.first());
         return response;
     }
 
-    private Pair<List<AccountJoinVO>, Integer> searchForAccountsInternal(ListAccountsCmd cmd) {
+    private Pair<List<AccountJoinVO>, Integer> searchForAccountsInternal(ListAccountsCmd cmd, Filter searchFilter) {
         Account caller = CallContext.current().getCallingAccount();
         Long domainId = cmd.getDomainId();
         Long accountId = cmd.getId();
@@ -1872,8 +1882,6 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             }
         }
 
-        Filter searchFilter = new Filter(AccountJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
-
         Object type = cmd.getAccountType();
         Object state = cmd.getState();
         Object isCleanupRequired = cmd.isCleanupRequired();
@@ -1941,15 +1949,18 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
     @Override
     public ListResponse<AsyncJobResponse> searchForAsyncJobs(ListAsyncJobsCmd cmd) {
-        Pair<List<AsyncJobJoinVO>, Integer> result = searchForAsyncJobsInternal(cmd);
+        Filter searchFilter = new Filter(AsyncJobJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        seekPage(searchFilter, cmd);
+        Pair<List<AsyncJobJoinVO>, Integer> result = searchForAsyncJobsInternal(cmd, searchFilter);
         ListResponse<AsyncJobResponse> response = new ListResponse<AsyncJobResponse>();
         List<AsyncJobResponse> jobResponses = ViewResponseHelper.createAsyncJobResponse(result.first().toArray(
                 new AsyncJobJoinVO[result.first().size()]));
         response.setResponses(jobResponses, result.second());
+        setNextPageToken(response, searchFilter, result.first());
         return response;
     }
 
-    private Pair<List<AsyncJobJoinVO>, Integer> searchForAsyncJobsInternal(ListAsyncJobsCmd cmd) {
+    private Pair<List<AsyncJobJoinVO>, Integer> searchForAsyncJobsInternal(ListAsyncJobsCmd cmd, Filter searchFilter) {
 
         Account caller = CallContext.current().getCallingAccount();
 
@@ -1963,7 +1974,6 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(AsyncJobJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
         SearchBuilder<AsyncJobJoinVO> sb = _jobJoinDao.createSearchBuilder();
         sb.and("accountIdIN", sb.entity().getAccountId(), SearchCriteria.Op.IN);
         boolean accountJoinIsDone = false;
@@ -3340,6 +3350,31 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         }
     }
 
+    /**
+     * Makes the search resume after the page the page token of the command was handed out for, if it has one.
+     */
+    private static void seekPage(Filter searchFilter, BaseListCmd cmd) {
+        String pageToken = cmd.getPageToken();
+        if (pageToken == null) {
+            return;
+        }
+        try {
+            searchFilter.setPageToken(pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterValueException("Invalid " + ApiConstants.PAGE_TOKEN + " " + pageToken);
+        }
+    }
+
+    /**
+     * Hands out a token for the page after this one when the page is full, so there can be more.
+     */
+    private static void setNextPageToken(ListResponse<?> response, Filter searchFilter, List<?> page) {
+        Long pageSize = searchFilter.getLimit();
+        if (pageSize != null && !page.isEmpty() && page.size() >= pageSize) {
+            response.setNextPageToken(searchFilter.getPageToken(page.get(page.size() - 1)));
+        }
+    }
+
     @Override
     public List<ResourceDetailResponse> listResourceDetails(ListResourceDetailsCmd cmd) {
         String key = cmd.getKey();
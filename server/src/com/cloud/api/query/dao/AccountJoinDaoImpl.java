@@ -50,6 +50,7 @@ public class AccountJoinDaoImpl extends GenericDaoBase<AccountJoinVO, Long> impl
         acctIdSearch.done();
 
         this._count = "select count(distinct id) from account_view WHERE ";
+        this._readOnly = true;
     }
 
     @Override
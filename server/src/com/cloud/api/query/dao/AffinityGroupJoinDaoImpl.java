@@ -56,6 +56,7 @@ public class AffinityGroupJoinDaoImpl extends GenericDaoBase<AffinityGroupJoinVO
         agIdSearch.done();
 
         this._count = "select count(distinct id) from affinity_group_view WHERE ";
+        this._readOnly = true;
     }
 
     @Override
@@ -50,6 +50,7 @@ public class AsyncJobJoinDaoImpl extends GenericDaoBase<AsyncJobJoinVO, Long> im
         jobIdSearch.done();
 
         _count = "select count(distinct id) from async_job_view WHERE ";
+        _readOnly = true;
     }
 
 
@@ -52,6 +52,7 @@ public class DataCenterJoinDaoImpl extends GenericDaoBase<DataCenterJoinVO, Long
         dofIdSearch.done();
 
         this._count = "select count(distinct id) from data_center_view WHERE ";
+        this._readOnly = true;
     }
 
 
@@ -64,6 +64,7 @@ public class DomainRouterJoinDaoImpl extends GenericDaoBase<DomainRouterJoinVO,
         vrIdSearch.done();
 
         this._count = "select count(distinct id) from domain_router_view WHERE ";
+        this._readOnly = true;
     }
 
 
@@ -68,6 +68,7 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
         hostIdSearch.done();
 
         this._count = "select count(distinct id) from host_view WHERE ";
+        this._readOnly = true;
     }
 
 
@@ -62,6 +62,7 @@ public class ImageStoreJoinDaoImpl extends GenericDaoBase<ImageStoreJoinVO, Long
         dsIdSearch.done();
 
         _count = "select count(distinct id) from image_store_view WHERE ";
+        _readOnly = true;
     }
 
 
@@ -49,6 +49,7 @@ public class InstanceGroupJoinDaoImpl extends GenericDaoBase<InstanceGroupJoinVO
         vrIdSearch.done();
 
         this._count = "select count(distinct id) from instance_group_view WHERE ";
+        this._readOnly = true;
     }
 
 
@@ -47,6 +47,7 @@ public class ProjectAccountJoinDaoImpl extends GenericDaoBase<ProjectAccountJoin
         paIdSearch.done();
 
         this._count = "select count(distinct id) from project_account_view WHERE ";
+        this._readOnly = true;
     }
 
 
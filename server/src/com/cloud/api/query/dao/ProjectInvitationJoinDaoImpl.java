@@ -46,6 +46,7 @@ public class ProjectInvitationJoinDaoImpl extends GenericDaoBase<ProjectInvitati
         piIdSearch.done();
 
         this._count = "select count(distinct id) from project_invitation_view WHERE ";
+        this._readOnly = true;
     }
 
 
@@ -66,6 +66,7 @@ public class ProjectJoinDaoImpl extends GenericDaoBase<ProjectJoinVO, Long> impl
         prjIdSearch.done();
 
         this._count = "select count(distinct id) from project_view WHERE ";
+        this._readOnly = true;
     }
 
     @Override
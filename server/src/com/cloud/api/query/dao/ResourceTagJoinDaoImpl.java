@@ -62,6 +62,7 @@ public class ResourceTagJoinDaoImpl extends GenericDaoBase<ResourceTagJoinVO, Lo
         tagIdSearch.done();
 
         this._count = "select count(distinct id) from resource_tag_view WHERE ";
+        this._readOnly = true;
         
         AllFieldsSearch = createSearchBuilder();
         AllFieldsSearch.and("resourceId", AllFieldsSearch.entity().getResourceId(), Op.EQ);
@@ -63,6 +63,7 @@ public class SecurityGroupJoinDaoImpl extends GenericDaoBase<SecurityGroupJoinVO
         sgIdSearch.done();
 
         this._count = "select count(distinct id) from security_group_view WHERE ";
+        this._readOnly = true;
     }
 
     @Override
@@ -47,6 +47,7 @@ public class ServiceOfferingJoinDaoImpl extends GenericDaoBase<ServiceOfferingJo
         sofIdSearch.done();
 
         this._count = "select count(distinct service_offering_view.id) from service_offering_view WHERE ";
+        this._readOnly = true;
     }
 
 
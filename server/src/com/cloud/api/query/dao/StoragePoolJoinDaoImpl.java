@@ -62,6 +62,7 @@ public class StoragePoolJoinDaoImpl extends GenericDaoBase<StoragePoolJoinVO, Lo
         spIdSearch.done();
 
         _count = "select count(distinct id) from storage_pool_view WHERE ";
+        _readOnly = true;
     }
 
     @Override
@@ -58,6 +58,7 @@ public class UserAccountJoinDaoImpl extends GenericDaoBase<UserAccountJoinVO, Lo
 
 
         this._count = "select count(distinct id) from user_view WHERE ";
+        this._readOnly = true;
     }
 
 
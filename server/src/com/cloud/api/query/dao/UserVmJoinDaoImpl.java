@@ -74,6 +74,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
         VmDetailSearch.done();
 
         this._count = "select count(distinct id) from user_vm_view WHERE ";
+        this._readOnly = true;
 
         activeVmByIsoSearch = createSearchBuilder();
         activeVmByIsoSearch.and("isoId", activeVmByIsoSearch.entity().getIsoId(), SearchCriteria.Op.EQ);
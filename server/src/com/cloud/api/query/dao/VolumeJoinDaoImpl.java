@@ -67,6 +67,7 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
         volIdSearch.done();
 
         this._count = "select count(distinct id) from volume_view WHERE ";
+        this._readOnly = true;
     }
 
 
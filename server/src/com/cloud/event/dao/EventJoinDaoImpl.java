@@ -64,6 +64,7 @@ public class EventJoinDaoImpl extends GenericDaoBase<EventJoinVO, Long> implemen
 
 
         this._count = "select count(distinct id) from event_view WHERE ";
+        this._readOnly = true;
     }
 
 
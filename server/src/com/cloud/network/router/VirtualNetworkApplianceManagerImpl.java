@@ -862,18 +862,21 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
                             @Override
                             public void doInTransactionWithoutResult(TransactionStatus status) {
                                 //get all stats with delta > 0
-                                List<UserStatisticsVO> updatedStats = _userStatsDao.listUpdatedStats();
-                                Date updatedTime = new Date();
-                                for(UserStatisticsVO stat : updatedStats){
-                                    //update agg bytes
-                                    stat.setAggBytesReceived(stat.getCurrentBytesReceived() + stat.getNetBytesReceived());
-                                    stat.setAggBytesSent(stat.getCurrentBytesSent() + stat.getNetBytesSent());
-                                    _userStatsDao.update(stat.getId(), stat);
-                                    //insert into op_user_stats_log
-                                    UserStatsLogVO statsLog = new UserStatsLogVO(stat.getId(), stat.getNetBytesReceived(), stat.getNetBytesSent(), stat.getCurrentBytesReceived(),
-                                                                                 stat.getCurrentBytesSent(), stat.getAggBytesReceived(), stat.getAggBytesSent(), updatedTime);
-                                    _userStatsLogDao.persist(statsLog);
-                                }
+                                final Date updatedTime = new Date();
+                                _userStatsDao.streamUpdatedStats(new StreamHandler<UserStatisticsVO>() {
+                                    @Override
+                                    public boolean handle(UserStatisticsVO stat) {
+                                        //update agg bytes
+                                        stat.setAggBytesReceived(stat.getCurrentBytesReceived() + stat.getNetBytesReceived());
+                                        stat.setAggBytesSent(stat.getCurrentBytesSent() + stat.getNetBytesSent());
+                                        _userStatsDao.update(stat.getId(), stat);
+                                        //insert into op_user_stats_log
+                                        UserStatsLogVO statsLog = new UserStatsLogVO(stat.getId(), stat.getNetBytesReceived(), stat.getNetBytesSent(), stat.getCurrentBytesReceived(),
+                                                                                     stat.getCurrentBytesSent(), stat.getAggBytesReceived(), stat.getAggBytesSent(), updatedTime);
+                                        _userStatsLogDao.persist(statsLog);
+                                        return true;
+                                    }
+                                });
                                 s_logger.debug("Successfully updated aggregate network stats");
                             }
                         });
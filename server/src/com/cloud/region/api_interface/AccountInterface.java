@@ -5,6 +5,7 @@ import com.amazonaws.util.json.JSONObject;
 import com.cloud.region.service.BaseService;
 
 import java.net.URLEncoder;
+import java.util.Map;
 
 public class AccountInterface extends BaseInterface {
 
@@ -19,7 +20,10 @@ public class AccountInterface extends BaseInterface {
 
         String paramStr = "command=listAccounts&listAll=true&response=json&sessionkey=" + URLEncoder.encode(this.sessionKey, "UTF-8");
         if (domainId != null)   paramStr += "&domainId=" + domainId;
-        JSONObject retJson = sendApacheGet(paramStr);
+        // the users of every account come with it
+        Map<String, RegionRecord.Schema> schemas = records("account", AccountRecord.newSchema());
+        schemas.put("user", UserRecord.newSchema());
+        JSONObject retJson = sendApacheGet(paramStr, schemas);
         if (!BaseService.hasAttribute(retJson, "account"))
         {
             return new JSONArray();
@@ -32,8 +36,9 @@ public class AccountInterface extends BaseInterface {
         JSONArray retArray = retJson.getJSONArray("account");
         for(int index = 0; index < retArray.length(); index++)
         {
-            if (!retArray.getJSONObject(index).get("domainid").equals(domainId)) continue;
-            accountArray.put(retArray.getJSONObject(index));
+            AccountRecord account = (AccountRecord)retArray.getJSONObject(index);
+            if (!domainId.equals(account.getDomainUuid())) continue;
+            accountArray.put(account);
         }
 
         return accountArray;
@@ -0,0 +1,58 @@
+package com.cloud.region.api_interface;
+
+/**
+ * An account of a listAccounts response.
+ * The resource limits and counts of the response are appended to the schema as they are met.
+ */
+public class AccountRecord extends RegionRecord {
+
+    private static final String[] FIELDS = {"id", "name", "accounttype", "domainid", "domain", "state", "networkdomain", "isdefault", "user"};
+    private static final String[] SHARED_FIELDS = {"domainid", "domain", "state", "networkdomain"};
+
+    private static final int NAME = 1;
+    private static final int ACCOUNT_TYPE = 2;
+    private static final int DOMAIN_ID = 3;
+    private static final int DOMAIN = 4;
+    private static final int STATE = 5;
+
+    public static Schema newSchema()
+    {
+        return new Schema(FIELDS, SHARED_FIELDS) {
+            @Override
+            public RegionRecord newRecord()
+            {
+                return new AccountRecord(this);
+            }
+        };
+    }
+
+    protected AccountRecord(Schema schema)
+    {
+        super(schema);
+    }
+
+    public String getName()
+    {
+        return getString(NAME);
+    }
+
+    public String getAccountType()
+    {
+        return getString(ACCOUNT_TYPE);
+    }
+
+    public String getDomainUuid()
+    {
+        return getString(DOMAIN_ID);
+    }
+
+    public String getDomainName()
+    {
+        return getString(DOMAIN);
+    }
+
+    public String getState()
+    {
+        return getString(STATE);
+    }
+}
@@ -7,17 +7,22 @@ import com.cloud.region.service.BaseService;
 import com.cloud.utils.DateUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.URLEncoder;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TimeZone;
 
 public class BaseInterface {
@@ -29,6 +34,14 @@ public class BaseInterface {
     protected String cookie;
     protected String sessionKey;
 
+    private String userName;
+    private String password;
+    private RegionSessionCache.Session session;
+
+    private static class SessionExpiredException extends Exception {
+        private static final long serialVersionUID = -2490950892095775602L;
+    }
+
     public BaseInterface(String url)
     {
         this.url = url;
@@ -39,7 +52,11 @@ public class BaseInterface {
 
     public JSONObject toJson(String serialized) throws Exception
     {
-        JSONObject jsonObj = new JSONObject(serialized);
+        return toJson(new JSONObject(serialized));
+    }
+
+    protected JSONObject toJson(JSONObject jsonObj) throws Exception
+    {
         JSONObject retObj = (JSONObject)jsonObj.get(jsonObj.keys().next().toString());
 
         String errorText = null;
@@ -60,65 +77,105 @@ public class BaseInterface {
         return retObj;
     }
 
-    public JSONObject sendApacheGet(String paramStr) throws Exception {
-
+    private String buildUrl(String paramStr)
+    {
         String connUrl = this.url;
-
         if (paramStr != null && !paramStr.equals(""))
             connUrl += "?" + paramStr;
+        return connUrl;
+    }
 
-        HttpClient client = new DefaultHttpClient();
-        HttpGet request = new HttpGet(connUrl);
-
+    private HttpResponse execute(HttpRequestBase request) throws Exception
+    {
         // add request header
-        request.addHeader("Cookie", "JSESSIONID=" + this.cookie);
+        if (this.cookie != null)
+        {
+            request.setHeader("Cookie", "JSESSIONID=" + this.cookie);
+        }
 
+        HttpClient client = RegionHttpClientPool.getClient(this.url);
         HttpResponse response = client.execute(request);
-        s_logger.debug("\nSending 'GET' request to URL : " + connUrl);
+        s_logger.debug("\nSending '" + request.getMethod() + "' request to URL : " + request.getURI());
         s_logger.debug("Response Code : " + response.getStatusLine().getStatusCode());
 
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-        StringBuffer result = new StringBuffer();
-        String line = "";
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED && this.session != null)
+        {
+            // release the connection back to the pool before re-login
+            EntityUtils.consume(response.getEntity());
+            throw new SessionExpiredException();
         }
 
-        String resultStr = result.toString();
+        return response;
+    }
 
-        s_logger.debug(resultStr);
+    private JSONObject readResponse(HttpResponse response, Map<String, RegionRecord.Schema> schemas) throws Exception
+    {
+        // reading the entity to the end releases the connection back to the pool
+        HttpEntity entity = response.getEntity();
+        if (s_logger.isTraceEnabled())
+        {
+            String resultStr = EntityUtils.toString(entity, "UTF-8");
+            s_logger.trace(resultStr);
+            return toJson(new RegionJsonReader(new StringReader(resultStr), schemas).readObject());
+        }
 
-        return toJson(resultStr);
+        try
+        {
+            ContentType contentType = ContentType.get(entity);
+            String charset = (contentType != null && contentType.getCharset() != null) ? contentType.getCharset().name() : null;
+            return toJson(RegionJsonReader.parse(entity.getContent(), charset, schemas));
+        }
+        finally
+        {
+            EntityUtils.consume(entity);
+        }
     }
 
-    // HTTP POST request
-    public JSONObject sendApachePost(String paramStr) throws Exception {
+    /**
+     * @return the schema to read the list of the given attribute into typed records
+     */
+    protected static Map<String, RegionRecord.Schema> records(String name, RegionRecord.Schema schema)
+    {
+        Map<String, RegionRecord.Schema> schemas = new HashMap<String, RegionRecord.Schema>();
+        schemas.put(name, schema);
+        return schemas;
+    }
 
-        String connUrl = this.url;
-        if (paramStr != null && !paramStr.equals(""))
-            connUrl += "?" + paramStr;
+    public JSONObject sendApacheGet(String paramStr) throws Exception {
+        return sendApacheGet(paramStr, null);
+    }
 
-        HttpClient client = new DefaultHttpClient();
-        HttpPost post = new HttpPost(connUrl);
+    /**
+     * Sends a list request, the lists of the response with a schema are read into typed records.
+     */
+    public JSONObject sendApacheGet(String paramStr, Map<String, RegionRecord.Schema> schemas) throws Exception {
 
-        // add header
-        if (this.cookie != null)
+        HttpResponse response;
+        try
         {
-            post.setHeader("Cookie", "JSESSIONID=" + this.cookie);
+            response = execute(new HttpGet(buildUrl(paramStr)));
+        }
+        catch(SessionExpiredException ex)
+        {
+            paramStr = renewSession(paramStr);
+            response = execute(new HttpGet(buildUrl(paramStr)));
         }
 
-        HttpResponse response = client.execute(post);
-        s_logger.debug("\nSending 'POST' request to URL : " + connUrl);
-        s_logger.debug("Post parameters : " + post.getEntity());
-        s_logger.debug("Response Code : " + response.getStatusLine().getStatusCode());
+        return readResponse(response, schemas);
+    }
 
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+    // HTTP POST request
+    public JSONObject sendApachePost(String paramStr) throws Exception {
 
-        StringBuffer result = new StringBuffer();
-        String line = "";
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
+        HttpResponse response;
+        try
+        {
+            response = execute(new HttpPost(buildUrl(paramStr)));
+        }
+        catch(SessionExpiredException ex)
+        {
+            paramStr = renewSession(paramStr);
+            response = execute(new HttpPost(buildUrl(paramStr)));
         }
 
         // if this is the response of 'login' command, store the returned cookie
@@ -134,11 +191,60 @@ public class BaseInterface {
             }
         }
 
-        String resultStr = result.toString();
+        return readResponse(response, null);
+    }
+
+    /**
+     * Uses the cached session of the given user to this region if it is still alive, or logs in and caches the new session.
+     */
+    public void openSession(String userName, String password) throws Exception
+    {
+        this.userName = userName;
+        this.password = password;
+        this.session = null;
+
+        RegionSessionCache.Session cached = RegionSessionCache.get(this.url, userName);
+        if (cached == null)
+        {
+            this.cookie = null;
+            this.sessionKey = null;
+            JSONObject loginJson = login(userName, password);
+            long timeout = 0;
+            try
+            {
+                timeout = Long.parseLong(BaseService.getAttrValue(loginJson, "timeout")) * 1000;
+            }
+            catch(Exception ex)
+            {
+            }
+            cached = RegionSessionCache.put(this.url, userName, this.sessionKey, this.cookie, timeout);
+        }
+
+        this.session = cached;
+        this.sessionKey = cached.getSessionKey();
+        this.cookie = cached.getCookie();
+    }
+
+    /**
+     * Leaves the session in the cache to be reused by the next api calls to this region.
+     */
+    public void closeSession()
+    {
+        if (this.session == null)   return;
+        this.session.touch();
+        this.session = null;
+    }
 
-        s_logger.debug(resultStr);
+    private String renewSession(String paramStr) throws Exception
+    {
+        s_logger.info("Session to [" + this.url + "] has expired, login again");
 
-        return toJson(resultStr);
+        String oldKey = URLEncoder.encode(this.sessionKey, "UTF-8");
+        RegionSessionCache.invalidate(this.url, this.userName, this.session);
+        openSession(this.userName, this.password);
+        String newKey = URLEncoder.encode(this.sessionKey, "UTF-8");
+
+        return paramStr.replace("sessionkey=" + oldKey, "sessionkey=" + newKey);
     }
 
     public JSONObject login(String userName, String password) throws Exception
@@ -191,6 +297,11 @@ public class BaseInterface {
     }
 
     public JSONArray listEvents(String type, String keyword, Date startDate, Date endData)
+    {
+        return listEvents(type, keyword, startDate, endData, null, null);
+    }
+
+    public JSONArray listEvents(String type, String keyword, Date startDate, Date endData, Integer page, Integer pageSize)
     {
         try
         {
@@ -212,6 +323,10 @@ public class BaseInterface {
             {
                 paramStr += "&endata=" + URLEncoder.encode(DateUtil.displayDateInTimezone(s_gmtTimeZone, endData), "UTF-8");
             }
+            if (page != null && pageSize != null)
+            {
+                paramStr += "&page=" + page + "&pagesize=" + pageSize;
+            }
 
             JSONObject retJson = sendApacheGet(paramStr);
             boolean hasEvents = BaseService.hasAttribute(retJson, "event");
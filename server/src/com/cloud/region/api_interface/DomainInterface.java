@@ -30,7 +30,7 @@ public class DomainInterface extends BaseInterface {
 
         String paramStr = "command=listDomains&response=json&sessionkey=" + URLEncoder.encode(this.sessionKey, "UTF-8");
         if (listAll)    paramStr += "&listall" + listAll;
-        JSONObject retJson = sendApacheGet(paramStr);
+        JSONObject retJson = sendApacheGet(paramStr, records("domain", DomainRecord.newSchema()));
         if (!BaseService.hasAttribute(retJson, "domain"))
         {
             return new JSONArray();
@@ -110,7 +110,7 @@ public class DomainInterface extends BaseInterface {
         {
             paramStr += "&isrecursive=false";
         }
-        JSONObject retJson = (JSONObject)sendApacheGet(paramStr);
+        JSONObject retJson = sendApacheGet(paramStr, records("domain", DomainRecord.newSchema()));
         if (!BaseService.hasAttribute(retJson, "domain"))
         {
             return new JSONArray();
@@ -125,6 +125,22 @@ public class DomainInterface extends BaseInterface {
         return retArray;
     }
 
+    public JSONArray listDomainDigests(String domainId) throws Exception
+    {
+        // the digests of the domain come first, followed by the digests of its children
+        // { "listdomaindigestsresponse" : { "count":2 ,"domaindigest" : [ {"id":"...","name":"ROOT","path":"/","attrdigest":"...","contentdigest":"...","treedigest":"..."}, ... ] } }
+
+        String paramStr = "command=listDomainDigests&response=json&sessionkey=" + URLEncoder.encode(this.sessionKey, "UTF-8");
+        if (domainId != null)    paramStr += "&id=" + domainId;
+        JSONObject retJson = sendApacheGet(paramStr);
+        if (!BaseService.hasAttribute(retJson, "domaindigest"))
+        {
+            return new JSONArray();
+        }
+
+        return retJson.getJSONArray("domaindigest");
+    }
+
     public JSONObject createDomain(String name, String parentDomainId, String domainId, String networkDomain) throws Exception
     {
         /*
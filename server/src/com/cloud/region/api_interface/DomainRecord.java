@@ -0,0 +1,65 @@
+package com.cloud.region.api_interface;
+
+import com.amazonaws.util.json.JSONObject;
+
+/**
+ * A domain of a listDomains/listDomainChildren response.
+ */
+public class DomainRecord extends RegionRecord {
+
+    private static final String[] FIELDS = {"id", "name", "level", "parentdomainid", "parentdomainname", "haschild", "path", "networkdomain", "state"};
+    private static final String[] SHARED_FIELDS = {"parentdomainid", "parentdomainname", "state"};
+
+    private static final int NAME = 1;
+    private static final int LEVEL = 2;
+    private static final int PARENT_ID = 3;
+    private static final int PATH = 6;
+    private static final int STATE = 8;
+
+    public static Schema newSchema()
+    {
+        return new Schema(FIELDS, SHARED_FIELDS) {
+            @Override
+            public RegionRecord newRecord()
+            {
+                return new DomainRecord(this);
+            }
+        };
+    }
+
+    protected DomainRecord(Schema schema)
+    {
+        super(schema);
+    }
+
+    public String getName()
+    {
+        return getString(NAME);
+    }
+
+    /**
+     * @return the level of the domain, -1 if missing
+     */
+    public int getLevel()
+    {
+        Object level = opt(FIELDS[LEVEL]);
+        if (level instanceof Number)    return ((Number)level).intValue();
+        if (level == null || level == JSONObject.NULL)  return -1;
+        return Integer.parseInt(level.toString());
+    }
+
+    public String getParentUuid()
+    {
+        return getString(PARENT_ID);
+    }
+
+    public String getPath()
+    {
+        return getString(PATH);
+    }
+
+    public String getState()
+    {
+        return getString(STATE);
+    }
+}
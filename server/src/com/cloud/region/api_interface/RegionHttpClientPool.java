@@ -0,0 +1,103 @@
+package com.cloud.region.api_interface;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one pooled, keep-alive http client per remote region api url, so that the region api interfaces reuse
+ * the tcp connections instead of opening a new connection for every api call.
+ */
+public class RegionHttpClientPool {
+
+    private static final Logger s_logger = Logger.getLogger(RegionHttpClientPool.class);
+
+    public static final int MAX_CONNECTIONS_PER_REGION = 20;
+    public static final long DEFAULT_KEEP_ALIVE = 30000L;
+    public static final int CONNECT_TIMEOUT = 30000;
+    public static final int SOCKET_TIMEOUT = 180000;
+
+    private static final Map<String, DefaultHttpClient> s_clients = new HashMap<String, DefaultHttpClient>();
+
+    private RegionHttpClientPool()
+    {
+    }
+
+    public static synchronized HttpClient getClient(String url)
+    {
+        DefaultHttpClient client = s_clients.get(url);
+        if (client != null)
+        {
+            // drop the connections the remote region has already closed
+            client.getConnectionManager().closeExpiredConnections();
+            client.getConnectionManager().closeIdleConnections(DEFAULT_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+            return client;
+        }
+
+        PoolingClientConnectionManager connManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connManager.setMaxTotal(MAX_CONNECTIONS_PER_REGION);
+        connManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_REGION);
+
+        client = new DefaultHttpClient(connManager);
+        HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+            {
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext())
+                {
+                    HeaderElement he = it.nextElement();
+                    if (he.getValue() != null && he.getName().equalsIgnoreCase("timeout"))
+                    {
+                        try
+                        {
+                            return Long.parseLong(he.getValue()) * 1000;
+                        }
+                        catch(NumberFormatException ex)
+                        {
+                        }
+                    }
+                }
+                return DEFAULT_KEEP_ALIVE;
+            }
+        });
+
+        s_clients.put(url, client);
+        s_logger.debug("Created a pooled http client for [" + url + "]");
+        return client;
+    }
+
+    public static synchronized void shutdown(String url)
+    {
+        DefaultHttpClient client = s_clients.remove(url);
+        if (client == null) return;
+        client.getConnectionManager().shutdown();
+    }
+
+    public static synchronized void shutdownAll()
+    {
+        for (DefaultHttpClient client : s_clients.values())
+        {
+            client.getConnectionManager().shutdown();
+        }
+        s_clients.clear();
+    }
+}
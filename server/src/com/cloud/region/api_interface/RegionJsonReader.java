@@ -0,0 +1,160 @@
+package com.cloud.region.api_interface;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses a region api response straight from the http stream into JSONObject/JSONArray, without reading the whole
+ * body into a string first.
+ * The values are typed as JSONObject(String) types them, so the parsed responses can be used the same way.
+ * The attribute names repeated by every record of a list response share a single instance.
+ * The lists given a schema are read into compact typed records, and the values repeated by their records, like the
+ * domain or the state, share a single instance as well.
+ */
+public class RegionJsonReader {
+
+    private final JsonReader reader;
+    private final Map<String, String> names = new HashMap<String, String>();
+    private final Map<String, String> sharedValues = new HashMap<String, String>();
+    // the schema of the records of the lists by their attribute name
+    private final Map<String, RegionRecord.Schema> schemas;
+
+    public RegionJsonReader(Reader in)
+    {
+        this(in, null);
+    }
+
+    public RegionJsonReader(Reader in, Map<String, RegionRecord.Schema> schemas)
+    {
+        this.reader = new JsonReader(in);
+        // the api responses are parsed as leniently as JSONTokener does
+        this.reader.setLenient(true);
+        this.schemas = (schemas != null) ? schemas : new HashMap<String, RegionRecord.Schema>();
+    }
+
+    public static JSONObject parse(InputStream in, String charset) throws IOException, JSONException
+    {
+        return parse(in, charset, null);
+    }
+
+    public static JSONObject parse(InputStream in, String charset, Map<String, RegionRecord.Schema> schemas) throws IOException, JSONException
+    {
+        Reader streamReader = new InputStreamReader(in, (charset != null) ? charset : "UTF-8");
+        try
+        {
+            return new RegionJsonReader(streamReader, schemas).readObject();
+        }
+        finally
+        {
+            streamReader.close();
+        }
+    }
+
+    public JSONObject readObject() throws IOException, JSONException
+    {
+        JSONObject jsonObject = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = name(reader.nextName());
+            jsonObject.put(name, readValue(name));
+        }
+        reader.endObject();
+        return jsonObject;
+    }
+
+    protected RegionRecord readRecord(RegionRecord.Schema schema) throws IOException, JSONException
+    {
+        RegionRecord record = schema.newRecord();
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = name(reader.nextName());
+            Object value = readValue(name);
+            if (value instanceof String && schema.isShared(schema.indexOf(name)))
+            {
+                value = share(sharedValues, (String)value);
+            }
+            record.put(name, value);
+        }
+        reader.endObject();
+        return record;
+    }
+
+    protected JSONArray readRecords(RegionRecord.Schema schema) throws IOException, JSONException
+    {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            jsonArray.put((reader.peek() == JsonToken.BEGIN_OBJECT) ? readRecord(schema) : readValue());
+        }
+        reader.endArray();
+        return jsonArray;
+    }
+
+    public JSONArray readArray() throws IOException, JSONException
+    {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            jsonArray.put(readValue());
+        }
+        reader.endArray();
+        return jsonArray;
+    }
+
+    protected Object readValue(String name) throws IOException, JSONException
+    {
+        RegionRecord.Schema schema = schemas.get(name);
+        if (schema != null && reader.peek() == JsonToken.BEGIN_ARRAY)   return readRecords(schema);
+        return readValue();
+    }
+
+    protected Object readValue() throws IOException, JSONException
+    {
+        switch (reader.peek())
+        {
+        case BEGIN_OBJECT:
+            return readObject();
+        case BEGIN_ARRAY:
+            return readArray();
+        case STRING:
+            return reader.nextString();
+        case NUMBER:
+            return JSONObject.stringToValue(reader.nextString());
+        case BOOLEAN:
+            return Boolean.valueOf(reader.nextBoolean());
+        case NULL:
+            reader.nextNull();
+            return JSONObject.NULL;
+        default:
+            throw new JSONException("Unexpected token " + reader.peek());
+        }
+    }
+
+    private String name(String name)
+    {
+        return share(names, name);
+    }
+
+    private static String share(Map<String, String> instances, String value)
+    {
+        String shared = instances.get(value);
+        if (shared != null) return shared;
+
+        instances.put(value, value);
+        return value;
+    }
+}
@@ -0,0 +1,238 @@
+package com.cloud.region.api_interface;
+
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A domain/account/user record of a region list response.
+ * The attribute values are kept in an array laid out by a schema shared by all the records of the response, instead
+ * of a hash map per record, and the known attributes of each type have typed accessors.
+ * It is still a JSONObject, so the sync processors read it like any other parsed response.
+ */
+public abstract class RegionRecord extends JSONObject {
+
+    /**
+     * The attribute layout of the records of a response, the attributes not known in advance are appended as they
+     * are met.
+     */
+    public static abstract class Schema {
+
+        private final Map<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+        private volatile String[] names;
+        private final boolean[] shared;
+
+        /**
+         * @param fields the known attributes, the id first
+         * @param sharedFields the attributes whose values are repeated by many records, like the domain or state
+         */
+        protected Schema(String[] fields, String[] sharedFields)
+        {
+            this.names = fields.clone();
+            this.shared = new boolean[fields.length];
+            for (int idx = 0; idx < fields.length; idx++)
+            {
+                indexes.put(fields[idx], idx);
+            }
+            for (String field : sharedFields)
+            {
+                shared[indexes.get(field)] = true;
+            }
+        }
+
+        public abstract RegionRecord newRecord();
+
+        public int indexOf(String name)
+        {
+            Integer idx = indexes.get(name);
+            return (idx == null) ? -1 : idx;
+        }
+
+        public synchronized int add(String name)
+        {
+            Integer idx = indexes.get(name);
+            if (idx != null)    return idx;
+
+            String[] grown = Arrays.copyOf(names, names.length + 1);
+            grown[names.length] = name;
+            names = grown;
+            indexes.put(name, grown.length - 1);
+            return grown.length - 1;
+        }
+
+        public String name(int idx)
+        {
+            return names[idx];
+        }
+
+        public int size()
+        {
+            return names.length;
+        }
+
+        /**
+         * @return true if the values of the attribute are worth sharing between the records
+         */
+        public boolean isShared(int idx)
+        {
+            return idx >= 0 && idx < shared.length && shared[idx];
+        }
+    }
+
+    private final Schema schema;
+    private Object[] values;
+    private int count;
+
+    protected RegionRecord(Schema schema)
+    {
+        this.schema = schema;
+        this.values = new Object[schema.size()];
+    }
+
+    public Schema getSchema()
+    {
+        return schema;
+    }
+
+    public String getUuid()
+    {
+        return getString(0);
+    }
+
+    /**
+     * @return the value of a known attribute as a string, null if missing
+     */
+    protected String getString(int idx)
+    {
+        Object value = (idx < values.length) ? values[idx] : null;
+        if (value == null || value == JSONObject.NULL)  return null;
+        return value.toString();
+    }
+
+    @Override
+    public Object opt(String key)
+    {
+        if (key == null)    return null;
+        int idx = schema.indexOf(key);
+        if (idx < 0 || idx >= values.length)    return null;
+        return values[idx];
+    }
+
+    @Override
+    public boolean has(String key)
+    {
+        return opt(key) != null;
+    }
+
+    @Override
+    public JSONObject put(String key, Object value) throws JSONException
+    {
+        if (key == null)    throw new NullPointerException("Null key.");
+        if (value == null)
+        {
+            remove(key);
+            return this;
+        }
+        if ((value instanceof Double && (((Double)value).isInfinite() || ((Double)value).isNaN()))
+                || (value instanceof Float && (((Float)value).isInfinite() || ((Float)value).isNaN())))
+        {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+
+        int idx = schema.add(key);
+        if (idx >= values.length)   values = Arrays.copyOf(values, schema.size());
+        if (values[idx] == null)    count++;
+        values[idx] = value;
+        return this;
+    }
+
+    @Override
+    public Object remove(String key)
+    {
+        int idx = schema.indexOf(key);
+        if (idx < 0 || idx >= values.length)    return null;
+
+        Object old = values[idx];
+        if (old != null)
+        {
+            values[idx] = null;
+            count--;
+        }
+        return old;
+    }
+
+    @Override
+    public int length()
+    {
+        return count;
+    }
+
+    @Override
+    public Iterator<String> keys()
+    {
+        List<String> keys = new ArrayList<String>(count);
+        for (int idx = 0; idx < values.length; idx++)
+        {
+            if (values[idx] != null)    keys.add(schema.name(idx));
+        }
+        return keys.iterator();
+    }
+
+    @Override
+    public Iterator<String> sortedKeys()
+    {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (Iterator<String> it = keys(); it.hasNext(); )
+        {
+            keys.add(it.next());
+        }
+        return keys.iterator();
+    }
+
+    /**
+     * @return a plain JSONObject with the same attributes
+     */
+    public JSONObject toJSONObject()
+    {
+        JSONObject jsonObject = new JSONObject();
+        for (int idx = 0; idx < values.length; idx++)
+        {
+            if (values[idx] == null)    continue;
+            try
+            {
+                jsonObject.put(schema.name(idx), values[idx]);
+            }
+            catch(JSONException ex)
+            {
+                // the values have been checked when they were put
+            }
+        }
+        return jsonObject;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJSONObject().toString();
+    }
+
+    @Override
+    public String toString(int indentFactor) throws JSONException
+    {
+        return toJSONObject().toString(indentFactor);
+    }
+
+    @Override
+    public Writer write(Writer writer) throws JSONException
+    {
+        return toJSONObject().write(writer);
+    }
+}
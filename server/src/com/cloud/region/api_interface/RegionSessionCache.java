@@ -0,0 +1,94 @@
+package com.cloud.region.api_interface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the logged-in sessions to the remote regions, keyed by the api url and the user name, so that the region
+ * services don't login and logout around every api call.
+ * A session is dropped once it has been idle longer than the session timeout returned by the remote region.
+ */
+public class RegionSessionCache {
+
+    // re-login a little before the remote region expires the session, at most half of a short session timeout
+    public static final long EXPIRY_MARGIN = 60000L;
+    public static final long DEFAULT_SESSION_TIMEOUT = 1800000L;
+
+    private static final Map<String, Session> s_sessions = new HashMap<String, Session>();
+
+    public static class Session {
+
+        private final String sessionKey;
+        private final String cookie;
+        private final long idleLimit;
+        private volatile long lastAccessed;
+
+        public Session(String sessionKey, String cookie, long timeout)
+        {
+            this.sessionKey = sessionKey;
+            this.cookie = cookie;
+            this.idleLimit = timeout - Math.min(EXPIRY_MARGIN, timeout / 2);
+            this.lastAccessed = System.currentTimeMillis();
+        }
+
+        public String getSessionKey()
+        {
+            return sessionKey;
+        }
+
+        public String getCookie()
+        {
+            return cookie;
+        }
+
+        public void touch()
+        {
+            lastAccessed = System.currentTimeMillis();
+        }
+
+        public boolean isExpired()
+        {
+            return (System.currentTimeMillis() - lastAccessed) > idleLimit;
+        }
+    }
+
+    private RegionSessionCache()
+    {
+    }
+
+    private static String getKey(String url, String userName)
+    {
+        return userName + "@" + url;
+    }
+
+    public static synchronized Session get(String url, String userName)
+    {
+        String key = getKey(url, userName);
+        Session session = s_sessions.get(key);
+        if (session == null)    return null;
+
+        if (session.isExpired())
+        {
+            s_sessions.remove(key);
+            return null;
+        }
+
+        session.touch();
+        return session;
+    }
+
+    public static synchronized Session put(String url, String userName, String sessionKey, String cookie, long timeout)
+    {
+        Session session = new Session(sessionKey, cookie, (timeout > 0) ? timeout : DEFAULT_SESSION_TIMEOUT);
+        s_sessions.put(getKey(url, userName), session);
+        return session;
+    }
+
+    public static synchronized void invalidate(String url, String userName, Session session)
+    {
+        String key = getKey(url, userName);
+        // another thread may have already replaced the expired session
+        if (s_sessions.get(key) != session) return;
+        s_sessions.remove(key);
+    }
+}
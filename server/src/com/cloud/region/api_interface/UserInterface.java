@@ -19,7 +19,7 @@ public class UserInterface extends BaseInterface {
         String paramStr = "command=listUsers&listAll=true&response=json&sessionkey=" + URLEncoder.encode(this.sessionKey, "UTF-8");
         if (domainId != null)   paramStr += "&domainid=" + domainId;
         if (accountName != null)   paramStr += "&account=" + accountName;
-        JSONObject retJson = sendApacheGet(paramStr);
+        JSONObject retJson = sendApacheGet(paramStr, records("user", UserRecord.newSchema()));
         if (!BaseService.hasAttribute(retJson, "user"))
         {
             return new JSONArray();
@@ -32,9 +32,10 @@ public class UserInterface extends BaseInterface {
         JSONArray retArray = retJson.getJSONArray("user");
         for(int index = 0; index < retArray.length(); index++)
         {
-            if (retArray.getJSONObject(index).get("domain").equals("ROOT") && retArray.getJSONObject(index).get("account").equals("system")) continue;
-            if (!retArray.getJSONObject(index).get("domainid").equals(domainId)) continue;
-            userArray.put(retArray.getJSONObject(index));
+            UserRecord user = (UserRecord)retArray.getJSONObject(index);
+            if ("ROOT".equals(user.getDomainName()) && "system".equals(user.getAccountName())) continue;
+            if (!domainId.equals(user.getDomainUuid())) continue;
+            userArray.put(user);
         }
 
         return userArray;
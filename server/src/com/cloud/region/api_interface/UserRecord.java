@@ -0,0 +1,70 @@
+package com.cloud.region.api_interface;
+
+/**
+ * A user of a listUsers response, or of the users listed with their account.
+ */
+public class UserRecord extends RegionRecord {
+
+    private static final String[] FIELDS = {"id", "username", "firstname", "lastname", "email", "created", "state", "account", "accountid", "accounttype",
+            "domainid", "domain", "timezone", "iscallerchilddomain", "isdefault", "apikey", "secretkey"};
+    private static final String[] SHARED_FIELDS = {"state", "account", "accountid", "domainid", "domain", "timezone"};
+
+    private static final int USERNAME = 1;
+    private static final int EMAIL = 4;
+    private static final int STATE = 6;
+    private static final int ACCOUNT = 7;
+    private static final int ACCOUNT_ID = 8;
+    private static final int DOMAIN_ID = 10;
+    private static final int DOMAIN = 11;
+
+    public static Schema newSchema()
+    {
+        return new Schema(FIELDS, SHARED_FIELDS) {
+            @Override
+            public RegionRecord newRecord()
+            {
+                return new UserRecord(this);
+            }
+        };
+    }
+
+    protected UserRecord(Schema schema)
+    {
+        super(schema);
+    }
+
+    public String getUsername()
+    {
+        return getString(USERNAME);
+    }
+
+    public String getEmail()
+    {
+        return getString(EMAIL);
+    }
+
+    public String getState()
+    {
+        return getString(STATE);
+    }
+
+    public String getAccountName()
+    {
+        return getString(ACCOUNT);
+    }
+
+    public String getAccountUuid()
+    {
+        return getString(ACCOUNT_ID);
+    }
+
+    public String getDomainUuid()
+    {
+        return getString(DOMAIN_ID);
+    }
+
+    public String getDomainName()
+    {
+        return getString(DOMAIN);
+    }
+}
@@ -14,7 +14,10 @@ import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 public class AccountFullSyncProcessor extends FullSyncProcessor {
 
@@ -27,6 +30,10 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
     protected List<AccountVO> localList;
     protected List<AccountVO> processedLocalList = new ArrayList<AccountVO>();
 
+    private AccountVO latestRemoved;
+    private boolean latestRemovedLoaded = false;
+    private boolean latestRemovedValid = true;
+
     private LocalAccountManager localAccountManager;
     private RemoteAccountEventProcessor eventProcessor;
 
@@ -38,16 +45,6 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
         this.domainDao = ComponentContext.getComponent(DomainDao.class);
 
         localParent = parentDomain;
-        localList = accountDao.findActiveAccountsForDomain(localParent.getId());
-        if (localParent.getName().equals("ROOT"))
-        {
-            for(int idx = localList.size()-1; idx >= 0; idx--)
-            {
-                AccountVO account = localList.get(idx);
-                if (!account.getAccountName().equals("system"))   continue;
-                localList.remove(account);
-            }
-        }
 
         String remoteParentDomainId = null;
         DomainService domainService = new DomainService(hostName, endPoint, userName, password);
@@ -91,6 +88,35 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
         eventProcessor = new RemoteAccountEventProcessor(hostName, endPoint, userName, password);
     }
 
+    @Override
+    protected void loadLocalList()
+    {
+        localList = accountDao.findActiveAccountsForDomain(localParent.getId());
+        if (localParent.getName().equals("ROOT"))
+        {
+            for(int idx = localList.size()-1; idx >= 0; idx--)
+            {
+                AccountVO account = localList.get(idx);
+                if (!account.getAccountName().equals("system"))   continue;
+                localList.remove(account);
+            }
+        }
+
+        loadRmaps(localList);
+    }
+
+    @Override
+    protected RemoteEventProcessor getEventProcessor()
+    {
+        return eventProcessor;
+    }
+
+    @Override
+    protected String getRemoteKey(JSONObject remoteJson)
+    {
+        return BaseService.getAttrValue(remoteJson, "name");
+    }
+
     private void syncAttributes(AccountVO account, JSONObject remoteJson) throws Exception
     {
         try
@@ -120,11 +146,7 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
 
     protected void expungeProcessedLocals()
     {
-        for (AccountVO account : processedLocalList)
-        {
-            if (!localList.contains(account))    continue;
-            localList.remove(account);
-        }
+        expungeProcessed(localList, processedLocalList);
     }
 
     //@Override
@@ -151,33 +173,7 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
     public JSONObject findRemote(Object object)
     {
         AccountVO account = (AccountVO)object;
-
-        RmapVO rmap = rmapDao.findBySource(account.getUuid(), region.getId());
-
-        for (JSONObject jsonObject : remoteList)
-        {
-            String remoteName = BaseService.getAttrValue(jsonObject, "name");
-            String remoteUuid = BaseService.getAttrValue(jsonObject, "id");
-
-            if (rmap == null)
-            {
-                if (!account.getAccountName().equals(remoteName))  continue;
-            }
-            else
-            {
-                if(!rmap.getUuid().equals(remoteUuid))    continue;
-            }
-
-            if (rmap == null)
-            {
-                rmap = new RmapVO(account.getUuid(), region.getId(), remoteUuid);
-                rmapDao.create(rmap);
-            }
-
-            return jsonObject;
-        }
-
-        return null;
+        return findRemote(account.getUuid(), account.getAccountName());
     }
 
     protected boolean synchronize(AccountVO account) throws Exception
@@ -273,32 +269,12 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
             return false;
         }
 
-        AccountVO removedAccount = null;
-        for (AccountVO account : accountDao.listAllIncludingRemoved())
+        if (!findLatestRemoved())
         {
-            Date removed = account.getRemoved();
-            if (removed == null)    continue;
-
-            if (account.getDomainId() != localParent.getId())  continue;
-
-            if (removedAccount == null)
-            {
-                removedAccount = account;
-            }
-            else
-            {
-                Date currentCreated = account.getCreated();
-                if (currentCreated == null)
-                {
-                    s_logger.info("Can't synchronizeUsingRemoved because one of the removed account has null created");
-                    return false;
-                }
-                else if (currentCreated.after(removedAccount.getCreated()))
-                {
-                    removedAccount = account;
-                }
-            }
+            s_logger.info("Can't synchronizeUsingRemoved because one of the removed account has null created");
+            return false;
         }
+        AccountVO removedAccount = latestRemoved;
 
         Date removed = null;
         if (removedAccount != null)
@@ -350,41 +326,56 @@ public class AccountFullSyncProcessor extends FullSyncProcessor {
     {
         AccountFullSyncProcessor accountProcessor = (AccountFullSyncProcessor)syncProcessor;
 
-        for(int idx = localList.size()-1; idx >= 0; idx--)
+        Set<Long> processedIds = new HashSet<Long>();
+        for(AccountVO processed : accountProcessor.processedLocalList)
         {
-            AccountVO account = localList.get(idx);
-            for(AccountVO processed : accountProcessor.processedLocalList)
-            {
-                if (account.getId() != processed.getId())  continue;
+            processedIds.add(processed.getId());
+        }
 
-                // move this account to the processed list
-                processedLocalList.add(account);
-                localList.remove(account);
-                break;
-            }
+        for(Iterator<AccountVO> it = localList.iterator(); it.hasNext(); )
+        {
+            AccountVO account = it.next();
+            if (!processedIds.contains(account.getId()))  continue;
+
+            // move this account to the processed list
+            processedLocalList.add(account);
+            it.remove();
         }
     }
 
     @Override
     public void arrangeRemoteResourcesToBeCreated(FullSyncProcessor syncProcessor)
     {
-        AccountFullSyncProcessor accountProcessor = (AccountFullSyncProcessor)syncProcessor;
+        arrangeRemoteResources(syncProcessor);
+    }
 
-        for(int idx = remoteList.size()-1; idx >= 0; idx--)
+    // find the latest removed account of the parent domain once, instead of listing all the accounts for every remote
+    private boolean findLatestRemoved()
+    {
+        if (latestRemovedLoaded)    return latestRemovedValid;
+
+        latestRemovedLoaded = true;
+        latestRemovedValid = true;
+        for (AccountVO account : accountDao.listAllIncludingRemoved())
         {
-            JSONObject remoteJson = remoteList.get(idx);
-            String name = BaseService.getAttrValue(remoteJson, "name");
+            if (account.getRemoved() == null)    continue;
 
-            for(JSONObject processed : accountProcessor.processedRemoteList)
-            {
-                String processedName = BaseService.getAttrValue(processed, "name");
-                if (!name.equals(processedName))  continue;
+            if (account.getDomainId() != localParent.getId())  continue;
 
-                // move this account to the processed list
-                processedRemoteList.add(remoteJson);
-                remoteList.remove(remoteJson);
+            if (latestRemoved == null)
+            {
+                latestRemoved = account;
+            }
+            else if (account.getCreated() == null)
+            {
+                latestRemovedValid = false;
                 break;
             }
+            else if (account.getCreated().after(latestRemoved.getCreated()))
+            {
+                latestRemoved = account;
+            }
         }
+        return latestRemovedValid;
     }
 }
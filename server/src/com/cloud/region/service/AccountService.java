@@ -110,7 +110,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONArray accountArray = this.apiInterface.listAccounts(domainId);
             s_logger.debug("Successfully found account list");
             return accountArray;
@@ -121,7 +121,7 @@ public class AccountService extends BaseService {
             return new JSONArray();
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -130,7 +130,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONObject accountJson = this.apiInterface.findAccount(domainId, accountName);
             s_logger.debug("Successfully found account");
             return accountJson;
@@ -141,7 +141,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -168,7 +168,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the account already exists
             String[] attrNames = {"name", "path"};
@@ -198,7 +198,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -217,7 +217,7 @@ public class AccountService extends BaseService {
         }
         else
         {
-            deleteByUuid(rmap.getUuid());
+            resJson = deleteByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -228,7 +228,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the account already exists
             JSONObject accountJson = find(uuid);
@@ -249,7 +249,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -258,7 +258,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the account already exists
             String[] attrNames = {"name", "path"};
@@ -282,7 +282,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -301,7 +301,7 @@ public class AccountService extends BaseService {
         }
         else
         {
-            enableByUuid(rmap.getUuid());
+            resJson = enableByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -312,7 +312,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject accountJson = find(uuid);
             if (accountJson == null)
@@ -338,7 +338,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -347,7 +347,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"name", "path"};
             String[] attrValues = {accountName, domainPath};
@@ -376,7 +376,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -395,7 +395,7 @@ public class AccountService extends BaseService {
         }
         else
         {
-            disableByUuid(rmap.getUuid());
+            resJson = disableByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -406,7 +406,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject accountJson = find(uuid);
             if (accountJson == null)
@@ -433,7 +433,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -442,7 +442,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"name", "path"};
             String[] attrValues = {accountName, domainPath};
@@ -472,7 +472,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -491,7 +491,7 @@ public class AccountService extends BaseService {
         }
         else
         {
-            lockByUuid(rmap.getUuid());
+            resJson = lockByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -502,7 +502,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject accountJson = find(uuid);
             if (accountJson == null)
@@ -528,7 +528,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -537,7 +537,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"name", "path"};
             String[] attrValues = {accountName, domainPath};
@@ -566,7 +566,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -585,7 +585,7 @@ public class AccountService extends BaseService {
         }
         else
         {
-            updateByUuid(rmap.getUuid(), account.getAccountName(), null, account.getNetworkDomain());
+            resJson = updateByUuid(rmap.getUuid(), account.getAccountName(), null, account.getNetworkDomain());
         }
 
         return (resJson != null);
@@ -596,7 +596,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject accountJson = find(uuid);
             if (accountJson == null)
@@ -629,7 +629,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -638,7 +638,7 @@ public class AccountService extends BaseService {
         this.apiInterface = new AccountInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"name", "path"};
             String[] attrValues = {accountName, domainPath};
@@ -675,7 +675,7 @@ public class AccountService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 }
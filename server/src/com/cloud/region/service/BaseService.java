@@ -8,7 +8,6 @@ import org.apache.log4j.Logger;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.StringTokenizer;
 
 public class BaseService {
@@ -85,12 +84,7 @@ public class BaseService {
 
     public static boolean hasAttribute(JSONObject jsonObject, String attributeName)
     {
-        Iterator<String> iterator = jsonObject.keys();
-        while(iterator.hasNext())
-        {
-            if (iterator.next().toString().equals(attributeName))   return true;
-        }
-        return false;
+        return jsonObject.has(attributeName);
     }
 
   public static String getAttrValue(JSONObject obj, String attrName)
@@ -231,13 +225,18 @@ public class BaseService {
     }
 
     protected JSONArray listEvents(String type, String keyword, Date startDate, Date endDate) throws Exception
+    {
+        return listEvents(type, keyword, startDate, endDate, null, null);
+    }
+
+    protected JSONArray listEvents(String type, String keyword, Date startDate, Date endDate, Integer page, Integer pageSize) throws Exception
     {
         BaseInterface apiInterface = new BaseInterface(this.url);
         try
         {
-            apiInterface.login(this.userName, this.password);
+            apiInterface.openSession(this.userName, this.password);
 
-            JSONArray eventArray = apiInterface.listEvents(type, keyword, startDate, endDate);
+            JSONArray eventArray = apiInterface.listEvents(type, keyword, startDate, endDate, page, pageSize);
             s_logger.debug("Successfully retrieved events with type[" + type + "], keyword[" + keyword + "], startDate[" + startDate + "], endDate[" + endDate + "] in host[" + this.hostName + "]");
             return eventArray;
         }
@@ -247,7 +246,7 @@ public class BaseService {
             throw ex;
         }
         finally {
-            apiInterface.logout();
+            apiInterface.closeSession();
         }
     }
 }
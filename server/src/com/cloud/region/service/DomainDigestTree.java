@@ -0,0 +1,256 @@
+package com.cloud.region.service;
+
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainDigest;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash tree over the local domain hierarchy, used by the digest anti-entropy sync between regions.
+ *
+ * Every domain has three digests : its own attributes, its content (the accounts and users directly under it), and
+ * its whole subtree. Only the names and states the sync processors compare are digested, so two converged regions
+ * have the same digests, and comparing the root tree digests is enough to verify that a whole hierarchy is in sync.
+ */
+public class DomainDigestTree {
+
+    // how long a tree built for the api is reused, a region descending the tree sends a burst of requests
+    public static final long CACHE_TTL = 30000L;
+
+    private static DomainDigestTree s_cached;
+    private static long s_cachedAt;
+
+    private final Map<Long, Node> nodes = new HashMap<Long, Node>();
+    private final Map<String, Node> pathIndex = new HashMap<String, Node>();
+
+    public static class Node implements DomainDigest {
+
+        private final DomainVO domain;
+        private final List<Node> children = new ArrayList<Node>();
+        private final List<String> contents = new ArrayList<String>();
+        private String attrDigest;
+        private String contentDigest;
+        private String treeDigest;
+
+        public Node(DomainVO domain)
+        {
+            this.domain = domain;
+        }
+
+        @Override
+        public Domain getDomain()
+        {
+            return domain;
+        }
+
+        public List<Node> getChildren()
+        {
+            return children;
+        }
+
+        @Override
+        public String getAttrDigest()
+        {
+            return attrDigest;
+        }
+
+        @Override
+        public String getContentDigest()
+        {
+            return contentDigest;
+        }
+
+        @Override
+        public String getTreeDigest()
+        {
+            return treeDigest;
+        }
+    }
+
+    private DomainDigestTree()
+    {
+    }
+
+    public static synchronized DomainDigestTree getCachedTree(DomainDao domainDao, AccountDao accountDao, UserDao userDao)
+    {
+        long now = System.currentTimeMillis();
+        if (s_cached == null || (now - s_cachedAt) > CACHE_TTL)
+        {
+            s_cached = build(domainDao, accountDao, userDao);
+            s_cachedAt = now;
+        }
+        return s_cached;
+    }
+
+    /**
+     * Builds the tree from the active domains, accounts and users, with one query each.
+     */
+    public static DomainDigestTree build(DomainDao domainDao, AccountDao accountDao, UserDao userDao)
+    {
+        DomainDigestTree tree = new DomainDigestTree();
+
+        for (DomainVO domain : domainDao.listAll())
+        {
+            // same as the domain sync processor, which skips the inactive domains
+            if (domain.getState().equals(Domain.State.Inactive))    continue;
+
+            Node node = new Node(domain);
+            tree.nodes.put(domain.getId(), node);
+            tree.pathIndex.put(domain.getPath(), node);
+        }
+
+        Node root = null;
+        for (Node node : tree.nodes.values())
+        {
+            Long parentId = node.domain.getParent();
+            Node parent = (parentId == null) ? null : tree.nodes.get(parentId);
+            if (parent != null)
+            {
+                parent.children.add(node);
+            }
+            else if (parentId == null)
+            {
+                root = node;
+            }
+        }
+
+        Map<Long, AccountVO> accounts = new HashMap<Long, AccountVO>();
+        for (AccountVO account : accountDao.listAll())
+        {
+            Node node = tree.nodes.get(account.getDomainId());
+            if (node == null)   continue;
+            // the system account is never synchronized
+            if (node.domain.getParent() == null && account.getAccountName().equals("system"))   continue;
+
+            accounts.put(account.getId(), account);
+            node.contents.add(accountLine(account.getAccountName(), account.getState().toString(), account.getNetworkDomain()));
+        }
+
+        for (UserVO user : userDao.listAll())
+        {
+            AccountVO account = accounts.get(user.getAccountId());
+            if (account == null)    continue;
+
+            Node node = tree.nodes.get(account.getDomainId());
+            node.contents.add(userLine(account.getAccountName(), user.getUsername(), user.getState().toString()));
+        }
+
+        if (root != null)
+        {
+            digest(root);
+        }
+        return tree;
+    }
+
+    private static void digest(Node node)
+    {
+        Collections.sort(node.children, new Comparator<Node>() {
+            @Override
+            public int compare(Node node1, Node node2)
+            {
+                return node1.domain.getName().compareTo(node2.domain.getName());
+            }
+        });
+
+        node.attrDigest = attrDigest(node.domain.getName(), node.domain.getNetworkDomain());
+        node.contentDigest = contentDigest(node.contents);
+        node.contents.clear();
+
+        List<String[]> children = new ArrayList<String[]>();
+        for (Node child : node.children)
+        {
+            digest(child);
+            children.add(new String[] {child.domain.getName(), child.treeDigest});
+        }
+        node.treeDigest = treeDigest(node.attrDigest, node.contentDigest, children);
+    }
+
+    /*
+     * The digest formulas, shared with the region simulator which digests its own model.
+     */
+
+    public static String accountLine(String accountName, String state, String networkDomain)
+    {
+        return "A|" + accountName + "|" + state + "|" + nullToEmpty(networkDomain);
+    }
+
+    public static String userLine(String accountName, String userName, String state)
+    {
+        return "U|" + accountName + "|" + userName + "|" + state;
+    }
+
+    public static String attrDigest(String name, String networkDomain)
+    {
+        return hash(name + "|" + nullToEmpty(networkDomain));
+    }
+
+    // sorts the given lines
+    public static String contentDigest(List<String> lines)
+    {
+        Collections.sort(lines);
+        StringBuilder contents = new StringBuilder();
+        for (String line : lines)
+        {
+            contents.append(line).append('\n');
+        }
+        return hash(contents.toString());
+    }
+
+    // the children are {name, tree digest}, sorted by name
+    public static String treeDigest(String attrDigest, String contentDigest, List<String[]> children)
+    {
+        StringBuilder tree = new StringBuilder();
+        tree.append(attrDigest).append('\n').append(contentDigest).append('\n');
+        for (String[] child : children)
+        {
+            tree.append(child[0]).append('|').append(child[1]).append('\n');
+        }
+        return hash(tree.toString());
+    }
+
+    private static String nullToEmpty(String value)
+    {
+        return (value == null) ? "" : value;
+    }
+
+    protected static String hash(String value)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = md.digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch(Exception ex)
+        {
+            throw new IllegalStateException("Failed to compute a digest", ex);
+        }
+    }
+
+    public Node find(long domainId)
+    {
+        return nodes.get(domainId);
+    }
+
+    public Node findByPath(String domainPath)
+    {
+        return pathIndex.get(domainPath);
+    }
+}
@@ -12,7 +12,12 @@ import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DomainFullSyncProcessor extends FullSyncProcessor {
 
@@ -24,6 +29,8 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
     protected List<DomainVO> localList;
     protected List<DomainVO> processedLocalList = new ArrayList<DomainVO>();
 
+    private RemovedDomainIndex removedIndex;
+
     private LocalDomainManager localDomainManager;
     private RemoteDomainEventProcessor eventProcessor;
 
@@ -34,13 +41,6 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
         this.domainDao = ComponentContext.getComponent(DomainDao.class);
 
         localParent = parentDomain;
-        localList = domainDao.findImmediateChildrenForParent(localParent.getId());
-        for(int idx = localList.size()-1; idx >= 0; idx--)
-        {
-            DomainVO domain = localList.get(idx);
-            if (!domain.getState().equals(Domain.State.Inactive))   continue;
-            localList.remove(domain);
-        }
 
         String remoteParentDomainId = null;
         DomainService domainService = new DomainService(hostName, endPoint, userName, password);
@@ -83,6 +83,32 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
         eventProcessor = new RemoteDomainEventProcessor(hostName, endPoint, userName, password);
     }
 
+    @Override
+    protected void loadLocalList()
+    {
+        localList = domainDao.findImmediateChildrenForParent(localParent.getId());
+        for(int idx = localList.size()-1; idx >= 0; idx--)
+        {
+            DomainVO domain = localList.get(idx);
+            if (!domain.getState().equals(Domain.State.Inactive))   continue;
+            localList.remove(domain);
+        }
+
+        loadRmaps(localList);
+    }
+
+    @Override
+    protected RemoteEventProcessor getEventProcessor()
+    {
+        return eventProcessor;
+    }
+
+    @Override
+    protected String getRemoteKey(JSONObject remoteJson)
+    {
+        return RemoteIndex.domainKey(BaseService.getAttrValue(remoteJson, "path"));
+    }
+
     private void syncAttributes(DomainVO domain, JSONObject remoteJson) throws Exception
     {
         try
@@ -112,11 +138,7 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
 
     protected void expungeProcessedLocals()
     {
-        for (DomainVO domain : processedLocalList)
-        {
-            if (!localList.contains(domain))    continue;
-            localList.remove(domain);
-        }
+        expungeProcessed(localList, processedLocalList);
     }
 
     protected boolean compare(Object object, JSONObject jsonObject) throws Exception
@@ -141,34 +163,7 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
     public JSONObject findRemote(Object object)
     {
         DomainVO domain = (DomainVO)object;
-        String localPath = domain.getPath();
-
-        RmapVO rmap = rmapDao.findBySource(domain.getUuid(), region.getId());
-
-        for (JSONObject jsonObject : remoteList)
-        {
-            String remotePath = BaseService.getAttrValue(jsonObject, "path");
-            String remoteUuid = BaseService.getAttrValue(jsonObject, "id");
-
-            if (rmap == null)
-            {
-                if (!BaseService.compareDomainPath(localPath, remotePath))  continue;
-            }
-            else
-            {
-                if(!rmap.getUuid().equals(remoteUuid))    continue;
-            }
-
-            if (rmap == null)
-            {
-                rmap = new RmapVO(domain.getUuid(), region.getId(), remoteUuid);
-                rmapDao.create(rmap);
-            }
-
-            return jsonObject;
-        }
-
-        return null;
+        return findRemote(domain.getUuid(), RemoteIndex.domainKey(domain.getPath()));
     }
 
     protected boolean synchronize(DomainVO domain) throws Exception
@@ -264,32 +259,13 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
             return false;
         }
 
-        DomainVO removedDomain = null;
-        for (DomainVO domain : domainDao.listAllIncludingRemoved())
+        String remoteKey = RemoteIndex.domainKey(remotePath);
+        if (getRemovedIndex().invalidKeys.contains(remoteKey))
         {
-            Date removed = domain.getRemoved();
-            if (removed == null)    continue;
-
-            if (!BaseService.compareDomainPath(domain.getPath(), remotePath))  continue;
-
-            if (removedDomain == null)
-            {
-                removedDomain = domain;
-            }
-            else
-            {
-                Date currentCreated = domain.getCreated();
-                if (currentCreated == null)
-                {
-                    s_logger.error("Can't synchronizeUsingRemoved because one of the removed domain has null created");
-                    return false;
-                }
-                else if (currentCreated.after(removedDomain.getCreated()))
-                {
-                    removedDomain = domain;
-                }
-            }
+            s_logger.error("Can't synchronizeUsingRemoved because one of the removed domain has null created");
+            return false;
         }
+        DomainVO removedDomain = getRemovedIndex().latest.get(remoteKey);
 
         Date removed = null;
         if (removedDomain != null)
@@ -342,41 +318,60 @@ public class DomainFullSyncProcessor extends FullSyncProcessor {
     {
         DomainFullSyncProcessor domainProcessor = (DomainFullSyncProcessor)syncProcessor;
 
-        for(int idx = localList.size()-1; idx >= 0; idx--)
+        Set<Long> processedIds = new HashSet<Long>();
+        for(DomainVO processed : domainProcessor.processedLocalList)
         {
-            DomainVO domain = localList.get(idx);
-            for(DomainVO processed : domainProcessor.processedLocalList)
-            {
-                if (domain.getId() != processed.getId())  continue;
+            processedIds.add(processed.getId());
+        }
 
-                // move this domain to the processed list
-                processedLocalList.add(domain);
-                localList.remove(domain);
-                break;
-            }
+        for(Iterator<DomainVO> it = localList.iterator(); it.hasNext(); )
+        {
+            DomainVO domain = it.next();
+            if (!processedIds.contains(domain.getId()))  continue;
+
+            // move this domain to the processed list
+            processedLocalList.add(domain);
+            it.remove();
         }
     }
 
     @Override
     public void arrangeRemoteResourcesToBeCreated(FullSyncProcessor syncProcessor)
     {
-        DomainFullSyncProcessor domainProcessor = (DomainFullSyncProcessor)syncProcessor;
+        arrangeRemoteResources(syncProcessor);
+    }
 
-        for(int idx = remoteList.size()-1; idx >= 0; idx--)
+    private RemovedDomainIndex getRemovedIndex()
+    {
+        if (removedIndex != null)   return removedIndex;
+
+        // index the latest removed domain of every path once, instead of listing all the domains for every remote
+        removedIndex = new RemovedDomainIndex();
+        for (DomainVO domain : domainDao.listAllIncludingRemoved())
         {
-            JSONObject remoteJson = remoteList.get(idx);
-            String path = BaseService.getAttrValue(remoteJson, "path");
+            if (domain.getRemoved() == null)    continue;
 
-            for(JSONObject processed : domainProcessor.processedRemoteList)
+            String key = RemoteIndex.domainKey(domain.getPath());
+            DomainVO removedDomain = removedIndex.latest.get(key);
+            if (removedDomain == null)
             {
-                String processedPath = BaseService.getAttrValue(processed, "path");
-                if (!path.equals(processedPath))  continue;
-
-                // move this domain to the processed list
-                processedRemoteList.add(remoteJson);
-                remoteList.remove(remoteJson);
-                break;
+                removedIndex.latest.put(key, domain);
+            }
+            else if (domain.getCreated() == null)
+            {
+                removedIndex.invalidKeys.add(key);
+            }
+            else if (domain.getCreated().after(removedDomain.getCreated()))
+            {
+                removedIndex.latest.put(key, domain);
             }
         }
+        return removedIndex;
+    }
+
+    private static class RemovedDomainIndex
+    {
+        private final Map<String, DomainVO> latest = new HashMap<String, DomainVO>();
+        private final Set<String> invalidKeys = new HashSet<String>();
     }
 }
@@ -113,7 +113,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             String[] attrNames = {"path"};
             String[] attrValues = {domainPath};
             JSONObject domainJson = find(attrNames, attrValues);
@@ -126,7 +126,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -135,7 +135,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONArray domainArray = this.apiInterface.listDomains(true);
             s_logger.debug("Successfully found domain list");
             return domainArray;
@@ -146,7 +146,7 @@ public class DomainService extends BaseService {
             return new JSONArray();
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -155,7 +155,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONObject domainJson = find(uuid);
             s_logger.debug("Successfully found a domain[" + uuid + "]");
             return domainJson;
@@ -166,7 +166,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -175,7 +175,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONObject domainJson = this.apiInterface.findDomain(level, name, path);
             s_logger.debug("Successfully found a domain[" + name + "] in level[" + level + "]");
             return domainJson;
@@ -186,7 +186,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -195,7 +195,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONArray domainArray = this.apiInterface.listChildDomains(parentDomainId, isRecursive);
             s_logger.debug("Successfully found domain list");
             return domainArray;
@@ -206,7 +206,24 @@ public class DomainService extends BaseService {
             return new JSONArray();
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
+        }
+    }
+
+    /**
+     * Returns the digests of the given remote domain (the root domain if null), followed by the digests of its children.
+     * Unlike the list methods, a failure is thrown so that the caller can fall back to a full scan.
+     */
+    public JSONArray listDigests(String domainId) throws Exception
+    {
+        this.apiInterface = new DomainInterface(this.url);
+        try
+        {
+            this.apiInterface.openSession(this.userName, this.password);
+            return this.apiInterface.listDomainDigests(domainId);
+        }
+        finally {
+            this.apiInterface.closeSession();
         }
     }
 
@@ -227,7 +244,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the domain already exists
             String[] attrNames = {"name", "path"};
@@ -265,7 +282,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -284,7 +301,7 @@ public class DomainService extends BaseService {
         }
         else
         {
-            deleteByUuid(rmap.getUuid());
+            resJson = deleteByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -295,7 +312,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the domain already exists
             JSONObject domainJson = find(uuid);
@@ -316,7 +333,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -325,7 +342,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the domain already exists
             String[] attrNames = {"name", "path"};
@@ -349,7 +366,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -370,7 +387,7 @@ public class DomainService extends BaseService {
         }
         else
         {
-            updateByUuid(rmap.getUuid(), domain.getName(), domain.getNetworkDomain());
+            resJson = updateByUuid(rmap.getUuid(), domain.getName(), domain.getNetworkDomain());
         }
 
         return (resJson != null);
@@ -381,7 +398,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject domainJson = find(uuid);
             if (domainJson == null)
@@ -406,7 +423,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -415,7 +432,7 @@ public class DomainService extends BaseService {
         this.apiInterface = new DomainInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"name", "path"};
             String[] attrValues = {domainName, domainPath};
@@ -443,7 +460,7 @@ public class DomainService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 }
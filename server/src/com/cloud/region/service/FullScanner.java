@@ -5,18 +5,40 @@ import com.cloud.domain.DomainVO;
 import com.cloud.domain.dao.DomainDao;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.region.RegionVO;
 import org.apache.cloudstack.region.dao.RegionDao;
 import org.apache.log4j.Logger;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Scans the whole domain tree and synchronizes domains, accounts and users with all the remote regions.
+ *
+ * The scan fans out in two dimensions :
+ *   - sibling subtrees are scanned in parallel by a bounded pool of subtree workers
+ *   - for every domain, the remote resources of all the regions are fetched in parallel, each region having its own
+ *     bounded pool so that a slow region does not consume the concurrency of the other regions
+ *
+ * Once the remote resources of all the regions are fetched, the processors are applied to the local region one after
+ * another in the region order, followed by the pairwise arrangement, so the local changes are deterministic.
+ */
 public class FullScanner {
 
     private static final Logger s_logger = Logger.getLogger(FullScanner.class);
 
+    public static final int DEFAULT_SUBTREE_WORKERS = 4;
+    public static final int DEFAULT_REGION_CONCURRENCY = 2;
+
     @Inject
     protected DomainDao domainDao;
     @Inject
@@ -24,15 +46,43 @@ public class FullScanner {
     @Inject
     protected RegionDao regionDao;
 
-    private List<RegionVO> regions;
+    protected List<RegionVO> regions;
+    protected RegionSyncPartitioner partitioner;
+
+    private int subtreeWorkers;
+    private int regionConcurrency;
+
+    private ExecutorService subtreeExecutor;
+    private RemoteEventCache eventCache;
+    private Map<Integer, ExecutorService> regionExecutors;
+
+    private final Object pendingLock = new Object();
+    private int pendingSubtrees;
+    private int failedSubtrees;
 
     public FullScanner()
+    {
+        this(DEFAULT_SUBTREE_WORKERS, DEFAULT_REGION_CONCURRENCY);
+    }
+
+    public FullScanner(int subtreeWorkers, int regionConcurrency)
     {
         this.domainDao = ComponentContext.getComponent(DomainDao.class);
         this.accountDao = ComponentContext.getComponent(AccountDao.class);
         this.regionDao = ComponentContext.getComponent(RegionDao.class);
 
         this.regions = null;
+
+        this.subtreeWorkers = (subtreeWorkers > 0) ? subtreeWorkers : DEFAULT_SUBTREE_WORKERS;
+        this.regionConcurrency = (regionConcurrency > 0) ? regionConcurrency : DEFAULT_REGION_CONCURRENCY;
+    }
+
+    /**
+     * Restricts the scans to the partitions this management server owns, null to scan everything.
+     */
+    public void setPartitioner(RegionSyncPartitioner partitioner)
+    {
+        this.partitioner = partitioner;
     }
 
     protected List<RegionVO> findRemoteRegions()
@@ -57,84 +107,238 @@ public class FullScanner {
 
     public void fullScan()
     {
-        this.regions = findRemoteRegions();
-
-        fullDomainScan();
+        scanTree();
     }
 
-    protected void fullDomainScan()
+    /**
+     * Scans the whole domain tree with all the remote regions, returns false if any subtree couldn't be synchronized.
+     */
+    protected boolean scanTree()
     {
+        this.regions = findRemoteRegions();
+
         List<DomainVO> localList = new ArrayList<DomainVO>();
         DomainVO root = domainDao.findDomainByPath("/");
         localList.add(root);
-        fullDomainScan(localList);
+        return scanOwned(localList, true);
+    }
+
+    /**
+     * Same as scanDomains(), but only for the domains in the partitions owned by this management server.
+     * A recursive scan of the root is split into the root itself, which is owned by the coordinator, and the
+     * subtrees of the first level domains, each scanned by its owner.
+     */
+    protected boolean scanOwned(List<DomainVO> domains, boolean recursive)
+    {
+        if (partitioner == null || partitioner.ownsAll())
+        {
+            return scanDomains(domains, recursive);
+        }
+
+        List<DomainVO> roots = new ArrayList<DomainVO>();
+        List<DomainVO> subtrees = new ArrayList<DomainVO>();
+        for (DomainVO domain : domains)
+        {
+            if (domain.getParent() == null && recursive)
+            {
+                if (partitioner.isCoordinator())    roots.add(domain);
+                for (DomainVO child : domainDao.findImmediateChildrenForParent(domain.getId()))
+                {
+                    if (partitioner.isOwner(child.getPath()))   subtrees.add(child);
+                }
+                continue;
+            }
+
+            if (partitioner.isOwner(domain.getPath()))
+            {
+                if (recursive)  subtrees.add(domain);
+                else            roots.add(domain);
+            }
+        }
+
+        s_logger.info("Scanning the owned partitions : " + roots.size() + " domains and " + subtrees.size() + " subtrees");
+        boolean synced = scanDomains(roots, false);
+        return scanDomains(subtrees, true) && synced;
+    }
+
+    /**
+     * Synchronizes the given domains with the regions found by the last findRemoteRegions(), and also their whole
+     * subtrees if recursive.
+     * Returns false if any of them couldn't be synchronized, then the changes of the remote regions may be left.
+     */
+    protected boolean scanDomains(List<DomainVO> domains, boolean recursive)
+    {
+        if (domains.isEmpty())  return true;
+
+        synchronized (pendingLock)
+        {
+            failedSubtrees = 0;
+        }
+
+        eventCache = new RemoteEventCache();
+        subtreeExecutor = Executors.newFixedThreadPool(subtreeWorkers, new NamedThreadFactory("FullScanner-Subtree"));
+        regionExecutors = new HashMap<Integer, ExecutorService>();
+        for (RegionVO region : regions)
+        {
+            regionExecutors.put(region.getId(), Executors.newFixedThreadPool(regionConcurrency, new NamedThreadFactory("FullScanner-" + region.getName())));
+        }
+
+        try
+        {
+            fullDomainScan(domains, recursive);
+            return awaitSubtrees() == 0;
+        }
+        catch(InterruptedException ex)
+        {
+            s_logger.warn("Full scan has been interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            subtreeExecutor.shutdownNow();
+            for (ExecutorService executor : regionExecutors.values())
+            {
+                executor.shutdownNow();
+            }
+        }
     }
 
-    protected void fullDomainScan(List<DomainVO> localList)
+    protected void fullDomainScan(List<DomainVO> localList, boolean recursive)
     {
         for(DomainVO domain : localList)
         {
             if (domain.getState().equals(Domain.State.Inactive))    continue;
 
-            try
+            synchronized (pendingLock)
             {
-                fullDomainScan(domain);
-                fullAccountScan(domain);
-                fullUserScan(domain);
+                pendingSubtrees++;
             }
-            catch(Exception ex)
+            subtreeExecutor.submit(new SubtreeScanTask(domain, recursive));
+        }
+    }
+
+    private void subtreeDone(boolean synced)
+    {
+        synchronized (pendingLock)
+        {
+            if (!synced)    failedSubtrees++;
+            pendingSubtrees--;
+            if (pendingSubtrees == 0)   pendingLock.notifyAll();
+        }
+    }
+
+    // returns the number of subtrees that failed
+    private int awaitSubtrees() throws InterruptedException
+    {
+        synchronized (pendingLock)
+        {
+            while (pendingSubtrees > 0)
             {
-                s_logger.error("Failed to full sync : " + ex.toString());
-                continue;
+                pendingLock.wait();
             }
+            return failedSubtrees;
+        }
+    }
 
-            // recursive call
-            List<DomainVO> childrenList = domainDao.findImmediateChildrenForParent(domain.getId());
-            fullDomainScan(childrenList);
+    protected void fullDomainScan(final DomainVO domain) throws Exception
+    {
+        List<RegionFetchTask> tasks = new ArrayList<RegionFetchTask>();
+        for (RegionVO region : regions)
+        {
+            tasks.add(new RegionFetchTask(region) {
+                @Override
+                protected FullSyncProcessor createProcessor() throws Exception
+                {
+                    return new DomainFullSyncProcessor(region, domain);
+                }
+            });
         }
+
+        reconcile(fetch(tasks));
     }
 
-    protected void fullDomainScan(DomainVO domain) throws Exception
+    protected void fullAccountScan(final DomainVO domain) throws Exception
     {
-        List<DomainFullSyncProcessor> syncProcessors = new ArrayList<DomainFullSyncProcessor>();
+        List<RegionFetchTask> tasks = new ArrayList<RegionFetchTask>();
+        for (RegionVO region : regions)
+        {
+            tasks.add(new RegionFetchTask(region) {
+                @Override
+                protected FullSyncProcessor createProcessor() throws Exception
+                {
+                    return new AccountFullSyncProcessor(region, domain);
+                }
+            });
+        }
 
+        reconcile(fetch(tasks));
+    }
+
+    protected void fullUserScan(final DomainVO domain) throws Exception
+    {
+        List<RegionFetchTask> tasks = new ArrayList<RegionFetchTask>();
         for (RegionVO region : regions)
         {
-            DomainFullSyncProcessor syncProcessor = new DomainFullSyncProcessor(region, domain);
-            syncProcessor.synchronize();
+            tasks.add(new RegionFetchTask(region) {
+                @Override
+                protected FullSyncProcessor createProcessor() throws Exception
+                {
+                    return new UserFullSyncProcessor(region, domain);
+                }
+            });
+        }
+
+        reconcile(fetch(tasks));
+    }
 
-            syncProcessors.add(syncProcessor);
+    protected List<FullSyncProcessor> fetch(List<RegionFetchTask> tasks) throws Exception
+    {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (RegionFetchTask task : tasks)
+        {
+            futures.add(regionExecutors.get(task.region.getId()).submit(task));
         }
 
-        // arrange the left & processed resources
-        for(int idx = 0; idx < syncProcessors.size() - 1; idx++)
+        Exception failure = null;
+        List<FullSyncProcessor> syncProcessors = new ArrayList<FullSyncProcessor>();
+        for (int idx = 0; idx < tasks.size(); idx++)
         {
-            DomainFullSyncProcessor first = syncProcessors.get(idx);
-            DomainFullSyncProcessor second = syncProcessors.get(idx+1);
-            first.arrangeLocalResourcesToBeRemoved(second);
-            second.arrangeLocalResourcesToBeRemoved(first);
-            first.arrangeRemoteResourcesToBeCreated(second);
-            second.arrangeRemoteResourcesToBeCreated(first);
+            RegionFetchTask task = tasks.get(idx);
+            try
+            {
+                futures.get(idx).get();
+            }
+            catch(ExecutionException ex)
+            {
+                task.error = new Exception(ex.getCause());
+            }
+
+            if (task.error != null)
+            {
+                if (failure == null)    failure = task.error;
+                continue;
+            }
+            syncProcessors.add(task.processor);
         }
+
+        if (failure != null)    throw failure;
+        return syncProcessors;
     }
 
-    protected void fullAccountScan(DomainVO domain) throws Exception
+    protected void reconcile(List<FullSyncProcessor> syncProcessors)
     {
-        List<AccountFullSyncProcessor> syncProcessors = new ArrayList<AccountFullSyncProcessor>();
-
-        for (RegionVO region : regions)
+        // apply the remote resources to the local region in the region order
+        for (FullSyncProcessor syncProcessor : syncProcessors)
         {
-            AccountFullSyncProcessor syncProcessor = new AccountFullSyncProcessor(region, domain);
             syncProcessor.synchronize();
-
-            syncProcessors.add(syncProcessor);
         }
 
         // arrange the left & processed resources
         for(int idx = 0; idx < syncProcessors.size() - 1; idx++)
         {
-            AccountFullSyncProcessor first = syncProcessors.get(idx);
-            AccountFullSyncProcessor second = syncProcessors.get(idx+1);
+            FullSyncProcessor first = syncProcessors.get(idx);
+            FullSyncProcessor second = syncProcessors.get(idx+1);
             first.arrangeLocalResourcesToBeRemoved(second);
             second.arrangeLocalResourcesToBeRemoved(first);
             first.arrangeRemoteResourcesToBeCreated(second);
@@ -142,27 +346,71 @@ public class FullScanner {
         }
     }
 
-    protected void fullUserScan(DomainVO domain) throws Exception
+    protected abstract class RegionFetchTask extends ManagedContextRunnable
     {
-        List<UserFullSyncProcessor> syncProcessors = new ArrayList<UserFullSyncProcessor>();
+        protected final RegionVO region;
+        protected FullSyncProcessor processor;
+        protected Exception error;
 
-        for (RegionVO region : regions)
+        public RegionFetchTask(RegionVO region)
         {
-            UserFullSyncProcessor syncProcessor = new UserFullSyncProcessor(region, domain);
-            syncProcessor.synchronize();
+            this.region = region;
+        }
+
+        abstract protected FullSyncProcessor createProcessor() throws Exception;
 
-            syncProcessors.add(syncProcessor);
+        @Override
+        protected void runInContext()
+        {
+            try
+            {
+                processor = createProcessor();
+                processor.setEventCache(eventCache);
+            }
+            catch(Exception ex)
+            {
+                error = ex;
+            }
         }
+    }
 
-        // arrange the left & processed resources
-        for(int idx = 0; idx < syncProcessors.size() - 1; idx++)
+    protected class SubtreeScanTask extends ManagedContextRunnable
+    {
+        private final DomainVO domain;
+        private final boolean recursive;
+
+        public SubtreeScanTask(DomainVO domain, boolean recursive)
         {
-            UserFullSyncProcessor first = syncProcessors.get(idx);
-            UserFullSyncProcessor second = syncProcessors.get(idx+1);
-            first.arrangeLocalResourcesToBeRemoved(second);
-            second.arrangeLocalResourcesToBeRemoved(first);
-            first.arrangeRemoteResourcesToBeCreated(second);
-            second.arrangeRemoteResourcesToBeCreated(first);
+            this.domain = domain;
+            this.recursive = recursive;
+        }
+
+        @Override
+        protected void runInContext()
+        {
+            boolean synced = false;
+            try
+            {
+                fullDomainScan(domain);
+                fullAccountScan(domain);
+                fullUserScan(domain);
+
+                if (recursive)
+                {
+                    // the children are scanned independently of their siblings
+                    List<DomainVO> childrenList = domainDao.findImmediateChildrenForParent(domain.getId());
+                    fullDomainScan(childrenList, true);
+                }
+                synced = true;
+            }
+            catch(Exception ex)
+            {
+                s_logger.error("Failed to full sync : " + ex.toString());
+            }
+            finally
+            {
+                subtreeDone(synced);
+            }
         }
     }
-}
\ No newline at end of file
+}
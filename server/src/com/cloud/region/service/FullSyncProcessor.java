@@ -1,14 +1,24 @@
 package com.cloud.region.service;
 
 import com.amazonaws.util.json.JSONObject;
+import com.cloud.rmap.RmapVO;
 import com.cloud.rmap.dao.RmapDao;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.component.ComponentContext;
+import org.apache.cloudstack.api.Identity;
+import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.region.RegionVO;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 public abstract class FullSyncProcessor {
@@ -23,6 +33,9 @@ public abstract class FullSyncProcessor {
     protected List<JSONObject> remoteList;
     protected List<JSONObject> processedRemoteList = new ArrayList<JSONObject>();
 
+    protected RemoteIndex remoteIndex;
+    protected Map<String, RmapVO> rmapIndex = new HashMap<String, RmapVO>();
+
     protected RmapDao rmapDao;
 
     public FullSyncProcessor(RegionVO region)
@@ -61,13 +74,113 @@ public abstract class FullSyncProcessor {
 
     protected void expungeProcessedRemotes()
     {
-        for (JSONObject remoteJson : processedRemoteList)
+        Set<JSONObject> processed = Collections.newSetFromMap(new IdentityHashMap<JSONObject, Boolean>());
+        processed.addAll(processedRemoteList);
+
+        for (Iterator<JSONObject> it = remoteList.iterator(); it.hasNext(); )
         {
-            if (!remoteList.contains(remoteJson))    continue;
-            remoteList.remove(remoteJson);
+            if (processed.contains(it.next()))  it.remove();
         }
     }
 
+    protected static void expungeProcessed(List<? extends InternalIdentity> list, List<? extends InternalIdentity> processedList)
+    {
+        Set<Long> processedIds = new HashSet<Long>();
+        for (InternalIdentity processed : processedList)
+        {
+            processedIds.add(processed.getId());
+        }
+
+        for (Iterator<? extends InternalIdentity> it = list.iterator(); it.hasNext(); )
+        {
+            if (processedIds.contains(it.next().getId()))  it.remove();
+        }
+    }
+
+    protected void indexRemotes()
+    {
+        remoteIndex = new RemoteIndex();
+        for (JSONObject remoteJson : remoteList)
+        {
+            remoteIndex.add(BaseService.getAttrValue(remoteJson, "id"), getRemoteKey(remoteJson), remoteJson);
+        }
+    }
+
+    protected void loadRmaps(List<? extends Identity> locals)
+    {
+        List<String> sources = new ArrayList<String>();
+        for (Identity local : locals)
+        {
+            sources.add(local.getUuid());
+        }
+
+        rmapIndex = new HashMap<String, RmapVO>();
+        if (sources.isEmpty())  return;
+        for (RmapVO rmap : rmapDao.listBySources(sources, region.getId()))
+        {
+            rmapIndex.put(rmap.getSource(), rmap);
+        }
+    }
+
+    protected JSONObject findRemote(String localUuid, String localKey)
+    {
+        RmapVO rmap = rmapIndex.get(localUuid);
+        if (rmap != null)
+        {
+            return remoteIndex.findByUuid(rmap.getUuid());
+        }
+
+        JSONObject jsonObject = remoteIndex.findByKey(localKey);
+        if (jsonObject == null) return null;
+
+        rmap = new RmapVO(localUuid, region.getId(), BaseService.getAttrValue(jsonObject, "id"));
+        rmapDao.create(rmap);
+        rmapIndex.put(localUuid, rmap);
+
+        return jsonObject;
+    }
+
+    protected Set<String> getProcessedRemoteKeys()
+    {
+        Set<String> keys = new HashSet<String>();
+        for (JSONObject processed : processedRemoteList)
+        {
+            String key = getRemoteKey(processed);
+            if (key != null)    keys.add(key);
+        }
+        return keys;
+    }
+
+    protected void arrangeRemoteResources(FullSyncProcessor syncProcessor)
+    {
+        Set<String> processedKeys = syncProcessor.getProcessedRemoteKeys();
+
+        for (Iterator<JSONObject> it = remoteList.iterator(); it.hasNext(); )
+        {
+            JSONObject remoteJson = it.next();
+            if (!processedKeys.contains(getRemoteKey(remoteJson)))  continue;
+
+            // move this remote to the processed list
+            processedRemoteList.add(remoteJson);
+            it.remove();
+        }
+    }
+
+    abstract protected String getRemoteKey(JSONObject remoteJson);
+
+    abstract protected RemoteEventProcessor getEventProcessor();
+
+    public void setEventCache(RemoteEventCache eventCache)
+    {
+        getEventProcessor().setEventCache(eventCache, region.getId());
+    }
+
+    /**
+     * Loads the local resources under the parent domain. This is deferred to synchronize() so that a processor
+     * whose remote list has been fetched ahead of time still sees the local changes made by the processors of
+     * the other regions that were synchronized before it.
+     */
+    abstract protected void loadLocalList();
     abstract protected void synchronizeByLocal();
     abstract protected void synchronizeByRemote();
 
@@ -76,6 +189,9 @@ public abstract class FullSyncProcessor {
 
     public void synchronize()
     {
+        loadLocalList();
+        indexRemotes();
+
         synchronizeByLocal();
 
         synchronizeByRemote();
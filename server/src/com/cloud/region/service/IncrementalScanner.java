@@ -0,0 +1,455 @@
+package com.cloud.region.service;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.cloud.domain.DomainVO;
+import com.cloud.region.RegionWatermarkVO;
+import com.cloud.region.dao.RegionWatermarkDao;
+import com.cloud.user.dao.UserDao;
+import com.cloud.utils.component.ComponentContext;
+import org.apache.cloudstack.region.RegionVO;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Synchronizes only the domains changed in the remote regions since the last sync.
+ *
+ * Every remote region has a high-water mark : the creation date and the uuid of the last remote event processed.
+ * An incremental scan lists the remote domain/account/user events since the mark, and synchronizes only the local
+ * domains those events belong to. When a changed domain doesn't exist locally yet, its nearest local ancestor is
+ * synchronized with its whole subtree.
+ *
+ * Local changes are pushed to the remote regions by the event subscribers, so they are not scanned here.
+ * A full scan is still run periodically as an anti-entropy pass, and whenever a region has no mark yet.
+ *
+ * The anti-entropy pass can be a digest scan instead : the local and remote domain hash trees (see DomainDigestTree)
+ * are compared from the root down, and only the domains whose digests differ are synchronized. A converged region
+ * is verified with a single request.
+ *
+ * With a partitioner (see RegionSyncPartitioner), every management server runs the anti-entropy pass over the
+ * partitions it owns, and only the coordinator runs the incremental scans and moves the marks.
+ */
+public class IncrementalScanner extends FullScanner {
+
+    private static final Logger s_logger = Logger.getLogger(IncrementalScanner.class);
+
+    // remote clocks may be a little off the local clock, so the mark set after a full scan is moved back a bit
+    public static final long CLOCK_SKEW_MARGIN = 300000L;
+
+    protected RegionWatermarkDao watermarkDao;
+    protected UserDao userDao;
+
+    public IncrementalScanner()
+    {
+        this(DEFAULT_SUBTREE_WORKERS, DEFAULT_REGION_CONCURRENCY);
+    }
+
+    public IncrementalScanner(int subtreeWorkers, int regionConcurrency)
+    {
+        super(subtreeWorkers, regionConcurrency);
+
+        this.watermarkDao = ComponentContext.getComponent(RegionWatermarkDao.class);
+        this.userDao = ComponentContext.getComponent(UserDao.class);
+    }
+
+    protected RegionWatermarkVO getWatermark(RegionVO region)
+    {
+        RegionWatermarkVO watermark = watermarkDao.findByRegion(region.getId());
+        if (watermark == null)
+        {
+            watermark = watermarkDao.persist(new RegionWatermarkVO(region.getId()));
+        }
+        return watermark;
+    }
+
+    /**
+     * Returns true if any remote region has never been fully scanned, or not within the given interval.
+     */
+    public boolean isFullScanDue(long fullScanInterval)
+    {
+        // the marks are shared by the cluster, so every node tracks its own pass over the partitions it owns
+        if (partitioner != null && !partitioner.ownsAll())  return partitioner.isAntiEntropyDue(fullScanInterval);
+
+        long now = System.currentTimeMillis();
+        for (RegionVO region : findRemoteRegions())
+        {
+            RegionWatermarkVO watermark = watermarkDao.findByRegion(region.getId());
+            if (watermark == null || watermark.getLastEventCreated() == null || watermark.getLastFullScan() == null)   return true;
+            if (fullScanInterval > 0 && (now - watermark.getLastFullScan().getTime()) >= fullScanInterval)  return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void fullScan()
+    {
+        Date started = new Date(System.currentTimeMillis() - CLOCK_SKEW_MARGIN);
+        long generation = (partitioner == null) ? 0 : partitioner.getGeneration();
+
+        if (scanTree())
+        {
+            markFullScan(regions, true, started, generation);
+        }
+        else
+        {
+            // a failed subtree is synchronized with none of the regions, so they are all scanned again
+            s_logger.warn("Full scan failed for some domains, the sync marks are kept");
+            markFullScan(new ArrayList<RegionVO>(), false, started, generation);
+        }
+    }
+
+    // everything before the full scan has been synchronized with the given regions, the pass is repeated if incomplete
+    protected void markFullScan(List<RegionVO> syncedRegions, boolean complete, Date started, long generation)
+    {
+        if (partitioner != null)
+        {
+            if (complete)   partitioner.antiEntropyDone(generation);
+            // only the partitions of this node have been scanned, the marks are kept by the coordinator
+            if (!partitioner.ownsAll()) return;
+        }
+
+        for (RegionVO region : syncedRegions)
+        {
+            RegionWatermarkVO watermark = getWatermark(region);
+            watermark.setLastEventCreated(started);
+            watermark.setLastEventUuid(null);
+            watermark.setLastFullScan(new Date());
+            watermarkDao.update(watermark.getId(), watermark);
+        }
+    }
+
+    /**
+     * Anti-entropy pass equivalent to a full scan, which synchronizes only the domains whose digests differ from the
+     * remote regions. A region whose digests can't be listed is fully scanned.
+     */
+    public void digestScan()
+    {
+        Date started = new Date(System.currentTimeMillis() - CLOCK_SKEW_MARGIN);
+        long generation = (partitioner == null) ? 0 : partitioner.getGeneration();
+        List<RegionVO> remoteRegions = findRemoteRegions();
+        DomainDigestTree localTree = DomainDigestTree.build(domainDao, accountDao, userDao);
+
+        Set<String> changedPaths = new LinkedHashSet<String>();
+        Set<String> subtreePaths = new LinkedHashSet<String>();
+        List<RegionVO> outOfSync = new ArrayList<RegionVO>();
+        for (RegionVO region : remoteRegions)
+        {
+            Set<String> regionChanged = new LinkedHashSet<String>();
+            Set<String> regionSubtrees = new LinkedHashSet<String>();
+            try
+            {
+                DomainService domainService = new DomainService(region);
+                int requests = compareDigests(domainService, localTree, regionChanged, regionSubtrees);
+                s_logger.debug("Region[" + region.getName() + "] digests compared with " + requests + " requests, changed domains " + regionChanged + ", changed subtrees " + regionSubtrees);
+            }
+            catch(Exception ex)
+            {
+                s_logger.error("Failed to compare the digests of region[" + region.getName() + "], it will be fully scanned", ex);
+                regionChanged.clear();
+                regionSubtrees.clear();
+                regionSubtrees.add("/");
+            }
+
+            if (regionChanged.isEmpty() && regionSubtrees.isEmpty())    continue;
+            outOfSync.add(region);
+            changedPaths.addAll(regionChanged);
+            subtreePaths.addAll(regionSubtrees);
+        }
+
+        if (!outOfSync.isEmpty())
+        {
+            this.regions = outOfSync;
+
+            List<DomainVO> subtrees = new ArrayList<DomainVO>();
+            for (String path : subtreePaths)
+            {
+                if (isUnder(path, subtreePaths))    continue;
+                DomainVO domain = domainDao.findDomainByPath(path);
+                if (domain != null) subtrees.add(domain);
+            }
+            List<DomainVO> changedDomains = new ArrayList<DomainVO>();
+            for (String path : changedPaths)
+            {
+                if (subtreePaths.contains(path) || isUnder(path, subtreePaths))    continue;
+                DomainVO domain = domainDao.findDomainByPath(path);
+                if (domain != null) changedDomains.add(domain);
+            }
+
+            boolean synced = scanOwned(changedDomains, false);
+            synced = scanOwned(subtrees, true) && synced;
+            if (!synced)
+            {
+                // the regions in sync are still verified, the others are compared again by the next pass
+                s_logger.warn("Digest scan failed for some domains, the sync marks of the regions out of sync are kept");
+                List<RegionVO> inSync = new ArrayList<RegionVO>(remoteRegions);
+                inSync.removeAll(outOfSync);
+                markFullScan(inSync, false, started, generation);
+                return;
+            }
+        }
+
+        markFullScan(remoteRegions, true, started, generation);
+    }
+
+    /**
+     * Descends the local and remote hash trees from the root, only into the subtrees whose digests differ.
+     * A domain is added to changedPaths when its accounts/users or the attributes of its children differ, and to
+     * subtreePaths when its children don't match, so that the missing domains are synchronized with their subtrees.
+     * Returns the number of requests sent to the remote region.
+     */
+    protected static int compareDigests(DomainService domainService, DomainDigestTree localTree, Set<String> changedPaths, Set<String> subtreePaths) throws Exception
+    {
+        int requests = 0;
+
+        // local domain path -> remote domain id, the remote root is the default domain of the region user
+        LinkedList<String[]> pending = new LinkedList<String[]>();
+        pending.add(new String[] {"/", null});
+        while (!pending.isEmpty())
+        {
+            String[] next = pending.removeFirst();
+            String path = next[0];
+            DomainDigestTree.Node local = localTree.findByPath(path);
+            if (local == null)  continue;
+
+            JSONArray remoteDigests = domainService.listDigests(next[1]);
+            requests++;
+            if (remoteDigests.length() == 0)
+            {
+                subtreePaths.add(path);
+                continue;
+            }
+
+            JSONObject remote = remoteDigests.getJSONObject(0);
+            if (local.getTreeDigest().equals(BaseService.getAttrValue(remote, "treedigest")))    continue;
+
+            Map<String, JSONObject> remoteChildren = new HashMap<String, JSONObject>();
+            for (int idx = 1; idx < remoteDigests.length(); idx++)
+            {
+                JSONObject remoteChild = remoteDigests.getJSONObject(idx);
+                remoteChildren.put(BaseService.getAttrValue(remoteChild, "name"), remoteChild);
+            }
+
+            // a domain missing on either side is created/removed by the domain sync of the parent
+            boolean sameChildren = (remoteChildren.size() == local.getChildren().size());
+            for (DomainDigestTree.Node child : local.getChildren())
+            {
+                if (!remoteChildren.containsKey(child.getDomain().getName()))  sameChildren = false;
+            }
+            if (!sameChildren)
+            {
+                subtreePaths.add(path);
+                continue;
+            }
+
+            boolean changed = !local.getContentDigest().equals(BaseService.getAttrValue(remote, "contentdigest"));
+            for (DomainDigestTree.Node child : local.getChildren())
+            {
+                JSONObject remoteChild = remoteChildren.get(child.getDomain().getName());
+
+                // the attributes of a domain are synchronized by the domain sync of its parent
+                if (!child.getAttrDigest().equals(BaseService.getAttrValue(remoteChild, "attrdigest")))    changed = true;
+                if (!child.getTreeDigest().equals(BaseService.getAttrValue(remoteChild, "treedigest")))
+                {
+                    pending.add(new String[] {child.getDomain().getPath(), BaseService.getAttrValue(remoteChild, "id")});
+                }
+            }
+            if (changed)    changedPaths.add(path);
+        }
+
+        return requests;
+    }
+
+    // true if the path is strictly under one of the given paths
+    private static boolean isUnder(String path, Set<String> parentPaths)
+    {
+        for (String parentPath : parentPaths)
+        {
+            if (!path.equals(parentPath) && path.startsWith(parentPath))   return true;
+        }
+        return false;
+    }
+
+    public void incrementalScan()
+    {
+        if (partitioner != null && !partitioner.isCoordinator())    return;
+
+        Set<String> changedPaths = new LinkedHashSet<String>();
+        Map<RegionVO, RegionWatermarkVO> newWatermarks = new LinkedHashMap<RegionVO, RegionWatermarkVO>();
+        for (RegionVO region : findRemoteRegions())
+        {
+            RegionWatermarkVO watermark = getWatermark(region);
+            if (watermark.getLastEventCreated() == null && partitioner != null && !partitioner.ownsAll())
+            {
+                // the partitioned anti-entropy passes don't set the marks, so the earlier changes are left to them
+                watermark.setLastEventCreated(new Date(System.currentTimeMillis() - CLOCK_SKEW_MARGIN));
+                watermarkDao.update(watermark.getId(), watermark);
+                s_logger.info("Region[" + region.getName() + "] has no sync mark yet, it starts from " + watermark.getLastEventCreated());
+            }
+            if (watermark.getLastEventCreated() == null)
+            {
+                s_logger.info("Region[" + region.getName() + "] has no sync mark yet, it will be synchronized by the next full scan");
+                continue;
+            }
+
+            try
+            {
+                BaseService baseService = new BaseService(region.getName(), region.getEndPoint(), region.getUserName(), region.getPassword());
+                JSONArray events = listEventsSince(baseService, watermark.getLastEventCreated());
+                collectChanges(events, watermark, changedPaths);
+                newWatermarks.put(region, watermark);
+            }
+            catch(Exception ex)
+            {
+                s_logger.error("Failed to list the events of region[" + region.getName() + "] since " + watermark.getLastEventCreated(), ex);
+            }
+        }
+
+        // a region whose events couldn't be listed is left to the next scan, so it doesn't fail the others
+        this.regions = new ArrayList<RegionVO>(newWatermarks.keySet());
+
+        if (!changedPaths.isEmpty())
+        {
+            s_logger.debug("Incremental scan of the changed domains " + changedPaths);
+
+            List<DomainVO> changedDomains = new ArrayList<DomainVO>();
+            List<DomainVO> missingSubtrees = new ArrayList<DomainVO>();
+            resolveLocalDomains(changedPaths, changedDomains, missingSubtrees);
+
+            // a failed subtree is synchronized with none of the regions, so the marks stay for the events to be retried
+            boolean synced = scanDomains(changedDomains, false);
+            synced = scanDomains(missingSubtrees, true) && synced;
+            if (!synced)
+            {
+                s_logger.warn("Incremental scan of the changed domains " + changedPaths + " failed, the sync marks are kept");
+                return;
+            }
+        }
+
+        for (RegionWatermarkVO watermark : newWatermarks.values())
+        {
+            watermarkDao.update(watermark.getId(), watermark);
+        }
+    }
+
+    /**
+     * Lists all the completed events of the remote region since the given date, page by page, newest first.
+     */
+    protected static JSONArray listEventsSince(BaseService baseService, Date startDate) throws Exception
+    {
+        JSONArray allEvents = new JSONArray();
+        int page = 1;
+        while (true)
+        {
+            JSONArray events = baseService.listEvents(null, "completed", startDate, null, page, RemoteEventProcessor.EVENT_PAGE_SIZE);
+            if (events == null) break;
+
+            for (int idx = 0; idx < events.length(); idx++)
+            {
+                allEvents.put(events.get(idx));
+            }
+
+            if (events.length() < RemoteEventProcessor.EVENT_PAGE_SIZE)  break;
+            page++;
+        }
+        return allEvents;
+    }
+
+    /**
+     * Adds the domain paths changed by the given events to changedPaths, and moves the watermark to the latest event.
+     */
+    protected void collectChanges(JSONArray events, RegionWatermarkVO watermark, Set<String> changedPaths) throws Exception
+    {
+        if (events == null) return;
+
+        Date markCreated = watermark.getLastEventCreated();
+        String markUuid = watermark.getLastEventUuid();
+
+        for (int idx = 0; idx < events.length(); idx++)
+        {
+            JSONObject eventJson = events.getJSONObject(idx);
+            String eventUuid = BaseService.getAttrValue(eventJson, "id");
+            String eventType = BaseService.getAttrValue(eventJson, "type");
+            Date created = BaseService.parseDateStr(BaseService.getAttrValue(eventJson, "created"));
+            if (eventType == null || created == null)   continue;
+
+            // skip the events already processed by the last scan
+            if (created.before(markCreated))   continue;
+            if (created.equals(markCreated) && eventUuid != null && eventUuid.equals(markUuid))    continue;
+
+            if (watermark.getLastEventCreated() == null || created.after(watermark.getLastEventCreated()))
+            {
+                watermark.setLastEventCreated(created);
+                watermark.setLastEventUuid(eventUuid);
+            }
+
+            String domainPath = BaseService.getAttrValue(BaseService.parseEventDescription(eventJson), "Domain Path");
+            if (domainPath == null) continue;
+            domainPath = BaseService.modifyDomainPath(domainPath);
+
+            if (eventType.startsWith("DOMAIN."))
+            {
+                // a domain is synchronized by the sync processors of its parent
+                String parentPath = getParentPath(domainPath);
+                changedPaths.add(parentPath == null ? domainPath : parentPath);
+            }
+            else if (eventType.startsWith("ACCOUNT.") || eventType.startsWith("USER."))
+            {
+                changedPaths.add(domainPath);
+            }
+        }
+    }
+
+    protected void resolveLocalDomains(Set<String> changedPaths, List<DomainVO> changedDomains, List<DomainVO> missingSubtrees)
+    {
+        Map<Long, DomainVO> changed = new LinkedHashMap<Long, DomainVO>();
+        Map<Long, DomainVO> missing = new LinkedHashMap<Long, DomainVO>();
+
+        for (String path : changedPaths)
+        {
+            DomainVO domain = domainDao.findDomainByPath(path);
+            if (domain != null)
+            {
+                changed.put(domain.getId(), domain);
+                continue;
+            }
+
+            // the changed domain doesn't exist locally yet, so synchronize the subtree of its nearest local ancestor
+            String parentPath = getParentPath(path);
+            while (parentPath != null)
+            {
+                domain = domainDao.findDomainByPath(parentPath);
+                if (domain != null)
+                {
+                    missing.put(domain.getId(), domain);
+                    break;
+                }
+                parentPath = getParentPath(parentPath);
+            }
+        }
+
+        for (Long id : missing.keySet())
+        {
+            changed.remove(id);
+        }
+        changedDomains.addAll(changed.values());
+        missingSubtrees.addAll(missing.values());
+    }
+
+    // '/a/b/' -> '/a/', '/' -> null
+    protected static String getParentPath(String domainPath)
+    {
+        if (domainPath == null || domainPath.equals("/"))   return null;
+
+        String path = domainPath.substring(0, domainPath.length()-1);
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+}
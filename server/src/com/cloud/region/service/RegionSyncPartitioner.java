@@ -0,0 +1,178 @@
+package com.cloud.region.service;
+
+import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ManagementServerHost;
+import com.cloud.cluster.ManagementServerHostVO;
+import com.cloud.cluster.dao.ManagementServerHostDao;
+import org.apache.log4j.Logger;
+
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Shards the region sync work across the live management servers of the cluster.
+ *
+ * The domain tree is partitioned by the first level domains : the subtree of '/a/' (and everything under it) is
+ * one partition, and the domains directly under the root are another one, with the key '/'.
+ * Partitions are assigned to the management servers by consistent hashing, so that a node joining or leaving only
+ * moves the partitions it owns or takes over. The owner of the root partition is the coordinator, which also runs
+ * the incremental scans.
+ *
+ * Every membership change bumps the generation, so that every node runs an anti-entropy pass over the partitions
+ * it may have just taken over.
+ */
+public class RegionSyncPartitioner implements ClusterManagerListener {
+
+    private static final Logger s_logger = Logger.getLogger(RegionSyncPartitioner.class);
+
+    public static final String ROOT_PARTITION = "/";
+    public static final int VIRTUAL_NODES = 64;
+
+    private final long selfMsId;
+    private final ManagementServerHostDao msHostDao;
+
+    private volatile SortedMap<Long, Long> ring = new TreeMap<Long, Long>();
+    private volatile int nodeCount;
+    private volatile long generation;
+
+    private long antiEntropyGeneration = -1;
+    private long lastAntiEntropy;
+
+    public RegionSyncPartitioner(long selfMsId, ManagementServerHostDao msHostDao)
+    {
+        this.selfMsId = selfMsId;
+        this.msHostDao = msHostDao;
+    }
+
+    /**
+     * Reloads the management servers which are up.
+     */
+    public void refresh()
+    {
+        TreeSet<Long> msIds = new TreeSet<Long>();
+        for (ManagementServerHostVO msHost : msHostDao.listBy(ManagementServerHost.State.Up))
+        {
+            msIds.add(msHost.getMsid());
+        }
+        setNodes(msIds);
+    }
+
+    public synchronized void setNodes(Collection<Long> msIds)
+    {
+        TreeSet<Long> nodes = new TreeSet<Long>(msIds);
+        // this node keeps syncing even if its own heartbeat is late
+        nodes.add(selfMsId);
+
+        SortedMap<Long, Long> newRing = new TreeMap<Long, Long>();
+        for (Long msId : nodes)
+        {
+            for (int idx = 0; idx < VIRTUAL_NODES; idx++)
+            {
+                newRing.put(hash(msId + "#" + idx), msId);
+            }
+        }
+
+        ring = newRing;
+        nodeCount = nodes.size();
+        generation++;
+        s_logger.info("Region sync partitions are assigned to management servers " + nodes + ", generation " + generation);
+    }
+
+    // '/a/b/c/' -> '/a/', '/' -> '/'
+    public static String getPartitionKey(String domainPath)
+    {
+        if (domainPath == null || domainPath.equals(ROOT_PARTITION))   return ROOT_PARTITION;
+
+        int end = domainPath.indexOf('/', 1);
+        return (end < 0) ? domainPath : domainPath.substring(0, end + 1);
+    }
+
+    public long getOwner(String partitionKey)
+    {
+        SortedMap<Long, Long> current = ring;
+        if (current.isEmpty())  return selfMsId;
+
+        SortedMap<Long, Long> tail = current.tailMap(hash(partitionKey));
+        return tail.isEmpty() ? current.get(current.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    public boolean isOwner(String domainPath)
+    {
+        return getOwner(getPartitionKey(domainPath)) == selfMsId;
+    }
+
+    public boolean isCoordinator()
+    {
+        return isOwner(ROOT_PARTITION);
+    }
+
+    /**
+     * Returns true if this node is the only one, and so owns every partition.
+     */
+    public boolean ownsAll()
+    {
+        return nodeCount <= 1;
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns true if the partitions may have moved since the last anti-entropy pass of this node, or if the pass
+     * is older than the given interval.
+     */
+    public synchronized boolean isAntiEntropyDue(long interval)
+    {
+        if (antiEntropyGeneration != generation)    return true;
+        return interval > 0 && (System.currentTimeMillis() - lastAntiEntropy) >= interval;
+    }
+
+    public synchronized void antiEntropyDone(long startedGeneration)
+    {
+        antiEntropyGeneration = startedGeneration;
+        lastAntiEntropy = System.currentTimeMillis();
+    }
+
+    protected static long hash(String key)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            long hash = 0;
+            for (int idx = 0; idx < 8; idx++)
+            {
+                hash = (hash << 8) | (digest[idx] & 0xFF);
+            }
+            return hash;
+        }
+        catch(Exception ex)
+        {
+            throw new IllegalStateException("Failed to hash " + key, ex);
+        }
+    }
+
+    @Override
+    public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId)
+    {
+        refresh();
+    }
+
+    @Override
+    public void onManagementNodeLeft(List<? extends ManagementServerHost> nodeList, long selfNodeId)
+    {
+        refresh();
+    }
+
+    @Override
+    public void onManagementNodeIsolated()
+    {
+        // an isolated node fences itself, its partitions are taken over when the other nodes see it leave
+        s_logger.warn("Management server is isolated from the cluster, keeping the region sync partitions of generation " + generation);
+    }
+}
@@ -1,12 +1,13 @@
 package com.cloud.region.service;
 
-import com.amazonaws.util.json.JSONArray;
 import com.amazonaws.util.json.JSONObject;
 import com.cloud.domain.DomainVO;
 import com.cloud.domain.dao.DomainDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.component.ComponentContext;
 
+import java.util.Date;
+
 public class RemoteAccountEventProcessor extends RemoteEventProcessor {
 
     public RemoteAccountEventProcessor(String hostName, String endPoint, String userName, String password)
@@ -17,31 +18,38 @@ public class RemoteAccountEventProcessor extends RemoteEventProcessor {
         this.password = password;
     }
 
-    public JSONObject findLatestRemoteRemoveEvent(Object object) throws Exception
+    public static String accountKey(String domainPath, String accountName)
     {
-        DomainDao domainDao = ComponentContext.getComponent(DomainDao.class);
-        AccountVO account = (AccountVO)object;
-        DomainVO domain = domainDao.findById(account.getDomainId());
-
-        JSONArray events = listEvents(account.getCreated(), "ACCOUNT.DELETE");
-        if (events == null) return null;
+        if (domainPath == null || accountName == null)  return null;
+        return RemoteIndex.domainKey(domainPath) + "|" + accountName;
+    }
 
-        JSONObject latest = null;
-        for(int idx = 0; idx < events.length(); idx++)
-        {
-            JSONObject eventJSON = events.getJSONObject(idx);
-            JSONObject jsonObject = BaseService.parseEventDescription(eventJSON);
-            String eventAccountName = BaseService.getAttrValue(jsonObject, "Account Name");
-            String eventDomainPath = BaseService.getAttrValue(jsonObject, "Domain Path");
+    @Override
+    public String getRemoveEventType()
+    {
+        return "ACCOUNT.DELETE";
+    }
 
-            if (eventAccountName == null)    continue;
-            if (eventDomainPath == null)    continue;
-            if (!BaseService.compareDomainPath(eventDomainPath, domain.getPath()))    continue;
-            if (!eventAccountName.equals(account.getAccountName()))    continue;
+    @Override
+    protected String getEventKey(JSONObject description)
+    {
+        String eventAccountName = BaseService.getAttrValue(description, "Account Name");
+        String eventDomainPath = BaseService.getAttrValue(description, "Domain Path");
+        return accountKey(eventDomainPath, eventAccountName);
+    }
 
-            latest = getLatestEvent(latest, eventJSON);
-        }
+    @Override
+    protected String getObjectKey(Object object)
+    {
+        DomainDao domainDao = ComponentContext.getComponent(DomainDao.class);
+        AccountVO account = (AccountVO)object;
+        DomainVO domain = domainDao.findById(account.getDomainId());
+        return accountKey(domain.getPath(), account.getAccountName());
+    }
 
-        return latest;
+    @Override
+    protected Date getCreated(Object object)
+    {
+        return ((AccountVO)object).getCreated();
     }
 }
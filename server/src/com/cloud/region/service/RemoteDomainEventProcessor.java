@@ -1,9 +1,10 @@
 package com.cloud.region.service;
 
-import com.amazonaws.util.json.JSONArray;
 import com.amazonaws.util.json.JSONObject;
 import com.cloud.domain.DomainVO;
 
+import java.util.Date;
+
 public class RemoteDomainEventProcessor extends RemoteEventProcessor {
 
     public RemoteDomainEventProcessor(String hostName, String endPoint, String userName, String password)
@@ -14,26 +15,28 @@ public class RemoteDomainEventProcessor extends RemoteEventProcessor {
         this.password = password;
     }
 
-    public JSONObject findLatestRemoteRemoveEvent(Object object) throws Exception
+    @Override
+    public String getRemoveEventType()
     {
-        DomainVO domain = (DomainVO)object;
-
-        JSONArray events = listEvents(domain.getCreated(), "DOMAIN.DELETE");
-        if (events == null) return null;
-
-        JSONObject latest = null;
-        for(int idx = 0; idx < events.length(); idx++)
-        {
-            JSONObject eventJSON = events.getJSONObject(idx);
-            JSONObject jsonObject = BaseService.parseEventDescription(eventJSON);
-            String eventDomainPath = BaseService.getAttrValue(jsonObject, "Domain Path");
+        return "DOMAIN.DELETE";
+    }
 
-            if (eventDomainPath == null)  continue;
-            if (!eventDomainPath.equals(domain.getPath()))    continue;
+    @Override
+    protected String getEventKey(JSONObject description)
+    {
+        return RemoteIndex.domainKey(BaseService.getAttrValue(description, "Domain Path"));
+    }
 
-            latest = getLatestEvent(latest, eventJSON);
-        }
+    @Override
+    protected String getObjectKey(Object object)
+    {
+        DomainVO domain = (DomainVO)object;
+        return RemoteIndex.domainKey(domain.getPath());
+    }
 
-        return latest;
+    @Override
+    protected Date getCreated(Object object)
+    {
+        return ((DomainVO)object).getCreated();
     }
 }
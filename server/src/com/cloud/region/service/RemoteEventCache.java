@@ -0,0 +1,43 @@
+package com.cloud.region.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remote event indexes of one scan, so that the events of a region and type are fetched once per scan
+ * instead of once per local object that could not be matched.
+ */
+public class RemoteEventCache {
+
+    private final Map<String, Holder> holders = new HashMap<String, Holder>();
+
+    private static class Holder {
+        private RemoteEventIndex index;
+    }
+
+    public RemoteEventIndex getIndex(long regionId, RemoteEventProcessor eventProcessor) throws Exception
+    {
+        String key = regionId + "/" + eventProcessor.getRemoveEventType();
+
+        Holder holder;
+        synchronized (holders)
+        {
+            holder = holders.get(key);
+            if (holder == null)
+            {
+                holder = new Holder();
+                holders.put(key, holder);
+            }
+        }
+
+        // the indexes of different regions and types are loaded concurrently
+        synchronized (holder)
+        {
+            if (holder.index == null)
+            {
+                holder.index = eventProcessor.buildIndex(null);
+            }
+            return holder.index;
+        }
+    }
+}
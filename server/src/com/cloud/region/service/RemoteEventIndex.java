@@ -0,0 +1,52 @@
+package com.cloud.region.service;
+
+import com.amazonaws.util.json.JSONObject;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of the remote events of one type, keyed by the entity the event is about
+ * (the domain path, the account name in its domain, or the user name in its account).
+ * Only the latest event of every entity is kept.
+ */
+public class RemoteEventIndex {
+
+    private final Map<String, JSONObject> latestEvents = new HashMap<String, JSONObject>();
+    private int eventCount = 0;
+
+    public void add(String key, JSONObject eventJson, RemoteEventProcessor eventProcessor)
+    {
+        eventCount++;
+        if (key == null)    return;
+
+        JSONObject latest = eventProcessor.getLatestEvent(latestEvents.get(key), eventJson);
+        if (latest == null)
+        {
+            latestEvents.remove(key);
+            return;
+        }
+        latestEvents.put(key, latest);
+    }
+
+    /**
+     * Returns the latest event of the entity, if it was created at or after the given date.
+     */
+    public JSONObject findLatest(String key, Date since)
+    {
+        if (key == null)    return null;
+
+        JSONObject latest = latestEvents.get(key);
+        if (latest == null || since == null)    return latest;
+
+        Date created = BaseService.parseDateStr(BaseService.getAttrValue(latest, "created"));
+        if (created == null || created.before(since))  return null;
+        return latest;
+    }
+
+    public int getEventCount()
+    {
+        return eventCount;
+    }
+}
@@ -2,25 +2,61 @@ package com.cloud.region.service;
 
 import com.amazonaws.util.json.JSONArray;
 import com.amazonaws.util.json.JSONObject;
+import org.apache.log4j.Logger;
 
 import java.util.Date;
 
 public abstract class RemoteEventProcessor {
 
+    private static final Logger s_logger = Logger.getLogger(RemoteEventProcessor.class);
+
+    public static final int EVENT_PAGE_SIZE = 500;
+
     protected String hostName;
     protected String endPoint;
     protected String userName;
     protected String password;
 
+    protected RemoteEventCache eventCache;
+    protected long regionId;
+
     public RemoteEventProcessor()
     {
 
     }
 
-    protected JSONArray listEvents(Date created, String eventType) throws Exception
+    public void setEventCache(RemoteEventCache eventCache, long regionId)
+    {
+        this.eventCache = eventCache;
+        this.regionId = regionId;
+    }
+
+    /**
+     * Fetches the remove events since the given date page by page, and indexes them as they are fetched.
+     */
+    public RemoteEventIndex buildIndex(Date startDate) throws Exception
     {
         BaseService baseService = new BaseService(hostName, endPoint, userName, password);
-        return baseService.listEvents(eventType, "completed", created, null);
+        RemoteEventIndex index = new RemoteEventIndex();
+
+        int page = 1;
+        while (true)
+        {
+            JSONArray events = baseService.listEvents(getRemoveEventType(), "completed", startDate, null, page, EVENT_PAGE_SIZE);
+            if (events == null) break;
+
+            for(int idx = 0; idx < events.length(); idx++)
+            {
+                JSONObject eventJSON = events.getJSONObject(idx);
+                index.add(getEventKey(BaseService.parseEventDescription(eventJSON)), eventJSON, this);
+            }
+
+            if (events.length() < EVENT_PAGE_SIZE)  break;
+            page++;
+        }
+
+        s_logger.debug("Indexed " + index.getEventCount() + " " + getRemoveEventType() + " events of host[" + hostName + "]");
+        return index;
     }
 
     protected JSONObject getLatestEvent(JSONObject object1, JSONObject object2)
@@ -41,5 +77,21 @@ public abstract class RemoteEventProcessor {
         return object1;
     }
 
-    abstract public JSONObject findLatestRemoteRemoveEvent(Object object) throws Exception;
+    public JSONObject findLatestRemoteRemoveEvent(Object object) throws Exception
+    {
+        Date created = getCreated(object);
+
+        // without a scan wide cache, only the events since the object creation are fetched
+        RemoteEventIndex index = (eventCache != null) ? eventCache.getIndex(regionId, this) : buildIndex(created);
+        return index.findLatest(getObjectKey(object), created);
+    }
+
+    abstract public String getRemoveEventType();
+
+    // the key of the entity described by the parsed event description, or null if it doesn't describe one
+    abstract protected String getEventKey(JSONObject description);
+
+    abstract protected String getObjectKey(Object object);
+
+    abstract protected Date getCreated(Object object);
 }
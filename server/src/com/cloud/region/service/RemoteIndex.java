@@ -0,0 +1,66 @@
+package com.cloud.region.service;
+
+import com.amazonaws.util.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash index over the remote resources of a sync processor.
+ * Remote resources are indexed by their uuid and by a natural key (path for domains, name for accounts,
+ * account name and user name for users), so matching a local resource doesn't scan the whole remote list.
+ * When several remote resources share a key, the first one added wins, as the linear scan used to do.
+ */
+public class RemoteIndex {
+
+    private final Map<String, JSONObject> uuidIndex = new HashMap<String, JSONObject>();
+    private final Map<String, JSONObject> keyIndex = new HashMap<String, JSONObject>();
+
+    public static String domainKey(String domainPath)
+    {
+        if (domainPath == null) return null;
+
+        // same normalization as BaseService.compareDomainPath()
+        String key = domainPath.replace("ROOT", "");
+        if (key.endsWith("/"))
+        {
+            key = key.substring(0, key.length()-1);
+        }
+        return key;
+    }
+
+    public static String userKey(String accountName, String userName)
+    {
+        if (accountName == null || userName == null)    return null;
+        return accountName + "/" + userName;
+    }
+
+    public void add(String uuid, String key, JSONObject remoteJson)
+    {
+        if (uuid != null && !uuidIndex.containsKey(uuid))
+        {
+            uuidIndex.put(uuid, remoteJson);
+        }
+        if (key != null && !keyIndex.containsKey(key))
+        {
+            keyIndex.put(key, remoteJson);
+        }
+    }
+
+    public JSONObject findByUuid(String uuid)
+    {
+        if (uuid == null)   return null;
+        return uuidIndex.get(uuid);
+    }
+
+    public JSONObject findByKey(String key)
+    {
+        if (key == null)    return null;
+        return keyIndex.get(key);
+    }
+
+    public int size()
+    {
+        return uuidIndex.size();
+    }
+}
@@ -1,6 +1,5 @@
 package com.cloud.region.service;
 
-import com.amazonaws.util.json.JSONArray;
 import com.amazonaws.util.json.JSONObject;
 import com.cloud.domain.DomainVO;
 import com.cloud.domain.dao.DomainDao;
@@ -9,6 +8,8 @@ import com.cloud.user.UserVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.utils.component.ComponentContext;
 
+import java.util.Date;
+
 public class RemoteUserEventProcessor extends RemoteEventProcessor {
 
     public RemoteUserEventProcessor(String hostName, String endPoint, String userName, String password)
@@ -19,36 +20,42 @@ public class RemoteUserEventProcessor extends RemoteEventProcessor {
         this.password = password;
     }
 
-    public JSONObject findLatestRemoteRemoveEvent(Object object) throws Exception
+    public static String userKey(String domainPath, String accountName, String userName)
+    {
+        String accountKey = RemoteAccountEventProcessor.accountKey(domainPath, accountName);
+        if (accountKey == null || userName == null)  return null;
+        return accountKey + "|" + userName;
+    }
+
+    @Override
+    public String getRemoveEventType()
+    {
+        return "USER.DELETE";
+    }
+
+    @Override
+    protected String getEventKey(JSONObject description)
+    {
+        String eventUserName = BaseService.getAttrValue(description, "User Name");
+        String eventAccountName = BaseService.getAttrValue(description, "Account Name");
+        String eventDomainPath = BaseService.getAttrValue(description, "Domain Path");
+        return userKey(eventDomainPath, eventAccountName, eventUserName);
+    }
+
+    @Override
+    protected String getObjectKey(Object object)
     {
         DomainDao domainDao = ComponentContext.getComponent(DomainDao.class);
         AccountDao accountDao = ComponentContext.getComponent(AccountDao.class);
         UserVO user = (UserVO)object;
         AccountVO account = accountDao.findById(user.getAccountId());
         DomainVO domain = domainDao.findById(account.getDomainId());
+        return userKey(domain.getPath(), account.getAccountName(), user.getUsername());
+    }
 
-        JSONArray events = listEvents(user.getCreated(), "USER.DELETE");
-        if (events == null) return null;
-
-        JSONObject latest = null;
-        for(int idx = 0; idx < events.length(); idx++)
-        {
-            JSONObject eventJSON = events.getJSONObject(idx);
-            JSONObject jsonObject = BaseService.parseEventDescription(eventJSON);
-            String eventUserName = BaseService.getAttrValue(jsonObject, "User Name");
-            String eventAccountName = BaseService.getAttrValue(jsonObject, "Account Name");
-            String eventDomainPath = BaseService.getAttrValue(jsonObject, "Domain Path");
-
-            if (eventUserName == null)    continue;
-            if (eventAccountName == null)    continue;
-            if (eventDomainPath == null)    continue;
-            if (!BaseService.compareDomainPath(eventDomainPath, domain.getPath()))    continue;
-            if (!eventAccountName.equals(account.getAccountName()))    continue;
-            if (!eventUserName.equals(user.getUsername()))    continue;
-
-            latest = getLatestEvent(latest, eventJSON);
-        }
-
-        return latest;
+    @Override
+    protected Date getCreated(Object object)
+    {
+        return ((UserVO)object).getCreated();
     }
 }
@@ -16,7 +16,12 @@ import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class UserFullSyncProcessor extends FullSyncProcessor {
 
@@ -32,9 +37,15 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
     protected List<UserVO> processedLocalList = new ArrayList<UserVO>();
 
     protected List<AccountVO> localAccountList;
+    protected Map<Long, AccountVO> localAccountIndex;
 
     protected JSONObject remoteParentDomain;
     protected List<JSONObject> remoteAccountList;
+    protected Map<String, JSONObject> remoteAccountIndex;
+
+    private UserVO latestRemoved;
+    private boolean latestRemovedLoaded = false;
+    private boolean latestRemovedValid = true;
 
     private LocalUserManager localUserManager;
     private RemoteUserEventProcessor eventProcessor;
@@ -48,13 +59,6 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
         this.domainDao = ComponentContext.getComponent(DomainDao.class);
 
         localParentDomain = parentDomain;
-        localAccountList = accountDao.findActiveAccountsForDomain(localParentDomain.getId());
-        localList = new ArrayList<UserVO>();
-        for (AccountVO account : localAccountList)
-        {
-            if (localParentDomain.getName().equals("ROOT") && account.getAccountName().equals("system"))   continue;
-            localList.addAll(userDao.listByAccount(account.getId()));
-        }
 
         String remoteParentDomainId = null;
         DomainService domainService = new DomainService(hostName, endPoint, userName, password);
@@ -75,11 +79,19 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
         AccountService accountService = new AccountService(hostName, endPoint, userName, password);
         JSONArray remoteAccounts = accountService.list(remoteParentDomainId);
         remoteAccountList = new ArrayList<JSONObject>();
+        remoteAccountIndex = new HashMap<String, JSONObject>();
         for(int idx = 0; idx < remoteAccounts.length(); idx++)
         {
             try
             {
-                remoteAccountList.add(remoteAccounts.getJSONObject(idx));
+                JSONObject accountJson = remoteAccounts.getJSONObject(idx);
+                remoteAccountList.add(accountJson);
+
+                String name = BaseService.getAttrValue(accountJson, "name");
+                if (name != null && !remoteAccountIndex.containsKey(name))
+                {
+                    remoteAccountIndex.put(name, accountJson);
+                }
             }
             catch(Exception ex)
             {
@@ -105,25 +117,50 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
         eventProcessor = new RemoteUserEventProcessor(hostName, endPoint, userName, password);
     }
 
-    private AccountVO getAccount(UserVO user)
+    @Override
+    protected void loadLocalList()
     {
+        localAccountList = accountDao.findActiveAccountsForDomain(localParentDomain.getId());
+        localList = new ArrayList<UserVO>();
         for (AccountVO account : localAccountList)
         {
-            if (account.getId() == user.getAccountId()) return account;
+            if (localParentDomain.getName().equals("ROOT") && account.getAccountName().equals("system"))   continue;
+            localList.addAll(userDao.listByAccount(account.getId()));
         }
-        return null;
+
+        localAccountIndex = new HashMap<Long, AccountVO>();
+        for (AccountVO account : localAccountList)
+        {
+            localAccountIndex.put(account.getId(), account);
+        }
+
+        loadRmaps(localList);
+    }
+
+    @Override
+    protected RemoteEventProcessor getEventProcessor()
+    {
+        return eventProcessor;
+    }
+
+    @Override
+    protected String getRemoteKey(JSONObject remoteJson)
+    {
+        JSONObject accountJson = getAccount(remoteJson);
+        if (accountJson == null)    return null;
+        return RemoteIndex.userKey(BaseService.getAttrValue(accountJson, "name"), BaseService.getAttrValue(remoteJson, "username"));
+    }
+
+    private AccountVO getAccount(UserVO user)
+    {
+        return localAccountIndex.get(user.getAccountId());
     }
 
     private JSONObject getAccount(JSONObject userJson)
     {
         String accountName = BaseService.getAttrValue(userJson, "account");
-
-        for (JSONObject accountJson : remoteAccountList)
-        {
-            String name = BaseService.getAttrValue(accountJson, "name");
-            if (name.equals(accountName)) return accountJson;
-        }
-        return null;
+        if (accountName == null)    return null;
+        return remoteAccountIndex.get(accountName);
     }
 
     private void syncAttributes(UserVO user, JSONObject remoteJson) throws Exception
@@ -155,11 +192,7 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
 
     protected void expungeProcessedLocals()
     {
-        for (UserVO user : processedLocalList)
-        {
-            if (!localList.contains(user))    continue;
-            localList.remove(user);
-        }
+        expungeProcessed(localList, processedLocalList);
     }
 
     protected boolean compare(Object object, JSONObject jsonObject) throws Exception
@@ -184,36 +217,8 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
     {
         UserVO user = (UserVO)object;
         AccountVO account = getAccount(user);
-
-        RmapVO rmap = rmapDao.findBySource(user.getUuid(), region.getId());
-
-        for (JSONObject jsonObject : remoteList)
-        {
-            JSONObject accountJson = getAccount(jsonObject);
-            String accountName = BaseService.getAttrValue(accountJson, "name");
-            String remoteName = BaseService.getAttrValue(jsonObject, "username");
-            String remoteUuid = BaseService.getAttrValue(jsonObject, "id");
-
-            if (rmap == null)
-            {
-                if (!account.getAccountName().equals(accountName))  continue;
-                if (!user.getUsername().equals(remoteName))  continue;
-            }
-            else
-            {
-                if(!rmap.getUuid().equals(remoteUuid))    continue;
-            }
-
-            if (rmap == null)
-            {
-                rmap = new RmapVO(user.getUuid(), region.getId(), remoteUuid);
-                rmapDao.create(rmap);
-            }
-
-            return jsonObject;
-        }
-
-        return null;
+        String localKey = (account == null) ? null : RemoteIndex.userKey(account.getAccountName(), user.getUsername());
+        return findRemote(user.getUuid(), localKey);
     }
 
     protected boolean synchronize(UserVO user) throws Exception
@@ -310,33 +315,12 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
             return false;
         }
 
-        UserVO removedUser = null;
-        for (UserVO user : userDao.listAllIncludingRemoved())
+        if (!findLatestRemoved())
         {
-            Date removed = user.getRemoved();
-            if (removed == null)    continue;
-
-            AccountVO account = getAccount(user);
-            if (account.getDomainId() != localParentDomain.getId())  continue;
-
-            if (removedUser == null)
-            {
-                removedUser = user;
-            }
-            else
-            {
-                Date currentCreated = user.getCreated();
-                if (currentCreated == null)
-                {
-                    s_logger.error("Can't synchronizeUsingRemoved because one of the removed user has null created");
-                    return false;
-                }
-                else if (currentCreated.after(removedUser.getCreated()))
-                {
-                    removedUser = user;
-                }
-            }
+            s_logger.error("Can't synchronizeUsingRemoved because one of the removed user has null created");
+            return false;
         }
+        UserVO removedUser = latestRemoved;
 
         Date removed = null;
         if (removedUser != null)
@@ -388,41 +372,57 @@ public class UserFullSyncProcessor extends FullSyncProcessor {
     {
         UserFullSyncProcessor userProcessor = (UserFullSyncProcessor)syncProcessor;
 
-        for(int idx = localList.size()-1; idx >= 0; idx--)
+        Set<Long> processedIds = new HashSet<Long>();
+        for(UserVO processed : userProcessor.processedLocalList)
         {
-            UserVO user = localList.get(idx);
-            for(UserVO processed : userProcessor.processedLocalList)
-            {
-                if (user.getId() != processed.getId())  continue;
+            processedIds.add(processed.getId());
+        }
 
-                // move this user to the processed list
-                processedLocalList.add(user);
-                localList.remove(user);
-                break;
-            }
+        for(Iterator<UserVO> it = localList.iterator(); it.hasNext(); )
+        {
+            UserVO user = it.next();
+            if (!processedIds.contains(user.getId()))  continue;
+
+            // move this user to the processed list
+            processedLocalList.add(user);
+            it.remove();
         }
     }
 
     @Override
     public void arrangeRemoteResourcesToBeCreated(FullSyncProcessor syncProcessor)
     {
-        UserFullSyncProcessor userProcessor = (UserFullSyncProcessor)syncProcessor;
+        arrangeRemoteResources(syncProcessor);
+    }
 
-        for(int idx = remoteList.size()-1; idx >= 0; idx--)
+    // find the latest removed user of the parent domain once, instead of listing all the users for every remote
+    private boolean findLatestRemoved()
+    {
+        if (latestRemovedLoaded)    return latestRemovedValid;
+
+        latestRemovedLoaded = true;
+        latestRemovedValid = true;
+        for (UserVO user : userDao.listAllIncludingRemoved())
         {
-            JSONObject remoteJson = remoteList.get(idx);
-            String name = BaseService.getAttrValue(remoteJson, "name");
+            if (user.getRemoved() == null)    continue;
 
-            for(JSONObject processed : userProcessor.processedRemoteList)
-            {
-                String processedName = BaseService.getAttrValue(processed, "name");
-                if (!name.equals(processedName))  continue;
+            AccountVO account = getAccount(user);
+            if (account == null || account.getDomainId() != localParentDomain.getId())  continue;
 
-                // move this user to the processed list
-                processedRemoteList.add(remoteJson);
-                remoteList.remove(remoteJson);
+            if (latestRemoved == null)
+            {
+                latestRemoved = user;
+            }
+            else if (user.getCreated() == null)
+            {
+                latestRemovedValid = false;
                 break;
             }
+            else if (user.getCreated().after(latestRemoved.getCreated()))
+            {
+                latestRemoved = user;
+            }
         }
+        return latestRemovedValid;
     }
 }
@@ -129,7 +129,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             JSONArray userArray = this.apiInterface.listUsers(domainId, accountName);
             s_logger.debug("Successfully found user list");
             return userArray;
@@ -140,7 +140,7 @@ public class UserService extends BaseService {
             return new JSONArray();
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -149,7 +149,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             String[] attrNames = {"id"};
             String[] attrValues = {id};
             JSONObject userJson = find(attrNames, attrValues);
@@ -162,7 +162,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -171,7 +171,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
             String[] attrNames = {"username", "path"};
             String[] attrValues = {userName, domainPath};
             JSONObject userJson = find(attrNames, attrValues);
@@ -184,7 +184,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -205,7 +205,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the user already exists
             String[] attrNames = {"username", "account", "path"};
@@ -237,7 +237,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -256,7 +256,7 @@ public class UserService extends BaseService {
         }
         else
         {
-            deleteByUuid(rmap.getUuid());
+            resJson = deleteByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -267,7 +267,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the user already exists
             JSONObject userJson = find(uuid);
@@ -287,7 +287,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -296,7 +296,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             // check if the user already exists
             String[] attrNames = {"username", "account", "path"};
@@ -319,7 +319,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -338,7 +338,7 @@ public class UserService extends BaseService {
         }
         else
         {
-            enableByUuid(rmap.getUuid());
+            resJson = enableByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -349,7 +349,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject userJson = find(uuid);
             if (userJson == null)
@@ -375,7 +375,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -384,7 +384,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"username", "account", "path"};
             String[] attrValues = {userName, accountName, domainPath};
@@ -413,7 +413,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -432,7 +432,7 @@ public class UserService extends BaseService {
         }
         else
         {
-            disableByUuid(rmap.getUuid());
+            resJson = disableByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -443,7 +443,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject userJson = find(uuid);
             if (userJson == null)
@@ -470,7 +470,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -479,7 +479,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"username", "account", "path"};
             String[] attrValues = {userName, accountName, domainPath};
@@ -509,7 +509,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -528,7 +528,7 @@ public class UserService extends BaseService {
         }
         else
         {
-            lockByUuid(rmap.getUuid());
+            resJson = lockByUuid(rmap.getUuid());
         }
 
         return (resJson != null);
@@ -539,7 +539,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject userJson = find(uuid);
             if (userJson == null)
@@ -565,7 +565,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -574,7 +574,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"username", "account", "path"};
             String[] attrValues = {userName, accountName, domainPath};
@@ -603,7 +603,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -622,7 +622,7 @@ public class UserService extends BaseService {
         }
         else
         {
-            updateByUuid(rmap.getUuid(), user.getUsername(), user.getEmail(), user.getFirstname(), user.getLastname(), user.getPassword(), user.getTimezone(), user.getApiKey(), user.getSecretKey());
+            resJson = updateByUuid(rmap.getUuid(), user.getUsername(), user.getEmail(), user.getFirstname(), user.getLastname(), user.getPassword(), user.getTimezone(), user.getApiKey(), user.getSecretKey());
         }
 
         return (resJson != null);
@@ -633,7 +633,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             JSONObject userJson = find(uuid);
             if (userJson == null)
@@ -658,7 +658,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 
@@ -667,7 +667,7 @@ public class UserService extends BaseService {
         this.apiInterface = new UserInterface(this.url);
         try
         {
-            this.apiInterface.login(this.userName, this.password);
+            this.apiInterface.openSession(this.userName, this.password);
 
             String[] attrNames = {"username", "account", "path"};
             String[] attrValues = {userName, accountName, domainPath};
@@ -695,7 +695,7 @@ public class UserService extends BaseService {
             return null;
         }
         finally {
-            this.apiInterface.logout();
+            this.apiInterface.closeSession();
         }
     }
 }
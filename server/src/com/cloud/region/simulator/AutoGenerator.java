@@ -14,6 +14,14 @@ public class AutoGenerator {
     {
     }
 
+    public void generate(int mutations)
+    {
+        for (int idx = 0; idx < mutations; idx++)
+        {
+            generate();
+        }
+    }
+
     public void generate()
     {
         int randNumber = domainGenerator.generateRandNumber(18);
@@ -0,0 +1,485 @@
+package com.cloud.region.simulator;
+
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.region.RegionWatermarkVO;
+import com.cloud.region.dao.RegionWatermarkDao;
+import com.cloud.region.service.DomainDigestTree;
+import com.cloud.region.service.IncrementalScanner;
+import com.cloud.rmap.dao.RmapDao;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.cloudstack.region.RegionVO;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the region sync engine against in-process stand-in regions (see StandInRegion), without real peer regions.
+ *
+ * The stand-ins are seeded with a copy of the local domain tree, then mutated at the configured rate, as well as the
+ * local region through the local generators, while the scanner runs passes in the configured mode.
+ * A change is converged once the subtree it changed has the same digest in the local region and in every stand-in.
+ * The report gives the sync throughput, the p50/p99 convergence lag, the api calls per converged change and the heap.
+ *
+ * It mutates the local database, so it is only meant for a simulator management server.
+ */
+public class RegionSyncBenchmark {
+
+    private static final Logger s_logger = Logger.getLogger(RegionSyncBenchmark.class);
+
+    public static final String MODE_DIGEST = "digest";
+    public static final String MODE_INCREMENTAL = "incremental";
+    public static final String MODE_FULL = "full";
+
+    // the stand-ins are not registered in the region table, their ids are far above the real regions
+    public static final int FIRST_REGION_ID = 10000;
+    // pause between two passes, so that a converged region isn't polled in a tight loop
+    public static final long PASS_PAUSE = 100L;
+
+    private final int regionCount;
+    private final double remoteRate;
+    private final double localRate;
+    private final long duration;
+    private final long drainTimeout;
+    private final String mode;
+
+    private DomainDao domainDao;
+    private AccountDao accountDao;
+    private UserDao userDao;
+    private RmapDao rmapDao;
+    private RegionWatermarkDao watermarkDao;
+
+    private final Random random = new Random();
+    private final List<Change> pending = new ArrayList<Change>();
+    private final List<Long> lags = new ArrayList<Long>();
+
+    private List<StandInRegion> standIns = new ArrayList<StandInRegion>();
+    private List<RegionVO> regions = new ArrayList<RegionVO>();
+    private long maxHeap;
+
+    private static class Change
+    {
+        private final String path;
+        private final long time;
+
+        private Change(String path, long time)
+        {
+            this.path = path;
+            this.time = time;
+        }
+    }
+
+    public static class Report
+    {
+        public int regions;
+        public String mode;
+        public int changes;
+        public int converged;
+        public long elapsed;
+        public long apiCalls;
+        public long p50Lag;
+        public long p99Lag;
+        public long maxHeap;
+        public long heapAfterGc;
+        public Map<String, Long> apiCallsByCommand = new HashMap<String, Long>();
+
+        public double getThroughput()
+        {
+            return (elapsed == 0) ? 0 : converged * 1000.0 / elapsed;
+        }
+
+        public double getApiCallsPerChange()
+        {
+            return (converged == 0) ? 0 : (double)apiCalls / converged;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Region sync benchmark : %d stand-in regions, %s passes, %d/%d changes converged in %d ms, " +
+                    "%.2f changes/s, lag p50 %d ms p99 %d ms, %.1f api calls per change, heap max %d MB after gc %d MB, api calls %s",
+                    regions, mode, converged, changes, elapsed, getThroughput(), p50Lag, p99Lag, getApiCallsPerChange(),
+                    maxHeap >> 20, heapAfterGc >> 20, apiCallsByCommand);
+        }
+    }
+
+    /**
+     * @param remoteRate the mutations per second applied to the stand-ins
+     * @param localRate the mutations per second applied to the local region through the local generators
+     * @param duration how long the mutations are generated, in milliseconds
+     * @param drainTimeout how long to wait for the convergence of the last mutations, in milliseconds
+     */
+    public RegionSyncBenchmark(int regionCount, double remoteRate, double localRate, long duration, long drainTimeout, String mode)
+    {
+        this.regionCount = regionCount;
+        this.remoteRate = remoteRate;
+        this.localRate = localRate;
+        this.duration = duration;
+        this.drainTimeout = drainTimeout;
+        this.mode = (mode == null) ? MODE_DIGEST : mode;
+
+        this.domainDao = ComponentContext.getComponent(DomainDao.class);
+        this.accountDao = ComponentContext.getComponent(AccountDao.class);
+        this.userDao = ComponentContext.getComponent(UserDao.class);
+        this.rmapDao = ComponentContext.getComponent(RmapDao.class);
+        this.watermarkDao = ComponentContext.getComponent(RegionWatermarkDao.class);
+    }
+
+    public Report run() throws Exception
+    {
+        ScheduledExecutorService mutator = Executors.newScheduledThreadPool(1, new NamedThreadFactory("RegionSyncBenchmark"));
+        try
+        {
+            for (int idx = 0; idx < regionCount; idx++)
+            {
+                StandInRegion standIn = seed(new StandInRegion("StandIn-" + idx));
+                standIn.start();
+                standIns.add(standIn);
+
+                RegionVO region = new RegionVO(FIRST_REGION_ID + idx, standIn.getName(), standIn.getEndPoint());
+                region.setUserName("admin");
+                region.setPassword("password");
+                region.setActive(true);
+                regions.add(region);
+            }
+
+            // the first full scan maps the seeded resources, and sets the marks of the incremental scans
+            newScanner().fullScan();
+            for (StandInRegion standIn : standIns)
+            {
+                standIn.resetApiCalls();
+            }
+
+            long started = System.currentTimeMillis();
+            if (remoteRate > 0)
+            {
+                mutator.scheduleAtFixedRate(new RemoteMutation(), 0, (long)(1000000 / remoteRate), TimeUnit.MICROSECONDS);
+            }
+            if (localRate > 0)
+            {
+                mutator.scheduleAtFixedRate(new LocalMutation(), 0, (long)(1000000 / localRate), TimeUnit.MICROSECONDS);
+            }
+
+            long lastConverged = started;
+            while (true)
+            {
+                long now = System.currentTimeMillis();
+                if (now - started >= duration)  mutator.shutdown();
+                if (mutator.isShutdown() && (getPendingCount() == 0 || now - started >= duration + drainTimeout)) break;
+
+                runPass();
+                sampleHeap();
+                if (checkConvergence() > 0) lastConverged = System.currentTimeMillis();
+                Thread.sleep(PASS_PAUSE);
+            }
+
+            return buildReport(lastConverged - started);
+        }
+        finally
+        {
+            mutator.shutdownNow();
+            cleanup();
+        }
+    }
+
+    protected IncrementalScanner newScanner()
+    {
+        return new IncrementalScanner() {
+            @Override
+            protected List<RegionVO> findRemoteRegions()
+            {
+                return new ArrayList<RegionVO>(regions);
+            }
+        };
+    }
+
+    protected void runPass()
+    {
+        IncrementalScanner scanner = newScanner();
+        if (mode.equals(MODE_FULL))
+        {
+            scanner.fullScan();
+        }
+        else if (mode.equals(MODE_INCREMENTAL))
+        {
+            scanner.incrementalScan();
+        }
+        else
+        {
+            scanner.digestScan();
+        }
+    }
+
+    // copies the local active domains, accounts and users into the stand-in
+    protected StandInRegion seed(StandInRegion standIn)
+    {
+        List<DomainVO> domains = new ArrayList<DomainVO>();
+        for (DomainVO domain : domainDao.listAll())
+        {
+            if (!domain.getState().equals(Domain.State.Inactive))   domains.add(domain);
+        }
+        // the parents first
+        Collections.sort(domains, new Comparator<DomainVO>() {
+            @Override
+            public int compare(DomainVO domain1, DomainVO domain2)
+            {
+                return domain1.getPath().length() - domain2.getPath().length();
+            }
+        });
+
+        Map<Long, StandInRegion.DomainRecord> domainRecords = new HashMap<Long, StandInRegion.DomainRecord>();
+        for (DomainVO domain : domains)
+        {
+            if (domain.getParent() == null)
+            {
+                domainRecords.put(domain.getId(), standIn.getRoot());
+                continue;
+            }
+
+            StandInRegion.DomainRecord parent = domainRecords.get(domain.getParent());
+            if (parent == null) continue;
+            StandInRegion.DomainRecord record = standIn.addDomain(parent, domain.getName(), domain.getNetworkDomain(), domain.getCreated());
+            if (domain.getModified() != null)   record.modified = domain.getModified();
+            domainRecords.put(domain.getId(), record);
+        }
+
+        Map<Long, StandInRegion.AccountRecord> accountRecords = new HashMap<Long, StandInRegion.AccountRecord>();
+        for (AccountVO account : accountDao.listAll())
+        {
+            StandInRegion.DomainRecord domain = domainRecords.get(account.getDomainId());
+            if (domain == null || account.getAccountName().equals(StandInRegion.SYSTEM_NAME)) continue;
+
+            StandInRegion.AccountRecord record = standIn.addAccount(domain, account.getAccountName(), account.getType(), account.getNetworkDomain(), account.getCreated());
+            record.state = account.getState().toString();
+            if (account.getModified() != null)  record.modified = account.getModified();
+            accountRecords.put(account.getId(), record);
+        }
+
+        for (UserVO user : userDao.listAll())
+        {
+            StandInRegion.AccountRecord account = accountRecords.get(user.getAccountId());
+            if (account == null)    continue;
+
+            StandInRegion.UserRecord record = standIn.addUser(account, user.getUsername(), user.getState().toString(), user.getCreated());
+            if (user.getModified() != null) record.modified = user.getModified();
+        }
+        return standIn;
+    }
+
+    private void addChange(String path)
+    {
+        if (path == null)   return;
+        synchronized (pending)
+        {
+            pending.add(new Change(path, System.currentTimeMillis()));
+        }
+    }
+
+    private int getPendingCount()
+    {
+        synchronized (pending)
+        {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Checks the pending changes against the local and stand-in digests, and returns the number of changes converged.
+     */
+    protected int checkConvergence()
+    {
+        DomainDigestTree localTree = DomainDigestTree.build(domainDao, accountDao, userDao);
+        long now = System.currentTimeMillis();
+        int converged = 0;
+
+        synchronized (pending)
+        {
+            for (Iterator<Change> it = pending.iterator(); it.hasNext(); )
+            {
+                Change change = it.next();
+                DomainDigestTree.Node local = localTree.findByPath(change.path);
+                // the domain has been renamed since, so the change is left to the change of its parent
+                if (local == null)
+                {
+                    it.remove();
+                    continue;
+                }
+
+                boolean same = true;
+                for (StandInRegion standIn : standIns)
+                {
+                    if (!local.getTreeDigest().equals(standIn.getTreeDigest(change.path)))
+                    {
+                        same = false;
+                        break;
+                    }
+                }
+                if (!same)  continue;
+
+                lags.add(now - change.time);
+                converged++;
+                it.remove();
+            }
+        }
+        return converged;
+    }
+
+    private void sampleHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        maxHeap = Math.max(maxHeap, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    protected Report buildReport(long elapsed)
+    {
+        Report report = new Report();
+        report.regions = regionCount;
+        report.mode = mode;
+        report.converged = lags.size();
+        report.changes = lags.size() + getPendingCount();
+        report.elapsed = elapsed;
+        report.maxHeap = maxHeap;
+
+        Collections.sort(lags);
+        if (!lags.isEmpty())
+        {
+            report.p50Lag = lags.get((lags.size() - 1) / 2);
+            report.p99Lag = lags.get((int)Math.ceil(lags.size() * 0.99) - 1);
+        }
+
+        for (StandInRegion standIn : standIns)
+        {
+            report.apiCalls += standIn.getApiCalls();
+            for (Map.Entry<String, Long> entry : standIn.getApiCallsByCommand().entrySet())
+            {
+                Long count = report.apiCallsByCommand.get(entry.getKey());
+                report.apiCallsByCommand.put(entry.getKey(), (count == null) ? entry.getValue() : count + entry.getValue());
+            }
+        }
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        report.heapAfterGc = runtime.totalMemory() - runtime.freeMemory();
+
+        s_logger.info(report);
+        return report;
+    }
+
+    private void cleanup()
+    {
+        for (StandInRegion standIn : standIns)
+        {
+            standIn.stop();
+        }
+        for (RegionVO region : regions)
+        {
+            rmapDao.removeByRegion(region.getId());
+            RegionWatermarkVO watermark = watermarkDao.findByRegion(region.getId());
+            if (watermark != null)  watermarkDao.expunge(watermark.getId());
+        }
+    }
+
+    protected class RemoteMutation extends ManagedContextRunnable
+    {
+        @Override
+        protected void runInContext()
+        {
+            try
+            {
+                StandInRegion standIn = standIns.get(random.nextInt(standIns.size()));
+                addChange(standIn.mutate(random));
+            }
+            catch(Exception ex)
+            {
+                s_logger.error("Failed to mutate a stand-in region", ex);
+            }
+        }
+    }
+
+    // the same mix as the local part of the AutoGenerator, recording the changed subtrees
+    protected class LocalMutation extends ManagedContextRunnable
+    {
+        private final DomainLocalGenerator domainGenerator = new DomainLocalGenerator();
+        private final AccountLocalGenerator accountGenerator = new AccountLocalGenerator();
+        private final UserLocalGenerator userGenerator = new UserLocalGenerator();
+
+        @Override
+        protected void runInContext()
+        {
+            try
+            {
+                switch (random.nextInt(8))
+                {
+                    case 0:
+                        DomainVO domain = domainGenerator.create();
+                        if (domain != null) addChange(getParentPath(domain));
+                        accountChanged(accountGenerator.create());
+                        userChanged(userGenerator.create());
+                        break;
+                    case 1:
+                        DomainVO updated = domainGenerator.update(null);
+                        if (updated != null)    addChange(getParentPath(updated));
+                        accountChanged(accountGenerator.update(null));
+                        userChanged(userGenerator.update(null));
+                        break;
+                    case 2:
+                    case 3:
+                        accountChanged(accountGenerator.disable(null));
+                        userChanged(userGenerator.disable(null));
+                        break;
+                    case 4:
+                    case 5:
+                        accountChanged(accountGenerator.lock(null));
+                        userChanged(userGenerator.lock(null));
+                        break;
+                    default:
+                        accountChanged(accountGenerator.enable(null));
+                        userChanged(userGenerator.enable(null));
+                        break;
+                }
+            }
+            catch(Exception ex)
+            {
+                s_logger.error("Failed to mutate the local region", ex);
+            }
+        }
+
+        private String getParentPath(DomainVO domain)
+        {
+            if (domain.getParent() == null) return domain.getPath();
+            DomainVO parent = domainDao.findById(domain.getParent());
+            return (parent == null) ? null : parent.getPath();
+        }
+
+        private void accountChanged(AccountVO account)
+        {
+            if (account == null)    return;
+            DomainVO domain = domainDao.findById(account.getDomainId());
+            if (domain != null) addChange(domain.getPath());
+        }
+
+        private void userChanged(UserVO user)
+        {
+            if (user == null)   return;
+            AccountVO account = accountDao.findById(user.getAccountId());
+            accountChanged(account);
+        }
+    }
+}
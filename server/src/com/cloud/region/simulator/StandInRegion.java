@@ -0,0 +1,934 @@
+package com.cloud.region.simulator;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.cloud.region.service.DomainDigestTree;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a remote region, used to benchmark the region sync without real peer regions.
+ *
+ * It serves the subset of the api the region sync uses (login, domains, accounts, users, events and digests) from an
+ * in-memory model over http, so the sync engine runs unchanged against it, through the same http client, session
+ * cache and response parser as against a real region.
+ * Every mutation, from the api or from mutate(), records the event a real region would, and every api call is
+ * counted by command.
+ */
+public class StandInRegion {
+
+    private static final Logger s_logger = Logger.getLogger(StandInRegion.class);
+
+    public static final String ADMIN_NAME = "admin";
+    public static final String SYSTEM_NAME = "system";
+
+    private final String name;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private final Map<String, DomainRecord> domains = new LinkedHashMap<String, DomainRecord>();
+    private final Map<String, AccountRecord> accounts = new LinkedHashMap<String, AccountRecord>();
+    private final Map<String, UserRecord> users = new LinkedHashMap<String, UserRecord>();
+    private final List<JSONObject> events = new ArrayList<JSONObject>();
+    private final DomainRecord root;
+
+    private final Map<String, AtomicLong> apiCalls = new HashMap<String, AtomicLong>();
+
+    public static class Record
+    {
+        protected final String uuid = UUID.randomUUID().toString();
+        protected String name;
+        protected String state;
+        protected Date created;
+        protected Date modified;
+
+        public String getUuid()
+        {
+            return uuid;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getState()
+        {
+            return state;
+        }
+    }
+
+    public static class DomainRecord extends Record
+    {
+        protected DomainRecord parent;
+        protected String path;
+        protected String networkDomain;
+        protected final List<DomainRecord> children = new ArrayList<DomainRecord>();
+        protected final List<AccountRecord> accounts = new ArrayList<AccountRecord>();
+
+        public String getPath()
+        {
+            return path;
+        }
+    }
+
+    public static class AccountRecord extends Record
+    {
+        protected DomainRecord domain;
+        protected short type;
+        protected String networkDomain;
+        protected final List<UserRecord> users = new ArrayList<UserRecord>();
+
+        public DomainRecord getDomain()
+        {
+            return domain;
+        }
+    }
+
+    public static class UserRecord extends Record
+    {
+        protected AccountRecord account;
+        protected String email;
+        protected String firstName;
+        protected String lastName;
+        protected String timezone;
+
+        public AccountRecord getAccount()
+        {
+            return account;
+        }
+    }
+
+    public StandInRegion(String name)
+    {
+        this.name = name;
+
+        Date now = new Date();
+        root = new DomainRecord();
+        root.name = "ROOT";
+        root.path = "/";
+        root.state = "Active";
+        root.created = now;
+        root.modified = now;
+        domains.put(root.uuid, root);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public DomainRecord getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Starts serving the api on an ephemeral local port.
+     */
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/client/api", new ApiHandler());
+        executor = Executors.newFixedThreadPool(4, new NamedThreadFactory("StandInRegion-" + name));
+        server.setExecutor(executor);
+        server.start();
+        s_logger.info("Stand-in region[" + name + "] is serving " + getEndPoint());
+    }
+
+    public void stop()
+    {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    // the end point as registered for a region, the api url is the end point followed by 'api'
+    public String getEndPoint()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/client/";
+    }
+
+    /*
+     * model
+     */
+
+    public synchronized DomainRecord findDomainByPath(String path)
+    {
+        for (DomainRecord domain : domains.values())
+        {
+            if (domain.path.equals(path))   return domain;
+        }
+        return null;
+    }
+
+    public synchronized DomainRecord addDomain(DomainRecord parent, String domainName, String networkDomain, Date created)
+    {
+        DomainRecord domain = new DomainRecord();
+        domain.parent = parent;
+        domain.name = domainName;
+        domain.path = parent.path + domainName + "/";
+        domain.networkDomain = networkDomain;
+        domain.state = "Active";
+        domain.created = created;
+        domain.modified = created;
+        parent.children.add(domain);
+        domains.put(domain.uuid, domain);
+        return domain;
+    }
+
+    public synchronized AccountRecord addAccount(DomainRecord domain, String accountName, short type, String networkDomain, Date created)
+    {
+        AccountRecord account = new AccountRecord();
+        account.domain = domain;
+        account.name = accountName;
+        account.type = type;
+        account.networkDomain = networkDomain;
+        account.state = "enabled";
+        account.created = created;
+        account.modified = created;
+        domain.accounts.add(account);
+        accounts.put(account.uuid, account);
+        return account;
+    }
+
+    public synchronized UserRecord addUser(AccountRecord account, String userName, String state, Date created)
+    {
+        UserRecord user = new UserRecord();
+        user.account = account;
+        user.name = userName;
+        user.state = state;
+        user.email = userName + "@" + name;
+        user.firstName = userName;
+        user.lastName = userName;
+        user.created = created;
+        user.modified = created;
+        account.users.add(user);
+        users.put(user.uuid, user);
+        return user;
+    }
+
+    public synchronized void setState(AccountRecord account, String state)
+    {
+        account.state = state;
+        account.modified = new Date();
+    }
+
+    private void removeDomain(DomainRecord domain)
+    {
+        for (DomainRecord child : new ArrayList<DomainRecord>(domain.children))
+        {
+            removeDomain(child);
+        }
+        for (AccountRecord account : new ArrayList<AccountRecord>(domain.accounts))
+        {
+            removeAccount(account);
+        }
+        domain.parent.children.remove(domain);
+        domains.remove(domain.uuid);
+    }
+
+    private void removeAccount(AccountRecord account)
+    {
+        for (UserRecord user : new ArrayList<UserRecord>(account.users))
+        {
+            removeUser(user);
+        }
+        account.domain.accounts.remove(account);
+        accounts.remove(account.uuid);
+    }
+
+    private void removeUser(UserRecord user)
+    {
+        user.account.users.remove(user);
+        users.remove(user.uuid);
+    }
+
+    /**
+     * Applies one random mutation with the same mix as the AutoGenerator, as if it was done by the users of this
+     * region, and returns the path of the domain whose subtree it changed.
+     */
+    public synchronized String mutate(Random random)
+    {
+        Date now = new Date();
+        List<DomainRecord> domainList = new ArrayList<DomainRecord>(domains.values());
+        List<AccountRecord> accountList = new ArrayList<AccountRecord>();
+        for (AccountRecord account : accounts.values())
+        {
+            if (isUsable(account))  accountList.add(account);
+        }
+
+        int randNumber = random.nextInt(8);
+        if (randNumber == 0 || accountList.isEmpty())
+        {
+            DomainRecord parent = domainList.get(random.nextInt(domainList.size()));
+            DomainRecord domain = addDomain(parent, "D" + randString(random), "ND" + randString(random), now);
+            addEvent("DOMAIN.CREATE", domain, null, null);
+            AccountRecord account = addAccount(domain, "A" + randString(random), (short)0, null, now);
+            addEvent("ACCOUNT.CREATE", domain, account, null);
+            UserRecord user = addUser(account, "U" + randString(random), "enabled", now);
+            addEvent("USER.CREATE", domain, account, user);
+            return parent.path;
+        }
+
+        if (randNumber == 1 && domainList.size() > 1)
+        {
+            DomainRecord domain = domainList.get(1 + random.nextInt(domainList.size() - 1));
+            domain.networkDomain = "ND" + randString(random);
+            domain.modified = now;
+            addEvent("DOMAIN.UPDATE", domain, null, null);
+            return domain.parent.path;
+        }
+
+        // disable, lock or enable an account with its users
+        String state = (randNumber < 4) ? "disabled" : (randNumber < 6) ? "locked" : "enabled";
+        String eventName = (randNumber < 4) ? "DISABLE" : (randNumber < 6) ? "LOCK" : "ENABLE";
+        AccountRecord account = accountList.get(random.nextInt(accountList.size()));
+        setState(account, state);
+        addEvent("ACCOUNT." + eventName, account.domain, account, null);
+        for (UserRecord user : account.users)
+        {
+            user.state = state;
+            user.modified = now;
+            addEvent("USER." + eventName, account.domain, account, user);
+        }
+        return account.domain.path;
+    }
+
+    private static boolean isUsable(AccountRecord account)
+    {
+        if (account.domain.parent != null)  return true;
+        return !account.name.equals(ADMIN_NAME) && !account.name.equals(SYSTEM_NAME);
+    }
+
+    private static String randString(Random random)
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (int idx = 0; idx < 10; idx++)
+        {
+            buffer.append((char)('a' + random.nextInt(26)));
+        }
+        return buffer.toString();
+    }
+
+    private void addEvent(String type, DomainRecord domain, AccountRecord account, UserRecord user)
+    {
+        // same description as ActionEventUtils, which the remote event processors parse
+        String description = "Successfully completed " + type;
+        if (user != null)   description += ", User Name:" + user.name;
+        if (account != null)    description += ", Account Name:" + account.name;
+        description += ", Domain Path:" + domain.path;
+
+        try
+        {
+            JSONObject event = new JSONObject();
+            event.put("id", UUID.randomUUID().toString());
+            event.put("type", type);
+            event.put("level", "INFO");
+            event.put("state", "Completed");
+            event.put("description", description);
+            event.put("created", formatDate(new Date()));
+            events.add(event);
+        }
+        catch(Exception ex)
+        {
+            s_logger.error("Failed to record event " + type, ex);
+        }
+    }
+
+    /*
+     * digests, the same as the local DomainDigestTree of an identical tree
+     */
+
+    public synchronized String getTreeDigest(String path)
+    {
+        DomainRecord domain = findDomainByPath(path);
+        return (domain == null) ? null : digest(domain, null);
+    }
+
+    // returns the tree digest of the domain, and puts the attr, content and tree digests of the domain into digests
+    private String digest(DomainRecord domain, String[] digests)
+    {
+        List<String> lines = new ArrayList<String>();
+        for (AccountRecord account : domain.accounts)
+        {
+            // the system account is never synchronized
+            if (domain.parent == null && account.name.equals(SYSTEM_NAME))  continue;
+
+            lines.add(DomainDigestTree.accountLine(account.name, account.state, account.networkDomain));
+            for (UserRecord user : account.users)
+            {
+                lines.add(DomainDigestTree.userLine(account.name, user.name, user.state));
+            }
+        }
+
+        List<String[]> children = new ArrayList<String[]>();
+        for (DomainRecord child : sortedChildren(domain))
+        {
+            children.add(new String[] {child.name, digest(child, null)});
+        }
+
+        String attrDigest = DomainDigestTree.attrDigest(domain.name, domain.networkDomain);
+        String contentDigest = DomainDigestTree.contentDigest(lines);
+        String treeDigest = DomainDigestTree.treeDigest(attrDigest, contentDigest, children);
+        if (digests != null)
+        {
+            digests[0] = attrDigest;
+            digests[1] = contentDigest;
+            digests[2] = treeDigest;
+        }
+        return treeDigest;
+    }
+
+    private static List<DomainRecord> sortedChildren(DomainRecord domain)
+    {
+        List<DomainRecord> children = new ArrayList<DomainRecord>(domain.children);
+        Collections.sort(children, new Comparator<DomainRecord>() {
+            @Override
+            public int compare(DomainRecord domain1, DomainRecord domain2)
+            {
+                return domain1.name.compareTo(domain2.name);
+            }
+        });
+        return children;
+    }
+
+    /*
+     * api calls
+     */
+
+    public long getApiCalls()
+    {
+        long total = 0;
+        synchronized (apiCalls)
+        {
+            for (AtomicLong count : apiCalls.values())
+            {
+                total += count.get();
+            }
+        }
+        return total;
+    }
+
+    public Map<String, Long> getApiCallsByCommand()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        synchronized (apiCalls)
+        {
+            for (Map.Entry<String, AtomicLong> entry : apiCalls.entrySet())
+            {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return counts;
+    }
+
+    public void resetApiCalls()
+    {
+        synchronized (apiCalls)
+        {
+            apiCalls.clear();
+        }
+    }
+
+    private void countApiCall(String command)
+    {
+        synchronized (apiCalls)
+        {
+            AtomicLong count = apiCalls.get(command);
+            if (count == null)
+            {
+                count = new AtomicLong();
+                apiCalls.put(command, count);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    private class ApiHandler implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String command = params.get("command");
+            countApiCall(command);
+
+            JSONObject response;
+            try
+            {
+                synchronized (StandInRegion.this)
+                {
+                    response = execute(command, params);
+                }
+            }
+            catch(Exception ex)
+            {
+                response = new JSONObject();
+                try
+                {
+                    response.put("errorcode", 431);
+                    response.put("errortext", ex.getMessage());
+                }
+                catch(Exception jex)
+                {
+                }
+            }
+
+            if (command != null && command.equals("login"))
+            {
+                exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=" + UUID.randomUUID().toString() + "; Path=/client");
+            }
+
+            String body = "{ \"" + ((command == null) ? "" : command.toLowerCase()) + "response\" : " + response.toString() + " }";
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            try
+            {
+                out.write(bytes);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null)  return params;
+
+        for (String pair : query.split("&"))
+        {
+            int idx = pair.indexOf('=');
+            if (idx <= 0)   continue;
+            // the parameter names are case insensitive, as in the real api
+            params.put(pair.substring(0, idx).toLowerCase(), URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    protected JSONObject execute(String command, Map<String, String> params) throws Exception
+    {
+        if (command == null)    throw new Exception("Missing the command");
+
+        JSONObject response = new JSONObject();
+        if (command.equals("login"))
+        {
+            response.put("timeout", "1800");
+            response.put("sessionkey", UUID.randomUUID().toString());
+            response.put("username", params.get("username"));
+            response.put("account", ADMIN_NAME);
+            response.put("domainid", root.uuid);
+            response.put("type", "1");
+        }
+        else if (command.equals("logout"))
+        {
+            response.put("description", "success");
+        }
+        else if (command.equals("queryAsyncJobResult"))
+        {
+            JSONObject result = new JSONObject();
+            result.put("success", true);
+            response.put("jobstatus", 1);
+            response.put("jobresult", result);
+        }
+        else if (command.equals("listDomains"))
+        {
+            List<DomainRecord> found = new ArrayList<DomainRecord>();
+            for (DomainRecord domain : domains.values())
+            {
+                if (params.containsKey("id") && !domain.uuid.equals(params.get("id")))  continue;
+                if (params.containsKey("name") && !domain.name.equals(params.get("name")))  continue;
+                if (params.containsKey("level") && getLevel(domain) != Integer.parseInt(params.get("level")))    continue;
+                found.add(domain);
+            }
+            putDomains(response, found);
+        }
+        else if (command.equals("listDomainChildren"))
+        {
+            DomainRecord parent = params.containsKey("id") ? findDomain(params.get("id")) : root;
+            List<DomainRecord> found = new ArrayList<DomainRecord>();
+            collectChildren(parent, "true".equals(params.get("isrecursive")), found);
+            putDomains(response, found);
+        }
+        else if (command.equals("listDomainDigests"))
+        {
+            DomainRecord domain = params.containsKey("id") ? findDomain(params.get("id")) : root;
+            JSONArray digests = new JSONArray();
+            digests.put(toDigestJson(domain));
+            for (DomainRecord child : domain.children)
+            {
+                digests.put(toDigestJson(child));
+            }
+            response.put("count", digests.length());
+            response.put("domaindigest", digests);
+        }
+        else if (command.equals("createDomain"))
+        {
+            DomainRecord parent = params.containsKey("parentdomainid") ? findDomain(params.get("parentdomainid")) : root;
+            DomainRecord domain = addDomain(parent, params.get("name"), params.get("networkdomain"), new Date());
+            addEvent("DOMAIN.CREATE", domain, null, null);
+            response.put("domain", toJson(domain));
+        }
+        else if (command.equals("updateDomain"))
+        {
+            DomainRecord domain = findDomain(params.get("id"));
+            if (params.containsKey("name"))
+            {
+                domain.name = params.get("name");
+                renamePaths(domain);
+            }
+            if (params.containsKey("networkdomain"))    domain.networkDomain = params.get("networkdomain");
+            domain.modified = new Date();
+            addEvent("DOMAIN.UPDATE", domain, null, null);
+            response.put("domain", toJson(domain));
+        }
+        else if (command.equals("deleteDomain"))
+        {
+            DomainRecord domain = findDomain(params.get("id"));
+            addEvent("DOMAIN.DELETE", domain, null, null);
+            removeDomain(domain);
+            response.put("jobid", UUID.randomUUID().toString());
+        }
+        else if (command.equals("listAccounts"))
+        {
+            JSONArray found = new JSONArray();
+            for (AccountRecord account : accounts.values())
+            {
+                if (params.containsKey("id") && !account.uuid.equals(params.get("id")))    continue;
+                if (params.containsKey("domainid") && !account.domain.uuid.equals(params.get("domainid")))   continue;
+                if (params.containsKey("name") && !account.name.equals(params.get("name")))    continue;
+                found.put(toJson(account));
+            }
+            response.put("count", found.length());
+            if (found.length() > 0) response.put("account", found);
+        }
+        else if (command.equals("createAccount"))
+        {
+            DomainRecord domain = params.containsKey("domainid") ? findDomain(params.get("domainid")) : root;
+            String accountName = params.containsKey("account") ? params.get("account") : params.get("username");
+            Date now = new Date();
+            AccountRecord account = addAccount(domain, accountName, Short.parseShort(params.get("accounttype")), params.get("networkdomain"), now);
+            addEvent("ACCOUNT.CREATE", domain, account, null);
+            UserRecord user = addUser(account, params.get("username"), "enabled", now);
+            setUserAttributes(user, params);
+            addEvent("USER.CREATE", domain, account, user);
+            response.put("account", toJson(account));
+        }
+        else if (command.equals("updateAccount"))
+        {
+            AccountRecord account = findAccount(params.get("id"));
+            if (params.containsKey("newname"))  account.name = params.get("newname");
+            if (params.containsKey("networkdomain"))    account.networkDomain = params.get("networkdomain");
+            account.modified = new Date();
+            addEvent("ACCOUNT.UPDATE", account.domain, account, null);
+            response.put("account", toJson(account));
+        }
+        else if (command.equals("deleteAccount"))
+        {
+            AccountRecord account = findAccount(params.get("id"));
+            addEvent("ACCOUNT.DELETE", account.domain, account, null);
+            removeAccount(account);
+            response.put("jobid", UUID.randomUUID().toString());
+        }
+        else if (command.equals("disableAccount") || command.equals("enableAccount"))
+        {
+            AccountRecord account = findAccount(params.get("id"));
+            String state = command.equals("enableAccount") ? "enabled" : "true".equals(params.get("lock")) ? "locked" : "disabled";
+            setState(account, state);
+            addEvent(command.equals("enableAccount") ? "ACCOUNT.ENABLE" : "ACCOUNT.DISABLE", account.domain, account, null);
+            response.put("jobid", UUID.randomUUID().toString());
+            response.put("account", toJson(account));
+        }
+        else if (command.equals("listUsers"))
+        {
+            JSONArray found = new JSONArray();
+            for (UserRecord user : users.values())
+            {
+                if (params.containsKey("id") && !user.uuid.equals(params.get("id")))  continue;
+                if (params.containsKey("domainid") && !user.account.domain.uuid.equals(params.get("domainid")))   continue;
+                if (params.containsKey("account") && !user.account.name.equals(params.get("account")))   continue;
+                found.put(toJson(user));
+            }
+            response.put("count", found.length());
+            if (found.length() > 0) response.put("user", found);
+        }
+        else if (command.equals("createUser"))
+        {
+            DomainRecord domain = params.containsKey("domainid") ? findDomain(params.get("domainid")) : root;
+            AccountRecord account = null;
+            for (AccountRecord candidate : domain.accounts)
+            {
+                if (candidate.name.equals(params.get("account")))   account = candidate;
+            }
+            if (account == null)    throw new Exception("Unable to find account " + params.get("account") + " in domain " + domain.path);
+
+            UserRecord user = addUser(account, params.get("username"), "enabled", new Date());
+            setUserAttributes(user, params);
+            addEvent("USER.CREATE", domain, account, user);
+            response.put("user", toJson(user));
+        }
+        else if (command.equals("updateUser"))
+        {
+            UserRecord user = findUser(params.get("id"));
+            if (params.containsKey("username")) user.name = params.get("username");
+            setUserAttributes(user, params);
+            user.modified = new Date();
+            addEvent("USER.UPDATE", user.account.domain, user.account, user);
+            response.put("user", toJson(user));
+        }
+        else if (command.equals("deleteUser"))
+        {
+            UserRecord user = findUser(params.get("id"));
+            addEvent("USER.DELETE", user.account.domain, user.account, user);
+            removeUser(user);
+            response.put("success", true);
+        }
+        else if (command.equals("disableUser") || command.equals("lockUser") || command.equals("enableUser"))
+        {
+            UserRecord user = findUser(params.get("id"));
+            user.state = command.equals("enableUser") ? "enabled" : command.equals("lockUser") ? "locked" : "disabled";
+            user.modified = new Date();
+            addEvent(command.equals("enableUser") ? "USER.ENABLE" : command.equals("lockUser") ? "USER.LOCK" : "USER.DISABLE", user.account.domain, user.account, user);
+            response.put("jobid", UUID.randomUUID().toString());
+            response.put("user", toJson(user));
+        }
+        else if (command.equals("listEvents"))
+        {
+            listEvents(params, response);
+        }
+        else
+        {
+            throw new Exception("The stand-in region doesn't support the command " + command);
+        }
+        return response;
+    }
+
+    private void listEvents(Map<String, String> params, JSONObject response) throws Exception
+    {
+        Date startDate = null;
+        if (params.containsKey("startdate"))
+        {
+            DateFormat dfParse = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
+            startDate = dfParse.parse(params.get("startdate"));
+        }
+
+        List<JSONObject> found = new ArrayList<JSONObject>();
+        for (JSONObject event : events)
+        {
+            if (params.containsKey("type") && !event.getString("type").equals(params.get("type")))  continue;
+            if (startDate != null && parseDate(event.getString("created")).before(startDate))  continue;
+            found.add(event);
+        }
+
+        int from = 0;
+        int to = found.size();
+        if (params.containsKey("page") && params.containsKey("pagesize"))
+        {
+            int pageSize = Integer.parseInt(params.get("pagesize"));
+            from = Math.min(found.size(), (Integer.parseInt(params.get("page")) - 1) * pageSize);
+            to = Math.min(found.size(), from + pageSize);
+        }
+
+        JSONArray page = new JSONArray();
+        for (JSONObject event : found.subList(from, to))
+        {
+            page.put(event);
+        }
+        response.put("count", found.size());
+        if (page.length() > 0)  response.put("event", page);
+    }
+
+    private DomainRecord findDomain(String uuid) throws Exception
+    {
+        DomainRecord domain = domains.get(uuid);
+        if (domain == null) throw new Exception("Unable to find domain " + uuid);
+        return domain;
+    }
+
+    private AccountRecord findAccount(String uuid) throws Exception
+    {
+        AccountRecord account = accounts.get(uuid);
+        if (account == null)    throw new Exception("Unable to find account " + uuid);
+        return account;
+    }
+
+    private UserRecord findUser(String uuid) throws Exception
+    {
+        UserRecord user = users.get(uuid);
+        if (user == null)   throw new Exception("Unable to find user " + uuid);
+        return user;
+    }
+
+    private static void setUserAttributes(UserRecord user, Map<String, String> params)
+    {
+        if (params.containsKey("email"))    user.email = params.get("email");
+        if (params.containsKey("firstname"))    user.firstName = params.get("firstname");
+        if (params.containsKey("lastname")) user.lastName = params.get("lastname");
+        if (params.containsKey("timezone")) user.timezone = params.get("timezone");
+    }
+
+    private static int getLevel(DomainRecord domain)
+    {
+        int level = 0;
+        for (DomainRecord parent = domain.parent; parent != null; parent = parent.parent)
+        {
+            level++;
+        }
+        return level;
+    }
+
+    private static void collectChildren(DomainRecord parent, boolean recursive, List<DomainRecord> found)
+    {
+        for (DomainRecord child : parent.children)
+        {
+            found.add(child);
+            if (recursive)  collectChildren(child, true, found);
+        }
+    }
+
+    private static void renamePaths(DomainRecord domain)
+    {
+        domain.path = domain.parent.path + domain.name + "/";
+        for (DomainRecord child : domain.children)
+        {
+            renamePaths(child);
+        }
+    }
+
+    private static void putDomains(JSONObject response, List<DomainRecord> found) throws Exception
+    {
+        JSONArray array = new JSONArray();
+        for (DomainRecord domain : found)
+        {
+            array.put(toJson(domain));
+        }
+        response.put("count", array.length());
+        if (array.length() > 0) response.put("domain", array);
+    }
+
+    // the paths are returned as the real api does, 'ROOT/a/b'
+    private static String toApiPath(String path)
+    {
+        return (path.equals("/")) ? "ROOT" : "ROOT" + path.substring(0, path.length() - 1);
+    }
+
+    private static JSONObject toJson(DomainRecord domain) throws Exception
+    {
+        JSONObject json = new JSONObject();
+        json.put("id", domain.uuid);
+        json.put("name", domain.name);
+        json.put("level", getLevel(domain));
+        if (domain.parent != null)
+        {
+            json.put("parentdomainid", domain.parent.uuid);
+            json.put("parentdomainname", domain.parent.name);
+        }
+        json.put("haschild", !domain.children.isEmpty());
+        json.put("path", toApiPath(domain.path));
+        if (domain.networkDomain != null)   json.put("networkdomain", domain.networkDomain);
+        json.put("state", domain.state);
+        json.put("created", formatDate(domain.created));
+        json.put("modified", formatDate(domain.modified));
+        return json;
+    }
+
+    private JSONObject toDigestJson(DomainRecord domain) throws Exception
+    {
+        String[] digests = new String[3];
+        digest(domain, digests);
+
+        JSONObject json = new JSONObject();
+        json.put("id", domain.uuid);
+        json.put("name", domain.name);
+        json.put("path", domain.path);
+        json.put("attrdigest", digests[0]);
+        json.put("contentdigest", digests[1]);
+        json.put("treedigest", digests[2]);
+        return json;
+    }
+
+    private static JSONObject toJson(AccountRecord account) throws Exception
+    {
+        JSONObject json = new JSONObject();
+        json.put("id", account.uuid);
+        json.put("name", account.name);
+        json.put("accounttype", account.type);
+        json.put("domainid", account.domain.uuid);
+        json.put("domain", account.domain.name);
+        json.put("path", toApiPath(account.domain.path));
+        if (account.networkDomain != null)  json.put("networkdomain", account.networkDomain);
+        json.put("state", account.state);
+        json.put("created", formatDate(account.created));
+        json.put("modified", formatDate(account.modified));
+
+        JSONArray userArray = new JSONArray();
+        for (UserRecord user : account.users)
+        {
+            userArray.put(toJson(user));
+        }
+        json.put("user", userArray);
+        return json;
+    }
+
+    private static JSONObject toJson(UserRecord user) throws Exception
+    {
+        JSONObject json = new JSONObject();
+        json.put("id", user.uuid);
+        json.put("username", user.name);
+        json.put("account", user.account.name);
+        json.put("accountid", user.account.uuid);
+        json.put("accounttype", user.account.type);
+        json.put("domainid", user.account.domain.uuid);
+        json.put("domain", user.account.domain.name);
+        json.put("email", user.email);
+        json.put("firstname", user.firstName);
+        json.put("lastname", user.lastName);
+        if (user.timezone != null)  json.put("timezone", user.timezone);
+        json.put("state", user.state);
+        json.put("created", formatDate(user.created));
+        json.put("modified", formatDate(user.modified));
+        return json;
+    }
+
+    private static String formatDate(Date date)
+    {
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return df.format(date);
+    }
+
+    private static Date parseDate(String date) throws Exception
+    {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(date);
+    }
+}
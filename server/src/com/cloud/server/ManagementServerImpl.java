@@ -72,6 +72,7 @@ import org.apache.cloudstack.api.command.admin.config.UpdateHypervisorCapabiliti
 import org.apache.cloudstack.api.command.admin.domain.CreateDomainCmd;
 import org.apache.cloudstack.api.command.admin.domain.DeleteDomainCmd;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainChildrenCmd;
+import org.apache.cloudstack.api.command.admin.domain.ListDomainDigestsCmd;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainsCmd;
 import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
 import org.apache.cloudstack.api.command.admin.host.AddHostCmd;
@@ -2551,6 +2552,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         cmdList.add(CreateDomainCmd.class);
         cmdList.add(DeleteDomainCmd.class);
         cmdList.add(ListDomainChildrenCmd.class);
+        cmdList.add(ListDomainDigestsCmd.class);
         cmdList.add(ListDomainsCmd.class);
         cmdList.add(UpdateDomainCmd.class);
         cmdList.add(AddHostCmd.class);
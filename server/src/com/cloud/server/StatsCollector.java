@@ -33,7 +33,10 @@ import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
 import com.cloud.region.service.FullScanner;
+import com.cloud.region.service.IncrementalScanner;
+import com.cloud.region.service.RegionSyncPartitioner;
 import com.cloud.region.simulator.AutoGenerator;
+import com.cloud.region.simulator.RegionSyncBenchmark;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStore;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreManager;
 import org.apache.cloudstack.engine.subsystem.api.storage.EndPoint;
@@ -59,6 +62,7 @@ import com.cloud.agent.api.HostStatsEntry;
 import com.cloud.agent.api.VmDiskStatsEntry;
 import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.manager.Commands;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ManagementServerHostVO;
 import com.cloud.cluster.dao.ManagementServerHostDao;
 import com.cloud.exception.AgentUnavailableException;
@@ -86,6 +90,7 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.StreamHandler;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
@@ -122,6 +127,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     @Inject private EndPointSelector _epSelector;
     @Inject private VmDiskStatisticsDao _vmDiskStatsDao;
     @Inject private ManagementServerHostDao _msHostDao;
+    @Inject private ClusterManager _clusterMgr;
 
 	private ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<Long, HostStats>();
 	private final ConcurrentHashMap<Long, VmStats> _VmStats = new ConcurrentHashMap<Long, VmStats>();
@@ -135,7 +141,17 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 	long volumeStatsInterval = -1L;
 	int vmDiskStatsInterval = 0;
     long fullScanInterval = -1L;
+    long incrementalScanInterval = -1L;
+    boolean digestScanEnabled = true;
     long autoResourceGenerationInterval = -1L;
+    int autoResourceGenerationMutations = 1;
+    int syncBenchmarkRegions = 0;
+    float syncBenchmarkRate = 1;
+    long syncBenchmarkDuration = 600000L;
+    String syncBenchmarkMode = RegionSyncBenchmark.MODE_DIGEST;
+    int fullScanSubtreeWorkers = FullScanner.DEFAULT_SUBTREE_WORKERS;
+    int fullScanRegionConcurrency = FullScanner.DEFAULT_REGION_CONCURRENCY;
+    private RegionSyncPartitioner regionSyncPartitioner;
 
 	private ScheduledExecutorService _diskStatsUpdateExecutor;
     private int _usageAggregationRange = 1440;
@@ -175,7 +191,16 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 		 volumeStatsInterval = NumbersUtil.parseLong(configs.get("volume.stats.interval"), -1L);
 		 vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
          fullScanInterval = NumbersUtil.parseLong(configs.get("region.full.scan.interval"), 3600000L);   // 1h
+         incrementalScanInterval = NumbersUtil.parseLong(configs.get("region.incremental.scan.interval"), 300000L);   // 5m
+         digestScanEnabled = !"false".equalsIgnoreCase(configs.get("region.digest.scan.enabled"));
          autoResourceGenerationInterval = NumbersUtil.parseLong(configs.get("region.auto.generation.interval"), -1L);
+         autoResourceGenerationMutations = NumbersUtil.parseInt(configs.get("region.auto.generation.mutations"), 1);
+         syncBenchmarkRegions = NumbersUtil.parseInt(configs.get("region.sync.benchmark.regions"), 0);
+         syncBenchmarkRate = NumbersUtil.parseFloat(configs.get("region.sync.benchmark.rate"), 1);
+         syncBenchmarkDuration = NumbersUtil.parseLong(configs.get("region.sync.benchmark.duration"), 600000L);   // 10m
+         if (configs.get("region.sync.benchmark.mode") != null) syncBenchmarkMode = configs.get("region.sync.benchmark.mode");
+         fullScanSubtreeWorkers = NumbersUtil.parseInt(configs.get("region.full.scan.subtree.workers"), FullScanner.DEFAULT_SUBTREE_WORKERS);
+         fullScanRegionConcurrency = NumbersUtil.parseInt(configs.get("region.full.scan.region.concurrency"), FullScanner.DEFAULT_REGION_CONCURRENCY);
 
 		 if (hostStatsInterval > 0) {
 		     _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
@@ -195,7 +220,17 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
              _executor.scheduleAtFixedRate(new VmDiskStatsTask(), vmDiskStatsInterval, vmDiskStatsInterval, TimeUnit.SECONDS);
          }
 
-         if (fullScanInterval > 0) {
+         if (incrementalScanInterval > 0 || fullScanInterval > 0) {
+             // the region sync is shared by the management servers of the cluster
+             regionSyncPartitioner = new RegionSyncPartitioner(mgmtSrvrId, _msHostDao);
+             regionSyncPartitioner.refresh();
+             _clusterMgr.registerListener(regionSyncPartitioner);
+         }
+
+         if (incrementalScanInterval > 0) {
+             // full scans are run by the incremental scan runner as anti-entropy passes
+             _executor.scheduleWithFixedDelay(new IncrementalScanRunner(), 15000L, incrementalScanInterval, TimeUnit.MILLISECONDS);
+         } else if (fullScanInterval > 0) {
              _executor.scheduleWithFixedDelay(new FullScanRunner(), 15000L, fullScanInterval, TimeUnit.MILLISECONDS);
          }
 
@@ -203,6 +238,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
              _executor.scheduleWithFixedDelay(new AutoGenerationRunner(), 15000L, autoResourceGenerationInterval, TimeUnit.MILLISECONDS);
          }
 
+         if (syncBenchmarkRegions > 0) {
+             _executor.schedule(new SyncBenchmarkRunner(), 15000L, TimeUnit.MILLISECONDS);
+         }
+
         //Schedule disk stats update task
         _diskStatsUpdateExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("DiskStatsUpdater"));
         String aggregationRange = configs.get("usage.stats.job.aggregation.range");
@@ -386,16 +425,19 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             @Override
                             public void doInTransactionWithoutResult(TransactionStatus status) {
                                 //get all stats with delta > 0
-                                List<VmDiskStatisticsVO> updatedVmNetStats = _vmDiskStatsDao.listUpdatedStats();
-                                for(VmDiskStatisticsVO stat : updatedVmNetStats){
-                                    if (_dailyOrHourly) {
-                                        //update agg bytes
-                                        stat.setAggBytesRead(stat.getCurrentBytesRead() + stat.getNetBytesRead());
-                                        stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
-                                        stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
-                                        stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
-                                    }
+                                if (_dailyOrHourly) {
+                                    _vmDiskStatsDao.streamUpdatedStats(new StreamHandler<VmDiskStatisticsVO>() {
+                                        @Override
+                                        public boolean handle(VmDiskStatisticsVO stat) {
+                                            //update agg bytes
+                                            stat.setAggBytesRead(stat.getCurrentBytesRead() + stat.getNetBytesRead());
+                                            stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
+                                            stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
+                                            stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
+                                            _vmDiskStatsDao.update(stat.getId(), stat);
+                                            return true;
+                                        }
+                                    });
                                 }
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
@@ -620,7 +662,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             try {
                 s_logger.debug("Full scanner is running...");
 
-                FullScanner fullScanner = new FullScanner();
+                FullScanner fullScanner = new FullScanner(fullScanSubtreeWorkers, fullScanRegionConcurrency);
+                fullScanner.setPartitioner(regionSyncPartitioner);
                 fullScanner.fullScan();
 
             } catch (Throwable t) {
@@ -631,6 +674,33 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         }
     }
 
+    class IncrementalScanRunner extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                IncrementalScanner scanner = new IncrementalScanner(fullScanSubtreeWorkers, fullScanRegionConcurrency);
+                scanner.setPartitioner(regionSyncPartitioner);
+                if (scanner.isFullScanDue(fullScanInterval)) {
+                    if (digestScanEnabled) {
+                        s_logger.debug("Digest scanner is running...");
+                        scanner.digestScan();
+                        s_logger.debug("Digest scanner is completed.");
+                    } else {
+                        s_logger.debug("Full scanner is running...");
+                        scanner.fullScan();
+                        s_logger.debug("Full scanner is completed.");
+                    }
+                } else {
+                    s_logger.debug("Incremental scanner is running...");
+                    scanner.incrementalScan();
+                    s_logger.debug("Incremental scanner is completed.");
+                }
+            } catch (Throwable t) {
+                s_logger.error("Error trying to incremental scan", t);
+            }
+        }
+    }
+
     class AutoGenerationRunner extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -638,7 +708,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 s_logger.debug("Auto resource generator is running...");
 
                 AutoGenerator autoGenerator = new AutoGenerator();
-                autoGenerator.generate();
+                autoGenerator.generate(autoResourceGenerationMutations);
 
             } catch (Throwable t) {
                 s_logger.error("Error trying to resource generate", t);
@@ -647,4 +717,21 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             s_logger.debug("Auto resource generator is completed.");
         }
     }
+
+    class SyncBenchmarkRunner extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                s_logger.info("Region sync benchmark is running...");
+
+                // every stand-in region and the local region are mutated at the same rate
+                RegionSyncBenchmark benchmark = new RegionSyncBenchmark(syncBenchmarkRegions, syncBenchmarkRate * syncBenchmarkRegions,
+                        syncBenchmarkRate, syncBenchmarkDuration, syncBenchmarkDuration, syncBenchmarkMode);
+                benchmark.run();
+
+            } catch (Throwable t) {
+                s_logger.error("Error trying to run the region sync benchmark", t);
+            }
+        }
+    }
 }
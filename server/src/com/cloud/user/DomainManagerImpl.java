@@ -24,6 +24,7 @@ import javax.inject.Inject;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainChildrenCmd;
+import org.apache.cloudstack.api.command.admin.domain.ListDomainDigestsCmd;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainsCmd;
 import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
 import org.apache.cloudstack.context.CallContext;
@@ -37,6 +38,7 @@ import com.cloud.configuration.dao.ResourceLimitDao;
 import com.cloud.dc.DedicatedResourceVO;
 import com.cloud.dc.dao.DedicatedResourceDao;
 import com.cloud.domain.Domain;
+import com.cloud.domain.DomainDigest;
 import com.cloud.domain.DomainVO;
 import com.cloud.domain.dao.DomainDao;
 import com.cloud.event.ActionEvent;
@@ -49,11 +51,13 @@ import com.cloud.network.dao.NetworkDomainDao;
 import com.cloud.projects.ProjectManager;
 import com.cloud.projects.ProjectVO;
 import com.cloud.projects.dao.ProjectDao;
+import com.cloud.region.service.DomainDigestTree;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.DiskOfferingVO;
 import com.cloud.storage.dao.DiskOfferingDao;
 import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
@@ -82,6 +86,8 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
     @Inject
     private AccountDao _accountDao;
     @Inject
+    private UserDao _userDao;
+    @Inject
     private DiskOfferingDao _diskOfferingDao;
     @Inject
     private ServiceOfferingDao _offeringsDao;
@@ -537,6 +543,28 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
         return new Pair<List<? extends Domain>, Integer>(result.first(), result.second());
     }
 
+    @Override
+    public List<? extends DomainDigest> listDomainDigests(ListDomainDigestsCmd cmd) throws PermissionDeniedException {
+        Long domainId = cmd.getId();
+
+        Account caller = CallContext.current().getCallingAccount();
+        if (domainId != null) {
+            _accountMgr.checkAccess(caller, getDomain(domainId));
+        } else {
+            domainId = caller.getDomainId();
+        }
+
+        List<DomainDigest> digests = new ArrayList<DomainDigest>();
+        DomainDigestTree.Node node = DomainDigestTree.getCachedTree(_domainDao, _accountDao, _userDao).find(domainId);
+        if (node == null) {
+            return digests;
+        }
+
+        digests.add(node);
+        digests.addAll(node.getChildren());
+        return digests;
+    }
+
     private Pair<List<DomainVO>, Integer> searchForDomainChildren(Filter searchFilter, Long domainId, String domainName, Object keyword, String path, boolean listActiveOnly) {
         SearchCriteria<DomainVO> sc = _domainDao.createSearchCriteria();
 
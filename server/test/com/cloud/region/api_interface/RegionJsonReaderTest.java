@@ -0,0 +1,146 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.api_interface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.cloud.region.service.BaseService;
+
+public class RegionJsonReaderTest {
+
+    private static final String LIST_USERS = "{ \"listusersresponse\" : { \"count\":2 ,\"user\" : [ "
+        + "{\"id\":\"a1\",\"username\":\"admin\",\"firstname\":\"Admin\",\"accounttype\":1,\"iscallerchilddomain\":false,\"timezone\":null,\"state\":\"enabled\"}, "
+        + "{\"id\":\"a2\",\"username\":\"user\\u00e9\",\"firstname\":\"Us\\\"er\",\"accounttype\":0,\"iscallerchilddomain\":true,\"timezone\":null,\"state\":\"disabled\"} ] } }";
+
+    private static JSONObject parse(String response) throws Exception {
+        return RegionJsonReader.parse(new ByteArrayInputStream(response.getBytes("UTF-8")), "UTF-8");
+    }
+
+    @Test
+    public void testSameAsJSONObject() throws Exception {
+        JSONObject expected = new JSONObject(LIST_USERS);
+        JSONObject parsed = parse(LIST_USERS);
+        assertEquals(expected.toString(), parsed.toString());
+
+        JSONObject response = parsed.getJSONObject("listusersresponse");
+        assertEquals("2", BaseService.getAttrValue(response, "count"));
+        JSONArray users = response.getJSONArray("user");
+        assertEquals(2, users.length());
+        assertEquals("useré", BaseService.getAttrValue(users.getJSONObject(1), "username"));
+        assertEquals("Us\"er", BaseService.getAttrValue(users.getJSONObject(1), "firstname"));
+        assertEquals("true", BaseService.getAttrValue(users.getJSONObject(1), "iscallerchilddomain"));
+        assertTrue(users.getJSONObject(0).isNull("timezone"));
+        assertNull(BaseService.getAttrValue(users.getJSONObject(0), "email"));
+    }
+
+    @Test
+    public void testAttributeNamesShared() throws Exception {
+        JSONArray users = parse(LIST_USERS).getJSONObject("listusersresponse").getJSONArray("user");
+        String name0 = null;
+        String name1 = null;
+        for (Iterator<?> it = users.getJSONObject(0).keys(); it.hasNext();) {
+            String key = (String)it.next();
+            if (key.equals("username")) name0 = key;
+        }
+        for (Iterator<?> it = users.getJSONObject(1).keys(); it.hasNext();) {
+            String key = (String)it.next();
+            if (key.equals("username")) name1 = key;
+        }
+        assertSame(name0, name1);
+    }
+
+    private static JSONObject parse(String response, Map<String, RegionRecord.Schema> schemas) throws Exception {
+        return RegionJsonReader.parse(new ByteArrayInputStream(response.getBytes("UTF-8")), "UTF-8", schemas);
+    }
+
+    @Test
+    public void testUsersReadIntoRecords() throws Exception {
+        JSONObject parsed = parse(LIST_USERS, BaseInterface.records("user", UserRecord.newSchema()));
+        assertEquals(new JSONObject(LIST_USERS).toString(), parsed.toString());
+
+        JSONArray users = parsed.getJSONObject("listusersresponse").getJSONArray("user");
+        assertTrue(users.getJSONObject(0) instanceof UserRecord);
+        UserRecord user = (UserRecord)users.getJSONObject(1);
+        assertEquals("a2", user.getUuid());
+        assertEquals("useré", user.getUsername());
+        assertEquals("disabled", user.getState());
+        assertNull(user.getEmail());
+        assertEquals(7, user.length());
+        assertEquals("Us\"er", BaseService.getAttrValue(user, "firstname"));
+        assertEquals("true", BaseService.getAttrValue(user, "iscallerchilddomain"));
+        assertTrue(user.isNull("timezone"));
+        assertFalse(user.has("email"));
+    }
+
+    @Test
+    public void testRecordValuesShared() throws Exception {
+        String listAccounts = "{ \"listaccountsresponse\" : { \"count\":2 ,\"account\" : [ "
+            + "{\"id\":\"b1\",\"name\":\"admin\",\"domainid\":\"d1\",\"domain\":\"ROOT\",\"state\":\"enabled\",\"user\":[{\"id\":\"a1\",\"domain\":\"ROOT\"}]}, "
+            + "{\"id\":\"b2\",\"name\":\"other\",\"domainid\":\"d1\",\"domain\":\"ROOT\",\"state\":\"enabled\",\"user\":[{\"id\":\"a2\",\"domain\":\"ROOT\"}]} ] } }";
+        Map<String, RegionRecord.Schema> schemas = BaseInterface.records("account", AccountRecord.newSchema());
+        schemas.put("user", UserRecord.newSchema());
+        JSONObject parsed = parse(listAccounts, schemas);
+        assertEquals(new JSONObject(listAccounts).toString(), parsed.toString());
+
+        JSONArray accounts = parsed.getJSONObject("listaccountsresponse").getJSONArray("account");
+        AccountRecord account0 = (AccountRecord)accounts.getJSONObject(0);
+        AccountRecord account1 = (AccountRecord)accounts.getJSONObject(1);
+        assertEquals("other", account1.getName());
+        assertSame(account0.getDomainUuid(), account1.getDomainUuid());
+        assertSame(account0.getState(), account1.getState());
+
+        UserRecord user0 = (UserRecord)account0.getJSONArray("user").getJSONObject(0);
+        UserRecord user1 = (UserRecord)account1.getJSONArray("user").getJSONObject(0);
+        assertEquals("a2", user1.getUuid());
+        assertSame(account0.getDomainName(), user0.getDomainName());
+        assertSame(user0.getDomainName(), user1.getDomainName());
+    }
+
+    @Test
+    public void testUnknownAttributesKept() throws Exception {
+        String listDomains = "{ \"listdomainsresponse\" : { \"count\":2 ,\"domain\" : [ "
+            + "{\"id\":\"d1\",\"name\":\"ROOT\",\"level\":0,\"haschild\":true,\"path\":\"ROOT\"}, "
+            + "{\"id\":\"d2\",\"name\":\"sub\",\"level\":1,\"parentdomainid\":\"d1\",\"path\":\"ROOT/sub\",\"cpulimit\":\"Unlimited\"} ] } }";
+        JSONObject parsed = parse(listDomains, BaseInterface.records("domain", DomainRecord.newSchema()));
+        assertEquals(new JSONObject(listDomains).toString(), parsed.toString());
+
+        JSONArray domains = parsed.getJSONObject("listdomainsresponse").getJSONArray("domain");
+        DomainRecord domain = (DomainRecord)domains.getJSONObject(1);
+        assertEquals(1, domain.getLevel());
+        assertEquals("d1", domain.getParentUuid());
+        assertEquals("Unlimited", BaseService.getAttrValue(domain, "cpulimit"));
+        assertFalse(domains.getJSONObject(0).has("cpulimit"));
+
+        domain.put("path", "sub");
+        domain.remove("cpulimit");
+        assertEquals("sub", domain.getPath());
+        assertEquals(5, domain.length());
+        assertEquals(0, ((DomainRecord)domains.getJSONObject(0)).getLevel());
+    }
+}
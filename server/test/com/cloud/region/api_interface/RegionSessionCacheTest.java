@@ -0,0 +1,53 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.api_interface;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RegionSessionCacheTest {
+
+    private static final String URL = "http://region.test:8080/client/api";
+
+    @Test
+    public void testShortTimeoutIsReused() throws Exception {
+        // a remote session timeout below the expiry margin used to count as expired right away
+        RegionSessionCache.Session session = RegionSessionCache.put(URL, "short", "key", "cookie", 30000L);
+        assertFalse(session.isExpired());
+        assertSame(session, RegionSessionCache.get(URL, "short"));
+    }
+
+    @Test
+    public void testIdleSessionExpires() throws Exception {
+        RegionSessionCache.Session session = RegionSessionCache.put(URL, "tiny", "key", "cookie", 100L);
+        Thread.sleep(200L);
+        assertTrue(session.isExpired());
+        assertNull(RegionSessionCache.get(URL, "tiny"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        RegionSessionCache.Session session = RegionSessionCache.put(URL, "admin", "key", "cookie", 0L);
+        assertFalse(session.isExpired());
+        RegionSessionCache.invalidate(URL, "admin", session);
+        assertNull(RegionSessionCache.get(URL, "admin"));
+    }
+}
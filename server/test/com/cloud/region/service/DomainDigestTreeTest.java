@@ -0,0 +1,202 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+
+public class DomainDigestTreeTest {
+
+    // 100 domains x 10 accounts x 100 users
+    private static final int DOMAINS = 100;
+    private static final int ACCOUNTS_PER_DOMAIN = 10;
+    private static final int USERS_PER_ACCOUNT = 100;
+
+    private List<DomainVO> domains;
+    private List<AccountVO> accounts;
+    private List<UserVO> users;
+
+    @Before
+    public void setup() {
+        domains = new ArrayList<DomainVO>();
+        accounts = new ArrayList<AccountVO>();
+        users = new ArrayList<UserVO>();
+
+        domains.add(newDomain(1, "ROOT", null, "/"));
+        for (int idx = 0; idx < DOMAINS; idx++) {
+            long domainId = idx + 2;
+            domains.add(newDomain(domainId, "d" + idx, 1L, "/d" + idx + "/"));
+            for (int acc = 0; acc < ACCOUNTS_PER_DOMAIN; acc++) {
+                AccountVO account = new AccountVO("a" + idx + "_" + acc, domainId, null, Account.ACCOUNT_TYPE_NORMAL, null);
+                account.setId(accounts.size() + 1);
+                accounts.add(account);
+                for (int usr = 0; usr < USERS_PER_ACCOUNT; usr++) {
+                    users.add(new UserVO(account.getId(), "u" + usr, null, null, null, null, null, null));
+                }
+            }
+        }
+    }
+
+    private DomainVO newDomain(final long id, String name, Long parentId, String path) {
+        DomainVO domain = new DomainVO(name, 2, parentId, null) {
+            @Override
+            public long getId() {
+                return id;
+            }
+        };
+        domain.setPath(path);
+        return domain;
+    }
+
+    private DomainDigestTree buildTree() {
+        DomainDao domainDao = mock(DomainDao.class);
+        AccountDao accountDao = mock(AccountDao.class);
+        UserDao userDao = mock(UserDao.class);
+        when(domainDao.listAll()).thenReturn(domains);
+        when(accountDao.listAll()).thenReturn(accounts);
+        when(userDao.listAll()).thenReturn(users);
+        return DomainDigestTree.build(domainDao, accountDao, userDao);
+    }
+
+    // answers listDigests() from the given tree, as the remote listDomainDigests api would
+    private DomainService remoteService(final DomainDigestTree remoteTree, final int[] requests) throws Exception {
+        final Map<String, DomainDigestTree.Node> uuidIndex = new HashMap<String, DomainDigestTree.Node>();
+        for (DomainVO domain : domains) {
+            DomainDigestTree.Node node = remoteTree.find(domain.getId());
+            if (node != null) {
+                uuidIndex.put(domain.getUuid(), node);
+            }
+        }
+
+        DomainService service = mock(DomainService.class);
+        Answer<JSONArray> answer = new Answer<JSONArray>() {
+            @Override
+            public JSONArray answer(InvocationOnMock invocation) throws Throwable {
+                requests[0]++;
+                String id = (String)invocation.getArguments()[0];
+                DomainDigestTree.Node node = (id == null) ? remoteTree.findByPath("/") : uuidIndex.get(id);
+                JSONArray digests = new JSONArray();
+                digests.put(toJson(node));
+                for (DomainDigestTree.Node child : node.getChildren()) {
+                    digests.put(toJson(child));
+                }
+                return digests;
+            }
+        };
+        // anyString() matches the null id of the root as well
+        doAnswer(answer).when(service).listDigests(anyString());
+        return service;
+    }
+
+    private static JSONObject toJson(DomainDigestTree.Node node) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("id", node.getDomain().getUuid());
+        json.put("name", node.getDomain().getName());
+        json.put("path", node.getDomain().getPath());
+        json.put("attrdigest", node.getAttrDigest());
+        json.put("contentdigest", node.getContentDigest());
+        json.put("treedigest", node.getTreeDigest());
+        return json;
+    }
+
+    @Test
+    public void testConvergedTreeVerifiedWithOneRequest() throws Exception {
+        DomainDigestTree localTree = buildTree();
+        int[] requests = new int[1];
+        DomainService service = remoteService(buildTree(), requests);
+
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> subtrees = new LinkedHashSet<String>();
+        assertEquals(1, IncrementalScanner.compareDigests(service, localTree, changed, subtrees));
+        assertEquals(1, requests[0]);
+        assertTrue(changed.isEmpty());
+        assertTrue(subtrees.isEmpty());
+    }
+
+    @Test
+    public void testChangedUserDescendsOnlyIntoItsDomain() throws Exception {
+        DomainDigestTree localTree = buildTree();
+        users.get(users.size() / 2).setState(Account.State.disabled);
+        int[] requests = new int[1];
+        DomainService service = remoteService(buildTree(), requests);
+
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> subtrees = new LinkedHashSet<String>();
+        IncrementalScanner.compareDigests(service, localTree, changed, subtrees);
+        assertEquals(2, requests[0]);
+        assertEquals(1, changed.size());
+        assertEquals("/d" + (DOMAINS / 2) + "/", changed.iterator().next());
+        assertTrue(subtrees.isEmpty());
+    }
+
+    @Test
+    public void testChangedDomainAttributesSynchronizeItsParent() throws Exception {
+        DomainDigestTree localTree = buildTree();
+        domains.get(3).setNetworkDomain("renamed.example.com");
+        int[] requests = new int[1];
+        DomainService service = remoteService(buildTree(), requests);
+
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> subtrees = new LinkedHashSet<String>();
+        IncrementalScanner.compareDigests(service, localTree, changed, subtrees);
+        // the changed domain is visited as well, but its own content is in sync
+        assertEquals(2, requests[0]);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains("/"));
+        assertTrue(subtrees.isEmpty());
+    }
+
+    @Test
+    public void testMissingDomainSynchronizesTheSubtree() throws Exception {
+        DomainDigestTree localTree = buildTree();
+        domains.remove(domains.size() - 1);
+        int[] requests = new int[1];
+        DomainService service = remoteService(buildTree(), requests);
+
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> subtrees = new LinkedHashSet<String>();
+        IncrementalScanner.compareDigests(service, localTree, changed, subtrees);
+        assertEquals(1, requests[0]);
+        assertTrue(subtrees.contains("/"));
+    }
+}
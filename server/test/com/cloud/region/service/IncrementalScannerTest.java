@@ -0,0 +1,74 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+
+public class IncrementalScannerTest {
+
+    // a remote region with the given number of events, listed a page at a time
+    private static class PagedEvents extends BaseService {
+        private final int eventCount;
+        private final List<Integer> pages = new ArrayList<Integer>();
+
+        PagedEvents(int eventCount) {
+            super("region", "http://localhost/", "admin", "password");
+            this.eventCount = eventCount;
+        }
+
+        @Override
+        protected JSONArray listEvents(String type, String keyword, Date startDate, Date endDate, Integer page, Integer pageSize) throws Exception {
+            pages.add(page);
+            JSONArray events = new JSONArray();
+            for (int idx = (page - 1) * pageSize; idx < Math.min(eventCount, page * pageSize); idx++) {
+                events.put(new JSONObject().put("id", "event-" + idx));
+            }
+            return events;
+        }
+    }
+
+    @Test
+    public void testListsEveryPage() throws Exception {
+        int pageSize = RemoteEventProcessor.EVENT_PAGE_SIZE;
+        PagedEvents region = new PagedEvents(2 * pageSize + 3);
+
+        JSONArray events = IncrementalScanner.listEventsSince(region, new Date());
+
+        assertEquals(2 * pageSize + 3, events.length());
+        assertEquals("event-" + (2 * pageSize + 2), events.getJSONObject(events.length() - 1).get("id"));
+        assertEquals(3, region.pages.size());
+    }
+
+    @Test
+    public void testStopsAfterFullLastPage() throws Exception {
+        PagedEvents region = new PagedEvents(RemoteEventProcessor.EVENT_PAGE_SIZE);
+
+        JSONArray events = IncrementalScanner.listEventsSince(region, new Date());
+
+        assertEquals(RemoteEventProcessor.EVENT_PAGE_SIZE, events.length());
+        assertEquals(2, region.pages.size());
+    }
+}
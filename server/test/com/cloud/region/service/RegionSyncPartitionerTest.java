@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloud.cluster.dao.ManagementServerHostDao;
+
+public class RegionSyncPartitionerTest {
+
+    private static final int PARTITIONS = 1000;
+
+    private RegionSyncPartitioner newPartitioner(long selfMsId, Long... msIds) {
+        RegionSyncPartitioner partitioner = new RegionSyncPartitioner(selfMsId, mock(ManagementServerHostDao.class));
+        partitioner.setNodes(Arrays.asList(msIds));
+        return partitioner;
+    }
+
+    @Test
+    public void testPartitionKey() {
+        assertEquals("/", RegionSyncPartitioner.getPartitionKey("/"));
+        assertEquals("/", RegionSyncPartitioner.getPartitionKey(null));
+        assertEquals("/a/", RegionSyncPartitioner.getPartitionKey("/a/"));
+        assertEquals("/a/", RegionSyncPartitioner.getPartitionKey("/a/b/c/"));
+    }
+
+    @Test
+    public void testSingleNodeOwnsAll() {
+        RegionSyncPartitioner partitioner = newPartitioner(1L);
+        assertTrue(partitioner.ownsAll());
+        assertTrue(partitioner.isCoordinator());
+        for (int idx = 0; idx < PARTITIONS; idx++) {
+            assertTrue(partitioner.isOwner("/d" + idx + "/"));
+        }
+    }
+
+    @Test
+    public void testEveryPartitionHasOneOwner() {
+        RegionSyncPartitioner first = newPartitioner(1L, 1L, 2L, 3L);
+        RegionSyncPartitioner second = newPartitioner(2L, 1L, 2L, 3L);
+        RegionSyncPartitioner third = newPartitioner(3L, 1L, 2L, 3L);
+
+        int[] owned = new int[3];
+        for (int idx = 0; idx < PARTITIONS; idx++) {
+            String path = "/d" + idx + "/x/";
+            int owners = 0;
+            if (first.isOwner(path)) { owners++; owned[0]++; }
+            if (second.isOwner(path)) { owners++; owned[1]++; }
+            if (third.isOwner(path)) { owners++; owned[2]++; }
+            assertEquals(1, owners);
+        }
+        for (int count : owned) {
+            assertTrue("unbalanced partitions " + Arrays.toString(owned), count > PARTITIONS / 6);
+        }
+    }
+
+    @Test
+    public void testOnlyTheLeavingNodePartitionsMove() {
+        RegionSyncPartitioner partitioner = newPartitioner(1L, 1L, 2L, 3L);
+        Map<String, Long> before = new HashMap<String, Long>();
+        for (int idx = 0; idx < PARTITIONS; idx++) {
+            before.put("/d" + idx + "/", partitioner.getOwner("/d" + idx + "/"));
+        }
+
+        long generation = partitioner.getGeneration();
+        partitioner.antiEntropyDone(generation);
+        assertFalse(partitioner.isAntiEntropyDue(0));
+
+        partitioner.setNodes(Arrays.asList(1L, 2L));
+        assertTrue(partitioner.isAntiEntropyDue(0));
+        for (Map.Entry<String, Long> entry : before.entrySet()) {
+            long owner = partitioner.getOwner(entry.getKey());
+            if (entry.getValue() != 3L) {
+                assertEquals(entry.getValue().longValue(), owner);
+            } else {
+                assertTrue(owner == 1L || owner == 2L);
+            }
+        }
+    }
+}
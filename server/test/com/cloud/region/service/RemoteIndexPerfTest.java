@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.service;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.util.json.JSONObject;
+
+/**
+ * Micro benchmark of the remote matching done by the user full sync processor, with 50k synthetic users in a domain.
+ * It compares the linear scan of the remote list with the hash index lookup.
+ * It is excluded from the regular build since it only prints the timings.
+ */
+public class RemoteIndexPerfTest {
+
+    private static final int USERS_PER_DOMAIN = 50000;
+    private static final int USERS_PER_ACCOUNT = 50;
+    // the linear scan is quadratic, so only a sample of the locals is matched and the total is extrapolated
+    private static final int LINEAR_SAMPLE = 500;
+
+    private List<JSONObject> remoteList;
+    private List<String[]> locals;
+
+    @Before
+    public void setup() throws Exception {
+        remoteList = new ArrayList<JSONObject>();
+        locals = new ArrayList<String[]>();
+        for (int idx = 0; idx < USERS_PER_DOMAIN; idx++) {
+            String accountName = "account" + (idx / USERS_PER_ACCOUNT);
+            String userName = "user" + idx;
+
+            JSONObject userJson = new JSONObject();
+            userJson.put("id", UUID.randomUUID().toString());
+            userJson.put("username", userName);
+            userJson.put("account", accountName);
+            userJson.put("state", "enabled");
+            remoteList.add(userJson);
+
+            locals.add(new String[] {accountName, userName});
+        }
+    }
+
+    private JSONObject findLinear(String accountName, String userName) {
+        for (JSONObject jsonObject : remoteList) {
+            if (!accountName.equals(BaseService.getAttrValue(jsonObject, "account")))
+                continue;
+            if (!userName.equals(BaseService.getAttrValue(jsonObject, "username")))
+                continue;
+            return jsonObject;
+        }
+        return null;
+    }
+
+    @Test
+    public void testMatching() {
+        long before = System.currentTimeMillis();
+        for (int idx = 0; idx < LINEAR_SAMPLE; idx++) {
+            String[] local = locals.get(idx * (USERS_PER_DOMAIN / LINEAR_SAMPLE));
+            assertNotNull(findLinear(local[0], local[1]));
+        }
+        long linear = System.currentTimeMillis() - before;
+        System.out.println("Linear scan : " + linear + " ms for " + LINEAR_SAMPLE + " users, ~" + (linear * (USERS_PER_DOMAIN / LINEAR_SAMPLE)) + " ms for "
+            + USERS_PER_DOMAIN + " users");
+
+        before = System.currentTimeMillis();
+        RemoteIndex index = new RemoteIndex();
+        for (JSONObject remoteJson : remoteList) {
+            index.add(BaseService.getAttrValue(remoteJson, "id"),
+                RemoteIndex.userKey(BaseService.getAttrValue(remoteJson, "account"), BaseService.getAttrValue(remoteJson, "username")), remoteJson);
+        }
+        long build = System.currentTimeMillis() - before;
+
+        before = System.currentTimeMillis();
+        for (int idx = 0; idx < USERS_PER_DOMAIN; idx++) {
+            String[] local = locals.get(idx);
+            assertSame(remoteList.get(idx), index.findByKey(RemoteIndex.userKey(local[0], local[1])));
+        }
+        long lookup = System.currentTimeMillis() - before;
+        System.out.println("Hash index : " + build + " ms to build, " + lookup + " ms for " + USERS_PER_DOMAIN + " users");
+    }
+}
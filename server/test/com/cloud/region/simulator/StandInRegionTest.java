@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.region.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.region.api_interface.BaseInterface;
+import com.cloud.region.api_interface.DomainInterface;
+import com.cloud.region.service.BaseService;
+import com.cloud.region.service.DomainDigestTree;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.UserVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+
+public class StandInRegionTest {
+
+    private StandInRegion standIn;
+    private DomainInterface domainInterface;
+
+    @Before
+    public void setup() throws Exception {
+        standIn = new StandInRegion("StandIn-test");
+        StandInRegion.DomainRecord child = standIn.addDomain(standIn.getRoot(), "child", "child.example.com", new Date());
+        StandInRegion.AccountRecord account = standIn.addAccount(child, "account", Account.ACCOUNT_TYPE_NORMAL, null, new Date());
+        standIn.addUser(account, "user", "enabled", new Date());
+        standIn.start();
+
+        domainInterface = new DomainInterface(standIn.getEndPoint() + "api");
+        domainInterface.openSession("admin", "password");
+    }
+
+    @After
+    public void tearDown() {
+        domainInterface.closeSession();
+        standIn.stop();
+    }
+
+    @Test
+    public void testDomainsAreServedAsTheRealApi() throws Exception {
+        JSONObject child = domainInterface.findDomain(1, "child", "/child/");
+        assertNotNull(child);
+        assertEquals("/child/", BaseService.getAttrValue(child, "path"));
+        assertEquals("child.example.com", BaseService.getAttrValue(child, "networkdomain"));
+
+        domainInterface.createDomain("grandchild", BaseService.getAttrValue(child, "id"), null, null);
+        JSONArray children = domainInterface.listChildDomains(BaseService.getAttrValue(child, "id"), false);
+        assertEquals(1, children.length());
+        assertEquals("/child/grandchild/", BaseService.getAttrValue(children.getJSONObject(0), "path"));
+
+        assertEquals(1, standIn.getApiCallsByCommand().get("createDomain").longValue());
+        assertTrue(standIn.getApiCalls() >= 4);
+    }
+
+    @Test
+    public void testMutationsRecordEvents() throws Exception {
+        String path = standIn.mutate(new Random(1));
+        assertNotNull(path);
+
+        BaseInterface baseInterface = new BaseInterface(standIn.getEndPoint() + "api");
+        baseInterface.openSession("admin", "password");
+        JSONArray events = baseInterface.listEvents(null, "completed", new Date(System.currentTimeMillis() - 60000), null);
+        baseInterface.closeSession();
+
+        assertNotNull(events);
+        assertTrue(events.length() > 0);
+        JSONObject description = BaseService.parseEventDescription(events.getJSONObject(0));
+        assertNotNull(BaseService.getAttrValue(description, "Domain Path"));
+    }
+
+    @Test
+    public void testDigestsMatchTheLocalTree() throws Exception {
+        // the same tree as the local region would have it
+        List<DomainVO> domains = new ArrayList<DomainVO>();
+        DomainVO root = newDomain(1, "ROOT", null, "/", null);
+        DomainVO child = newDomain(2, "child", 1L, "/child/", "child.example.com");
+        domains.add(root);
+        domains.add(child);
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        AccountVO account = new AccountVO("account", 2, null, Account.ACCOUNT_TYPE_NORMAL, null);
+        account.setId(1);
+        accounts.add(account);
+        List<UserVO> users = new ArrayList<UserVO>();
+        users.add(new UserVO(1, "user", null, null, null, null, null, null));
+
+        DomainDao domainDao = mock(DomainDao.class);
+        AccountDao accountDao = mock(AccountDao.class);
+        UserDao userDao = mock(UserDao.class);
+        when(domainDao.listAll()).thenReturn(domains);
+        when(accountDao.listAll()).thenReturn(accounts);
+        when(userDao.listAll()).thenReturn(users);
+        DomainDigestTree localTree = DomainDigestTree.build(domainDao, accountDao, userDao);
+
+        String rootDigest = localTree.findByPath("/").getTreeDigest();
+        assertEquals(rootDigest, standIn.getTreeDigest("/"));
+        JSONArray digests = domainInterface.listDomainDigests(null);
+        assertEquals(rootDigest, BaseService.getAttrValue(digests.getJSONObject(0), "treedigest"));
+        assertEquals(localTree.findByPath("/child/").getAttrDigest(), BaseService.getAttrValue(digests.getJSONObject(1), "attrdigest"));
+
+        standIn.mutate(new Random(1));
+        assertFalse(rootDigest.equals(standIn.getTreeDigest("/")));
+    }
+
+    private DomainVO newDomain(final long id, String name, Long parentId, String path, String networkDomain) {
+        DomainVO domain = new DomainVO(name, 2, parentId, networkDomain) {
+            @Override
+            public long getId() {
+                return id;
+            }
+        };
+        domain.setPath(path);
+        return domain;
+    }
+}
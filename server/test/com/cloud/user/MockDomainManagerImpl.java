@@ -25,11 +25,13 @@ import javax.ejb.Local;
 import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.api.command.admin.domain.ListDomainChildrenCmd;
+import org.apache.cloudstack.api.command.admin.domain.ListDomainDigestsCmd;
 import org.apache.cloudstack.api.command.admin.domain.ListDomainsCmd;
 import org.springframework.stereotype.Component;
 import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
 
 import com.cloud.domain.Domain;
+import com.cloud.domain.DomainDigest;
 import com.cloud.domain.DomainVO;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.utils.Pair;
@@ -84,6 +86,13 @@ public class MockDomainManagerImpl extends ManagerBase implements DomainManager,
         return null;
     }
 
+    @Override
+    public List<? extends DomainDigest> listDomainDigests(
+            ListDomainDigestsCmd cmd) throws PermissionDeniedException {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public Set<Long> getDomainChildrenIds(String parentDomainPath) {
         // TODO Auto-generated method stub
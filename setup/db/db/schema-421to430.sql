@@ -1299,6 +1299,17 @@ CREATE VIEW `cloud`.`user_vm_view` AS
 INSERT IGNORE INTO `cloud`.`configuration`(category, instance, component, name, value, description, default_value) VALUES ('NetworkManager', 'DEFAULT', 'management-server', 'network.router.EnableServiceMonitoring', 'true', 'service monitoring in router enable/disable option, default true', 'true') ON DUPLICATE KEY UPDATE category='NetworkManager';
 
 INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.full.scan.interval', '3600000', 'The interval (in milliseconds) when full scan is processed.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.full.scan.subtree.workers', '4', 'The number of sibling domain subtrees scanned in parallel by the full scan.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.full.scan.region.concurrency', '2', 'The maximum number of concurrent full scan requests sent to each remote region.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.incremental.scan.interval', '300000', 'The interval (in milliseconds) when incremental scan is processed. Full scan is then run only every region.full.scan.interval as an anti-entropy pass. Set to 0 to run only full scans.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.digest.scan.enabled', 'true', 'If true, the periodic anti-entropy pass compares the domain digests with the remote regions and synchronizes only the domains that differ, instead of running a full scan.', NULL, NULL, NULL, false);
 INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.auto.generation.interval', '0', 'The interval (in milliseconds) when resource auto generation is processed.', NULL, NULL, NULL, false);
-
-create table rmap (id bigint(20) unsigned NOT NULL AUTO_INCREMENT, uuid varchar(40) NOT NULL, source varchar(40) NOT NULL, region_id bigint(20) unsigned NOT NULL, created timestamp NULL DEFAULT NULL, modified timestamp NULL DEFAULT NULL, removed timestamp NULL DEFAULT NULL, PRIMARY KEY (`id`));
\ No newline at end of file
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.auto.generation.mutations', '1', 'The number of random mutations applied by every resource auto generation.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.sync.benchmark.regions', '0', 'The number of in-process stand-in regions the region sync benchmark runs against, once at startup. It mutates the local region, so it is only meant for a simulator. Set to 0 to disable the benchmark.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.sync.benchmark.rate', '1', 'The mutations per second applied to every stand-in region and to the local region by the region sync benchmark.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.sync.benchmark.duration', '600000', 'How long (in milliseconds) the region sync benchmark generates mutations.', NULL, NULL, NULL, false);
+INSERT IGNORE INTO `cloud`.`configuration` VALUES ('Advanced', 'DEFAULT', 'management-server', 'region.sync.benchmark.mode', 'digest', 'The scan run by the region sync benchmark : digest, incremental or full.', NULL, NULL, NULL, false);
+
+create table rmap (id bigint(20) unsigned NOT NULL AUTO_INCREMENT, uuid varchar(40) NOT NULL, source varchar(40) NOT NULL, region_id bigint(20) unsigned NOT NULL, created timestamp NULL DEFAULT NULL, modified timestamp NULL DEFAULT NULL, removed timestamp NULL DEFAULT NULL, PRIMARY KEY (`id`));
+create table region_watermark (id bigint(20) unsigned NOT NULL AUTO_INCREMENT, region_id bigint(20) unsigned NOT NULL, last_event_created timestamp NULL DEFAULT NULL, last_event_uuid varchar(40) DEFAULT NULL, last_full_scan timestamp NULL DEFAULT NULL, PRIMARY KEY (`id`), UNIQUE KEY (`region_id`));
+create table region_outbound_queue (id bigint(20) unsigned NOT NULL AUTO_INCREMENT, region_id bigint(20) unsigned NOT NULL, entity_type varchar(32) NOT NULL, entity_uuid varchar(40) NOT NULL, method varchar(32) NOT NULL, old_name varchar(255) DEFAULT NULL, attempts int(10) unsigned NOT NULL DEFAULT 0, next_attempt timestamp NULL DEFAULT NULL, mgmt_server_id bigint(20) unsigned DEFAULT NULL, claimed timestamp NULL DEFAULT NULL, created timestamp NULL DEFAULT NULL, modified timestamp NULL DEFAULT NULL, PRIMARY KEY (`id`), KEY (`region_id`, `entity_type`, `entity_uuid`), KEY (`region_id`, `next_attempt`));
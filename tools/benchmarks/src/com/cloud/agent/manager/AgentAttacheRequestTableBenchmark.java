@@ -0,0 +1,169 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.transport.Request;
+
+/**
+ * Compares the request table of AgentAttache, a linked list sorted by binary search under the attache monitor,
+ * with the SequentialRequestQueue which replaced it, for a busy host with many requests in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AgentAttacheRequestTableBenchmark {
+
+    @Param({"16", "256", "1024"})
+    public int inFlight;
+
+    private ListRequestTable _listTable;
+    private SequentialRequestQueue _queue;
+    private AtomicLong _nextSequence;
+
+    /**
+     * The request table as AgentAttache kept it before.
+     */
+    static class ListRequestTable {
+        private static final Comparator<Object> s_seqComparator = new Comparator<Object>() {
+            @Override
+            public int compare(Object o1, Object o2) {
+                long seq1 = ((Request) o1).getSequence();
+                long seq2 = (Long) o2;
+                return seq1 < seq2 ? -1 : (seq1 > seq2 ? 1 : 0);
+            }
+        };
+
+        private final LinkedList<Request> _requests = new LinkedList<Request>();
+        private Long _currentSequence;
+        private long _nextSequence;
+
+        synchronized long getNextSequence() {
+            return ++_nextSequence;
+        }
+
+        synchronized void addRequest(Request req) {
+            int index = Collections.binarySearch(_requests, req.getSequence(), s_seqComparator);
+            _requests.add(index < 0 ? -index - 1 : index, req);
+        }
+
+        synchronized void cancel(long seq) {
+            int index = Collections.binarySearch(_requests, seq, s_seqComparator);
+            if (index >= 0) {
+                _requests.remove(index);
+            }
+        }
+
+        synchronized void send(Request req) {
+            if (_currentSequence != null) {
+                addRequest(req);
+            } else {
+                _currentSequence = req.getSequence();
+            }
+        }
+
+        synchronized void sendNext() {
+            _currentSequence = null;
+            if (!_requests.isEmpty()) {
+                _currentSequence = _requests.pop().getSequence();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        _listTable = new ListRequestTable();
+        _queue = new SequentialRequestQueue();
+        _nextSequence = new AtomicLong();
+        for (int i = 0; i < inFlight; i++) {
+            _listTable.addRequest(newRequest(_listTable.getNextSequence()));
+            _queue.add(newRequest(_nextSequence.incrementAndGet()));
+        }
+    }
+
+    private static Request newRequest(long seq) {
+        Request req = new Request(1, 1, new ReadyCommand(), true);
+        req.setSequence(seq);
+        return req;
+    }
+
+    /**
+     * A new request is queued and the oldest one is answered.
+     */
+    @Benchmark
+    public long listAddCancel() {
+        long seq = _listTable.getNextSequence();
+        _listTable.addRequest(newRequest(seq));
+        _listTable.cancel(seq - inFlight);
+        return seq;
+    }
+
+    @Benchmark
+    public long skipListAddCancel() {
+        long seq = _nextSequence.incrementAndGet();
+        _queue.add(newRequest(seq));
+        _queue.remove(seq - inFlight);
+        return seq;
+    }
+
+    /**
+     * A sequential request is sent, and the current one is answered which sends the next one.
+     */
+    @Benchmark
+    public long listSequential() {
+        long seq = _listTable.getNextSequence();
+        _listTable.send(newRequest(seq));
+        _listTable.sendNext();
+        return seq;
+    }
+
+    @Benchmark
+    public long skipListSequential() {
+        long seq = _nextSequence.incrementAndGet();
+        _queue.add(newRequest(seq));
+        _queue.next();
+        Long current = _queue.getCurrent();
+        if (current != null && _queue.complete(current)) {
+            _queue.next();
+        }
+        return seq;
+    }
+}
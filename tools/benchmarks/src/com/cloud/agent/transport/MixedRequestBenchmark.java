@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.exception.UnsupportedVersionException;
+
+/**
+ * Request.toBytes and Request.parse over the simulator mix, both directions of each exchange, with the
+ * codecs and the compressors an agent can negotiate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedRequestBenchmark {
+
+    @Param({"gson", "binary"})
+    public String codec;
+
+    @Param({"gzip", "lz"})
+    public String compression;
+
+    @Param({"20", "200"})
+    public int vms;
+
+    private Request[] _messages;
+    private byte[][] _bytes;
+    private CompressionPolicy _policy;
+    private CommandCodec _codec;
+    private int _next;
+
+    @Setup
+    public void setup() {
+        _policy = compression.equals("lz") ? CompressionPolicy.negotiated(null, CompressionPolicy.LZ) : CompressionPolicy.LEGACY;
+        _codec = Request.getCodec(codec.equals("binary") ? BinaryCommandCodec.ID : GsonCommandCodec.ID);
+
+        List<SimulatorCommandMix.Exchange> mix = SimulatorCommandMix.build(vms, 100, 42);
+        _messages = new Request[mix.size() * 2];
+        _bytes = new byte[_messages.length][];
+        long total = 0;
+        for (int i = 0; i < mix.size(); i++) {
+            _messages[2 * i] = mix.get(i).request;
+            _messages[2 * i + 1] = mix.get(i).response;
+        }
+        for (int i = 0; i < _messages.length; i++) {
+            _messages[i].setCodec(_codec);
+            _bytes[i] = toArray(_messages[i].toBytes(_policy));
+            total += _bytes[i].length;
+        }
+        System.out.println(codec + "/" + compression + " mix of " + vms + " vms: " + total / _messages.length + " bytes per message on average");
+    }
+
+    private static byte[] toArray(ByteBuffer[] buffers) {
+        int length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        ByteBuffer array = ByteBuffer.allocate(length);
+        for (ByteBuffer buffer : buffers) {
+            array.put(buffer);
+        }
+        return array.array();
+    }
+
+    private int next() {
+        int index = _next;
+        _next = index + 1 == _messages.length ? 0 : index + 1;
+        return index;
+    }
+
+    /**
+     * A new message each time, as every request and response is serialized once.
+     */
+    @Benchmark
+    public ByteBuffer[] toBytes() {
+        int index = next();
+        Request message = _messages[index];
+        Request copy;
+        if (message instanceof Response) {
+            copy = new Response(_messages[index - 1], ((Response)message).getAnswers());
+        } else {
+            copy = new Request(message.getAgentId(), message.getManagementServerId(), message.getCommands(), message.stopOnError(), message.isFromServer());
+            copy.setSequence(message.getSequence());
+        }
+        copy.setCodec(_codec);
+        return copy.toBytes(_policy);
+    }
+
+    @Benchmark
+    public Request parse() throws ClassNotFoundException, UnsupportedVersionException {
+        Request request = Request.parse(_bytes[next()]);
+        // The commands are decoded lazily, force them as the attache would
+        if (request instanceof Response) {
+            ((Response)request).getAnswers();
+        } else {
+            request.getCommands();
+        }
+        return request;
+    }
+}
@@ -0,0 +1,104 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.ClusterSyncAnswer;
+import com.cloud.agent.api.ClusterSyncCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.exception.UnsupportedVersionException;
+import com.cloud.utils.Ternary;
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * CPU per message of the Gson and the binary codec for the big answers, the vm stats of a host and
+ * the vm states of a cluster.  The bytes on the wire, after compression, are printed by the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestCodecBenchmark {
+
+    @Param({"gson", "binary"})
+    public String codec;
+
+    @Param({"vmStats", "clusterSync"})
+    public String answer;
+
+    @Param({"50", "1000"})
+    public int vms;
+
+    private Request _request;
+    private Answer[] _answers;
+    private byte[] _bytes;
+
+    @Setup
+    public void setup() {
+        _request = new Request(1, 1, answer.equals("vmStats") ? new GetVmStatsCommand(new ArrayList<String>(), "guid", "host") : new ClusterSyncCommand(), true);
+        _request.setSequence(1);
+        _request.setCodec(Request.getCodec(codec.equals("binary") ? BinaryCommandCodec.ID : GsonCommandCodec.ID));
+
+        if (answer.equals("vmStats")) {
+            HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+            for (int i = 0; i < vms; i++) {
+                stats.put("i-2-" + (1000 + i) + "-VM", new VmStatsEntry(i * 0.731, i * 1024.5, i * 2048.25, 1000 + i, 2000 + i, 2, "UserVM"));
+            }
+            _answers = new Answer[] { new GetVmStatsAnswer((GetVmStatsCommand)_request.getCommand(), stats) };
+        } else {
+            HashMap<String, Ternary<String, VirtualMachine.State, String>> states = new HashMap<String, Ternary<String, VirtualMachine.State, String>>();
+            for (int i = 0; i < vms; i++) {
+                String name = "i-2-" + (1000 + i) + "-VM";
+                states.put(name, new Ternary<String, VirtualMachine.State, String>(name, i % 10 == 0 ? VirtualMachine.State.Stopped : VirtualMachine.State.Running, "host-" + (i % 16)));
+            }
+            _answers = new Answer[] { new ClusterSyncAnswer(5, states) };
+        }
+
+        _bytes = encode();
+        System.out.println(codec + " " + answer + " of " + vms + " vms: " + _bytes.length + " bytes on the wire");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new Response(_request, _answers).getBytes();
+    }
+
+    @Benchmark
+    public Answer[] decode() throws ClassNotFoundException, UnsupportedVersionException {
+        return Response.parse(_bytes).getAnswers();
+    }
+}
@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckRouterAnswer;
+import com.cloud.agent.api.CheckRouterCommand;
+import com.cloud.agent.api.ClusterSyncAnswer;
+import com.cloud.agent.api.ClusterSyncCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsAnswer;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.NetworkUsageAnswer;
+import com.cloud.agent.api.NetworkUsageCommand;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.StopAnswer;
+import com.cloud.agent.api.StopCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.SetFirewallRulesAnswer;
+import com.cloud.agent.api.routing.SetFirewallRulesCommand;
+import com.cloud.agent.api.to.FirewallRuleTO;
+import com.cloud.host.Host;
+import com.cloud.network.rules.FirewallRule;
+import com.cloud.utils.Pair;
+import com.cloud.utils.Ternary;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+/**
+ * The requests and answers a simulator host exchanges with the management server, built the way the
+ * simulator resources build them and drawn in the proportions of a steady zone: mostly pings and stats,
+ * some router and firewall work, and the occasional stop and cluster sync.
+ */
+public class SimulatorCommandMix {
+
+    /**
+     * A request of the mix and the response to it.
+     */
+    public static class Exchange {
+        public final String name;
+        public final Request request;
+        public final Response response;
+
+        Exchange(String name, Request request, Answer... answers) {
+            this.name = name;
+            this.request = request;
+            this.response = new Response(request, answers);
+        }
+    }
+
+    private static final String[] s_names = {"ping", "hostStats", "vmStats", "checkRouter", "networkUsage", "firewall", "stop", "clusterSync"};
+    private static final int[] s_weights = {40, 12, 12, 10, 8, 8, 6, 4};
+
+    private final int _vms;
+    private long _nextSequence;
+
+    private SimulatorCommandMix(int vms) {
+        _vms = vms;
+    }
+
+    /**
+     * @param vms the vms on the simulated host, which sizes the pings and the stats.
+     * @param size the number of exchanges.
+     * @param seed so that runs draw the same mix.
+     */
+    public static List<Exchange> build(int vms, int size, long seed) {
+        SimulatorCommandMix mix = new SimulatorCommandMix(vms);
+        List<Exchange> exchanges = new ArrayList<Exchange>(size);
+        int total = 0;
+        for (int weight : s_weights) {
+            total += weight;
+        }
+        for (int i = 0; i < s_weights.length; i++) {
+            int count = Math.max(1, size * s_weights[i] / total);
+            for (int j = 0; j < count && exchanges.size() < size; j++) {
+                exchanges.add(mix.create(s_names[i]));
+            }
+        }
+        while (exchanges.size() < size) {
+            exchanges.add(mix.create(s_names[0]));
+        }
+        Collections.shuffle(exchanges, new Random(seed));
+        return exchanges;
+    }
+
+    private Request newRequest(Command cmd, boolean fromServer) {
+        Request request = new Request(1, 1, cmd, fromServer);
+        request.setSequence(++_nextSequence);
+        return request;
+    }
+
+    private static String vmName(int i) {
+        return "i-2-" + (1000 + i) + "-VM";
+    }
+
+    private Exchange create(String name) {
+        if (name.equals("ping")) {
+            HashMap<String, VirtualMachine.State> states = new HashMap<String, VirtualMachine.State>();
+            HashMap<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+            for (int i = 0; i < _vms; i++) {
+                report.put(vmName(i), new HostVmStateReportEntry(i % 10 == 0 ? PowerState.PowerOff : PowerState.PowerOn, "SimulatedHost-1", null));
+            }
+            HashMap<String, Pair<Long, Long>> nwGrpStates = new HashMap<String, Pair<Long, Long>>();
+            for (int i = 0; i < _vms; i += 4) {
+                nwGrpStates.put(vmName(i), new Pair<Long, Long>((long)i, 1L));
+            }
+            PingRoutingWithNwGroupsCommand ping = new PingRoutingWithNwGroupsCommand(Host.Type.Routing, 1, states, report, nwGrpStates);
+            return new Exchange(name, newRequest(ping, false), new PingAnswer(ping));
+        } else if (name.equals("hostStats")) {
+            GetHostStatsCommand cmd = new GetHostStatsCommand("guid-1", "SimulatedHost-1", 1);
+            HostStatsEntry stats = new HostStatsEntry(1, 17.5, 1024.25, 2048.5, "host", 16777216, 8388608, 0, 1.5);
+            return new Exchange(name, newRequest(cmd, true), new GetHostStatsAnswer(cmd, stats));
+        } else if (name.equals("vmStats")) {
+            List<String> vmNames = new ArrayList<String>();
+            HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+            for (int i = 0; i < _vms; i++) {
+                vmNames.add(vmName(i));
+                stats.put(vmName(i), new VmStatsEntry(i * 0.731, i * 1024.5, i * 2048.25, 1000 + i, 2000 + i, 2, "UserVM"));
+            }
+            GetVmStatsCommand cmd = new GetVmStatsCommand(vmNames, "guid-1", "SimulatedHost-1");
+            return new Exchange(name, newRequest(cmd, true), new GetVmStatsAnswer(cmd, stats));
+        } else if (name.equals("checkRouter")) {
+            CheckRouterCommand cmd = new CheckRouterCommand();
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.10");
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, "r-4-VM");
+            return new Exchange(name, newRequest(cmd, true), new CheckRouterAnswer(cmd, "Status: MASTER & Bumped: NO", true));
+        } else if (name.equals("networkUsage")) {
+            NetworkUsageCommand cmd = new NetworkUsageCommand("169.254.1.10", "r-4-VM", false, "10.1.1.1");
+            return new Exchange(name, newRequest(cmd, true), new NetworkUsageAnswer(cmd, null, 100L, 100L));
+        } else if (name.equals("firewall")) {
+            List<FirewallRuleTO> rules = new ArrayList<FirewallRuleTO>();
+            for (int i = 0; i < 8; i++) {
+                rules.add(new FirewallRuleTO(i, "10.1.1." + (10 + i), "tcp", 22 + i, 22 + i, false, false, FirewallRule.Purpose.Firewall,
+                        Arrays.asList("0.0.0.0/0"), null, null));
+            }
+            SetFirewallRulesCommand cmd = new SetFirewallRulesCommand(rules);
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.10");
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, "r-4-VM");
+            return new Exchange(name, newRequest(cmd, true), new SetFirewallRulesAnswer(cmd, true, new String[rules.size()]));
+        } else if (name.equals("stop")) {
+            StopCommand cmd = new StopCommand(vmName(0), true);
+            return new Exchange(name, newRequest(cmd, true), new StopAnswer(cmd, "Stopped", true));
+        } else {
+            HashMap<String, Ternary<String, VirtualMachine.State, String>> states = new HashMap<String, Ternary<String, VirtualMachine.State, String>>();
+            for (int i = 0; i < _vms * 4; i++) {
+                states.put(vmName(i), new Ternary<String, VirtualMachine.State, String>(vmName(i), i % 10 == 0 ? VirtualMachine.State.Stopped : VirtualMachine.State.Running, "host-" + (i % 4)));
+            }
+            ClusterSyncCommand cmd = new ClusterSyncCommand(60, 1);
+            return new Exchange(name, newRequest(cmd, true), new ClusterSyncAnswer(1, states));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.serializer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.transport.SimulatorCommandMix;
+import com.google.gson.Gson;
+
+/**
+ * The Gson of GsonHelper, with its array and interface type adaptors, over the commands and answers of the
+ * simulator mix.  The logging Gson is measured too since every request logged at debug goes through it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonHelperBenchmark {
+
+    @Param({"20", "200"})
+    public int vms;
+
+    private Gson _gson;
+    private Gson _gogger;
+    private Command[][] _commands;
+    private Answer[][] _answers;
+    private String[] _commandJson;
+    private String[] _answerJson;
+    private int _next;
+
+    @Setup
+    public void setup() {
+        _gson = GsonHelper.getGson();
+        _gogger = GsonHelper.getGsonLogger();
+
+        List<SimulatorCommandMix.Exchange> mix = SimulatorCommandMix.build(vms, 100, 42);
+        _commands = new Command[mix.size()][];
+        _answers = new Answer[mix.size()][];
+        _commandJson = new String[mix.size()];
+        _answerJson = new String[mix.size()];
+        for (int i = 0; i < mix.size(); i++) {
+            _commands[i] = mix.get(i).request.getCommands();
+            _answers[i] = mix.get(i).response.getAnswers();
+            _commandJson[i] = _gson.toJson(_commands[i], Command[].class);
+            _answerJson[i] = _gson.toJson(_answers[i], Answer[].class);
+        }
+    }
+
+    private int next() {
+        int index = _next;
+        _next = index + 1 == _commands.length ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public String serializeCommands() {
+        return _gson.toJson(_commands[next()], Command[].class);
+    }
+
+    @Benchmark
+    public String serializeAnswers() {
+        return _gson.toJson(_answers[next()], Answer[].class);
+    }
+
+    @Benchmark
+    public Command[] deserializeCommands() {
+        return _gson.fromJson(_commandJson[next()], Command[].class);
+    }
+
+    @Benchmark
+    public Answer[] deserializeAnswers() {
+        return _gson.fromJson(_answerJson[next()], Answer[].class);
+    }
+
+    @Benchmark
+    public String logCommands() {
+        return _gogger.toJson(_commands[next()], Command[].class);
+    }
+}
@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.NoOp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.utils.Pair;
+import com.cloud.vm.VMInstanceVO;
+
+/**
+ * Turning vm_instance rows into entities, the way toEntityBean did it with a lookup and a type switch per column of
+ * every row, against the row mapper, for daos that track updates and for read only ones.  The rows come from an in
+ * memory result set, so the numbers are the dao's share of a large listing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityMappingBenchmark {
+
+    static class VmDao extends GenericDaoBase<VMInstanceVO, Long> {
+        List<VMInstanceVO> list(ResultSet rs) throws SQLException {
+            List<VMInstanceVO> result = new ArrayList<VMInstanceVO>();
+            while (rs.next()) {
+                result.add(toEntityBean(rs, false));
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<VMInstanceVO> listPerColumn(ResultSet rs) throws SQLException {
+            List<VMInstanceVO> result = new ArrayList<VMInstanceVO>();
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                VMInstanceVO entity = (VMInstanceVO)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+                for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
+                    setField(entity, rs, meta, index);
+                }
+                result.add(entity);
+            }
+            return result;
+        }
+    }
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean readOnly;
+
+    VmDao _dao;
+    String[] _tables;
+    String[] _columns;
+    Object[] _values;
+
+    @Setup
+    public void setup() {
+        _dao = new VmDao();
+        _dao._readOnly = readOnly;
+        List<Pair<String, String>> columns = new ArrayList<Pair<String, String>>();
+        for (Map.Entry<Pair<String, String>, Attribute> column : _dao._allColumns.entrySet()) {
+            // discriminators and the keys joining secondary tables are not selected
+            if (column.getValue().field != null) {
+                columns.add(column.getKey());
+            }
+        }
+        _tables = new String[columns.size() + 1];
+        _columns = new String[columns.size() + 1];
+        _values = new Object[columns.size() + 1];
+        for (int index = 1; index <= columns.size(); index++) {
+            Pair<String, String> column = columns.get(index - 1);
+            _tables[index] = column.first();
+            _columns[index] = column.second();
+            _values[index] = valueOf(_dao._allColumns.get(column).field.getType());
+        }
+    }
+
+    static Object valueOf(Class<?> type) {
+        if (type == String.class) {
+            return "i-2-1234-VM";
+        } else if (type == Date.class) {
+            return "2014-01-01 00:00:00";
+        } else if (type.isEnum()) {
+            return ((Enum<?>)type.getEnumConstants()[0]).name();
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.TRUE;
+        }
+        return 1234L;
+    }
+
+    @Benchmark
+    public List<VMInstanceVO> rowMapper() throws SQLException {
+        return _dao.list(resultSet());
+    }
+
+    @Benchmark
+    public List<VMInstanceVO> perColumn() throws SQLException {
+        return _dao.listPerColumn(resultSet());
+    }
+
+    ResultSet resultSet() {
+        final ResultSetMetaData meta = (ResultSetMetaData)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getColumnCount")) {
+                            return _columns.length - 1;
+                        } else if (name.equals("getTableName")) {
+                            return _tables[(Integer)args[0]];
+                        }
+                        return _columns[(Integer)args[0]];
+                    }
+                });
+        return (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+            int _row;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++_row <= rows;
+                } else if (name.equals("getMetaData")) {
+                    return meta;
+                } else if (name.equals("wasNull")) {
+                    return false;
+                }
+                Object value = _values[(Integer)args[0]];
+                if (name.equals("getLong")) {
+                    return value instanceof Long ? (Long)value : 0L;
+                } else if (name.equals("getInt")) {
+                    return value instanceof Long ? ((Long)value).intValue() : 0;
+                } else if (name.equals("getBoolean")) {
+                    return value == Boolean.TRUE;
+                } else if (name.equals("getString")) {
+                    return value.toString();
+                } else if (name.equals("getBytes")) {
+                    return value.toString().getBytes("UTF-8");
+                } else if (name.equals("getDate")) {
+                    return new java.sql.Date(0);
+                }
+                return value;
+            }
+        });
+    }
+}
@@ -0,0 +1,167 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.host.HostVO;
+import com.cloud.utils.db.SearchCriteria.Op;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * The cpu a dao spends on a search before and after the database: rendering the sql, preparing and binding the
+ * statement.  The connection is a stand-in that prepares statements returning no rows, so what is left is the dao
+ * layer itself, with the sql rendered once per shape of criteria or on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GenericDaoSearchBenchmark {
+
+    static class VmDao extends GenericDaoBase<VMInstanceVO, Long> {
+        boolean _render;
+
+        @Override
+        protected String getSearchSql(SearchCriteria<?> sc, int kind, Filter filter) {
+            return _render ? buildSearchSql(sc, kind, null) : super.getSearchSql(sc, kind, filter);
+        }
+    }
+
+    static class HostDao extends GenericDaoBase<HostVO, Long> {
+    }
+
+    static final VmDao s_vmDao = new VmDao();
+    static final SearchBuilder<VMInstanceVO> s_hostStates;
+    static final SearchBuilder<VMInstanceVO> s_clusterStates;
+
+    static {
+        s_hostStates = s_vmDao.createSearchBuilder();
+        s_hostStates.and("host", s_hostStates.entity().getHostId(), Op.EQ);
+        s_hostStates.and("type", s_hostStates.entity().getType(), Op.EQ);
+        s_hostStates.and("states", s_hostStates.entity().getState(), Op.IN);
+        s_hostStates.done();
+
+        HostDao hostDao = new HostDao();
+        SearchBuilder<HostVO> hostSearch = hostDao.createSearchBuilder();
+        hostSearch.and("cluster", hostSearch.entity().getClusterId(), Op.EQ);
+        s_clusterStates = s_vmDao.createSearchBuilder();
+        s_clusterStates.and("states", s_clusterStates.entity().getState(), Op.IN);
+        s_clusterStates.join("host", hostSearch, hostSearch.entity().getId(), s_clusterStates.entity().getHostId(), JoinBuilder.JoinType.INNER);
+        s_clusterStates.done();
+    }
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    TransactionLegacy _txn;
+    Filter _filter;
+    long _next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        s_vmDao._render = !cached;
+        _txn = TransactionLegacy.open("GenericDaoSearchBenchmark");
+        _txn.setConnection(stub(Connection.class));
+        _filter = new Filter(VMInstanceVO.class, "id", true, 0L, 100L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _txn.setConnection(null);
+        _txn.close();
+    }
+
+    @Benchmark
+    public List<VMInstanceVO> searchByHost() {
+        SearchCriteria<VMInstanceVO> sc = s_hostStates.create();
+        sc.setParameters("host", ++_next);
+        sc.setParameters("type", VirtualMachine.Type.User);
+        sc.setParameters("states", VirtualMachine.State.Running, VirtualMachine.State.Stopping);
+        return s_vmDao.search(sc, null);
+    }
+
+    @Benchmark
+    public List<VMInstanceVO> searchByClusterJoin() {
+        SearchCriteria<VMInstanceVO> sc = s_clusterStates.create();
+        sc.setParameters("states", VirtualMachine.State.Running, VirtualMachine.State.Starting, VirtualMachine.State.Stopping);
+        sc.setJoinParameters("host", "cluster", ++_next);
+        return s_vmDao.search(sc, _filter);
+    }
+
+    @Benchmark
+    public Integer countByHost() {
+        SearchCriteria<VMInstanceVO> sc = s_hostStates.create();
+        sc.setParameters("host", ++_next);
+        sc.setParameters("states", VirtualMachine.State.Running);
+        return s_vmDao.getCount(sc);
+    }
+
+    /**
+     * Jdbc objects that do nothing: every statement returns an empty result set.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T stub(final Class<T> type) {
+        return (T)Proxy.newProxyInstance(GenericDaoSearchBenchmark.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                Class<?> returnType = method.getReturnType();
+                if (name.equals("toString")) {
+                    return type.getSimpleName();
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (returnType == PreparedStatement.class || returnType == ResultSet.class) {
+                    return stub(returnType);
+                } else if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                }
+                return null;
+            }
+        });
+    }
+}
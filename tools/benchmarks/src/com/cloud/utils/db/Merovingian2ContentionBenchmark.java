@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Threads taking a few db locks in turn, as lockRow does for ip allocation and vm start, each holding it for a
+ * short transaction.  The sampled acquire and release time gives the percentiles of the wait, polling against being
+ * woken by the release.  Needs the database of db.properties, like Merovingian2Test.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@Threads(8)
+public class Merovingian2ContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LockMaster {
+        @Param({"false", "true"})
+        public boolean notify;
+
+        @Param({"1", "4"})
+        public int connections;
+
+        @Param({"1", "4"})
+        public int keys;
+
+        @Param({"2"})
+        public int holdMillis;
+
+        Merovingian2 _lockMaster;
+
+        @Setup
+        public void setup() {
+            _lockMaster = Merovingian2.createLockMaster(9999, notify, connections);
+        }
+
+        @TearDown
+        public void tearDown() {
+            _lockMaster.cleanupThisServer();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        int _next;
+    }
+
+    @Benchmark
+    public boolean acquireRelease(LockMaster master, Worker worker) throws InterruptedException {
+        String key = "bench-" + (worker._next++ % master.keys);
+        if (!master._lockMaster.acquire(key, 600)) {
+            throw new IllegalStateException("Timed out on " + key);
+        }
+        try {
+            Thread.sleep(master.holdMillis);
+        } finally {
+            master._lockMaster.release(key);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.nio;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.SimulatorCommandMix;
+
+/**
+ * The SSL framing of Link over a loopback connection: an agent writes the serialized messages of the
+ * simulator mix with Link.write and the management server reads them back with Link.read, which wraps,
+ * splits into records, unwraps and reassembles each one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkFramingBenchmark {
+
+    @Param({"20", "200"})
+    public int vms;
+
+    private ServerSocketChannel _acceptor;
+    private SocketChannel _client;
+    private SocketChannel _server;
+    private SSLEngine _clientEngine;
+    private Link _serverLink;
+    private ExecutorService _writer;
+    private byte[][] _messages;
+    private int _next;
+
+    @Setup
+    public void setup() throws Exception {
+        List<SimulatorCommandMix.Exchange> mix = SimulatorCommandMix.build(vms, 100, 42);
+        _messages = new byte[mix.size() * 2][];
+        for (int i = 0; i < mix.size(); i++) {
+            _messages[2 * i] = mix.get(i).request.getBytes();
+            _messages[2 * i + 1] = mix.get(i).response.getBytes();
+        }
+
+        _acceptor = ServerSocketChannel.open();
+        _acceptor.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        _client = SocketChannel.open(_acceptor.socket().getLocalSocketAddress());
+        _server = _acceptor.accept();
+
+        _clientEngine = Link.initSSLContext(true).createSSLEngine();
+        _clientEngine.setUseClientMode(true);
+        final SSLEngine serverEngine = initServerSSLContext().createSSLEngine();
+        serverEngine.setUseClientMode(false);
+
+        _writer = Executors.newSingleThreadExecutor();
+        Future<Void> handshake = _writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Link.doHandshake(_server, serverEngine, false);
+                return null;
+            }
+        });
+        Link.doHandshake(_client, _clientEngine, true);
+        handshake.get();
+
+        _serverLink = new Link((InetSocketAddress)_client.socket().getLocalSocketAddress(), null);
+        _serverLink.setSSLEngine(serverEngine);
+    }
+
+    /**
+     * The context of the management server, from the fail-safe keystore since there is no db.properties.
+     */
+    private static SSLContext initServerSSLContext() throws Exception {
+        char[] passphrase = "vmops.com".toCharArray();
+        KeyStore ks = KeyStore.getInstance("JKS");
+        InputStream stream = NioConnection.class.getResourceAsStream("/cloud.keystore");
+        try {
+            ks.load(stream, passphrase);
+        } finally {
+            stream.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, passphrase);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(ks);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _writer.shutdownNow();
+        _client.close();
+        _server.close();
+        _acceptor.close();
+    }
+
+    /**
+     * One message from the agent to the management server.  The write is on another thread since the
+     * larger messages don't fit in the socket buffers.
+     */
+    @Benchmark
+    public byte[] writeRead() throws Exception {
+        int index = _next;
+        _next = index + 1 == _messages.length ? 0 : index + 1;
+        final ByteBuffer[] data = new ByteBuffer[] {ByteBuffer.wrap(_messages[index])};
+        Future<Void> write = _writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Link.write(_client, data, _clientEngine);
+                return null;
+            }
+        });
+
+        byte[] read;
+        while ((read = _serverLink.read(_server)) == null) {
+        }
+        write.get();
+        if (read.length != _messages[index].length || Request.getSequence(read) != Request.getSequence(_messages[index])) {
+            throw new IllegalStateException("Read a different message than was written");
+        }
+        return read;
+    }
+}
@@ -86,6 +86,7 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.StreamHandler;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.event.dao.UsageEventDetailsDao;
 
@@ -418,57 +419,44 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             TransactionLegacy userTxn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
             try {
                 Long limit = Long.valueOf(500);
-                Long offset = Long.valueOf(0);
                 Long lastAccountId = m_usageDao.getLastAccountId();
                 if (lastAccountId == null) {
                     lastAccountId = Long.valueOf(0);
                 }
 
+                Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
                     accounts = m_accountDao.findActiveAccounts(lastAccountId, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
+                        filter.seekAfterEntity(accounts.get(accounts.size() - 1));
                         // now update the accounts in the cloud_usage db
                         m_usageDao.updateAccounts(accounts);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
+                filter = new Filter(AccountVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
                     accounts = m_accountDao.findRecentlyDeletedAccounts(lastAccountId, startDate, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
+                        filter.seekAfterEntity(accounts.get(accounts.size() - 1));
                         // now update the accounts in the cloud_usage db
                         m_usageDao.updateAccounts(accounts);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
+                filter = new Filter(AccountVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
                     accounts = m_accountDao.findNewAccounts(lastAccountId, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
+                        filter.seekAfterEntity(accounts.get(accounts.size() - 1));
                         // now copy the accounts to cloud_usage db
                         m_usageDao.saveAccounts(accounts);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 // get all the user stats to create usage records for the network usage
                 Long lastUserStatsId = m_usageDao.getLastUserStatsId();
                 if (lastUserStatsId == null) {
@@ -477,38 +465,30 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                 SearchCriteria<UserStatisticsVO> sc2 = m_userStatsDao.createSearchCriteria();
                 sc2.addAnd("id", SearchCriteria.Op.LTEQ, lastUserStatsId);
+                filter = new Filter(UserStatisticsVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, offset, limit);
-
                     userStats = m_userStatsDao.search(sc2, filter);
 
                     if ((userStats != null) && !userStats.isEmpty()) {
+                        filter.seekAfterEntity(userStats.get(userStats.size() - 1));
                         // now copy the accounts to cloud_usage db
                         m_usageDao.updateUserStats(userStats);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((userStats != null) && !userStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 sc2 = m_userStatsDao.createSearchCriteria();
                 sc2.addAnd("id", SearchCriteria.Op.GT, lastUserStatsId);
+                filter = new Filter(UserStatisticsVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, offset, limit);
-
                     userStats = m_userStatsDao.search(sc2, filter);
 
                     if ((userStats != null) && !userStats.isEmpty()) {
+                        filter.seekAfterEntity(userStats.get(userStats.size() - 1));
                         // now copy the accounts to cloud_usage db
                         m_usageDao.saveUserStats(userStats);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((userStats != null) && !userStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 // get all the vm network stats to create usage_vm_network records for the vm network usage
                 Long lastVmDiskStatsId = m_usageDao.getLastVmDiskStatsId();
                 if (lastVmDiskStatsId == null) {
@@ -516,66 +496,62 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 }
                 SearchCriteria<VmDiskStatisticsVO> sc4 = m_vmDiskStatsDao.createSearchCriteria();
                 sc4.addAnd("id", SearchCriteria.Op.LTEQ, lastVmDiskStatsId);
+                filter = new Filter(VmDiskStatisticsVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, offset, limit);
-
                     vmDiskStats = m_vmDiskStatsDao.search(sc4, filter);
 
                     if ((vmDiskStats != null) && !vmDiskStats.isEmpty()) {
+                        filter.seekAfterEntity(vmDiskStats.get(vmDiskStats.size() - 1));
                         // now copy the accounts to cloud_usage db
                         m_usageDao.updateVmDiskStats(vmDiskStats);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((vmDiskStats != null) && !vmDiskStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 sc4 = m_vmDiskStatsDao.createSearchCriteria();
                 sc4.addAnd("id", SearchCriteria.Op.GT, lastVmDiskStatsId);
+                filter = new Filter(VmDiskStatisticsVO.class, "id", true, 0L, limit);
                 do {
-                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, offset, limit);
-
                     vmDiskStats = m_vmDiskStatsDao.search(sc4, filter);
 
                     if ((vmDiskStats != null) && !vmDiskStats.isEmpty()) {
+                        filter.seekAfterEntity(vmDiskStats.get(vmDiskStats.size() - 1));
                         // now copy the accounts to cloud_usage db
                         m_usageDao.saveVmDiskStats(vmDiskStats);
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((vmDiskStats != null) && !vmDiskStats.isEmpty());
 
             } finally {
                 userTxn.close();
             }
 
-            // TODO:  Fetch a maximum number of events and process them before moving on to the next range of events
-
-            // - get a list of the latest events
             // - insert the latest events into the usage.events table
-            List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
+            _usageEventDao.copyRecentEvents(new Date(endDateMillis));
 
             
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
             try {
                 usageTxn.start();
 
-                // make sure start date is before all of our un-processed events (the events are ordered oldest
-                // to newest, so just test against the first event)
-                if ((events != null) && (events.size() > 0)) {
-                    Date oldestEventDate = events.get(0).getCreateDate();
-                    if (oldestEventDate.getTime() < startDateMillis) {
-                        startDateMillis = oldestEventDate.getTime();
-                        startDate = new Date(startDateMillis);
-                    }
-
-                    // - loop over the list of events and create entries in the helper tables
-                    // - create the usage records using the parse methods below
-                    for (UsageEventVO event : events) {
+                // - loop over the latest events, a batch at a time, and create entries in the helper tables
+                // - create the usage records using the parse methods below
+                final Date[] oldestEventDate = new Date[1];
+                _usageEventDao.streamLatestEvents(new Date(endDateMillis), new StreamHandler<UsageEventVO>() {
+                    @Override
+                    public boolean handle(UsageEventVO event) {
+                        if (oldestEventDate[0] == null || event.getCreateDate().before(oldestEventDate[0])) {
+                            oldestEventDate[0] = event.getCreateDate();
+                        }
                         event.setProcessed(true);
                         _usageEventDao.update(event.getId(), event);
                         createHelperRecord(event);
+                        return true;
                     }
+                });
+
+                // make sure start date is before all of our un-processed events
+                if (oldestEventDate[0] != null && oldestEventDate[0].getTime() < startDateMillis) {
+                    startDateMillis = oldestEventDate[0].getTime();
+                    startDate = new Date(startDateMillis);
                 }
 
                 // TODO:  Fetch a maximum number of user stats and process them before moving on to the next range of user stats
@@ -699,19 +675,18 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 }
                 
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() -endDate.getTime() < 60000)){
-                    Long offset = Long.valueOf(0);
                     Long limit = Long.valueOf(500);
 
+                    Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
                     do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
                         accounts = m_accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
+                            filter.seekAfterEntity(accounts.get(accounts.size() - 1));
                             for (AccountVO account : accounts) {
                                 parsed = parseHelperTables(account, currentStartDate, currentEndDate);
                                 numAcctsProcessed++;
                             }
                         }
-                        offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
 
                     if (s_logger.isDebugEnabled()) {
@@ -719,15 +694,12 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     }
                     numAcctsProcessed = 0;
 
-                    // reset offset
-                    offset = Long.valueOf(0);
-
+                    filter = new Filter(AccountVO.class, "id", true, 0L, limit);
                     do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
                         accounts = m_accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
 
                         if ((accounts != null) && !accounts.isEmpty()) {
+                            filter.seekAfterEntity(accounts.get(accounts.size() - 1));
                             for (AccountVO account : accounts) {
                                 parsed = parseHelperTables(account, currentStartDate, currentEndDate);
                                 List<Long> publicTemplates = m_usageDao.listPublicTemplatesByAccount(account.getId());
@@ -748,7 +720,6 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                                 numAcctsProcessed++;
                             }
                         }
-                        offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
 
                     currentStartDate = new Date(currentEndDate.getTime() + 1);
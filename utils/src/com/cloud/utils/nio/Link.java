@@ -49,6 +49,9 @@ import com.cloud.utils.PropertiesUtil;
 public class Link {
     private static final Logger s_logger = Logger.getLogger(Link.class);
 
+    /* Queued after the last data to close the link once it is written */
+    private static final ByteBuffer[] CLOSE = new ByteBuffer[0];
+
     private final InetSocketAddress _addr;
     private final NioConnection _connection;
     private SelectionKey _key;
@@ -58,6 +61,7 @@ public class Link {
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
+    private volatile double _writeThroughput;
 
     private SSLEngine _sslEngine;
 
@@ -135,13 +139,63 @@ public class Link {
     }
      */
 
+    /**
+     * The buffers records are wrapped into and unwrapped from.  They are only used for the duration of a call,
+     * so every thread, in practice every selector, keeps one set of direct buffers for all its links instead of
+     * allocating them per call.  They are sized from the SSLSession and reallocated if a session needs more.
+     */
+    protected static class SSLBuffers {
+        private static final ThreadLocal<SSLBuffers> s_buffers = new ThreadLocal<SSLBuffers>() {
+            @Override
+            protected SSLBuffers initialValue() {
+                return new SSLBuffers();
+            }
+        };
+
+        private final ByteBuffer _headBuf = ByteBuffer.allocateDirect(4);
+        private ByteBuffer _pkgBuf;
+        private ByteBuffer _appBuf;
+        private final ByteBuffer[] _frame = new ByteBuffer[2];
+
+        public static SSLBuffers get() {
+            return s_buffers.get();
+        }
+
+        public ByteBuffer getPacketBuffer(SSLSession sslSession) {
+            int size = sslSession.getPacketBufferSize() + 40;
+            if (_pkgBuf == null || _pkgBuf.capacity() < size) {
+                _pkgBuf = ByteBuffer.allocateDirect(size);
+            }
+            _pkgBuf.clear();
+            return _pkgBuf;
+        }
+
+        public ByteBuffer getAppBuffer(SSLSession sslSession) {
+            int size = sslSession.getApplicationBufferSize() + 40;
+            if (_appBuf == null || _appBuf.capacity() < size) {
+                _appBuf = ByteBuffer.allocateDirect(size);
+            }
+            _appBuf.clear();
+            return _appBuf;
+        }
+
+        /**
+         * @return the frame header and the packet, to be written with one gathering write.
+         */
+        public ByteBuffer[] getFrame(int header, ByteBuffer pkgBuf) {
+            _headBuf.clear();
+            _headBuf.putInt(header);
+            _headBuf.flip();
+            _frame[0] = _headBuf;
+            _frame[1] = pkgBuf;
+            return _frame;
+        }
+    }
+
     private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
-        SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        SSLBuffers sslBuffers = SSLBuffers.get();
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
         int totalLen = 0;
         for (ByteBuffer buffer : buffers) {
             totalLen += buffer.limit();
@@ -149,8 +203,7 @@ public class Link {
 
         int processedLen = 0;
         while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
+            ByteBuffer pkgBuf = sslBuffers.getPacketBuffer(sslEngine.getSession());
             engResult = sslEngine.wrap(buffers, pkgBuf);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
                     engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
@@ -163,29 +216,19 @@ public class Link {
                 processedLen += buffer.position();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
+            int header = pkgBuf.position();
+            long remaining = 4 + header;
             pkgBuf.flip();
             if (processedLen < totalLen) {
                 header = header | HEADER_FLAG_FOLLOWING;
             }
-            headBuf.putInt(header);
-            headBuf.flip();
 
-            while (headRemaining > 0) {
+            ByteBuffer[] frame = sslBuffers.getFrame(header, pkgBuf);
+            while (remaining > 0) {
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                    s_logger.trace("Writing " + remaining);
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
-                }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+                remaining -= ch.write(frame);
             }
         }
     }
@@ -208,6 +251,10 @@ public class Link {
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int      MAX_SIZE_PER_PACKET = 18000;
     protected static final int      HEADER_FLAG_FOLLOWING = 0x10000;
+    /* Smaller writes go into the socket buffer at once and tell nothing about the speed of the link */
+    protected static final int      THROUGHPUT_SAMPLE_SIZE = 64 * 1024;
+    /* The plaintext buffer of a link is reused for the next message unless it grew beyond this */
+    protected static final int      MAX_KEPT_PLAINTEXT_SIZE = 256 * 1024;
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
@@ -234,10 +281,6 @@ public class Link {
                 throw new IOException("Wrong packet size: " + readSize);
             }
 
-            if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
-            }
-
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
                 _gotFollowingPacket = true;
             } else {
@@ -269,15 +312,13 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
-        SSLSession sslSession = _sslEngine.getSession();
+        ByteBuffer appBuf = SSLBuffers.get().getAppBuffer(_sslEngine.getSession());
         SSLEngineResult engResult;
         int remaining = 0;
 
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
+            appBuf.clear();
             engResult = _sslEngine.unwrap(_readBuffer, appBuf);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED &&
                     engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
@@ -289,17 +330,30 @@ public class Link {
             }
 
             appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Done with packet: " + appBuf.limit());
+            }
+
+            if (!_gotFollowingPacket && !_readBuffer.hasRemaining() && (_plaintextBuffer == null || _plaintextBuffer.position() == 0)) {
+                // The whole message is in this record, which is the common case, so it goes straight to its array
+                _readBuffer.clear();
+                _readHeader = true;
+                byte[] result = new byte[appBuf.remaining()];
+                appBuf.get(result);
+                return result;
+            }
+
+            if (_plaintextBuffer == null || _plaintextBuffer.remaining() < appBuf.remaining()) {
                 // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
+                int capacity = _plaintextBuffer == null ? appBuf.capacity() : _plaintextBuffer.capacity();
+                ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(capacity * 2, (_plaintextBuffer == null ? 0 : _plaintextBuffer.position()) + appBuf.remaining()));
+                if (_plaintextBuffer != null) {
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                }
                 _plaintextBuffer = newBuffer;
             }
             _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
-            }
         }
 
         _readBuffer.clear();
@@ -309,6 +363,12 @@ public class Link {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            if (_plaintextBuffer.capacity() > MAX_KEPT_PLAINTEXT_SIZE) {
+                // Don't hold on to the buffer of an unusually large message
+                _plaintextBuffer = null;
+            } else {
+                _plaintextBuffer.clear();
+            }
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -327,24 +387,17 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _writeQueue.add(data);
         if  (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE);
         }
         synchronized (this) {
             if (_key == null) {
@@ -367,21 +420,39 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            long size = 0;
+            for (ByteBuffer buffer : data) {
+                size += buffer.remaining();
+            }
+            long start = System.nanoTime();
+            doWrite(ch, data, _sslEngine);
+            if (size >= THROUGHPUT_SAMPLE_SIZE) {
+                updateWriteThroughput(size, System.nanoTime() - start);
+            }
         }
         return false;
     }
 
+    private void updateWriteThroughput(long size, long nanos) {
+        double sample = size * 1000000.0 / Math.max(nanos, 1);
+        double throughput = _writeThroughput;
+        _writeThroughput = throughput == 0 ? sample : throughput * 0.7 + sample * 0.3;
+    }
+
+    /**
+     * @return an estimate of the bytes per millisecond the link takes, measured on the large writes, or 0 until there was one.
+     */
+    public double getWriteThroughput() {
+        return _writeThroughput;
+    }
+
     public InetSocketAddress getSocketAddress() {
         return _addr;
     }
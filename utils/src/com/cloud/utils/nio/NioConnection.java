@@ -27,11 +27,13 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -54,10 +56,17 @@ public abstract class NioConnection implements Runnable {
     protected boolean _isRunning;
     protected boolean _isStartup;
     protected int _port;
-    protected List<ChangeRequest> _todos;
+    protected SelectorLoop _mainLoop;
+    protected SelectorLoop[] _ioLoops;
+    protected int _ioSelectors;
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
+    protected ThreadPoolExecutor _sslHandshakeExecutor;
+    protected SSLContext _serverSslContext;
+
+    /* Same as the read timeout of the blocking handshake */
+    protected static final long HANDSHAKE_TIMEOUT = 10 * 1000;
     
     public NioConnection(String name, int port, int workers, HandlerFactory factory) {
         _name = name;
@@ -67,18 +76,39 @@ public abstract class NioConnection implements Runnable {
         _port = port;
         _factory = factory;
         _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+        _ioSelectors = 1;
+        _ioLoops = new SelectorLoop[0];
+        // only the delegated tasks of the handshakes run there, they are CPU bound
+        int handshakers = Runtime.getRuntime().availableProcessors();
+        _sslHandshakeExecutor = new ThreadPoolExecutor(handshakers, handshakers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handshake"));
+        _sslHandshakeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Spreads the I/O of the links over the given number of selector threads, the connections being accepted
+     * by one more.  With a single selector, the default, the one thread does everything.  Has to be set before start().
+     */
+    public void setIoSelectors(int ioSelectors) {
+        _ioSelectors = ioSelectors;
     }
 
     public void start() {
-        _todos = new ArrayList<ChangeRequest>();
-        
+        _mainLoop = new SelectorLoop();
+        _ioLoops = new SelectorLoop[_ioSelectors > 1 ? _ioSelectors : 0];
+        for (int i = 0; i < _ioLoops.length; i++) {
+            _ioLoops[i] = new SelectorLoop();
+        }
+
         _thread = new Thread(this, _name + "-Selector");
         _isRunning = true;
         _thread.start();
-        // Wait until we got init() done
+        // Wait until we got init() done, the thread may be done with it before we get here,
+        // and if init() fails the thread ends, which notifies too
         synchronized(_thread) {
             try {
-                _thread.wait();
+                while (!_isStartup && _thread.isAlive()) {
+                    _thread.wait();
+                }
             } catch (InterruptedException e) {
                 s_logger.warn("Interrupted start thread ", e);
             }
@@ -87,10 +117,16 @@ public abstract class NioConnection implements Runnable {
 
     public void stop() {
     	_executor.shutdown();
+        _sslHandshakeExecutor.shutdownNow();
         _isRunning = false;
         if (_thread != null) {
             _thread.interrupt();
         }
+        for (SelectorLoop loop : _ioLoops) {
+            if (loop._thread != null) {
+                loop._thread.interrupt();
+            }
+        }
     }
     
     public boolean isRunning() {
@@ -105,6 +141,9 @@ public abstract class NioConnection implements Runnable {
     public void run() {
     	synchronized(_thread) {
     		try {
+    			for (SelectorLoop loop : _ioLoops) {
+    			    loop._selector = Selector.open();
+    			}
     			init();
     		} catch (ConnectException e) {
                 s_logger.warn("Unable to connect to remote: is there a server running on port " + _port);
@@ -116,53 +155,17 @@ public abstract class NioConnection implements Runnable {
     			s_logger.error("Unable to initialize the threads due to unknown exception.", e);
     			return;
     		}
+    		_mainLoop._selector = _selector;
+    		for (int i = 0; i < _ioLoops.length; i++) {
+    		    _ioLoops[i]._thread = new Thread(_ioLoops[i], _name + "-Selector-" + i);
+    		    _ioLoops[i]._thread.start();
+    		}
     		_isStartup = true;
     		_thread.notifyAll();
     	}
     	
         while (_isRunning) {
-            try {
-                _selector.select();
-
-                // Someone is ready for I/O, get the ready keys
-                Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
-                
-                s_logger.trace("Keys Done Processing.");
-
-                processTodos();
-            } catch (Throwable e) {
-                s_logger.warn("Caught an exception but continuing on.", e);
-            }
+            _mainLoop.select();
         }
     	synchronized(_thread) {
     	    _isStartup = false;
@@ -177,50 +180,123 @@ public abstract class NioConnection implements Runnable {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel)key.channel();
 
         SocketChannel socketChannel = serverSocketChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
         Socket socket = socketChannel.socket();
         socket.setKeepAlive(true);
 
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Connection accepted for " + socket);
         }
-        
-        // Begin SSL handshake in BLOCKING mode
-        socketChannel.configureBlocking(true);
 
-        SSLEngine sslEngine = null;
+        // The links are spread over the I/O selectors, which then drive the handshake.  So the agents reconnecting
+        // at once, or a stalled one, don't hold up the other links while they handshake.
+        if (_ioLoops.length == 0) {
+            startHandshake(_mainLoop, socketChannel);
+        } else {
+            SelectorLoop loop = _ioLoops[(socket.getRemoteSocketAddress().hashCode() & Integer.MAX_VALUE) % _ioLoops.length];
+            loop.addTodo(new ChangeRequest(socketChannel, ChangeRequest.ACCEPT, SelectionKey.OP_READ, null));
+        }
+    }
+
+    protected void startHandshake(SelectorLoop loop, SocketChannel socketChannel) {
+        Socket socket = socketChannel.socket();
+        SSLHandshake handshake = null;
         try {
-            SSLContext sslContext = Link.initSSLContext(false);
-            sslEngine = sslContext.createSSLEngine();
+            socketChannel.configureBlocking(false);
+
+            SSLEngine sslEngine = getServerSSLContext().createSSLEngine();
             sslEngine.setUseClientMode(false);
             sslEngine.setNeedClientAuth(false);
 
-            Link.doHandshake(socketChannel, sslEngine, false);
-
+            handshake = new SSLHandshake(socketChannel, sslEngine, HANDSHAKE_TIMEOUT);
+            socketChannel.register(loop._selector, SelectionKey.OP_READ, handshake);
         } catch (Exception e) {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Socket " + socket + " closed on read.  Probably -1 returned: " + e.getMessage());
             }
-            try {
-                socketChannel.close();
-                socket.close();
-            } catch (IOException ignore) {
+            closeChannel(socketChannel);
+            return;
+        }
+        loop._handshakes.add(handshake);
+    }
+
+    protected synchronized SSLContext getServerSSLContext() throws Exception {
+        if (_serverSslContext == null) {
+            _serverSslContext = Link.initSSLContext(false);
+        }
+        return _serverSslContext;
+    }
+
+    protected void closeChannel(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+            socketChannel.socket().close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    protected void handshake(final SelectionKey key) {
+        final SSLHandshake handshake = (SSLHandshake)key.attachment();
+        SocketChannel socketChannel = handshake.getChannel();
+        SSLHandshake.Status status;
+        try {
+            status = handshake.step();
+        } catch (Exception e) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Socket " + socketChannel.socket() + " closed on read.  Probably -1 returned: " + e.getMessage());
             }
+            cancelHandshake(key, handshake);
             return;
         }
-        
-        if (s_logger.isTraceEnabled()) {
-            s_logger.trace("SSL: Handshake done");
+
+        switch (status) {
+            case NEED_READ :
+                key.interestOps(SelectionKey.OP_READ);
+                break;
+            case NEED_WRITE :
+                key.interestOps(SelectionKey.OP_WRITE);
+                break;
+            case NEED_TASK :
+                // the key material is worked out by a worker, and the handshake carries on once it's done
+                key.interestOps(0);
+                try {
+                    _sslHandshakeExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handshake.runDelegatedTasks();
+                            loopFor(key.selector()).addTodo(new ChangeRequest(key, ChangeRequest.HANDSHAKE, 0, handshake));
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    cancelHandshake(key, handshake);
+                }
+                break;
+            case FINISHED :
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("SSL: Handshake done");
+                }
+                loopFor(key.selector())._handshakes.remove(handshake);
+                InetSocketAddress saddr = (InetSocketAddress)socketChannel.socket().getRemoteSocketAddress();
+                Link link = new Link(saddr, this);
+                link.setSSLEngine(handshake.getSSLEngine());
+                key.attach(link);
+                link.setKey(key);
+                key.interestOps(SelectionKey.OP_READ);
+                Task task = _factory.create(Task.Type.CONNECT, link, null);
+                registerLink(saddr, link);
+                _executor.execute(task);
+                break;
         }
-        socketChannel.configureBlocking(false);
-        InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
-        Link link = new Link(saddr, this);
-        link.setSSLEngine(sslEngine);
-        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
-        Task task = _factory.create(Task.Type.CONNECT, link, null);
-        registerLink(saddr, link);
-        _executor.execute(task);
     }
-    
+
+    protected void cancelHandshake(SelectionKey key, SSLHandshake handshake) {
+        loopFor(key.selector())._handshakes.remove(handshake);
+        key.cancel();
+        closeChannel(handshake.getChannel());
+    }
+
     protected void terminate(SelectionKey key) {
         Link link = (Link)key.attachment();
         closeConnection(key);
@@ -282,77 +358,6 @@ public abstract class NioConnection implements Runnable {
         }
     }
     
-    protected void processTodos() {
-        List<ChangeRequest> todos;
-        if (_todos.size() == 0) {
-            return;             // Nothing to do.
-        }
-        
-        synchronized (this) {
-            todos = _todos;
-            _todos = new ArrayList<ChangeRequest>();
-        }
-
-        if (s_logger.isTraceEnabled()) {
-            s_logger.trace("Todos Processing: " + todos.size());
-        }
-        SelectionKey key;
-        for (ChangeRequest todo : todos) {
-            switch (todo.type) {
-                case ChangeRequest.CHANGEOPS :
-                    try {
-                        key = (SelectionKey)todo.key;
-                        if (key != null && key.isValid()) {
-                            if (todo.att != null) {
-                                key.attach(todo.att);
-                                Link link = (Link)todo.att;
-                                link.setKey(key);
-                            }
-                            key.interestOps(todo.ops);
-                        }
-                    } catch (CancelledKeyException e) {
-                        s_logger.debug("key has been cancelled");
-                    }
-                    break;
-                case ChangeRequest.REGISTER :
-                    try {
-                        key = ((SocketChannel)(todo.key)).register(_selector, todo.ops, todo.att);
-                        if (todo.att != null) {
-                            Link link = (Link)todo.att;
-                            link.setKey(key);
-                        }
-                    } catch (ClosedChannelException e) {
-                        s_logger.warn("Couldn't register socket: " + todo.key);
-                        try {
-                            ((SocketChannel)(todo.key)).close();
-                        } catch (IOException ignore) {
-                        } finally {
-                            Link link = (Link)todo.att;
-                            link.terminated();
-                        }
-                    }
-                    break;
-                case ChangeRequest.CLOSE :
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("Trying to close " + todo.key);
-                    }
-                    key = (SelectionKey)todo.key;
-                    closeConnection(key);
-                    if (key != null) {
-                        Link link = (Link)key.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        }
-                    }
-                    break;
-                default :
-                    s_logger.warn("Shouldn't be here");
-                    throw new RuntimeException("Shouldn't be here");
-            }
-        }
-        s_logger.trace("Todos Done processing");
-    }
-
     protected void connect(SelectionKey key) throws IOException {
         SocketChannel socketChannel = (SocketChannel)key.channel();
 
@@ -417,27 +422,15 @@ public abstract class NioConnection implements Runnable {
     }
 
     public void register(int ops, SocketChannel key, Object att) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.REGISTER, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        _mainLoop.addTodo(new ChangeRequest(key, ChangeRequest.REGISTER, ops, att));
     }
 
     public void change(int ops, SelectionKey key, Object att) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        loopFor(key.selector()).addTodo(new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att));
     }
 
     public void close(SelectionKey key) {
-        ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        loopFor(key.selector()).addTodo(new ChangeRequest(key, ChangeRequest.CLOSE, 0, null));
     }
 
     /* Release the resource used by the instance */
@@ -445,12 +438,214 @@ public abstract class NioConnection implements Runnable {
        if (_selector != null) {
            _selector.close();
        }
+       for (SelectorLoop loop : _ioLoops) {
+           if (loop._selector != null) {
+               loop._selector.close();
+           }
+       }
+    }
+
+    /**
+     * @return the loop running the given selector.
+     */
+    protected SelectorLoop loopFor(Selector selector) {
+        for (SelectorLoop loop : _ioLoops) {
+            if (loop._selector == selector) {
+                return loop;
+            }
+        }
+        return _mainLoop;
+    }
+
+    /**
+     * A selector with the changes to be made to its keys, and the handshakes it drives.
+     */
+    public class SelectorLoop implements Runnable {
+        protected Selector _selector;
+        protected Thread _thread;
+        protected List<ChangeRequest> _todos = new ArrayList<ChangeRequest>();
+        protected final Set<SSLHandshake> _handshakes = new HashSet<SSLHandshake>();
+
+        public void addTodo(ChangeRequest todo) {
+            synchronized (this) {
+                _todos.add(todo);
+            }
+            if (_selector != null) {
+                _selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (_isRunning) {
+                select();
+            }
+        }
+
+        protected void select() {
+            try {
+                if (_handshakes.isEmpty()) {
+                    _selector.select();
+                } else {
+                    _selector.select(1000);
+                }
+
+                // Someone is ready for I/O, get the ready keys
+                Set<SelectionKey> readyKeys = _selector.selectedKeys();
+                Iterator<SelectionKey> i = readyKeys.iterator();
+
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Keys Processing: " + readyKeys.size());
+                }
+                // Walk through the ready keys collection.
+                while (i.hasNext()) {
+                    SelectionKey sk = i.next();
+                    i.remove();
+
+                    if (sk.isValid() && sk.attachment() instanceof SSLHandshake) {
+                        handshake(sk);
+                    } else if (!sk.isValid()) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("Selection Key is invalid: " + sk.toString());
+                        }
+                        Object att = sk.attachment();
+                        if (att instanceof Link) {
+                            ((Link)att).terminated();
+                        } else {
+                            closeConnection(sk);
+                        }
+                    } else if (sk.isReadable()) {
+                        read(sk);
+                    } else if (sk.isWritable()) {
+                        write(sk);
+                    } else if (sk.isAcceptable()) {
+                        accept(sk);
+                    } else if (sk.isConnectable()) {
+                        connect(sk);
+                    }
+                }
+            
+                s_logger.trace("Keys Done Processing.");
+
+                processTodos();
+
+                if (!_handshakes.isEmpty()) {
+                    expireHandshakes();
+                }
+            } catch (Throwable e) {
+                s_logger.warn("Caught an exception but continuing on.", e);
+            }
+        }
+
+        protected void processTodos() {
+            List<ChangeRequest> todos;
+            if (_todos.size() == 0) {
+                return;             // Nothing to do.
+            }
+        
+            synchronized (this) {
+                todos = _todos;
+                _todos = new ArrayList<ChangeRequest>();
+            }
+
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Todos Processing: " + todos.size());
+            }
+            SelectionKey key;
+            for (ChangeRequest todo : todos) {
+                switch (todo.type) {
+                    case ChangeRequest.CHANGEOPS :
+                        try {
+                            key = (SelectionKey)todo.key;
+                            if (key != null && key.isValid()) {
+                                if (todo.att != null) {
+                                    key.attach(todo.att);
+                                    Link link = (Link)todo.att;
+                                    link.setKey(key);
+                                }
+                                key.interestOps(todo.ops);
+                            }
+                        } catch (CancelledKeyException e) {
+                            s_logger.debug("key has been cancelled");
+                        }
+                        break;
+                    case ChangeRequest.REGISTER :
+                        try {
+                            key = ((SocketChannel)(todo.key)).register(_selector, todo.ops, todo.att);
+                            if (todo.att != null) {
+                                Link link = (Link)todo.att;
+                                link.setKey(key);
+                            }
+                        } catch (ClosedChannelException e) {
+                            s_logger.warn("Couldn't register socket: " + todo.key);
+                            try {
+                                ((SocketChannel)(todo.key)).close();
+                            } catch (IOException ignore) {
+                            } finally {
+                                Link link = (Link)todo.att;
+                                link.terminated();
+                            }
+                        }
+                        break;
+                    case ChangeRequest.ACCEPT :
+                        startHandshake(this, (SocketChannel)todo.key);
+                        break;
+                    case ChangeRequest.HANDSHAKE :
+                        key = (SelectionKey)todo.key;
+                        if (key.isValid()) {
+                            handshake(key);
+                        }
+                        break;
+                    case ChangeRequest.CLOSE :
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("Trying to close " + todo.key);
+                        }
+                        key = (SelectionKey)todo.key;
+                        closeConnection(key);
+                        if (key != null) {
+                            Link link = (Link)key.attachment();
+                            if (link != null) {
+                                link.terminated();
+                            }
+                        }
+                        break;
+                    default :
+                        s_logger.warn("Shouldn't be here");
+                        throw new RuntimeException("Shouldn't be here");
+                }
+            }
+            s_logger.trace("Todos Done processing");
+        }
+
+        /**
+         * Drops the peers which connected but didn't complete the handshake in time.
+         */
+        protected void expireHandshakes() {
+            long now = System.currentTimeMillis();
+            Iterator<SSLHandshake> it = _handshakes.iterator();
+            while (it.hasNext()) {
+                SSLHandshake handshake = it.next();
+                if (handshake.isExpired(now)) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Handshake timed out for " + handshake.getChannel().socket());
+                    }
+                    it.remove();
+                    SelectionKey key = handshake.getChannel().keyFor(_selector);
+                    if (key != null) {
+                        key.cancel();
+                    }
+                    closeChannel(handshake.getChannel());
+                }
+            }
+        }
     }
 
     public class ChangeRequest {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int HANDSHAKE = 4;
+        public static final int ACCEPT = 5;
 
         public Object key;
         public int type;
@@ -54,13 +54,14 @@ public class NioServer extends NioConnection {
         s_logger.info("NioConnection started and listening on " + _localAddr.toString());
     }
     
+    // the links are registered by every I/O selector
     @Override
-    protected void registerLink(InetSocketAddress addr, Link link) {
+    protected synchronized void registerLink(InetSocketAddress addr, Link link) {
         _links.put(addr, link);
     }
 
     @Override
-    protected void unregisterLink(InetSocketAddress saddr) {
+    protected synchronized void unregisterLink(InetSocketAddress saddr) {
         _links.remove(saddr);
     }
     
@@ -74,7 +75,10 @@ public class NioServer extends NioConnection {
      * @return null if not sent.  attach object in link if sent.
      */
     public Object send(InetSocketAddress saddr, byte[] data) throws ClosedChannelException {
-        Link link = _links.get(saddr);
+        Link link;
+        synchronized (this) {
+            link = _links.get(saddr);
+        }
         if (link == null) {
             return null;
         }
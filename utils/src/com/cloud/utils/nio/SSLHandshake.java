@@ -0,0 +1,168 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Non-blocking server side SSL handshake of an accepted connection, driven by the selector.
+ *
+ * Every call to step() goes as far as it can without blocking and then tells the selector what it waits for:
+ * reading the next record, writing the rest of the last one, or the delegated tasks of the SSLEngine,
+ * which are run by a worker thread since they are the expensive part of the handshake.
+ *
+ * The records are read one at a time, so that nothing the peer sends after the handshake is consumed here;
+ * the link reads it with its own framing.
+ */
+public class SSLHandshake {
+    private static final Logger s_logger = Logger.getLogger(SSLHandshake.class);
+
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    public enum Status {
+        NEED_READ, NEED_WRITE, NEED_TASK, FINISHED
+    }
+
+    private final SocketChannel _channel;
+    private final SSLEngine _sslEngine;
+    private final long _deadline;
+    private final ByteBuffer _netIn;
+    private final ByteBuffer _netOut;
+    private final ByteBuffer _appIn;
+
+    public SSLHandshake(SocketChannel channel, SSLEngine sslEngine, long timeout) throws IOException {
+        _channel = channel;
+        _sslEngine = sslEngine;
+        _deadline = System.currentTimeMillis() + timeout;
+
+        SSLSession sslSession = sslEngine.getSession();
+        _netIn = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        _netOut = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        _netOut.flip();
+        _appIn = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
+
+        sslEngine.beginHandshake();
+    }
+
+    public SocketChannel getChannel() {
+        return _channel;
+    }
+
+    public SSLEngine getSSLEngine() {
+        return _sslEngine;
+    }
+
+    public boolean isExpired(long now) {
+        return now > _deadline;
+    }
+
+    /**
+     * Runs the delegated tasks of the engine.  Called by a worker thread when step() returned NEED_TASK.
+     */
+    public void runDelegatedTasks() {
+        Runnable run;
+        while ((run = _sslEngine.getDelegatedTask()) != null) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("SSL: Running delegated task!");
+            }
+            run.run();
+        }
+    }
+
+    public Status step() throws IOException {
+        while (true) {
+            // what was wrapped last goes out first
+            if (_netOut.hasRemaining()) {
+                _channel.write(_netOut);
+                if (_netOut.hasRemaining()) {
+                    return Status.NEED_WRITE;
+                }
+            }
+
+            HandshakeStatus hsStatus = _sslEngine.getHandshakeStatus();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("SSL: Handshake status " + hsStatus);
+            }
+
+            SSLEngineResult engResult;
+            switch (hsStatus) {
+            case NEED_UNWRAP:
+                if (!readRecord()) {
+                    return Status.NEED_READ;
+                }
+                _netIn.flip();
+                _appIn.clear();
+                engResult = _sslEngine.unwrap(_netIn, _appIn);
+                _netIn.compact();
+                break;
+            case NEED_WRAP:
+                _netOut.clear();
+                engResult = _sslEngine.wrap(EMPTY, _netOut);
+                _netOut.flip();
+                break;
+            case NEED_TASK:
+                return Status.NEED_TASK;
+            default:
+                // the engine reports FINISHED only in the result of the last wrap or unwrap
+                return Status.FINISHED;
+            }
+
+            if (engResult.getStatus() != SSLEngineResult.Status.OK) {
+                throw new IOException("Fail to handshake! " + engResult.getStatus());
+            }
+            if (engResult.getHandshakeStatus() == HandshakeStatus.FINISHED && !_netOut.hasRemaining()) {
+                return Status.FINISHED;
+            }
+        }
+    }
+
+    /**
+     * Reads up to the end of the next SSL record, and no further.
+     * @return true if a whole record is in the buffer.
+     */
+    private boolean readRecord() throws IOException {
+        if (_netIn.position() < RECORD_HEADER_SIZE) {
+            _netIn.limit(RECORD_HEADER_SIZE);
+            if (_channel.read(_netIn) == -1) {
+                throw new IOException("Connection closed with -1 on reading size.");
+            }
+            if (_netIn.position() < RECORD_HEADER_SIZE) {
+                return false;
+            }
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + (((_netIn.get(3) & 0xff) << 8) | (_netIn.get(4) & 0xff));
+        if (recordSize > _netIn.capacity()) {
+            throw new IOException("Wrong SSL record size: " + recordSize);
+        }
+        _netIn.limit(recordSize);
+        if (_netIn.hasRemaining() && _channel.read(_netIn) == -1) {
+            throw new IOException("Connection closed with -1 on read.");
+        }
+        return !_netIn.hasRemaining();
+    }
+}
@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.testcase;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+import com.cloud.utils.nio.Task.Type;
+
+/**
+ * Reconnects many agents at once, as after a management server restart, and measures the time until the server
+ * has connected all of them. A few stalled peers which never handshake must not hold the others back.
+ *
+ * -Dnio.storm.agents=2000 -Dnio.storm.stalled=10 -Dnio.storm.selectors=4
+ */
+public class NioReconnectStormTest {
+    private static final Logger s_logger = Logger.getLogger(NioReconnectStormTest.class);
+    private static final int PORT = 7778;
+
+    private final int _agents = NumbersUtil.parseInt(System.getProperty("nio.storm.agents"), 500);
+    private final int _stalled = NumbersUtil.parseInt(System.getProperty("nio.storm.stalled"), 5);
+    private final int _selectors = NumbersUtil.parseInt(System.getProperty("nio.storm.selectors"), 4);
+
+    private NioServer _server;
+    private CountDownLatch _connected;
+    private final List<SocketChannel> _channels = new ArrayList<SocketChannel>();
+
+    @Before
+    public void setUp() {
+        _connected = new CountDownLatch(_agents);
+        _server = new NioServer("NioStormServer", PORT, 5, new HandlerFactory() {
+            @Override
+            public Task create(Type type, Link link, byte[] data) {
+                return new Task(type, link, data) {
+                    @Override
+                    protected void doTask(Task task) {
+                        if (task.getType() == Task.Type.CONNECT) {
+                            _connected.countDown();
+                        }
+                    }
+                };
+            }
+        });
+        _server.setIoSelectors(_selectors);
+        _server.start();
+    }
+
+    @After
+    public void tearDown() {
+        synchronized (_channels) {
+            for (SocketChannel ch : _channels) {
+                try {
+                    ch.close();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+        _server.stop();
+    }
+
+    @Test
+    public void testReconnectStorm() throws Exception {
+        final InetSocketAddress addr = new InetSocketAddress("127.0.0.1", PORT);
+        final SSLContext sslContext = Link.initSSLContext(true);
+
+        // peers which connect but never say hello, each one used to hold the selector for the handshake timeout
+        for (int i = 0; i < _stalled; i++) {
+            track(SocketChannel.open(addr));
+        }
+
+        ExecutorService agents = Executors.newFixedThreadPool(Math.min(_agents, 200));
+        long started = System.currentTimeMillis();
+        for (int i = 0; i < _agents; i++) {
+            agents.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SocketChannel ch = track(SocketChannel.open(addr));
+                        SSLEngine sslEngine = sslContext.createSSLEngine("127.0.0.1", PORT);
+                        sslEngine.setUseClientMode(true);
+                        Link.doHandshake(ch, sslEngine, true);
+                    } catch (Exception e) {
+                        s_logger.warn("Agent failed to connect", e);
+                    }
+                }
+            });
+        }
+
+        boolean done = _connected.await(120, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - started;
+        // the agents finish their side of the handshake right after the server
+        agents.shutdown();
+        agents.awaitTermination(30, TimeUnit.SECONDS);
+
+        s_logger.info("Connected " + (_agents - _connected.getCount()) + "/" + _agents + " agents with " + _stalled + " stalled peers on " + _selectors + " selectors in " + elapsed + " ms");
+        Assert.assertTrue("Only " + (_agents - _connected.getCount()) + " of " + _agents + " agents connected", done);
+    }
+
+    private SocketChannel track(SocketChannel ch) {
+        synchronized (_channels) {
+            _channels.add(ch);
+        }
+        return ch;
+    }
+}